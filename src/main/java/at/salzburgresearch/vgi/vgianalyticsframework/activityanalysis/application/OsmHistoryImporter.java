@@ -15,6 +15,7 @@ limitations under the License.
 
 package at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.application;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -34,6 +35,7 @@ import org.springframework.context.support.ClassPathXmlApplicationContext;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.pipeline.IVgiPipelineSettings;
 import at.salzburgresearch.vgi.vgianalyticsframework.osm.importer.OsmDataConsumer;
 import at.salzburgresearch.vgi.vgianalyticsframework.osm.importer.impl.OsmPbfParser;
+import at.salzburgresearch.vgi.vgianalyticsframework.osm.importer.impl.ParallelBlockInputStream;
 import at.salzburgresearch.vgi.vgianalyticsframework.osm.importer.impl.VgiOperationGeneratorDataHandlerImpl;
 
 /**
@@ -55,6 +57,7 @@ public class OsmHistoryImporter {
 		options.addOption(Option.builder("p").longOpt("polygons").hasArg().argName("polygon_file").desc("polygon file").build());
 		/** OSM History importer */
 		options.addOption(Option.builder("o").longOpt("osm").hasArg().argName("osm_history_file").desc("osm history file").build());
+		options.addOption(Option.builder("t").longOpt("threads").hasArg().argName("num_threads").desc("number of threads which parse the osm history file").build());
 		
 		launch(options, args);
 	}
@@ -68,6 +71,7 @@ public class OsmHistoryImporter {
             
             File osmHistoryFile = null;
             File settingsFile = null;
+            int numThreads = 1;
 
             if (cmd.hasOption('h')) {
                 HelpFormatter helpFormatter = new HelpFormatter();
@@ -97,17 +101,30 @@ public class OsmHistoryImporter {
                 settingsFile = null;
             }
 			
+            if (cmd.hasOption('t')) {
+            	try {
+            		numThreads = Integer.parseInt(cmd.getOptionValue('t'));
+            	} catch (NumberFormatException e) {
+            		log.warn("Cannot parse option 'threads' (data type: Integer)");
+            	}
+            }
+			
 			IVgiPipelineSettings settings = ((IVgiPipelineSettings)ctx.getBean("vgiPipelineSettings"));
 			if (!settings.loadSettings(settingsFile)) {
 				System.exit(1);
 			}
 			
 			InputStream input = new FileInputStream(osmHistoryFile);
-			OsmPbfParser osmParser = new OsmPbfParser();
 
 			OsmDataConsumer osmDataConsumer = ((VgiOperationGeneratorDataHandlerImpl)ctx.getBean("vgiOperationGeneratorDataHandler"));
-			osmParser.setSink(osmDataConsumer);
-			new BlockInputStream(input, osmParser).process();
+			if (numThreads > 1) {
+				/** Blobs are decompressed and parsed in parallel; elements are processed in file order */
+				new ParallelBlockInputStream(new BufferedInputStream(input, 1024*1024), osmDataConsumer, numThreads).process();
+			} else {
+				OsmPbfParser osmParser = new OsmPbfParser();
+				osmParser.setSink(osmDataConsumer);
+				new BlockInputStream(input, osmParser).process();
+			}
 			
 			log.info("importer done");
 
@@ -29,6 +29,8 @@ import org.apache.commons.cli.Options;
 import org.apache.logging.log4j.Logger;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.Polygon;
 import com.vividsolutions.jts.io.ParseException;
 import com.vividsolutions.jts.io.WKTReader;
@@ -36,12 +38,14 @@ import com.vividsolutions.jts.io.WKTReader;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiPolygon;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.pipeline.IVgiPipeline;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.pipeline.IVgiPipelineSettings;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.pipeline.consumer.impl.VgiAnalysisConsumer;
 
 /**
  * Main class to launch VGI analysis<br>
  * <br>
  * -s path to settings XML file<br>
- * -p path to polygon CSV file
+ * -p path to polygon CSV file<br>
+ * -m analyze all polygons in a single pass
  *
  */
 public class VgiAnalysis {
@@ -56,6 +60,7 @@ public class VgiAnalysis {
 		/** Settings */
 		options.addOption(Option.builder("s").longOpt("settings").hasArg().argName("settings_file").desc("settings file").build());
 		options.addOption(Option.builder("p").longOpt("polygons").hasArg().argName("polygon_file").desc("polygon file").build());
+		options.addOption(Option.builder("m").longOpt("single-pass").desc("analyze all polygons in a single pass").build());
 		
 		launch(options, args);
 	}
@@ -107,6 +112,8 @@ public class VgiAnalysis {
 			if (!settings.loadSettings(settingsFile)) {
 				System.exit(1);
 			}
+			/** Cached quadrants of previous runs are not reused */
+			settings.getCache().clear();
 
 			if (batchProcessing) {
             	if (settings.getFilterPolygonList() == null) {
@@ -139,7 +146,22 @@ public class VgiAnalysis {
 			if (settings.getFilterPolygonList() == null) {
 				pipeline.start();
 				
+			} else if (cmd.hasOption('m') && ctx.getBean("vgiAnalysisConsumer", VgiAnalysisConsumer.class).isSinglePassPolygonAnalysisSupported()) {
+				log.info(settings.getFilterPolygonList().size() + " filter polygons found!");
+				/** Read the extent of all polygons once; features are assigned to the polygons by the analysis consumer */
+				Envelope extent = new Envelope();
+				for (VgiPolygon polygon : settings.getFilterPolygonList()) {
+					extent.expandToInclude(polygon.getPolygon().getEnvelopeInternal());
+				}
+				Polygon extentPolygon = (Polygon)new GeometryFactory().toGeometry(extent);
+				extentPolygon.setSRID(4326);
+				settings.setCurrentPolygon(new VgiPolygon(extentPolygon, "extent"));
+				settings.setSinglePassPolygonAnalysis(true);
+				log.info("Start single pass analysis...");
+				pipeline.start();
+				
 			} else {
+				if (cmd.hasOption('m')) log.warn("Single pass analysis is not supported by the selected analyses");
 				log.info(settings.getFilterPolygonList().size() + " filter polygons found!");
 				for (VgiPolygon polygon : settings.getFilterPolygonList()) {
 					settings.setCurrentPolygon(polygon);
@@ -21,8 +21,11 @@ public class VgiAnalyticsFramework {
 		/** Settings */
 		options.addOption(Option.builder("s").longOpt("settings").hasArg().argName("settings_file").desc("settings file").build());
 		options.addOption(Option.builder("p").longOpt("polygons").hasArg().argName("polygon_file").desc("polygon file").build());
+		/** VGI analysis */
+		options.addOption(Option.builder("m").longOpt("single-pass").desc("analyze all polygons in a single pass").build());
 		/** OSM History importer */
 		options.addOption(Option.builder("o").longOpt("osm").hasArg().argName("osm_history_file").desc("osm history file").build());
+		options.addOption(Option.builder("t").longOpt("threads").hasArg().argName("num_threads").desc("number of threads which parse the osm history file").build());
 		/** Hexagon builder */
 		options.addOption(Option.builder("d").longOpt("directory").hasArg().argName("home_directory_file").desc("home directory file").build());
 		options.addOption(Option.builder("no").longOpt("north").hasArg().argName("north_bound").desc("north bound").build());
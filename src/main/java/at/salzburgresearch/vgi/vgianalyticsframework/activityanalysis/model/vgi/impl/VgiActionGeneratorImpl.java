@@ -18,8 +18,10 @@ package at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.logging.log4j.Logger;
 import org.geotools.geometry.jts.Geometries;
@@ -39,6 +41,7 @@ import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiActionImpl.ActionType;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.pipeline.IVgiPipelineSettings;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.pipeline.consumer.impl.FeatureBuilderConsumer;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.pipeline.consumer.impl.FeatureGeometryState;
 
 /**
  * Aggregates VGI operations to VGI actions
@@ -58,6 +61,10 @@ public class VgiActionGeneratorImpl implements IVgiActionGenerator {
 	private List<IVgiFeatureType> previousFeatureType = null;
 	
 	private IVgiFeature featureToAssemble = null;
+	/** Geometry of featureToAssemble; advanced after each operation group */
+	private FeatureGeometryState geometryState = null;
+	/** Operations of featureToAssemble */
+	private Set<IVgiOperation> operationsToAssemble = null;
 	
 	/** Constructor */
 	public VgiActionGeneratorImpl(IVgiModelFactory actionFactory, IVgiPipelineSettings settings, FeatureBuilderConsumer geometryAssemblerConsumer) {
@@ -85,6 +92,8 @@ public class VgiActionGeneratorImpl implements IVgiActionGenerator {
 		featureToAssemble = new VgiFeatureImpl();
 		featureToAssemble.setOid(feature.getOid());
 		featureToAssemble.setVgiGeometryType(feature.getVgiGeometryType());
+		geometryState = geometryAssemblerConsumer.newGeometryState(feature.getOid());
+		operationsToAssemble = new HashSet<IVgiOperation>();
 		
 		/** Sort operations in this group by hierarchy level */
 		Collections.sort(feature.getOperationList(), VgiOperationImpl.getVersionComparator());
@@ -110,7 +119,7 @@ public class VgiActionGeneratorImpl implements IVgiActionGenerator {
 				if (diff > settings.getActionTimeBuffer()) break;
 				
 				/** Add operation of all users to featureToAssemble object which will be used to built a SimpleFeature object later */
-				if (!featureToAssemble.getOperationList().contains(operation)) featureToAssemble.getOperationList().add(operation);
+				if (operationsToAssemble.add(operation)) featureToAssemble.getOperationList().add(operation);
 				
 				/** only add operations of same user to the group */
 				if (!operationGroup.isEmpty() && operation.getUid() != previousUId) continue;					
@@ -161,7 +170,9 @@ public class VgiActionGeneratorImpl implements IVgiActionGenerator {
 	 */
 	private void aggregate(List<IVgiAction> actionList, List<IVgiOperation> operationGroup, ActionType actionType, IVgiFeatureType featureType) {
 		
-		SimpleFeature feature = geometryAssemblerConsumer.assembleGeometry(featureToAssemble, featureType);
+		/** featureToAssemble only grows by operations which follow its (version sorted) operations */
+		geometryState.advance(featureToAssemble.getOperationList());
+		SimpleFeature feature = geometryAssemblerConsumer.assembleGeometry(featureToAssemble.getOid(), geometryState, featureType);
 		/** Geometries without nodes (due to license change) cannot be assembled */
 		if (feature == null) return;
 		
@@ -297,41 +308,10 @@ public class VgiActionGeneratorImpl implements IVgiActionGenerator {
 	 * @return List of feature types
 	 */
 	private List<IVgiFeatureType> determineFeatureTypes(List<IVgiOperation> operationGroup) {
-		List<IVgiFeatureType> featureTypes = new ArrayList<IVgiFeatureType>();
-			
 		refreshCurrentTagList(operationGroup);
 		
 		/** (2) Determine feature type based on tag filter */
-		for (String tagKey : currentFeatureTags.keySet()) {
-			
-			for (String featureTypeName : settings.getFeatureTypeList().keySet()) {
-				IVgiFeatureType featureType = settings.getFeatureTypeList().get(featureTypeName);
-				
-				if (featureType.getFeatureTypeTagsInclude().containsKey(tagKey)) {
-					
-					if (featureType.getFeatureTypeTagsInclude().get(tagKey).size() == 0) {
-						/** (2a) Only tag key is used for feature type */
-						if (featureType.getFeatureTypeTagsExclude().containsKey(tagKey)) {
-							if (featureType.getFeatureTypeTagsExclude().get(tagKey).contains(currentFeatureTags.get(tagKey))) {
-								continue;
-							}
-						}
-						if (!featureTypes.contains(featureType)) featureTypes.add(featureType);
-						
-					} else if (featureType.getFeatureTypeTagsInclude().get(tagKey).size() == 1 && 
-							featureType.getFeatureTypeTagsInclude().get(tagKey).get(0).equals("_value")) {
-						/** (2b) All tag values are used for feature type */
-						if (!featureTypes.contains(featureType)) featureTypes.add(featureType);
-						
-					} else if (featureType.getFeatureTypeTagsInclude().get(tagKey).contains(currentFeatureTags.get(tagKey))) {
-						/** (2c) Selected tag values are used for feature type */
-						if (!featureTypes.contains(featureType)) featureTypes.add(featureType);
-					}
-				}
-			}
-		}
-		
-		return featureTypes;
+		return settings.getFeatureTypeClassifier().findFeatureTypes(currentFeatureTags);
 	}
 	
 	/**
@@ -0,0 +1,279 @@
+/** Copyright 2017, Simon Gröchenig, Salzburg Research Forschungsgesellschaft m.b.H.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * Column-oriented store for the operations of a batch. Every attribute is
+ * kept in a primitive array; tag keys and values are dictionary-encoded and
+ * coordinates are stored as fixed-point integers (like in the PBF files).
+ * Operations are accessed through VgiOperationView objects.
+ */
+public class VgiOperationBatch {
+
+	/** Timestamps are stored as seconds since 2005-01-01 00:00:00 */
+	private static final long TIMESTAMP_OFFSET = 1104537600l;
+	private static final int MAGIC_MULTIPLIER = 10000000;
+	/** Fixed-point value of a missing coordinate */
+	private static final int NO_COORDINATE = Integer.MIN_VALUE;
+
+	private static final VgiOperationType[] OPERATION_TYPES = VgiOperationType.values();
+	private static final VgiGeometryType[] GEOMETRY_TYPES = VgiGeometryType.values();
+
+	private int size = 0;
+
+	private long[] oid;
+	private byte[] geometryType;
+	private byte[] operationType;
+	private int[] uid;
+	private int[] timestamp;
+	private int[] changesetId;
+	private short[] version;
+	private long[] refId;
+	private int[] position;
+	private int[] longitude;
+	private int[] latitude;
+	private int[] key;
+	private int[] value;
+
+	/** Code of null keys and values */
+	private static final int NULL_CODE = -1;
+
+	private final VgiTagDictionary dictionary;
+	/** keys and values which are not in the dictionary */
+	private List<String> overflow = null;
+	/** code of the default key and value "" */
+	private final int emptyCode;
+
+	/** Constructor */
+	public VgiOperationBatch(int capacity) {
+		this(capacity, new VgiTagDictionary());
+	}
+
+	/** Constructor (the dictionary may be shared between batches) */
+	public VgiOperationBatch(int capacity, VgiTagDictionary dictionary) {
+		this.dictionary = dictionary;
+		this.emptyCode = encode("");
+		capacity = Math.max(capacity, 1);
+		oid = new long[capacity];
+		geometryType = new byte[capacity];
+		operationType = new byte[capacity];
+		uid = new int[capacity];
+		timestamp = new int[capacity];
+		changesetId = new int[capacity];
+		version = new short[capacity];
+		refId = new long[capacity];
+		position = new int[capacity];
+		longitude = new int[capacity];
+		latitude = new int[capacity];
+		key = new int[capacity];
+		value = new int[capacity];
+	}
+
+	/**
+	 * Appends an operation. Key, value, ref, position and coordinate get their
+	 * default values (see VgiOperationImpl) and can be set via the view.
+	 * @param timestampSeconds seconds since 1970-01-01
+	 * @return view of the new operation
+	 */
+	public VgiOperationView add(long oid, VgiGeometryType geometryType, VgiOperationType operationType, int uid, long timestampSeconds, int changesetId, short version) {
+		if (size == this.oid.length) resize(size * 2);
+		int i = size++;
+		this.oid[i] = oid;
+		this.geometryType[i] = (byte)geometryType.ordinal();
+		this.operationType[i] = (byte)operationType.ordinal();
+		this.uid[i] = uid;
+		this.timestamp[i] = (int)(timestampSeconds - TIMESTAMP_OFFSET);
+		this.changesetId[i] = changesetId;
+		this.version[i] = version;
+		this.refId[i] = -1;
+		this.position[i] = -1;
+		this.longitude[i] = NO_COORDINATE;
+		this.latitude[i] = NO_COORDINATE;
+		this.key[i] = emptyCode;
+		this.value[i] = emptyCode;
+		return new VgiOperationView(this, i);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/** Releases unused capacity (e.g. after filtered operations have been skipped) */
+	public void trimToSize() {
+		if (size < oid.length) resize(Math.max(size, 1));
+	}
+
+	private void resize(int capacity) {
+		oid = Arrays.copyOf(oid, capacity);
+		geometryType = Arrays.copyOf(geometryType, capacity);
+		operationType = Arrays.copyOf(operationType, capacity);
+		uid = Arrays.copyOf(uid, capacity);
+		timestamp = Arrays.copyOf(timestamp, capacity);
+		changesetId = Arrays.copyOf(changesetId, capacity);
+		version = Arrays.copyOf(version, capacity);
+		refId = Arrays.copyOf(refId, capacity);
+		position = Arrays.copyOf(position, capacity);
+		longitude = Arrays.copyOf(longitude, capacity);
+		latitude = Arrays.copyOf(latitude, capacity);
+		key = Arrays.copyOf(key, capacity);
+		value = Arrays.copyOf(value, capacity);
+	}
+
+	/** Converts a fixed-point coordinate value to degrees */
+	public static double toDegrees(int fixedPoint) {
+		return (double)fixedPoint / MAGIC_MULTIPLIER;
+	}
+
+	public VgiTagDictionary getDictionary() {
+		return dictionary;
+	}
+
+	long getOid(int i) {
+		return oid[i];
+	}
+	void setOid(int i, long oid) {
+		this.oid[i] = oid;
+	}
+
+	VgiGeometryType getVgiGeometryType(int i) {
+		return GEOMETRY_TYPES[geometryType[i]];
+	}
+	void setVgiGeometryType(int i, VgiGeometryType geometryType) {
+		this.geometryType[i] = (byte)geometryType.ordinal();
+	}
+
+	VgiOperationType getVgiOperationType(int i) {
+		return OPERATION_TYPES[operationType[i]];
+	}
+	void setVgiOperationType(int i, VgiOperationType operationType) {
+		this.operationType[i] = (byte)operationType.ordinal();
+	}
+
+	int getUid(int i) {
+		return uid[i];
+	}
+	void setUid(int i, int uid) {
+		this.uid[i] = uid;
+	}
+
+	/** @return seconds since 1970-01-01 */
+	long getTimestampSeconds(int i) {
+		return timestamp[i] + TIMESTAMP_OFFSET;
+	}
+	Date getTimestamp(int i) {
+		return new Date(getTimestampSeconds(i) * 1000);
+	}
+	void setTimestamp(int i, Date timestamp) {
+		this.timestamp[i] = (int)(timestamp.getTime() / 1000 - TIMESTAMP_OFFSET);
+	}
+
+	int getChangesetId(int i) {
+		return changesetId[i];
+	}
+	void setChangesetId(int i, int changesetId) {
+		this.changesetId[i] = changesetId;
+	}
+
+	short getVersion(int i) {
+		return version[i];
+	}
+	void setVersion(int i, short version) {
+		this.version[i] = version;
+	}
+
+	long getRefId(int i) {
+		return refId[i];
+	}
+	void setRefId(int i, long refId) {
+		this.refId[i] = refId;
+	}
+
+	int getPosition(int i) {
+		return position[i];
+	}
+	void setPosition(int i, int position) {
+		this.position[i] = position;
+	}
+
+	String getKey(int i) {
+		return decode(key[i]);
+	}
+	void setKey(int i, String key) {
+		this.key[i] = encode(key);
+	}
+
+	String getValue(int i) {
+		return decode(value[i]);
+	}
+	void setValue(int i, String value) {
+		this.value[i] = encode(value);
+	}
+
+	/**
+	 * Encodes a tag key or value. Codes >= 0 are dictionary codes; strings
+	 * which are not in the (full) dictionary are stored in this batch.
+	 */
+	private int encode(String string) {
+		if (string == null) return NULL_CODE;
+		int code = dictionary.getCode(string);
+		if (code != VgiTagDictionary.NO_CODE) return code;
+		synchronized (this) {
+			if (overflow == null) overflow = new ArrayList<String>();
+			overflow.add(string);
+			return NULL_CODE - overflow.size();
+		}
+	}
+
+	private String decode(int code) {
+		if (code >= 0) return dictionary.getString(code);
+		if (code == NULL_CODE) return null;
+		synchronized (this) {
+			return overflow.get(NULL_CODE - code - 1);
+		}
+	}
+
+	boolean hasCoordinate(int i) {
+		return longitude[i] != NO_COORDINATE;
+	}
+	int getLongitude(int i) {
+		return longitude[i];
+	}
+	int getLatitude(int i) {
+		return latitude[i];
+	}
+	Coordinate getCoordinate(int i) {
+		if (!hasCoordinate(i)) return null;
+		return new Coordinate(toDegrees(longitude[i]), toDegrees(latitude[i]));
+	}
+	void setCoordinate(int i, Coordinate coordinate) {
+		if (coordinate == null) {
+			setCoordinateFromInteger(i, NO_COORDINATE, NO_COORDINATE);
+		} else {
+			setCoordinateFromInteger(i, (int)Math.round(coordinate.x * MAGIC_MULTIPLIER), (int)Math.round(coordinate.y * MAGIC_MULTIPLIER));
+		}
+	}
+	void setCoordinateFromInteger(int i, int longitude, int latitude) {
+		this.longitude[i] = longitude;
+		this.latitude[i] = latitude;
+	}
+}
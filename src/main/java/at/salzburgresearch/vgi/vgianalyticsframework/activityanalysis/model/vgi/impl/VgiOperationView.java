@@ -0,0 +1,177 @@
+/** Copyright 2017, Simon Gröchenig, Salzburg Research Forschungsgesellschaft m.b.H.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl;
+
+import java.util.Date;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiOperation;
+
+/**
+ * Flyweight operation which reads and writes its attributes from/to a row of
+ * a VgiOperationBatch. Timestamp and coordinate objects are created on every
+ * call.
+ */
+public class VgiOperationView implements IVgiOperation {
+
+	private final VgiOperationBatch batch;
+	private final int index;
+
+	/** Constructor */
+	VgiOperationView(VgiOperationBatch batch, int index) {
+		this.batch = batch;
+		this.index = index;
+	}
+
+	@Override
+	public long getOid() {
+		return batch.getOid(index);
+	}
+	@Override
+	public void setOid(long oid) {
+		batch.setOid(index, oid);
+	}
+
+	@Override
+	public VgiGeometryType getVgiGeometryType() {
+		return batch.getVgiGeometryType(index);
+	}
+	@Override
+	public void setVgiGeometryType(VgiGeometryType vgiGeometryType) {
+		batch.setVgiGeometryType(index, vgiGeometryType);
+	}
+
+	@Override
+	public short getVersion() {
+		return batch.getVersion(index);
+	}
+	@Override
+	public void setVersion(short version) {
+		batch.setVersion(index, version);
+	}
+
+	@Override
+	public int getUid() {
+		return batch.getUid(index);
+	}
+	@Override
+	public void setUid(int uid) {
+		batch.setUid(index, uid);
+	}
+
+	/** Operations do not store user names */
+	@Override
+	public String getUser() {
+		return null;
+	}
+	@Override
+	public void setUser(String user) {
+		throw new UnsupportedOperationException("User names are not stored in operation batches");
+	}
+
+	@Override
+	public Date getTimestamp() {
+		return batch.getTimestamp(index);
+	}
+	@Override
+	public void setTimestamp(Date timestamp) {
+		batch.setTimestamp(index, timestamp);
+	}
+
+	@Override
+	public VgiOperationType getVgiOperationType() {
+		return batch.getVgiOperationType(index);
+	}
+	@Override
+	public void setVgiOperationType(VgiOperationType operationType) {
+		batch.setVgiOperationType(index, operationType);
+	}
+
+	@Override
+	public int getChangesetid() {
+		return batch.getChangesetId(index);
+	}
+	@Override
+	public void setChangesetid(int changesetid) {
+		batch.setChangesetId(index, changesetid);
+	}
+
+	@Override
+	public String getKey() {
+		return batch.getKey(index);
+	}
+	@Override
+	public void setKey(String key) {
+		batch.setKey(index, key);
+	}
+
+	@Override
+	public String getValue() {
+		return batch.getValue(index);
+	}
+	@Override
+	public void setValue(String value) {
+		batch.setValue(index, value);
+	}
+
+	@Override
+	public long getRefId() {
+		return batch.getRefId(index);
+	}
+	@Override
+	public void setRefId(long ref) {
+		batch.setRefId(index, ref);
+	}
+
+	@Override
+	public int getPosition() {
+		return batch.getPosition(index);
+	}
+	@Override
+	public void setPosition(int position) {
+		batch.setPosition(index, position);
+	}
+
+	@Override
+	public Coordinate getCoordinate() {
+		return batch.getCoordinate(index);
+	}
+	@Override
+	public void setCoordinate(Coordinate coordinate) {
+		batch.setCoordinate(index, coordinate);
+	}
+	@Override
+	public void setCoordinateFromInteger(int longitude, int latitude) {
+		batch.setCoordinateFromInteger(index, longitude, latitude);
+	}
+
+	@Override
+	public String getCoordinateWKT() {
+		Coordinate coordinate = getCoordinate();
+		return "POINT(" + coordinate.x + " " + coordinate.y + ")";
+	}
+
+	@Override
+	public int[] getCoordinateAsInteger() {
+		return new int[] {batch.getLongitude(index), batch.getLatitude(index)};
+	}
+
+	@Override
+	public String toString() {
+		return "Operation " + getVgiOperationType() + " (" + getVgiGeometryType() + "/" + getOid() + ")";
+	}
+}
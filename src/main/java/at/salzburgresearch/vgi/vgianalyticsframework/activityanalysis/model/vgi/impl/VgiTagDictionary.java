@@ -0,0 +1,99 @@
+/** Copyright 2017, Simon Gröchenig, Salzburg Research Forschungsgesellschaft m.b.H.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Intern table which encodes tag keys and values as int codes. The dictionary
+ * is shared by all threads of a pipeline run, so every string is stored only
+ * once and equal tags are identical String instances. The dictionary is
+ * bounded; if it is full, new strings are not added any more.
+ */
+public class VgiTagDictionary {
+
+	/** Code of strings which are not in the dictionary */
+	public static final int NO_CODE = -1;
+
+	private static final int DEFAULT_MAX_SIZE = 1 << 18;
+	private static final int PAGE_BITS = 12;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+	private final int maxSize;
+	private final ConcurrentHashMap<String, Integer> codes = new ConcurrentHashMap<String, Integer>(1024, 0.75f, 16);
+	/** strings stored in pages, so that existing pages never have to be copied */
+	private volatile String[][] pages = new String[16][];
+	private int size = 0;
+
+	/** Constructor */
+	public VgiTagDictionary() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	/** Constructor */
+	public VgiTagDictionary(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @return code of the string; the string is added if it is not yet in the
+	 * dictionary. NO_CODE if string is null or the dictionary is full
+	 */
+	public int getCode(String string) {
+		if (string == null) return NO_CODE;
+		Integer code = codes.get(string);
+		if (code != null) return code;
+		return add(string);
+	}
+
+	private synchronized int add(String string) {
+		Integer code = codes.get(string);
+		if (code != null) return code;
+		if (size >= maxSize) return NO_CODE;
+
+		int page = size >>> PAGE_BITS;
+		String[][] p = pages;
+		if (page == p.length) p = Arrays.copyOf(p, p.length * 2);
+		if (p[page] == null) p[page] = new String[PAGE_SIZE];
+		p[page][size & (PAGE_SIZE - 1)] = string;
+		pages = p;
+
+		codes.put(string, size);
+		return size++;
+	}
+
+	/**
+	 * @return string of the code or null if code is NO_CODE
+	 */
+	public String getString(int code) {
+		if (code == NO_CODE) return null;
+		return pages[code >>> PAGE_BITS][code & (PAGE_SIZE - 1)];
+	}
+
+	/**
+	 * @return the dictionary instance of the string (or the string itself if
+	 * the dictionary is full)
+	 */
+	public String intern(String string) {
+		int code = getCode(string);
+		return (code != NO_CODE) ? getString(code) : string;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+}
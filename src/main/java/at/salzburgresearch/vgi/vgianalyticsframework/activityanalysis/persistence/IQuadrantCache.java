@@ -0,0 +1,43 @@
+/** Copyright 2016, Simon Gröchenig, Salzburg Research Forschungsgesellschaft m.b.H.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence;
+
+import java.util.List;
+
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiFeature;
+
+/**
+ * Keeps the features of quadtree quadrants in memory, keyed by quadrant path
+ * and reader filter. The cache is shared by all producers and pipeline runs.
+ */
+public interface IQuadrantCache {
+	/** @return cached features of the quadrant or null */
+	List<IVgiFeature> get(String key);
+	
+	/** Adds the features of a quadrant; cold quadrants may be evicted */
+	void put(String key, List<IVgiFeature> features);
+	
+	/** Evicts the least recently used quadrants until the cache weight is <= weight */
+	void evict(long weight);
+	
+	void clear();
+	
+	/** @return estimated size of the cached features in bytes */
+	long getWeight();
+	
+	/** @return maximum size of the cached features in bytes */
+	long getMaxWeight();
+}
@@ -20,6 +20,7 @@ import java.util.List;
 import com.vividsolutions.jts.geom.Envelope;
 
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiFeature;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.impl.QuadrantStatistics;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.impl.QuadtreeImpl;
 
 public interface IQuadtree {
@@ -29,6 +30,9 @@ public interface IQuadtree {
 
 	void allocateFeatures(List<IVgiFeature> featureList);
 	
+	/** Creates the four sub-quadrants (features are not moved) */
+	void createSubQuadrants();
+	
 	List<IVgiFeature> getFeatureList();
 	void setFeatureList(List<IVgiFeature> featureList);
 
@@ -67,4 +71,6 @@ public interface IQuadtree {
 
 	void setFeatureCount(int featureCount);
 	int getFeatureCount();
+	
+	QuadrantStatistics getStatistics();
 }
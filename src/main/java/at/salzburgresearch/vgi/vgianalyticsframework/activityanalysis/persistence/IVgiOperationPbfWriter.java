@@ -29,6 +29,9 @@ public interface IVgiOperationPbfWriter {
 	void writePbfFeature(IVgiFeature feature);
 	void writePbfFeatures(List<IVgiFeature> featureBatch);
 
+	/** Completes pending writes and writes the file list, so that readers see all written features */
+	void flush();
+	
 	void terminatePbfWriter();
 	
 	void setMaxFileSize(int maxFileSize);
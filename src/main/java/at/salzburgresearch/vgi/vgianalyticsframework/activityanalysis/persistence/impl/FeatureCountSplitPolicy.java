@@ -0,0 +1,49 @@
+/** Copyright 2016, Simon Gröchenig, Salzburg Research Forschungsgesellschaft m.b.H.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.impl;
+
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.IQuadtreeSplitPolicy;
+
+/**
+ * Subdivides quadrants which contain more than a fixed number of features
+ * (default policy of the quadtree)
+ */
+public class FeatureCountSplitPolicy implements IQuadtreeSplitPolicy {
+	
+	/** maximum number of features in a leaf quadrant */
+	private long capacity = QuadtreeImpl.capacity;
+	private int maxLevel = QuadtreeImpl.maxLevel;
+	
+	@Override
+	public boolean isSplit(int level, long featureCount, long operationCount) {
+		return featureCount > capacity && level < maxLevel;
+	}
+	
+	public long getCapacity() {
+		return capacity;
+	}
+	public void setCapacity(long capacity) {
+		this.capacity = capacity;
+	}
+	
+	@Override
+	public int getMaxLevel() {
+		return maxLevel;
+	}
+	public void setMaxLevel(int maxLevel) {
+		this.maxLevel = maxLevel;
+	}
+}
@@ -0,0 +1,232 @@
+/** Copyright 2016, Simon Gröchenig, Salzburg Research Forschungsgesellschaft m.b.H.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiGeometryType;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.IQuadtree;
+
+/**
+ * Flat quadtree index (Quadtree/index.flat). Every quadrant is stored as a
+ * fixed-size record (bounds, level, index of the first sub-quadrant, feature
+ * and operation counts, timestamp range, feature counts per geometry type).
+ * The four sub-quadrants of a quadrant are stored consecutively (NW, NE, SE,
+ * SW), so the index can be memory-mapped and traversed without parsing.
+ */
+public class FlatQuadtreeIndex {
+	
+	public static final String FILE_NAME = "index.flat";
+	
+	/** "VQTX" */
+	private static final int MAGIC = 0x56515458;
+	public static final int VERSION = 1;
+	
+	private static final int HEADER_SIZE = 16;
+	private static final int GEOMETRY_TYPE_OFFSET = 68;
+	private static final int NODE_SIZE = GEOMETRY_TYPE_OFFSET + 4 * QuadrantStatistics.GEOMETRY_TYPE_COUNT;
+	
+	/** path suffixes of the sub-quadrants */
+	private static final String[] SUB_QUADRANT_PATHS = new String[] {"/NW", "/NE", "/SE", "/SW"};
+	
+	private final ByteBuffer buffer;
+	private final int nodeCount;
+	
+	private FlatQuadtreeIndex(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException("Invalid quadtree index");
+		}
+		if (buffer.getInt(12) != QuadrantStatistics.GEOMETRY_TYPE_COUNT) {
+			throw new IOException("Quadtree index has been written with different geometry types");
+		}
+		this.nodeCount = buffer.getInt(8);
+		if (buffer.capacity() < HEADER_SIZE + (long)nodeCount * NODE_SIZE) {
+			throw new IOException("Quadtree index is truncated");
+		}
+	}
+	
+	/**
+	 * @param quadtreeFolder quadtree folder
+	 * @return index file in the quadtree folder
+	 */
+	public static File getIndexFile(File quadtreeFolder) {
+		return new File(quadtreeFolder, FILE_NAME);
+	}
+	
+	/**
+	 * Memory-maps the index file
+	 */
+	public static FlatQuadtreeIndex open(File indexFile) throws IOException {
+		try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+			return new FlatQuadtreeIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+	
+	/**
+	 * Writes the index of a quadtree (breadth-first, so that sub-quadrants are
+	 * stored consecutively)
+	 */
+	public static void write(IQuadtree root, File indexFile) throws IOException {
+		int nodeCount = 0;
+		Deque<IQuadtree> queue = new ArrayDeque<IQuadtree>();
+		queue.add(root);
+		while (!queue.isEmpty()) {
+			IQuadtree quadrant = queue.poll();
+			nodeCount++;
+			if (quadrant.getNW() != null) {
+				queue.add(quadrant.getNW());
+				queue.add(quadrant.getNE());
+				queue.add(quadrant.getSE());
+				queue.add(quadrant.getSW());
+			}
+		}
+		
+		try (DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+			writer.writeInt(MAGIC);
+			writer.writeInt(VERSION);
+			writer.writeInt(nodeCount);
+			writer.writeInt(QuadrantStatistics.GEOMETRY_TYPE_COUNT);
+			
+			/** the sub-quadrants of the n-th subdivided quadrant start at 1 + 4 * n */
+			int subdividedCount = 0;
+			queue.add(root);
+			while (!queue.isEmpty()) {
+				IQuadtree quadrant = queue.poll();
+				QuadrantStatistics statistics = quadrant.getStatistics();
+				writer.writeDouble(quadrant.getSplitX() - quadrant.getDimensionX());
+				writer.writeDouble(quadrant.getSplitY() - quadrant.getDimensionY());
+				writer.writeDouble(quadrant.getSplitX() + quadrant.getDimensionX());
+				writer.writeDouble(quadrant.getSplitY() + quadrant.getDimensionY());
+				writer.writeInt(quadrant.getLevel());
+				if (quadrant.getNW() != null) {
+					writer.writeInt(1 + 4 * subdividedCount++);
+					queue.add(quadrant.getNW());
+					queue.add(quadrant.getNE());
+					queue.add(quadrant.getSE());
+					queue.add(quadrant.getSW());
+				} else {
+					writer.writeInt(-1);
+				}
+				writer.writeInt(quadrant.getFeatureCount());
+				writer.writeLong(statistics.getOperationCount());
+				writer.writeLong(statistics.getMinTimestamp());
+				writer.writeLong(statistics.getMaxTimestamp());
+				for (VgiGeometryType geometryType : VgiGeometryType.values()) {
+					writer.writeInt(statistics.getFeatureCount(geometryType));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Copies the statistics of the index to the quadtree (which has been built
+	 * from the same index)
+	 */
+	public void readStatistics(IQuadtree quadrant, int node) {
+		QuadrantStatistics statistics = quadrant.getStatistics();
+		statistics.setOperationCount(getOperationCount(node));
+		statistics.setMinTimestamp(getMinTimestamp(node));
+		statistics.setMaxTimestamp(getMaxTimestamp(node));
+		for (VgiGeometryType geometryType : VgiGeometryType.values()) {
+			statistics.setFeatureCount(geometryType, getFeatureCount(node, geometryType));
+		}
+		if (quadrant.getNW() != null && !isLeaf(node)) {
+			readStatistics(quadrant.getNW(), getSubQuadrant(node, 0));
+			readStatistics(quadrant.getNE(), getSubQuadrant(node, 1));
+			readStatistics(quadrant.getSE(), getSubQuadrant(node, 2));
+			readStatistics(quadrant.getSW(), getSubQuadrant(node, 3));
+		}
+	}
+	
+	/** @return path of a sub-quadrant */
+	public static String getSubQuadrantPath(String path, int quarter) {
+		return path + SUB_QUADRANT_PATHS[quarter];
+	}
+	
+	/** Root node */
+	public int getRoot() {
+		return 0;
+	}
+	
+	public int getNodeCount() {
+		return nodeCount;
+	}
+	
+	private int offset(int node) {
+		return HEADER_SIZE + node * NODE_SIZE;
+	}
+	
+	public double getMinX(int node) {
+		return buffer.getDouble(offset(node));
+	}
+	public double getMinY(int node) {
+		return buffer.getDouble(offset(node) + 8);
+	}
+	public double getMaxX(int node) {
+		return buffer.getDouble(offset(node) + 16);
+	}
+	public double getMaxY(int node) {
+		return buffer.getDouble(offset(node) + 24);
+	}
+	
+	public int getLevel(int node) {
+		return buffer.getInt(offset(node) + 32);
+	}
+	
+	public boolean isLeaf(int node) {
+		return buffer.getInt(offset(node) + 36) == -1;
+	}
+	
+	/**
+	 * @param quarter 0=NW, 1=NE, 2=SE, 3=SW
+	 * @return node of the sub-quadrant
+	 */
+	public int getSubQuadrant(int node, int quarter) {
+		return buffer.getInt(offset(node) + 36) + quarter;
+	}
+	
+	/** @return number of features in this quadrant (without sub-quadrants) */
+	public int getFeatureCount(int node) {
+		return buffer.getInt(offset(node) + 40);
+	}
+	
+	public long getOperationCount(int node) {
+		return buffer.getLong(offset(node) + 44);
+	}
+	
+	/** @return smallest timestamp (milliseconds) or Long.MAX_VALUE if the quadrant has no operations */
+	public long getMinTimestamp(int node) {
+		return buffer.getLong(offset(node) + 52);
+	}
+	/** @return largest timestamp (milliseconds) or Long.MIN_VALUE if the quadrant has no operations */
+	public long getMaxTimestamp(int node) {
+		return buffer.getLong(offset(node) + 60);
+	}
+	
+	public int getFeatureCount(int node, VgiGeometryType geometryType) {
+		return buffer.getInt(offset(node) + GEOMETRY_TYPE_OFFSET + 4 * geometryType.ordinal());
+	}
+}
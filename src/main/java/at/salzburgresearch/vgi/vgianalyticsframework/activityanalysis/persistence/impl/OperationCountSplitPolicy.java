@@ -0,0 +1,60 @@
+/** Copyright 2016, Simon Gröchenig, Salzburg Research Forschungsgesellschaft m.b.H.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.impl;
+
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.IQuadtreeSplitPolicy;
+
+/**
+ * Subdivides quadrants which contain more than a fixed number of operations.
+ * Since the read time of a quadrant depends on the number of operations,
+ * quadrants with long feature histories (e.g. in cities) are smaller than
+ * quadrants with few edits.
+ */
+public class OperationCountSplitPolicy implements IQuadtreeSplitPolicy {
+	
+	/** maximum number of operations in a leaf quadrant */
+	private long operationCapacity = 1000000l;
+	/** quadrants with less features are not subdivided (avoids tiny quadrants) */
+	private long minFeatureCount = 1000l;
+	private int maxLevel = 12;
+	
+	@Override
+	public boolean isSplit(int level, long featureCount, long operationCount) {
+		return operationCount > operationCapacity && featureCount >= minFeatureCount && level < maxLevel;
+	}
+	
+	public long getOperationCapacity() {
+		return operationCapacity;
+	}
+	public void setOperationCapacity(long operationCapacity) {
+		this.operationCapacity = operationCapacity;
+	}
+	
+	public long getMinFeatureCount() {
+		return minFeatureCount;
+	}
+	public void setMinFeatureCount(long minFeatureCount) {
+		this.minFeatureCount = minFeatureCount;
+	}
+	
+	@Override
+	public int getMaxLevel() {
+		return maxLevel;
+	}
+	public void setMaxLevel(int maxLevel) {
+		this.maxLevel = maxLevel;
+	}
+}
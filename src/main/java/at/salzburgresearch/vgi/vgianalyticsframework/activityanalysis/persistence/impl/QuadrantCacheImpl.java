@@ -0,0 +1,121 @@
+/** Copyright 2016, Simon Gröchenig, Salzburg Research Forschungsgesellschaft m.b.H.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.impl;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.Logger;
+
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiFeature;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.IQuadrantCache;
+
+/**
+ * LRU quadrant cache which is bounded by the estimated size of the cached
+ * features. If a quadrant is added to a full cache, the least recently used
+ * quadrants are evicted.
+ */
+public class QuadrantCacheImpl implements IQuadrantCache {
+	private static Logger log = org.apache.logging.log4j.LogManager.getLogger(QuadrantCacheImpl.class);
+	
+	/** estimated bytes per feature and per operation (operations are views of column-oriented batches) */
+	private static final int FEATURE_WEIGHT = 120;
+	private static final int OPERATION_WEIGHT = 80;
+	
+	/** quadrants in access order (least recently used first) */
+	private final LinkedHashMap<String, CachedQuadrant> quadrants = new LinkedHashMap<String, CachedQuadrant>(64, 0.75f, true);
+	private long weight = 0;
+	private long maxWeight = Runtime.getRuntime().maxMemory() / 4;
+	
+	@Override
+	public synchronized List<IVgiFeature> get(String key) {
+		CachedQuadrant quadrant = quadrants.get(key);
+		return (quadrant != null) ? quadrant.features : null;
+	}
+	
+	@Override
+	public synchronized void put(String key, List<IVgiFeature> features) {
+		long quadrantWeight = estimateWeight(features);
+		/** Quadrants which would fill the cache on their own are not cached */
+		if (quadrantWeight > maxWeight / 2) return;
+		
+		CachedQuadrant previous = quadrants.put(key, new CachedQuadrant(features, quadrantWeight));
+		if (previous != null) weight -= previous.weight;
+		weight += quadrantWeight;
+		
+		if (weight > maxWeight) evict(maxWeight);
+	}
+	
+	@Override
+	public synchronized void evict(long weight) {
+		int count = 0;
+		Iterator<CachedQuadrant> iterator = quadrants.values().iterator();
+		while (this.weight > weight && iterator.hasNext()) {
+			this.weight -= iterator.next().weight;
+			iterator.remove();
+			count++;
+		}
+		if (count > 0) log.debug("{} quadrants evicted ({} quadrants, {} bytes cached)", count, quadrants.size(), this.weight);
+	}
+	
+	@Override
+	public synchronized void clear() {
+		quadrants.clear();
+		weight = 0;
+	}
+	
+	/**
+	 * @return estimated size of the features in bytes
+	 */
+	public static long estimateWeight(List<IVgiFeature> features) {
+		long weight = 0;
+		for (IVgiFeature feature : features) {
+			weight += FEATURE_WEIGHT;
+			if (feature.getOperationList() != null) weight += (long)feature.getOperationList().size() * OPERATION_WEIGHT;
+		}
+		return weight;
+	}
+	
+	@Override
+	public synchronized long getWeight() {
+		return weight;
+	}
+	
+	@Override
+	public synchronized long getMaxWeight() {
+		return maxWeight;
+	}
+	public synchronized void setMaxWeight(long maxWeight) {
+		this.maxWeight = maxWeight;
+		if (weight > maxWeight) evict(maxWeight);
+	}
+	
+	public synchronized int size() {
+		return quadrants.size();
+	}
+	
+	private static class CachedQuadrant {
+		private final List<IVgiFeature> features;
+		private final long weight;
+		
+		private CachedQuadrant(List<IVgiFeature> features, long weight) {
+			this.features = features;
+			this.weight = weight;
+		}
+	}
+}
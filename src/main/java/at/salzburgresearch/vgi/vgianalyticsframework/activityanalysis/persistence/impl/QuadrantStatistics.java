@@ -0,0 +1,86 @@
+/** Copyright 2016, Simon Gröchenig, Salzburg Research Forschungsgesellschaft m.b.H.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.impl;
+
+import java.util.Arrays;
+
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiFeature;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiOperation;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiGeometryType;
+
+/**
+ * Statistics of the features which are stored in a quadrant (features of
+ * sub-quadrants are not included)
+ */
+public class QuadrantStatistics {
+	
+	public static final int GEOMETRY_TYPE_COUNT = VgiGeometryType.values().length;
+	
+	private long operationCount = 0l;
+	/** timestamp range of the operations (milliseconds) */
+	private long minTimestamp = Long.MAX_VALUE;
+	private long maxTimestamp = Long.MIN_VALUE;
+	/** number of features per geometry type */
+	private final int[] featureCount = new int[GEOMETRY_TYPE_COUNT];
+	
+	/** Adds a feature to the statistics */
+	public void add(IVgiFeature feature) {
+		featureCount[feature.getVgiGeometryType().ordinal()]++;
+		operationCount += feature.getOperationList().size();
+		for (IVgiOperation operation : feature.getOperationList()) {
+			long timestamp = operation.getTimestamp().getTime();
+			if (timestamp < minTimestamp) minTimestamp = timestamp;
+			if (timestamp > maxTimestamp) maxTimestamp = timestamp;
+		}
+	}
+	
+	public void reset() {
+		operationCount = 0l;
+		minTimestamp = Long.MAX_VALUE;
+		maxTimestamp = Long.MIN_VALUE;
+		Arrays.fill(featureCount, 0);
+	}
+	
+	public long getOperationCount() {
+		return operationCount;
+	}
+	public void setOperationCount(long operationCount) {
+		this.operationCount = operationCount;
+	}
+	
+	/** @return smallest timestamp or Long.MAX_VALUE if there are no operations */
+	public long getMinTimestamp() {
+		return minTimestamp;
+	}
+	public void setMinTimestamp(long minTimestamp) {
+		this.minTimestamp = minTimestamp;
+	}
+	
+	/** @return largest timestamp or Long.MIN_VALUE if there are no operations */
+	public long getMaxTimestamp() {
+		return maxTimestamp;
+	}
+	public void setMaxTimestamp(long maxTimestamp) {
+		this.maxTimestamp = maxTimestamp;
+	}
+	
+	public int getFeatureCount(VgiGeometryType geometryType) {
+		return featureCount[geometryType.ordinal()];
+	}
+	public void setFeatureCount(VgiGeometryType geometryType, int featureCount) {
+		this.featureCount[geometryType.ordinal()] = featureCount;
+	}
+}
@@ -0,0 +1,481 @@
+/** Copyright 2017, Simon Gröchenig, Salzburg Research Forschungsgesellschaft m.b.H.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.logging.log4j.Logger;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiFeature;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiOperation;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiFeatureImpl;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiGeometryType;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiOperationImpl;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiOperationType;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.IQuadtree;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.IQuadtreeSplitPolicy;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TIntLongHashMap;
+
+/**
+ * Builds a quadtree in bulk. Features are spilled to a temporary file together
+ * with the key of the smallest quadrant which contains their bounding box.
+ * After all features have been added, the tree structure is derived from the
+ * number of features and operations per quadrant (using the split policy),
+ * the features are sorted externally (sorted runs and k-way merge) and
+ * returned quadrant by quadrant, so that the files of every quadrant are
+ * written exactly once.
+ */
+public class QuadtreeBulkLoader implements Closeable {
+	private static Logger log = org.apache.logging.log4j.LogManager.getLogger(QuadtreeBulkLoader.class);
+
+	private static final VgiGeometryType[] GEOMETRY_TYPES = VgiGeometryType.values();
+	private static final VgiOperationType[] OPERATION_TYPES = VgiOperationType.values();
+
+	/** maximum level of split policies (limited by the size of quadrant keys) */
+	public static final int MAX_LEVEL = 13;
+	/** bits of a quadrant key which store the level; the lower bits store 2 bits per level */
+	private static final int LEVEL_SHIFT = 2 * MAX_LEVEL;
+
+	/** maximum size of a sorted run in bytes */
+	private long runSize = 256l * 1024 * 1024;
+
+	private final File tempFolder;
+	private final File spillFile;
+	private DataOutputStream spillWriter = null;
+	private final List<File> runFiles = new ArrayList<File>();
+
+	private final IQuadtreeSplitPolicy splitPolicy;
+
+	/** number of features and operations per quadrant key */
+	private final TIntIntHashMap featureCount = new TIntIntHashMap();
+	private final TIntLongHashMap operationCount = new TIntLongHashMap();
+	private long spilledFeatureCount = 0l;
+
+	/** quadrants of the built tree and their keys */
+	private final TIntIntHashMap quadrantIds = new TIntIntHashMap(1024, 0.5f, -1, -1);
+	private final List<IQuadtree> quadrants = new ArrayList<IQuadtree>();
+
+	private final ByteArrayOutputStream featureBytes = new ByteArrayOutputStream();
+	private final DataOutputStream featureWriter = new DataOutputStream(featureBytes);
+
+	/** Constructor */
+	public QuadtreeBulkLoader(File tempFolder, IQuadtreeSplitPolicy splitPolicy) throws IOException {
+		if (splitPolicy.getMaxLevel() > MAX_LEVEL) {
+			throw new IllegalArgumentException("Maximum level of split policy must not exceed " + MAX_LEVEL);
+		}
+		this.splitPolicy = splitPolicy;
+		this.tempFolder = tempFolder;
+		if (!tempFolder.exists()) tempFolder.mkdirs();
+		spillFile = File.createTempFile("quadtree_spill_", ".tmp", tempFolder);
+		spillFile.deleteOnExit();
+		spillWriter = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile), 1 << 16));
+	}
+
+	/**
+	 * Spills a feature (the bounding box has to be determined before)
+	 */
+	public void add(IVgiFeature feature) throws IOException {
+		int key = getQuadrantKey(feature.getBBox(), splitPolicy.getMaxLevel());
+		featureCount.adjustOrPutValue(key, 1, 1);
+		operationCount.adjustOrPutValue(key, feature.getOperationList().size(), feature.getOperationList().size());
+
+		byte[] data = serializeFeature(feature);
+		spillWriter.writeInt(key);
+		spillWriter.writeByte(feature.getVgiGeometryType().ordinal());
+		spillWriter.writeLong(feature.getOid());
+		spillWriter.writeInt(data.length);
+		spillWriter.write(data);
+		spilledFeatureCount++;
+	}
+
+	/**
+	 * Subdivides the (empty) root quadrant according to the number of spilled
+	 * features and operations: a quadrant is subdivided if the split policy
+	 * requests it for the features of the quadrant and all its sub-quadrants.
+	 */
+	public void buildTree(IQuadtree root) {
+		/** Sum up features and operations per quadrant and all its sub-quadrants */
+		TIntIntHashMap subtreeFeatureCount = new TIntIntHashMap();
+		TIntLongHashMap subtreeOperationCount = new TIntLongHashMap();
+		for (int key : featureCount.keys()) {
+			int features = featureCount.get(key);
+			long operations = operationCount.get(key);
+			for (int level = getLevel(key); level >= 0; level--) {
+				int ancestor = getAncestor(key, level);
+				subtreeFeatureCount.adjustOrPutValue(ancestor, features, features);
+				subtreeOperationCount.adjustOrPutValue(ancestor, operations, operations);
+			}
+		}
+		long[] maxOperations = new long[2];
+		buildQuadrant(root, 0, subtreeFeatureCount, subtreeOperationCount, maxOperations);
+		log.info(" - {} quadrants built for {} features", quadrants.size(), spilledFeatureCount);
+		log.info(" - max. operations per quadrant: {} (leaf), {} (subdivided)", maxOperations[0], maxOperations[1]);
+	}
+
+	/**
+	 * @param maxOperations maximum number of operations in leaf [0] and subdivided [1] quadrants
+	 */
+	private void buildQuadrant(IQuadtree quadrant, int key, TIntIntHashMap subtreeFeatureCount, TIntLongHashMap subtreeOperationCount, long[] maxOperations) {
+		quadrantIds.put(key, quadrants.size());
+		quadrants.add(quadrant);
+
+		int level = getLevel(key);
+		if (splitPolicy.isSplit(level, subtreeFeatureCount.get(key), subtreeOperationCount.get(key))) {
+			quadrant.createSubQuadrants();
+			/** only features which do not fit into a sub-quadrant stay in this quadrant */
+			quadrant.setFeatureCount(featureCount.get(key));
+			maxOperations[1] = Math.max(maxOperations[1], operationCount.get(key));
+			buildQuadrant(quadrant.getNW(), getChild(key, 0), subtreeFeatureCount, subtreeOperationCount, maxOperations);
+			buildQuadrant(quadrant.getNE(), getChild(key, 1), subtreeFeatureCount, subtreeOperationCount, maxOperations);
+			buildQuadrant(quadrant.getSE(), getChild(key, 2), subtreeFeatureCount, subtreeOperationCount, maxOperations);
+			buildQuadrant(quadrant.getSW(), getChild(key, 3), subtreeFeatureCount, subtreeOperationCount, maxOperations);
+		} else {
+			quadrant.setFeatureCount(subtreeFeatureCount.get(key));
+			maxOperations[0] = Math.max(maxOperations[0], subtreeOperationCount.get(key));
+		}
+	}
+
+	/**
+	 * Sorts the spilled features by quadrant, geometry type and ID (buildTree
+	 * has to be called before)
+	 * @return reader which returns the features in this order
+	 */
+	public SortedFeatureReader sort() throws IOException {
+		spillWriter.close();
+
+		/** Create sorted runs */
+		try (DataInputStream spillReader = new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile), 1 << 16))) {
+			List<SpilledFeature> run = new ArrayList<SpilledFeature>();
+			long size = 0l;
+			for (long i=0; i<spilledFeatureCount; i++) {
+				int key = spillReader.readInt();
+				SpilledFeature feature = new SpilledFeature();
+				feature.quadrant = getQuadrantId(key);
+				feature.geometryType = spillReader.readByte();
+				feature.oid = spillReader.readLong();
+				feature.data = new byte[spillReader.readInt()];
+				spillReader.readFully(feature.data);
+				run.add(feature);
+
+				size += feature.data.length + 64;
+				if (size >= runSize) {
+					writeRun(run);
+					run.clear();
+					size = 0l;
+				}
+			}
+			if (!run.isEmpty()) writeRun(run);
+		}
+		if (!spillFile.delete()) log.warn("Cannot delete file {}", spillFile);
+
+		log.info(" - {} features sorted in {} runs", spilledFeatureCount, runFiles.size());
+		return new SortedFeatureReader();
+	}
+
+	private void writeRun(List<SpilledFeature> run) throws IOException {
+		Collections.sort(run, getSpilledFeatureComparator());
+
+		File runFile = File.createTempFile("quadtree_run_", ".tmp", tempFolder);
+		runFile.deleteOnExit();
+		runFiles.add(runFile);
+		try (DataOutputStream runWriter = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile), 1 << 16))) {
+			for (SpilledFeature feature : run) {
+				feature.write(runWriter);
+			}
+		}
+	}
+
+	/** Deletes all temporary files */
+	@Override
+	public void close() {
+		try {
+			spillWriter.close();
+		} catch (IOException e) {
+			log.warn("Cannot close file {}", spillFile);
+		}
+		if (spillFile.exists() && !spillFile.delete()) log.warn("Cannot delete file {}", spillFile);
+		for (File runFile : runFiles) {
+			if (runFile.exists() && !runFile.delete()) log.warn("Cannot delete file {}", runFile);
+		}
+	}
+
+	/**
+	 * Determines the smallest quadrant (up to the maximum level) which contains
+	 * the bounding box. Quadrants are derived in the same way as in QuadtreeImpl.
+	 * @return quadrant key (level and path)
+	 */
+	public static int getQuadrantKey(Envelope bbox, int maxLevel) {
+		double splitX = 0.0;
+		double splitY = 0.0;
+		double dimensionX = 180.0;
+		double dimensionY = 90.0;
+		int key = 0;
+		for (int level = 0; level < maxLevel; level++) {
+			dimensionX *= 0.5;
+			dimensionY *= 0.5;
+			if (bbox.getMaxX() < splitX && bbox.getMinY() > splitY) {
+				key = getChild(key, 0);
+				splitX -= dimensionX;
+				splitY += dimensionY;
+			} else if (bbox.getMinX() > splitX && bbox.getMinY() > splitY) {
+				key = getChild(key, 1);
+				splitX += dimensionX;
+				splitY += dimensionY;
+			} else if (bbox.getMinX() > splitX && bbox.getMaxY() < splitY) {
+				key = getChild(key, 2);
+				splitX += dimensionX;
+				splitY -= dimensionY;
+			} else if (bbox.getMaxX() < splitX && bbox.getMaxY() < splitY) {
+				key = getChild(key, 3);
+				splitX -= dimensionX;
+				splitY -= dimensionY;
+			} else {
+				break;
+			}
+		}
+		return key;
+	}
+
+	private static int getLevel(int key) {
+		return key >>> LEVEL_SHIFT;
+	}
+
+	/** @param quarter 0=NW, 1=NE, 2=SE, 3=SW */
+	private static int getChild(int key, int quarter) {
+		int path = key & ((1 << LEVEL_SHIFT) - 1);
+		return ((getLevel(key) + 1) << LEVEL_SHIFT) | (path << 2) | quarter;
+	}
+
+	private static int getAncestor(int key, int level) {
+		int path = key & ((1 << LEVEL_SHIFT) - 1);
+		return (level << LEVEL_SHIFT) | (path >>> (2 * (getLevel(key) - level)));
+	}
+
+	/** @return ID of the deepest quadrant of the tree on the path to the key */
+	private int getQuadrantId(int key) {
+		for (int level = getLevel(key); level >= 0; level--) {
+			int id = quadrantIds.get(getAncestor(key, level));
+			if (id != -1) return id;
+		}
+		throw new IllegalStateException("Quadtree has not been built");
+	}
+
+	private byte[] serializeFeature(IVgiFeature feature) throws IOException {
+		featureBytes.reset();
+		featureWriter.writeInt(feature.getOperationList().size());
+		for (IVgiOperation operation : feature.getOperationList()) {
+			featureWriter.writeByte(operation.getVgiOperationType().ordinal());
+			featureWriter.writeInt(operation.getUid());
+			featureWriter.writeLong(operation.getTimestamp().getTime());
+			featureWriter.writeInt(operation.getChangesetid());
+			featureWriter.writeShort(operation.getVersion());
+			featureWriter.writeLong(operation.getRefId());
+			featureWriter.writeInt(operation.getPosition());
+			writeString(operation.getKey());
+			writeString(operation.getValue());
+			featureWriter.writeBoolean(operation.getCoordinate() != null);
+			if (operation.getCoordinate() != null) {
+				int[] coordinate = operation.getCoordinateAsInteger();
+				featureWriter.writeInt(coordinate[0]);
+				featureWriter.writeInt(coordinate[1]);
+			}
+		}
+		featureWriter.flush();
+		return featureBytes.toByteArray();
+	}
+
+	private void writeString(String string) throws IOException {
+		featureWriter.writeBoolean(string != null);
+		if (string != null) featureWriter.writeUTF(string);
+	}
+
+	private static IVgiFeature deserializeFeature(SpilledFeature spilledFeature) throws IOException {
+		IVgiFeature feature = new VgiFeatureImpl();
+		feature.setOid(spilledFeature.oid);
+		feature.setVgiGeometryType(GEOMETRY_TYPES[spilledFeature.geometryType]);
+
+		DataInputStream reader = new DataInputStream(new ByteArrayInputStream(spilledFeature.data));
+		int operationCount = reader.readInt();
+		for (int i=0; i<operationCount; i++) {
+			IVgiOperation operation = new VgiOperationImpl(OPERATION_TYPES[reader.readByte()]);
+			operation.setOid(feature.getOid());
+			operation.setVgiGeometryType(feature.getVgiGeometryType());
+			operation.setUid(reader.readInt());
+			operation.setTimestamp(new Date(reader.readLong()));
+			operation.setChangesetid(reader.readInt());
+			operation.setVersion(reader.readShort());
+			operation.setRefId(reader.readLong());
+			operation.setPosition(reader.readInt());
+			operation.setKey(reader.readBoolean() ? reader.readUTF() : null);
+			operation.setValue(reader.readBoolean() ? reader.readUTF() : null);
+			if (reader.readBoolean()) {
+				operation.setCoordinateFromInteger(reader.readInt(), reader.readInt());
+			}
+			feature.addOperation(operation);
+		}
+		return feature;
+	}
+
+	/** Maximum size of a sorted run in bytes */
+	public void setRunSize(long runSize) {
+		this.runSize = runSize;
+	}
+
+	private static Comparator<SpilledFeature> getSpilledFeatureComparator() {
+		return new Comparator<SpilledFeature>() {
+			/** Compares two features by quadrant, geometry type and oid */
+			@Override
+			public int compare(SpilledFeature f1, SpilledFeature f2) {
+				if (f1.quadrant != f2.quadrant) return (f1.quadrant < f2.quadrant) ? -1 : 1;
+				if (f1.geometryType != f2.geometryType) return (f1.geometryType < f2.geometryType) ? -1 : 1;
+				if (f1.oid != f2.oid) return (f1.oid < f2.oid) ? -1 : 1;
+				return 0;
+			}
+		};
+	}
+
+	/**
+	 * Serialized feature with its sort key
+	 */
+	private static class SpilledFeature {
+		private int quadrant;
+		private byte geometryType;
+		private long oid;
+		private byte[] data;
+
+		private void write(DataOutputStream writer) throws IOException {
+			writer.writeInt(quadrant);
+			writer.writeByte(geometryType);
+			writer.writeLong(oid);
+			writer.writeInt(data.length);
+			writer.write(data);
+		}
+
+		/** @return feature or null at the end of the run */
+		private static SpilledFeature read(DataInputStream reader) throws IOException {
+			SpilledFeature feature = new SpilledFeature();
+			try {
+				feature.quadrant = reader.readInt();
+			} catch (EOFException e) {
+				return null;
+			}
+			feature.geometryType = reader.readByte();
+			feature.oid = reader.readLong();
+			feature.data = new byte[reader.readInt()];
+			reader.readFully(feature.data);
+			return feature;
+		}
+	}
+
+	/**
+	 * Merges the sorted runs (k-way merge)
+	 */
+	public class SortedFeatureReader implements Closeable {
+		private final PriorityQueue<Run> queue;
+		private IQuadtree quadrant = null;
+
+		private SortedFeatureReader() throws IOException {
+			final Comparator<SpilledFeature> comparator = getSpilledFeatureComparator();
+			queue = new PriorityQueue<Run>(Math.max(runFiles.size(), 1), new Comparator<Run>() {
+				@Override
+				public int compare(Run r1, Run r2) {
+					return comparator.compare(r1.current, r2.current);
+				}
+			});
+			for (File runFile : runFiles) {
+				Run run = new Run(runFile);
+				if (run.next()) {
+					queue.add(run);
+				} else {
+					run.close();
+				}
+			}
+		}
+
+		/**
+		 * @return next feature or null if all features have been read
+		 */
+		public IVgiFeature next() throws IOException {
+			Run run = queue.poll();
+			if (run == null) return null;
+
+			SpilledFeature spilledFeature = run.current;
+			if (run.next()) {
+				queue.add(run);
+			} else {
+				run.close();
+			}
+
+			quadrant = quadrants.get(spilledFeature.quadrant);
+			return deserializeFeature(spilledFeature);
+		}
+
+		/** @return quadrant of the feature which has been returned by next() */
+		public IQuadtree getQuadrant() {
+			return quadrant;
+		}
+
+		@Override
+		public void close() throws IOException {
+			for (Run run : queue) {
+				run.close();
+			}
+			queue.clear();
+		}
+	}
+
+	/**
+	 * Sorted run which is read from file
+	 */
+	private static class Run implements Closeable {
+		private final DataInputStream reader;
+		private SpilledFeature current = null;
+
+		private Run(File runFile) throws IOException {
+			reader = new DataInputStream(new BufferedInputStream(new FileInputStream(runFile), 1 << 16));
+		}
+
+		private boolean next() throws IOException {
+			current = SpilledFeature.read(reader);
+			return current != null;
+		}
+
+		@Override
+		public void close() throws IOException {
+			reader.close();
+		}
+	}
+}
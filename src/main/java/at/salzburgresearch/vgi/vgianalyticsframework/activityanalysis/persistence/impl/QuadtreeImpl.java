@@ -29,6 +29,7 @@ import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiFeatureImpl;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.FeatureImportListener;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.IQuadtree;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.IQuadtreeSplitPolicy;
 
 public class QuadtreeImpl implements IQuadtree {
 	private static Logger log = org.apache.logging.log4j.LogManager.getLogger(QuadtreeImpl.class);
@@ -53,14 +54,28 @@ public class QuadtreeImpl implements IQuadtree {
 	/** feature are written to files, therefore not all features are in this featureList */
 	private List<IVgiFeature> featureList = new ArrayList<IVgiFeature>();
 	private int featureCount = 0;
-	private final static int capacity = 100000;
+	/** statistics of the features in this quadrant (including features which have been written to files) */
+	private QuadrantStatistics statistics = new QuadrantStatistics();
+	/** maximum number of features in a leaf quadrant (default split policy) */
+	public final static int capacity = 100000;
+	/** leaf quadrants in this level are not subdivided (default split policy) */
+	public final static int maxLevel = 10;
+	
+	private IQuadtreeSplitPolicy splitPolicy = null;
 
 	/** Constructor */
-	public QuadtreeImpl() {	}
+	public QuadtreeImpl() {
+		this(new FeatureCountSplitPolicy());
+	}
+	
+	public QuadtreeImpl(IQuadtreeSplitPolicy splitPolicy) {
+		this.splitPolicy = splitPolicy;
+	}
 	
-	public QuadtreeImpl(int level, String path) {
+	public QuadtreeImpl(int level, String path, IQuadtreeSplitPolicy splitPolicy) {
 		this.level = level;
 		this.path = path;
+		this.splitPolicy = splitPolicy;
 	}
 	
 	/**
@@ -74,10 +89,11 @@ public class QuadtreeImpl implements IQuadtree {
 		if (this.NW == null) {
 			/** no sub-quadrants -> this is a leaf quadrant */
 			//if (featureCount < capacity || level == 10 || feature.getBBox().isNull()) {
-			if (featureCount < capacity || level == 10) {
-				/** store in this quadrant if capacity is not reached OR quadrant has level 10, ... */
+			if (!splitPolicy.isSplit(level, featureCount + 1, statistics.getOperationCount() + feature.getOperationList().size())) {
+				/** store in this quadrant if capacity is not reached OR quadrant has max level, ... */
 				featureList.add(feature);
 				featureCount++;
+				statistics.add(feature);
 			} else {
 				/** ... otherwise subdivide */
 				subdivideQuadrants();
@@ -98,17 +114,31 @@ public class QuadtreeImpl implements IQuadtree {
 				/** feature is too large for sub-quadrant, insert into this quadrant */
 				featureList.add(feature);
 				featureCount++;
+				statistics.add(feature);
 			}
 		}
 	}
 	
 	private void subdivideQuadrants() {
 		log.info("Subdivide Quadrant: {} (Level {})", path, level);
+		createSubQuadrants();
+		
+		/** Load all features */
+		if (featureList.size() < featureCount) {
+			log.info(" - Import features before allocating them to sub quadrants");
+			triggerFeatureImport(new FeatureImportEvent(this));
+		} else {
+			allocateFeatures();
+		}
+	}
+	
+	@Override
+	public void createSubQuadrants() {
 		/** create new quadrants in next level */
-		this.NW = new QuadtreeImpl(level+1, path+"/NW");
-		this.NE = new QuadtreeImpl(level+1, path+"/NE");
-		this.SE = new QuadtreeImpl(level+1, path+"/SE");
-		this.SW = new QuadtreeImpl(level+1, path+"/SW");
+		this.NW = new QuadtreeImpl(level+1, path+"/NW", splitPolicy);
+		this.NE = new QuadtreeImpl(level+1, path+"/NE", splitPolicy);
+		this.SE = new QuadtreeImpl(level+1, path+"/SE", splitPolicy);
+		this.SW = new QuadtreeImpl(level+1, path+"/SW", splitPolicy);
 		
 		/** calculate new quadrants' splits/dimensions */
 		double newDimensionX = this.dimensionX * 0.5;
@@ -133,14 +163,6 @@ public class QuadtreeImpl implements IQuadtree {
 //		this.NE.setParent(this);
 //		this.SE.setParent(this);
 //		this.SW.setParent(this);
-		
-		/** Load all features */
-		if (featureList.size() < featureCount) {
-			log.info(" - Import features before allocating them to sub quadrants");
-			triggerFeatureImport(new FeatureImportEvent(this));
-		} else {
-			allocateFeatures();
-		}
 	}
 	
 	@Override
@@ -157,6 +179,7 @@ public class QuadtreeImpl implements IQuadtree {
 		/** Remove feature from this quadrant */
 		featureList = new ArrayList<IVgiFeature>();
 		this.featureCount = 0;
+		this.statistics.reset();
 		
 		/** Move features to sub-quadrants */
 		for (IVgiFeature feature : featureToAllocate) {
@@ -335,6 +358,11 @@ public class QuadtreeImpl implements IQuadtree {
 		return level;
 	}
 
+	@Override
+	public QuadrantStatistics getStatistics() {
+		return statistics;
+	}
+
 	@Override
 	public void setFeatureCount(int featureCount) {
 		this.featureCount = featureCount;
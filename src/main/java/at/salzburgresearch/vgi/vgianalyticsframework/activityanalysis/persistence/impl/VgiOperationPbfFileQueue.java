@@ -0,0 +1,97 @@
+/** Copyright 2017, Simon Gröchenig, Salzburg Research Forschungsgesellschaft m.b.H.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.pbf.OperationFileListProto.PbfOperationFileList.PbfOperationFile;
+
+/**
+ * Operation files which are shared by all producers of a pipeline. Each producer
+ * takes the next file as soon as it has finished the previous one, so producers
+ * do not wait for each other when files differ in size.
+ */
+public class VgiOperationPbfFileQueue {
+
+	private Queue<PbfOperationFile> files = null;
+
+	/** Number of operations in files which have not been taken yet */
+	private long remainingEntries = 0l;
+
+	/**
+	 * @return true if the queue has been filled by a producer
+	 */
+	public synchronized boolean isInitialized() {
+		return files != null;
+	}
+
+	/**
+	 * Fills the queue. Node files are queued before way files and way files
+	 * before relation files. If weighted, larger files (numEntries) of the same
+	 * element type are queued first; otherwise files are queued by file id.
+	 * @param fileList files which should be read
+	 * @param weighted
+	 */
+	public synchronized void initialize(List<PbfOperationFile> fileList, boolean weighted) {
+		List<PbfOperationFile> sortedFiles = new ArrayList<PbfOperationFile>(fileList);
+		Collections.sort(sortedFiles, (weighted) ? weightComparator : fileIdComparator);
+
+		files = new LinkedList<PbfOperationFile>(sortedFiles);
+		remainingEntries = 0l;
+		for (PbfOperationFile file : files) {
+			remainingEntries += file.getNumEntries();
+		}
+	}
+
+	/**
+	 * @return next file or null if all files have been taken
+	 */
+	public synchronized PbfOperationFile poll() {
+		if (files == null) return null;
+		PbfOperationFile file = files.poll();
+		if (file != null) remainingEntries -= file.getNumEntries();
+		return file;
+	}
+
+	public synchronized long getRemainingEntries() {
+		return remainingEntries;
+	}
+
+	private static Comparator<PbfOperationFile> fileIdComparator = new Comparator<PbfOperationFile>() {
+		@Override
+		public int compare(PbfOperationFile o1, PbfOperationFile o2) {
+			int result = Integer.compare(o1.getElementType().getNumber(), o2.getElementType().getNumber());
+			if (result != 0) return result;
+			return Integer.compare(o1.getOperationFileId(), o2.getOperationFileId());
+		}
+	};
+
+	private static Comparator<PbfOperationFile> weightComparator = new Comparator<PbfOperationFile>() {
+		@Override
+		public int compare(PbfOperationFile o1, PbfOperationFile o2) {
+			int result = Integer.compare(o1.getElementType().getNumber(), o2.getElementType().getNumber());
+			if (result != 0) return result;
+			result = Integer.compare(o2.getNumEntries(), o1.getNumEntries());
+			if (result != 0) return result;
+			return Integer.compare(o1.getOperationFileId(), o2.getOperationFileId());
+		}
+	};
+}
@@ -0,0 +1,279 @@
+/** Copyright 2017, Simon Gröchenig, Salzburg Research Forschungsgesellschaft m.b.H.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Sidecar index of an operation PBF file (operation_x_N.idx). For each feature
+ * batch the index stores the position of the serialized batch in the PBF file,
+ * the element ID and timestamp range, and the delta values which are required
+ * to decode the batch without reading the previous batches.
+ */
+public class VgiOperationPbfIndex {
+	private static Logger log = org.apache.logging.log4j.LogManager.getLogger(VgiOperationPbfIndex.class);
+
+	/** "VGIX" */
+	private static final int MAGIC = 0x56474958;
+	public static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 8;
+	private static final int ENTRY_SIZE = 78;
+
+	private VgiOperationPbfIndex() {
+
+	}
+
+	/**
+	 * @param pbfFile operation PBF file
+	 * @return index file which belongs to the PBF file
+	 */
+	public static File getIndexFile(File pbfFile) {
+		String path = pbfFile.getPath();
+		if (path.endsWith(".pbf")) path = path.substring(0, path.length() - 4);
+		return new File(path + ".idx");
+	}
+
+	/**
+	 * Opens the index file for writing. A new index is created if the PBF file is empty.
+	 * @param pbfFile operation PBF file
+	 * @return output stream or null if the existing PBF data is not indexed
+	 */
+	public static DataOutputStream openIndexWriter(File pbfFile) throws IOException {
+		File indexFile = getIndexFile(pbfFile);
+
+		if (!pbfFile.exists() || pbfFile.length() == 0) {
+			DataOutputStream indexWriter = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, false)));
+			indexWriter.writeInt(MAGIC);
+			indexWriter.writeInt(VERSION);
+			return indexWriter;
+		}
+
+		if (isValid(pbfFile)) {
+			return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, true)));
+		}
+
+		/** Existing data has not been indexed; appended batches cannot be indexed either */
+		if (indexFile.exists() && !indexFile.delete()) {
+			log.warn("Cannot delete file " + indexFile.getAbsolutePath());
+		}
+		return null;
+	}
+
+	/**
+	 * Checks header and size of the index file and whether the last batch ends at the end of the PBF file
+	 * @param pbfFile operation PBF file
+	 * @return true if the index covers the complete PBF file
+	 */
+	public static boolean isValid(File pbfFile) {
+		File indexFile = getIndexFile(pbfFile);
+		if (!indexFile.exists()) return false;
+
+		try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r")) {
+			long length = raf.length();
+			if (length < HEADER_SIZE || (length - HEADER_SIZE) % ENTRY_SIZE != 0) return false;
+			if (raf.readInt() != MAGIC || raf.readInt() != VERSION) return false;
+
+			if (length == HEADER_SIZE) return pbfFile.length() == 0;
+
+			raf.seek(length - ENTRY_SIZE);
+			long offset = raf.readLong();
+			int batchLength = raf.readInt();
+			return offset + batchLength == pbfFile.length();
+
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * Reads the index of an operation PBF file
+	 * @param pbfFile operation PBF file
+	 * @return list of batch entries or null if no valid index exists
+	 */
+	public static List<Entry> read(File pbfFile) {
+		if (!isValid(pbfFile)) return null;
+
+		File indexFile = getIndexFile(pbfFile);
+		List<Entry> entries = new ArrayList<Entry>((int)((indexFile.length() - HEADER_SIZE) / ENTRY_SIZE));
+
+		try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), 1024*64))) {
+			dis.readInt();
+			dis.readInt();
+			for (int i=0; i<(indexFile.length() - HEADER_SIZE) / ENTRY_SIZE; i++) {
+				entries.add(Entry.read(dis));
+			}
+		} catch (IOException e) {
+			log.error("Cannot read index file '{}'", indexFile);
+			return null;
+		}
+
+		return entries;
+	}
+
+	/**
+	 * Index entry of a single feature batch
+	 */
+	public static class Entry {
+		/** position and length of the serialized PbfVgiFeatureBatch */
+		private long offset = 0l;
+		private int length = 0;
+
+		/** element id and timestamp range (writer timestamp, seconds since TIMESTAMP_OFFSET) */
+		private long minOid = Long.MAX_VALUE;
+		private long maxOid = Long.MIN_VALUE;
+		private int minTimestamp = Integer.MAX_VALUE;
+		private int maxTimestamp = Integer.MIN_VALUE;
+
+		/** delta values before the first operation of this batch */
+		private long oid = 0l;
+		private int timestamp = 0;
+		private int changesetId = 0;
+		private long refId = 0l;
+		private int longitude = 0;
+		private int latitude = 0;
+		private int operationType = 0;
+		private int uid = 0;
+		private short version = 0;
+
+		public Entry() {
+
+		}
+
+		public Entry(long oid, int timestamp, int changesetId, long refId, int longitude, int latitude, int operationType, int uid, short version) {
+			this.oid = oid;
+			this.timestamp = timestamp;
+			this.changesetId = changesetId;
+			this.refId = refId;
+			this.longitude = longitude;
+			this.latitude = latitude;
+			this.operationType = operationType;
+			this.uid = uid;
+			this.version = version;
+		}
+
+		/** Expands the element id and timestamp range */
+		public void include(long oid, int timestamp) {
+			if (oid < minOid) minOid = oid;
+			if (oid > maxOid) maxOid = oid;
+			if (timestamp < minTimestamp) minTimestamp = timestamp;
+			if (timestamp > maxTimestamp) maxTimestamp = timestamp;
+		}
+
+		public void write(DataOutputStream dos) throws IOException {
+			dos.writeLong(offset);
+			dos.writeInt(length);
+			dos.writeLong(minOid);
+			dos.writeLong(maxOid);
+			dos.writeInt(minTimestamp);
+			dos.writeInt(maxTimestamp);
+			dos.writeLong(oid);
+			dos.writeInt(timestamp);
+			dos.writeInt(changesetId);
+			dos.writeLong(refId);
+			dos.writeInt(longitude);
+			dos.writeInt(latitude);
+			dos.writeInt(operationType);
+			dos.writeInt(uid);
+			dos.writeShort(version);
+		}
+
+		public static Entry read(DataInputStream dis) throws IOException {
+			Entry entry = new Entry();
+			entry.offset = dis.readLong();
+			entry.length = dis.readInt();
+			entry.minOid = dis.readLong();
+			entry.maxOid = dis.readLong();
+			entry.minTimestamp = dis.readInt();
+			entry.maxTimestamp = dis.readInt();
+			entry.oid = dis.readLong();
+			entry.timestamp = dis.readInt();
+			entry.changesetId = dis.readInt();
+			entry.refId = dis.readLong();
+			entry.longitude = dis.readInt();
+			entry.latitude = dis.readInt();
+			entry.operationType = dis.readInt();
+			entry.uid = dis.readInt();
+			entry.version = dis.readShort();
+			return entry;
+		}
+
+		public long getOffset() {
+			return offset;
+		}
+		public void setOffset(long offset) {
+			this.offset = offset;
+		}
+		public int getLength() {
+			return length;
+		}
+		public void setLength(int length) {
+			this.length = length;
+		}
+		public long getMinOid() {
+			return minOid;
+		}
+		public long getMaxOid() {
+			return maxOid;
+		}
+		public int getMinTimestamp() {
+			return minTimestamp;
+		}
+		public int getMaxTimestamp() {
+			return maxTimestamp;
+		}
+		public long getOid() {
+			return oid;
+		}
+		public int getTimestamp() {
+			return timestamp;
+		}
+		public int getChangesetId() {
+			return changesetId;
+		}
+		public long getRefId() {
+			return refId;
+		}
+		public int getLongitude() {
+			return longitude;
+		}
+		public int getLatitude() {
+			return latitude;
+		}
+		public int getOperationType() {
+			return operationType;
+		}
+		public int getUid() {
+			return uid;
+		}
+		public short getVersion() {
+			return version;
+		}
+	}
+}
@@ -0,0 +1,165 @@
+/** Copyright 2017, Simon Gröchenig, Salzburg Research Forschungsgesellschaft m.b.H.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.impl;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.logging.log4j.Logger;
+
+import com.google.protobuf.CodedOutputStream;
+
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.pbf.OperationProto.PbfVgiOperationContainer;
+
+/**
+ * Output of a single operation PBF file and its index. Operation containers
+ * are serialized into a buffer which is written to a file channel when it is
+ * full. The output is not thread-safe; the writer uses each output from one
+ * thread at a time.
+ */
+public class VgiOperationPbfOutput {
+	private static Logger log = org.apache.logging.log4j.LogManager.getLogger(VgiOperationPbfOutput.class);
+	
+	private static final int BUFFER_SIZE = 1024 * 1024;
+	
+	private final File pbfFile;
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+	
+	/** Sidecar index (null if the existing PBF data is not indexed) */
+	private DataOutputStream indexWriter = null;
+	
+	/**
+	 * Opens the PBF file and its index file
+	 * @param pbfFile operation PBF file
+	 * @param append if false, existing data is discarded
+	 */
+	public VgiOperationPbfOutput(File pbfFile, boolean append) throws IOException {
+		this.pbfFile = pbfFile;
+		if (append) {
+			channel = FileChannel.open(pbfFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		} else {
+			channel = FileChannel.open(pbfFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		}
+		
+		try {
+			indexWriter = VgiOperationPbfIndex.openIndexWriter(pbfFile);
+		} catch (IOException e) {
+			e.printStackTrace();
+			indexWriter = null;
+		}
+	}
+	
+	/**
+	 * Writes an operation container and its index entry
+	 * @param container serialized size of the container is computed only once
+	 * @param indexEntry index entry of the batch in the container (or null)
+	 */
+	public void write(PbfVgiOperationContainer container, VgiOperationPbfIndex.Entry indexEntry) throws IOException {
+		int size = container.getSerializedSize();
+		if (size > buffer.remaining()) flushBuffer();
+		
+		if (size > buffer.capacity()) {
+			/** Larger than the buffer */
+			ByteBuffer bytes = ByteBuffer.wrap(container.toByteArray());
+			while (bytes.hasRemaining()) channel.write(bytes);
+		} else {
+			CodedOutputStream output = CodedOutputStream.newInstance(buffer.array(), buffer.position(), size);
+			container.writeTo(output);
+			output.checkNoSpaceLeft();
+			buffer.position(buffer.position() + size);
+		}
+		
+		if (indexEntry != null && indexWriter != null) {
+			try {
+				indexEntry.write(indexWriter);
+			} catch (IOException e) {
+				e.printStackTrace();
+				closeIndex(true);
+			}
+		}
+	}
+	
+	/**
+	 * Writes the buffered data and index entries to disk, so that readers see all written batches
+	 */
+	public void flush() throws IOException {
+		flushBuffer();
+		if (indexWriter != null) {
+			try {
+				indexWriter.flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+				closeIndex(true);
+			}
+		}
+	}
+	
+	private void flushBuffer() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) channel.write(buffer);
+		buffer.clear();
+	}
+	
+	/**
+	 * Writes the buffered data and closes the PBF file and its index file
+	 * @param deleteIndex if true, the index file is deleted
+	 */
+	public void close(boolean deleteIndex) {
+		try {
+			flushBuffer();
+		} catch (IOException e) {
+			e.printStackTrace();
+			deleteIndex = true;
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		closeIndex(deleteIndex);
+	}
+	
+	/**
+	 * Closes the index file
+	 * @param delete if true, the index file is deleted
+	 */
+	private void closeIndex(boolean delete) {
+		if (indexWriter != null) {
+			try {
+				indexWriter.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+				delete = true;
+			}
+			indexWriter = null;
+		}
+		
+		File indexFile = VgiOperationPbfIndex.getIndexFile(pbfFile);
+		if (delete && indexFile.exists() && !indexFile.delete()) {
+			log.warn("Cannot delete file " + indexFile.getAbsolutePath());
+		}
+	}
+	
+	public File getPbfFile() {
+		return pbfFile;
+	}
+}
@@ -16,36 +16,49 @@ limitations under the License.
 package at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.impl;
 
 import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import org.apache.logging.log4j.Logger;
 
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.ExtensionRegistryLite;
 import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
 import com.vividsolutions.jts.geom.Envelope;
 
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiFeature;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiOperation;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiFeatureImpl;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiGeometryType;
-import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiOperationImpl;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiOperationBatch;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiOperationType;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiFeatureImpl.LocalizeType;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.pbf.OperationFileListProto.PbfOperationFileList;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.pbf.OperationFileListProto.PbfOperationFileList.ElementType;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.pbf.OperationFileListProto.PbfOperationFileList.PbfOperationFile;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.pbf.OperationProto.PbfVgiOperationContainer;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.pbf.OperationProto.PbfVgiOperationContainer.PbfVgiFeatureBatch;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.pbf.OperationProto.PbfVgiOperationContainer.PbfVgiFeatureBytes;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.pbf.OperationProto.PbfVgiOperationContainer.PbfVgiFeatureWrapper;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.pbf.OperationProto.PbfVgiOperationContainer.PbfVgiOperation;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.pipeline.IVgiPipelineSettings;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.pipeline.producer.IVgiAnalysisPipelineProducer;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.pipeline.producer.VgiFeatureBatchQueue;
 
 import gnu.trove.list.array.TLongArrayList;
 
@@ -58,6 +71,8 @@ public class VgiOperationPbfReaderImpl implements IVgiAnalysisPipelineProducer {
 	private int startFileId = 1;
 	private int producerCount = 1;
 	private int producerNumber = 0;
+	/** files shared by all producers; if null, each producer reads a fixed range of file IDs */
+	private VgiOperationPbfFileQueue fileQueue = null;
 	
 	private byte[] byteArray = new byte[0];
 	private int byteArrayPointer = 0;
@@ -77,24 +92,31 @@ public class VgiOperationPbfReaderImpl implements IVgiAnalysisPipelineProducer {
 	
 	private boolean coordinateOnly = false;
 	
+	/** if true, operation files are memory-mapped instead of streamed */
+	private boolean memoryMapped = false;
+	
+	/** if true, batches of indexed operation files are decoded in parallel */
+	private boolean parallelDecoding = false;
+	/** number of batches which are decoded in parallel before they are enqueued */
+	private static final int PARALLEL_BATCH_COUNT = 256;
+	/** pool which decodes feature batches; shared by all producers */
+	private static ForkJoinPool decodingPool = null;
+	
 	private int filterFileId = -1;
 	
 	/** if true, QT quadrant is WITHIN the filter polygon */
 	protected LocalizeType localizeType = LocalizeType.UNDEFINED;
 	/** used to cache features during quadtree read */
 	protected String cacheIdentifier = "";
+	private List<IVgiFeature> cachedFeatures = null;
 
 	/** queue operations for further processing */
-	private BlockingQueue<IVgiFeature> queue;
+	private VgiFeatureBatchQueue queue;
+	/** features which have not been handed over to the queue yet */
+	private List<IVgiFeature> transferBatch = null;
 	
-	/** if 2 subsequent PBF operations have same attribute value, only the 1st PBF operation saves the attribute (this reduces PBF file size)  */
-	private IVgiOperation currentOperationValues = null;
-	private long currentPbfOperationOid = 0l;
-	private int currentPbfOperationTimestamp = 0;
-	private int currentPbfOperationChangeset = 0;
-	private long currentPbfOperationRefId = 0l;
-	private int currentPbfOperationLongitude = 0;
-	private int currentPbfOperationLatitude = 0;
+	/** delta values of the current operation file */
+	private DeltaValues deltaValues = new DeltaValues();
 	
 	public VgiOperationPbfReaderImpl(IVgiPipelineSettings settings) {
 		this.settings = settings;
@@ -113,16 +135,43 @@ public class VgiOperationPbfReaderImpl implements IVgiAnalysisPipelineProducer {
 		if (filterFileId != -1) log.info(" - filterFileId: {}", filterFileId);
 		if (producerCount != 1) log.info(" - producer: {} of {}", producerNumber, producerCount);
 		if (!filterGeometryType.equals(VgiGeometryType.UNDEFINED)) log.info(" - filterGeometryType: {}", filterGeometryType);
+		if (memoryMapped) log.info(" - memoryMapped: {}", memoryMapped);
+		if (parallelDecoding) log.info(" - parallelDecoding: {}", parallelDecoding);
 		
-		readPbfFiles(false);
+		try {
+			readPbfFiles(false);
+		} finally {
+			closeQueue();
+		}
 	}
 	
 	protected void readPbfFiles(boolean keepInCache) {
+		if (keepInCache) cachedFeatures = new ArrayList<IVgiFeature>();
 		
+		readOperationFiles(keepInCache);
+		
+		/** Features are cached after all files have been read (the cache is bounded by the size of the features) */
 		if (keepInCache) {
-			if (!settings.getCache().containsKey(cacheIdentifier)) settings.getCache().put(cacheIdentifier, new ArrayList<IVgiFeature>());
+			settings.getCache().put(cacheIdentifier, cachedFeatures);
+			cachedFeatures = null;
 		}
+	}
+	
+	/**
+	 * The read features depend on the filters of this reader, so features
+	 * of filtered reads are not cached
+	 * @param path quadrant path
+	 * @return cache key of the quadrant or null if ID, geometry type or coordinate filters are set
+	 */
+	protected String getCacheKey(String path) {
+		if (filterNodeId != null || filterWayId != null || filterRelationId != null) return null;
+		if (!filterGeometryType.equals(VgiGeometryType.UNDEFINED) || coordinateOnly) return null;
 		
+		long filterTimestamp = (settings.getFilterTimestamp() != null) ? settings.getFilterTimestamp().getTime() : Long.MAX_VALUE;
+		return path + "@" + filterTimestamp;
+	}
+	
+	private void readOperationFiles(boolean keepInCache) {
 		/** Read the operation file list */
 		PbfOperationFileList pbfFileList = null;
 		
@@ -139,8 +188,10 @@ public class VgiOperationPbfReaderImpl implements IVgiAnalysisPipelineProducer {
 			log.error("IOException while reading PBF files");
 		}
 		
-		/** Reset pointers to 0 */
-		filterIdPointer = 0;
+		if (fileQueue != null) {
+			readQueuedFiles(pbfFileList, keepInCache);
+			return;
+		}
 		
 		/** Iterate through operation files */
 		/** Determine first and last file id (related to multi-threading) */
@@ -152,7 +203,6 @@ public class VgiOperationPbfReaderImpl implements IVgiAnalysisPipelineProducer {
 			read(pbfFileList.getNodeOperationFileList(), keepInCache, firstFileId, lastFileId);
 		}
 
-		filterIdPointer = 0;
 		firstFileId = startFileId + (int)Math.floor((double)(pbfFileList.getWayOperationFileCount()-startFileId) / producerCount * producerNumber) + 1;
 		if (producerNumber == 0) firstFileId = startFileId;
 		lastFileId = startFileId + (int)Math.floor((double)(pbfFileList.getWayOperationFileCount()-startFileId) / producerCount * (producerNumber+1));
@@ -160,7 +210,6 @@ public class VgiOperationPbfReaderImpl implements IVgiAnalysisPipelineProducer {
 			read(pbfFileList.getWayOperationFileList(), keepInCache, firstFileId, lastFileId);
 		}
 
-		filterIdPointer = 0;
 		firstFileId = startFileId + (int)Math.floor((double)(pbfFileList.getRelationOperationFileCount()-startFileId) / producerCount * producerNumber) + 1;
 		if (producerNumber == 0) firstFileId = startFileId;
 		lastFileId = startFileId + (int)Math.floor((double)(pbfFileList.getRelationOperationFileCount()-startFileId) / producerCount * (producerNumber+1));
@@ -169,6 +218,39 @@ public class VgiOperationPbfReaderImpl implements IVgiAnalysisPipelineProducer {
 		}
 	}
 	
+	/**
+	 * Reads files from the shared file queue until it is empty. The first producer fills the queue.
+	 */
+	private void readQueuedFiles(PbfOperationFileList pbfFileList, boolean keepInCache) {
+		synchronized (fileQueue) {
+			if (!fileQueue.isInitialized()) {
+				List<PbfOperationFile> files = new ArrayList<PbfOperationFile>();
+				if (settings.getFilterElementType().equals(VgiGeometryType.UNDEFINED) || settings.getFilterElementType().equals(VgiGeometryType.POINT)) {
+					files.addAll(pbfFileList.getNodeOperationFileList());
+				}
+				if (settings.getFilterElementType().equals(VgiGeometryType.UNDEFINED) || settings.getFilterElementType().equals(VgiGeometryType.LINE)) {
+					files.addAll(pbfFileList.getWayOperationFileList());
+				}
+				if (settings.getFilterElementType().equals(VgiGeometryType.UNDEFINED) || settings.getFilterElementType().equals(VgiGeometryType.RELATION)) {
+					files.addAll(pbfFileList.getRelationOperationFileList());
+				}
+				/** Larger files first if several producers share the queue */
+				fileQueue.initialize(files, producerCount > 1);
+				log.info("[{}] {} files queued ({} operations)", producerNumber, files.size(), fileQueue.getRemainingEntries());
+			}
+		}
+		
+		PbfOperationFile file = null;
+		while ((file = fileQueue.poll()) != null) {
+			if (filterFileId != -1) {
+				if (file.getOperationFileId() != filterFileId) continue;
+			}
+			if (file.getOperationFileId() < startFileId) continue;
+			
+			readFile(file, keepInCache);
+		}
+	}
+	
 	private void read(List<PbfOperationFile> pbfFileList, boolean keepInCache, int firstFileId, int lastFileId) {
 		
 		/** Iterate through operation files */
@@ -188,111 +270,311 @@ public class VgiOperationPbfReaderImpl implements IVgiAnalysisPipelineProducer {
 			
 			/** Skip files if multi-threading */
 			if (file.getOperationFileId() < firstFileId || file.getOperationFileId() > lastFileId) continue;
-
-			/** Does file exist? */
-			String elementTypePrefix = "d";
-			VgiGeometryType geometryType = VgiGeometryType.UNDEFINED;
-			switch (file.getElementType()) {
-			case NODE:
-				elementTypePrefix = "n";
-				geometryType = VgiGeometryType.POINT;
-				break;
-			case WAY: 
-				elementTypePrefix = "w";
-				geometryType = VgiGeometryType.LINE;
-				break;
-			case RELATION: 
-				elementTypePrefix = "r";
-				geometryType = VgiGeometryType.RELATION;
-				break;
-			default: break;
-			}
 			
-			if (!containsRequestedOperations(file, geometryType)) continue;
+			readFile(file, keepInCache);
+		}
+//		log.info("[{}] Reading PBF files finished", producerNumber);
+    }
+	
+	/**
+	 * Reads a single operation file
+	 */
+	private void readFile(PbfOperationFile file, boolean keepInCache) {
+		/** Does file exist? */
+		String elementTypePrefix = "d";
+		VgiGeometryType geometryType = VgiGeometryType.UNDEFINED;
+		switch (file.getElementType()) {
+		case NODE:
+			elementTypePrefix = "n";
+			geometryType = VgiGeometryType.POINT;
+			break;
+		case WAY: 
+			elementTypePrefix = "w";
+			geometryType = VgiGeometryType.LINE;
+			break;
+		case RELATION: 
+			elementTypePrefix = "r";
+			geometryType = VgiGeometryType.RELATION;
+			break;
+		default: break;
+		}
+		
+		if (!containsRequestedOperations(file, geometryType)) return;
+		
+		File pbfFile = new File(pbfDataFolder + "/operation_" + elementTypePrefix + "_" + file.getOperationFileId() + ".pbf");
+		
+		if (!pbfFile.exists()) {
+			log.error("'{}' not found!", pbfFile);
+			return;
+		}
+		
+//			log.info("[{}: Pbf {}_{}/{}] Start: NumOps={}; File={}", producerNumber, elementTypePrefix, file.getOperationFileId(), pbfFileList.size(), file.getNumEntries(), pbfFile);
+		/** Initialize variables */
+		deltaValues = new DeltaValues();
+		filterIdPointer = getFilterPointer(getFilterList(geometryType), file.getMinElementId());
+		
+		byteArray = new byte[0];
+		byteArrayPointer = 0;
+		
+		List<VgiOperationPbfIndex.Entry> index = VgiOperationPbfIndex.read(pbfFile);
+		/** Skip files without operations before the filter timestamp */
+		if (index != null && !containsRequestedTimestamps(index)) return;
+		
+		try {
+			if (index != null) {
+				readIndexedFile(pbfFile, index, file, geometryType, keepInCache);
+			} else if (memoryMapped) {
+				readMappedFile(pbfFile, file, geometryType, keepInCache);
+			} else {
+				readStreamedFile(pbfFile, file, geometryType, keepInCache);
+			}
+		} catch (InvalidProtocolBufferException e) {
+			log.error("Operation after: {}/{} > {}, {}", geometryType, deltaValues.oid, deltaValues.operationType, deltaValues.timestamp + VgiOperationPbfWriterImpl.TIMESTAMP_OFFSET);
+			e.printStackTrace();
+			/** http://www.openstreetmap.org/browse/changeset/14246617 */
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			log.error("'{}' not found!", pbfFile);
+		}
+		
+//			/** log progress of reading PBFs */
+//			log.info("[{}: Pbf {}_{}/{}] End  : NumOps={} {}", producerNumber, elementTypePrefix, file.getOperationFileId(), pbfFileList.size(), file.getNumEntries(), ((numDuration > 0) ? "; Dur=" + (duration/numDuration) : ""));
+	}
+	
+	/**
+	 * Reads an operation file through a buffered input stream. Batch boundaries
+	 * are found by searching for the PbfVgiFeatureBytes header.
+	 */
+	private void readStreamedFile(File pbfFile, PbfOperationFile file, VgiGeometryType geometryType, boolean keepInCache) throws IOException {
+		try (BufferedInputStream bis = new BufferedInputStream(
+				new FileInputStream(pbfFile), 1024*64)) {
 			
-			File pbfFile = new File(pbfDataFolder + "/operation_" + elementTypePrefix + "_" + file.getOperationFileId() + ".pbf");
+			byte[] byteArray = null;
+			PbfVgiFeatureBatch pbfFeature = null;
 			
-			if (!pbfFile.exists()) {
-				log.error("'{}' not found!", pbfFile);
-				continue;
+			while (true) {
+				
+				/** Parse start information (at least 4 bytes) */
+				byteArray = readBytes(bis, 3);
+				if (byteArray == null) break; /** no more features in this file */
+				byte previousByte = 0;
+				do { /** read bytes until the sequence 10-5 occurs */
+					previousByte = byteArray[byteArray.length-1];
+					byteArray = readBytes(bis, 1);
+				} while (previousByte != 10 || byteArray[0] != 5);
+				
+				/** Parse PBF operation's length in bytes (5 bytes) */
+				byteArray = readBytes(bis, 5);
+				PbfVgiFeatureBytes b = PbfVgiFeatureBytes.parseFrom(byteArray);
+				
+				/** Parse other information (at least 2 bytes, until positive integer) */
+				byteArray = readBytes(bis, 1);
+				do {
+					byteArray = readBytes(bis, 1);
+				} while (byteArray[0] < 0);
+				
+				/** Parse Operation (x bytes) */
+				byteArray = readBytes(bis, b.getBytes());
+				
+				pbfFeature = PbfVgiFeatureBatch.parseFrom(byteArray);
+				
+				if (!handleFeatureBatch(pbfFeature, file, geometryType, keepInCache)) break;
 			}
+		}
+	}
+	
+	/**
+	 * Reads an operation file through a read-only memory mapping. The file is
+	 * parsed as a sequence of PbfVgiFeatureWrapper messages directly from the
+	 * mapped buffer; no byte arrays are allocated for framing.
+	 */
+	private void readMappedFile(File pbfFile, PbfOperationFile file, VgiGeometryType geometryType, boolean keepInCache) throws IOException {
+		try (FileChannel channel = FileChannel.open(pbfFile.toPath(), StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			CodedInputStream input = CodedInputStream.newInstance(new ByteBufferInputStream(buffer));
 			
-//			log.info("[{}: Pbf {}_{}/{}] Start: NumOps={}; File={}", producerNumber, elementTypePrefix, file.getOperationFileId(), pbfFileList.size(), file.getNumEntries(), pbfFile);
-			/** Initialize variables */
-			currentOperationValues = new VgiOperationImpl();
-			currentPbfOperationOid = 0l;
-			currentPbfOperationTimestamp = 0;
-			currentPbfOperationChangeset = 0;
-			currentPbfOperationRefId = 0l;
-			currentPbfOperationLongitude = 0;
-			currentPbfOperationLatitude = 0;
-
-			byteArray = new byte[0];
-			byteArrayPointer = 0;
+			while (!input.isAtEnd()) {
+				/** Size limit applies per batch, not per file */
+				input.resetSizeCounter();
+				
+				int tag = input.readTag();
+				if (WireFormat.getTagFieldNumber(tag) != PbfVgiOperationContainer.FEATUREWRAPPER_FIELD_NUMBER) {
+					if (!input.skipField(tag)) break;
+					continue;
+				}
+				
+				PbfVgiFeatureWrapper pbfFeatureWrapper = input.readMessage(PbfVgiFeatureWrapper.PARSER, ExtensionRegistryLite.getEmptyRegistry());
+				
+				if (!handleFeatureBatch(pbfFeatureWrapper.getFeature(), file, geometryType, keepInCache)) break;
+			}
+		}
+	}
+	
+	/**
+	 * Reads an operation file using its index file. Batches which do not contain
+	 * requested element IDs are skipped; the delta values of each batch are
+	 * restored from the index. If parallel decoding is activated, batches are
+	 * decoded by the decoding pool and enqueued in file order.
+	 */
+	private void readIndexedFile(File pbfFile, List<VgiOperationPbfIndex.Entry> index, PbfOperationFile file, VgiGeometryType geometryType, boolean keepInCache) throws IOException {
+		TLongArrayList filterList = getFilterList(geometryType);
+		
+		try (FileChannel channel = FileChannel.open(pbfFile.toPath(), StandardOpenOption.READ)) {
+			MappedByteBuffer mappedBuffer = (memoryMapped) ? channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()) : null;
+			byte[] bytes = new byte[0];
+			List<Callable<List<IVgiFeature>>> decoders = new ArrayList<Callable<List<IVgiFeature>>>();
 			
-			/** Stream and read the operations */
-			try (BufferedInputStream bis = new BufferedInputStream(
-					new FileInputStream(pbfFile), 1024*64)) {
+			for (VgiOperationPbfIndex.Entry entry : index) {
+				/** Batches are sorted by ID, so no later batch contains requested features (decoded batches do not move the filter pointer) */
+				if (filterList != null && (filterList.isEmpty() || filterList.get(filterList.size() - 1) < entry.getMinOid())) break;
+				/** Skip batches without requested features */
+				if (filterList != null && !containsFilterId(filterList, entry.getMinOid(), entry.getMaxOid())) continue;
+				if (!containsRequestedTimestamps(entry)) continue;
 				
-				byte[] byteArray = null;
-				PbfVgiFeatureBatch pbfFeature = null;
+				CodedInputStream input = null;
+				if (mappedBuffer != null) {
+					ByteBuffer batchBuffer = mappedBuffer.duplicate();
+					batchBuffer.position((int)entry.getOffset());
+					batchBuffer.limit((int)entry.getOffset() + entry.getLength());
+					input = CodedInputStream.newInstance(new ByteBufferInputStream(batchBuffer));
+				} else {
+					/** Parallel decoders need their own byte array */
+					if (parallelDecoding || bytes.length < entry.getLength()) bytes = new byte[entry.getLength()];
+					ByteBuffer batchBuffer = ByteBuffer.wrap(bytes, 0, entry.getLength());
+					while (batchBuffer.hasRemaining()) {
+						if (channel.read(batchBuffer, entry.getOffset() + batchBuffer.position()) < 0) throw new EOFException();
+					}
+					input = CodedInputStream.newInstance(bytes, 0, entry.getLength());
+				}
 				
-				while (true) {
-					
-					/** Parse start information (at least 4 bytes) */
-					byteArray = readBytes(bis, 3);
-					if (byteArray == null) break; /** no more features in this file */
-					byte previousByte = 0;
-					do { /** read bytes until the sequence 10-5 occurs */
-						previousByte = byteArray[byteArray.length-1];
-						byteArray = readBytes(bis, 1);
-					} while (previousByte != 10 || byteArray[0] != 5);
-					
-					/** Parse PBF operation's length in bytes (5 bytes) */
-					byteArray = readBytes(bis, 5);
-					PbfVgiFeatureBytes b = PbfVgiFeatureBytes.parseFrom(byteArray);
-					
-					/** Parse other information (at least 2 bytes, until positive integer) */
-					byteArray = readBytes(bis, 1);
-					do {
-						byteArray = readBytes(bis, 1);
-					} while (byteArray[0] < 0);
-					
-					/** Parse Operation (x bytes) */
-					byteArray = readBytes(bis, b.getBytes());
-					
-					pbfFeature = PbfVgiFeatureBatch.parseFrom(byteArray);
+				if (parallelDecoding) {
+					decoders.add(new BatchDecoder(input, new DeltaValues(entry), geometryType));
+					if (decoders.size() < PARALLEL_BATCH_COUNT) continue;
 					
-					/** Deserialize operation */
-					List<IVgiFeature> featureList = deserializeFeature(pbfFeature, geometryType);
+					boolean resume = handleDecodedBatches(decoders, file, keepInCache);
+					decoders.clear();
+					if (!resume) break;
 					
-					/** Enqueue operation (feature can be null if filter is applied) */
-					for (IVgiFeature feature : featureList) {
-						feature.setLocalizeType(localizeType);
-						enqueueFeature(feature);
-						if (keepInCache) settings.getCache().get(cacheIdentifier).add(feature);
-					}
-					
-					/** No more filter values in this file */
-					if (filterNodeId != null && file.getElementType().equals(ElementType.NODE) && (filterIdPointer == filterNodeId.size() || file.getMaxElementId() < filterNodeId.get(filterIdPointer))) break;
-					if (filterWayId != null && file.getElementType().equals(ElementType.WAY) && (filterIdPointer == filterWayId.size() || file.getMaxElementId() < filterWayId.get(filterIdPointer))) break;
+				} else {
+					deltaValues = new DeltaValues(entry);
+					if (!handleFeatureBatch(PbfVgiFeatureBatch.parseFrom(input), file, geometryType, keepInCache)) break;
 				}
-				
-			} catch (InvalidProtocolBufferException e) {
-				log.error("Operation after: {}/{} > {}, {}", currentOperationValues.getVgiGeometryType(), currentOperationValues.getOid(), currentOperationValues.getVgiOperationType(), currentOperationValues.getTimestamp());
-				e.printStackTrace();
-				/** http://www.openstreetmap.org/browse/changeset/14246617 */
-			} catch (FileNotFoundException e) {
-				e.printStackTrace();
-			} catch (IOException e) {
-				log.error("'{}' not found!", pbfFile);
 			}
 			
-//			/** log progress of reading PBFs */
-//			log.info("[{}: Pbf {}_{}/{}] End  : NumOps={} {}", producerNumber, elementTypePrefix, file.getOperationFileId(), pbfFileList.size(), file.getNumEntries(), ((numDuration > 0) ? "; Dur=" + (duration/numDuration) : ""));
+			if (!decoders.isEmpty()) handleDecodedBatches(decoders, file, keepInCache);
 		}
-//		log.info("[{}] Reading PBF files finished", producerNumber);
-    }
+	}
+	
+	/**
+	 * Decodes the batches in parallel and enqueues the features in batch order
+	 * @return false if no more requested features can be found in this file
+	 */
+	private boolean handleDecodedBatches(List<Callable<List<IVgiFeature>>> decoders, PbfOperationFile file, boolean keepInCache) throws IOException {
+		try {
+			for (Future<List<IVgiFeature>> result : getDecodingPool().invokeAll(decoders)) {
+				if (!handleFeatures(result.get(), file, keepInCache)) return false;
+			}
+		} catch (InterruptedException e) {
+			log.error("interrupted while decoding feature batches", e);
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException)e.getCause();
+			throw new IOException(e.getCause());
+		}
+		return true;
+	}
+	
+	private static synchronized ForkJoinPool getDecodingPool() {
+		if (decodingPool == null) decodingPool = new ForkJoinPool();
+		return decodingPool;
+	}
+	
+	/**
+	 * @return position of the first filter ID which is not less than minId
+	 */
+	private int getFilterPointer(TLongArrayList filterList, long minId) {
+		if (filterList == null) return 0;
+		int i = filterList.binarySearch(minId);
+		return (i >= 0) ? i : -(i + 1);
+	}
+	
+	/**
+	 * @return true if the sorted filter list contains an ID between minId and maxId
+	 */
+	private boolean containsFilterId(TLongArrayList filterList, long minId, long maxId) {
+		int i = filterList.binarySearch(minId);
+		if (i >= 0) return true;
+		i = -(i + 1);
+		return i < filterList.size() && filterList.get(i) <= maxId;
+	}
+	
+	/**
+	 * Operations after the filter timestamp are dropped while deserializing,
+	 * so batches which only contain such operations do not have to be read
+	 * @return true if the batch contains operations before the filter timestamp
+	 */
+	private boolean containsRequestedTimestamps(VgiOperationPbfIndex.Entry entry) {
+		if (settings.getFilterTimestamp() == null) return true;
+		return ((long)entry.getMinTimestamp() + VgiOperationPbfWriterImpl.TIMESTAMP_OFFSET) * 1000 < settings.getFilterTimestamp().getTime();
+	}
+	
+	/**
+	 * @return true if one of the batches contains operations before the filter timestamp
+	 */
+	private boolean containsRequestedTimestamps(List<VgiOperationPbfIndex.Entry> index) {
+		for (VgiOperationPbfIndex.Entry entry : index) {
+			if (containsRequestedTimestamps(entry)) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Deserializes a feature batch and enqueues its features
+	 * @return false if no more requested features can be found in this file
+	 */
+	private boolean handleFeatureBatch(PbfVgiFeatureBatch pbfFeature, PbfOperationFile file, VgiGeometryType geometryType, boolean keepInCache) {
+		/** Deserialize operation */
+		return handleFeatures(deserializeFeature(pbfFeature, geometryType, deltaValues, true), file, keepInCache);
+	}
+	
+	/**
+	 * Enqueues the features of a deserialized batch
+	 * @return false if no more requested features can be found in this file
+	 */
+	private boolean handleFeatures(List<IVgiFeature> featureList, PbfOperationFile file, boolean keepInCache) {
+		/** Enqueue operation (feature can be null if filter is applied) */
+		for (IVgiFeature feature : featureList) {
+			feature.setLocalizeType(localizeType);
+			if (keepInCache) {
+				cachedFeatures.add(feature);
+				feature = copyCachedFeature(feature);
+			}
+			enqueueFeature(feature);
+		}
+		
+		/** No more filter values in this file */
+		if (filterNodeId != null && file.getElementType().equals(ElementType.NODE) && (filterIdPointer == filterNodeId.size() || file.getMaxElementId() < filterNodeId.get(filterIdPointer))) return false;
+		if (filterWayId != null && file.getElementType().equals(ElementType.WAY) && (filterIdPointer == filterWayId.size() || file.getMaxElementId() < filterWayId.get(filterIdPointer))) return false;
+		
+		return true;
+	}
+	
+	/**
+	 * Cached features are never handed over to the consumers, since consumers
+	 * modify features (e.g. action lists). Copies share the operations.
+	 * @return copy of the cached feature
+	 */
+	protected IVgiFeature copyCachedFeature(IVgiFeature cachedFeature) {
+		VgiFeatureImpl feature = new VgiFeatureImpl(new ArrayList<IVgiOperation>(cachedFeature.getOperationList()));
+		feature.setOid(cachedFeature.getOid());
+		feature.setVgiGeometryType(cachedFeature.getVgiGeometryType());
+		feature.setBBox(cachedFeature.getBBox());
+		feature.setRelationMembers(cachedFeature.getRelationMembers());
+		feature.setLocalizeType(localizeType);
+		return feature;
+	}
 	
 	/**
 	 * checks if file contains requested content
@@ -388,7 +670,7 @@ public class VgiOperationPbfReaderImpl implements IVgiAnalysisPipelineProducer {
     }
     
     /**
-     * Offers feature to queue
+     * Offers feature to queue (features are handed over in batches)
      * @param feature : list of type IVgiOperation
      */
 	protected void enqueueFeature(IVgiFeature feature) {
@@ -397,96 +679,112 @@ public class VgiOperationPbfReaderImpl implements IVgiAnalysisPipelineProducer {
 			return;
 		}
 		
+		if (transferBatch == null) transferBatch = new ArrayList<IVgiFeature>(queue.getTransferSize());
+		transferBatch.add(feature);
+		if (transferBatch.size() >= queue.getTransferSize()) flushFeatures();
+	}
+	
+	/**
+	 * Hands over the collected features to the queue
+	 */
+	protected void flushFeatures() {
+		if (transferBatch == null) return;
 		try {
-			boolean enqueued = false;
-			while (!enqueued) {
-				enqueued = queue.offer(feature, 50, TimeUnit.MILLISECONDS);
-			}
+			queue.put(transferBatch);
 		} catch (InterruptedException e) {
 			log.error("interrupted while offering data to queue", e);
+			Thread.currentThread().interrupt();
+		}
+		transferBatch = null;
+	}
+	
+	/**
+	 * Hands over the remaining features and signals that this producer has finished
+	 */
+	protected void closeQueue() {
+		flushFeatures();
+		try {
+			queue.close();
+		} catch (InterruptedException e) {
+			log.error("interrupted while closing queue", e);
 		}
 	}
     
 	/**
 	 * Reads an operation from PBF file
 	 * @param PBF Operation
+	 * @param deltaValues delta values before the first operation of the batch; updated while reading
+	 * @param sequential if true, the element ID filter pointer is used (batches are read in file order)
 	 * @return VGI Operation
 	 */
-    private List<IVgiFeature> deserializeFeature(PbfVgiFeatureBatch pbfFeatureBatch, VgiGeometryType geometryType) {
+    private List<IVgiFeature> deserializeFeature(PbfVgiFeatureBatch pbfFeatureBatch, VgiGeometryType geometryType, DeltaValues deltaValues, boolean sequential) {
     	List<IVgiFeature> featureList = new ArrayList<IVgiFeature>();
     	IVgiFeature feature = null;
     	IVgiFeature skipFeature = null;
     	
+    	/** operations are stored column-wise; features reference them through views */
+    	VgiOperationBatch operationBatch = new VgiOperationBatch(pbfFeatureBatch.getOperationCount(), settings.getTagDictionary());
+    	long filterTimestamp = (settings.getFilterTimestamp() != null) ? settings.getFilterTimestamp().getTime() : Long.MAX_VALUE;
+    	
     	for (PbfVgiOperation pbfOperation : pbfFeatureBatch.getOperationList()) {
 	    	/** id (offset, all) */
-    		if (feature == null || feature.getOid() != pbfOperation.getOid() + currentPbfOperationOid) {
+    		if (feature == null || feature.getOid() != pbfOperation.getOid() + deltaValues.oid) {
     			if (feature != null && feature.getOperationList().size() > 0) {
     				featureList.add(feature);
     			}
     			
     			feature = new VgiFeatureImpl();
             	feature.setBBox(new Envelope());
-            	feature.setOid(pbfOperation.getOid() + currentPbfOperationOid);
-            	currentPbfOperationOid = feature.getOid();
+            	feature.setOid(pbfOperation.getOid() + deltaValues.oid);
+            	deltaValues.oid = feature.getOid();
             	feature.setVgiGeometryType(geometryType);
     		}
     		
-    		if (feature.equals(skipFeature) || !filterByElementId(feature)) {
+    		if (feature.equals(skipFeature) || !((sequential) ? filterByElementId(feature) : containsElementId(feature))) {
     			skipFeature = feature;
     			feature = null;
     		}
-    		
-	    	IVgiOperation operation = new VgiOperationImpl();
 	    	
 			/** op type (transform, all) */
 			if (pbfOperation.hasVgiOperationType()) {
-				currentOperationValues
-						.setVgiOperationType(VgiOperationType.getOperationTypeById(pbfOperation.getVgiOperationType()));
+				deltaValues.operationType = VgiOperationType.getOperationTypeById(pbfOperation.getVgiOperationType());
 			}
 	    	if (!coordinateOnly) {
 				/** user id (1:1, all) */
 	    		if (pbfOperation.hasUid()) {
-	    			currentOperationValues.setUid(pbfOperation.getUid());
+	    			deltaValues.uid = pbfOperation.getUid();
 	    		}
 	    	}
 			/** timestamp (offset and transform, all) */
 			if (pbfOperation.hasTimestamp()) {
-				currentPbfOperationTimestamp += pbfOperation.getTimestamp();
-				currentOperationValues.setTimestamp(new Date(
-						(long) (currentPbfOperationTimestamp + VgiOperationPbfWriterImpl.TIMESTAMP_OFFSET) * 1000));
+				deltaValues.timestamp += pbfOperation.getTimestamp();
 			}
 		    if (!coordinateOnly) {
 				/** changeset id (offset, all) */
 				if (pbfOperation.hasChangesetId()) {
-					currentPbfOperationChangeset += pbfOperation.getChangesetId();
+					deltaValues.changeset += pbfOperation.getChangesetId();
 				}
 				/** version (1:1, all) */
 	    		if (pbfOperation.hasVersion()) {
-	    			currentOperationValues.setVersion((short) pbfOperation.getVersion());
+	    			deltaValues.version = (short) pbfOperation.getVersion();
 	    		}
 		    }
-	    	if (feature != null) {
-		    	operation.setOid(feature.getOid());
-		    	operation.setVgiGeometryType(feature.getVgiGeometryType());
-				operation.setVgiOperationType(currentOperationValues.getVgiOperationType());
-    			operation.setUid(currentOperationValues.getUid());
-				operation.setTimestamp(currentOperationValues.getTimestamp());
-				operation.setChangesetid(currentPbfOperationChangeset);
-    			operation.setVersion(currentOperationValues.getVersion());
-    			if (settings.getFilterTimestamp() == null ||
-    					operation.getTimestamp().before(settings.getFilterTimestamp())) {
-    				feature.addOperation(operation);
-    			}
+		    IVgiOperation operation = null;
+		    long timestamp = (long) deltaValues.timestamp + VgiOperationPbfWriterImpl.TIMESTAMP_OFFSET;
+	    	if (feature != null && timestamp * 1000 < filterTimestamp) {
+	    		operation = operationBatch.add(feature.getOid(), feature.getVgiGeometryType(), deltaValues.operationType,
+	    				deltaValues.uid, timestamp, deltaValues.changeset, deltaValues.version);
+    			feature.addOperation(operation);
 			}
 		    if (!coordinateOnly) {
 				/** ref id (offset, if hasRef) */
 				if (pbfOperation.hasRef()) {
-					currentPbfOperationRefId += pbfOperation.getRef();
-					if (feature != null) {
-						operation.setRefId(currentPbfOperationRefId);
+					deltaValues.refId += pbfOperation.getRef();
+					if (operation != null) {
+						operation.setRefId(deltaValues.refId);
 					}
 				}
-				if (feature != null) {
+				if (operation != null) {
 					/** key (1:1, if hasKey) */
 					if (pbfOperation.hasKey()) {
 						operation.setKey(pbfOperation.getKey());
@@ -503,11 +801,13 @@ public class VgiOperationPbfReaderImpl implements IVgiAnalysisPipelineProducer {
 	    	}
 			/** coordinate (offset, if hasLongitude) */
 			if (pbfOperation.hasLongitude()) {
-				currentPbfOperationLongitude += pbfOperation.getLongitude();
-				currentPbfOperationLatitude += pbfOperation.getLatitude();
+				deltaValues.longitude += pbfOperation.getLongitude();
+				deltaValues.latitude += pbfOperation.getLatitude();
+				if (operation != null) {
+					operation.setCoordinateFromInteger(deltaValues.longitude, deltaValues.latitude);
+				}
 				if (feature != null) {
-					operation.setCoordinateFromInteger(currentPbfOperationLongitude, currentPbfOperationLatitude);
-					feature.getBBox().expandToInclude(operation.getCoordinate());
+					feature.getBBox().expandToInclude(VgiOperationBatch.toDegrees(deltaValues.longitude), VgiOperationBatch.toDegrees(deltaValues.latitude));
 				}
 			}
     	}
@@ -515,6 +815,7 @@ public class VgiOperationPbfReaderImpl implements IVgiAnalysisPipelineProducer {
 		if (feature != null && feature.getOperationList().size() > 0) {
 			featureList.add(feature);
 		}
+		operationBatch.trimToSize();
     	
 		return featureList;
     }
@@ -556,8 +857,31 @@ public class VgiOperationPbfReaderImpl implements IVgiAnalysisPipelineProducer {
 		} while (true);
 	}
 	
+	/**
+	 * Filters feature by element ID without using the filter pointer
+	 * @return TRUE if no filter is set or if featureId is included in filter
+	 */
+	private boolean containsElementId(IVgiFeature feature) {
+		TLongArrayList filterList = getFilterList(feature.getVgiGeometryType());
+		return filterList == null || containsFilterId(filterList, feature.getOid(), feature.getOid());
+	}
+	
+	/**
+	 * @return element ID filter of this geometry type or null if no filter is set
+	 */
+	private TLongArrayList getFilterList(VgiGeometryType geometryType) {
+		if (geometryType.equals(VgiGeometryType.POINT)) {
+			return filterNodeId;
+		} else if (geometryType.equals(VgiGeometryType.LINE)) {
+			return filterWayId;
+		} else if (geometryType.equals(VgiGeometryType.RELATION)) {
+			return filterRelationId;
+		}
+		return null;
+	}
+	
 	@Override
-	public void setQueue(BlockingQueue<IVgiFeature> queue) {
+	public void setQueue(VgiFeatureBatchQueue queue) {
 		this.queue = queue;
 	}
 
@@ -576,6 +900,11 @@ public class VgiOperationPbfReaderImpl implements IVgiAnalysisPipelineProducer {
 		this.producerNumber = producerNumber;
 	}
 
+	@Override
+	public void setFileQueue(VgiOperationPbfFileQueue fileQueue) {
+		this.fileQueue = fileQueue;
+	}
+
 	@Override
 	public void setStartFileId(int startFileId) {
 		this.startFileId = startFileId;
@@ -619,10 +948,112 @@ public class VgiOperationPbfReaderImpl implements IVgiAnalysisPipelineProducer {
 		this.coordinateOnly = coordinatesOnly;
 	}
 
+	@Override
+	public void setMemoryMapped(boolean memoryMapped) {
+		this.memoryMapped = memoryMapped;
+	}
+
+	@Override
+	public void setParallelDecoding(boolean parallelDecoding) {
+		this.parallelDecoding = parallelDecoding;
+	}
+
 	public LocalizeType isLocalizeType() {
 		return localizeType;
 	}
 	public void setLocalizeType(LocalizeType localizeType) {
 		this.localizeType = localizeType;
 	}
+	
+	/**
+	 * Values of the previous PBF operation. If 2 subsequent PBF operations have same
+	 * attribute value, only the 1st PBF operation saves the attribute (this reduces
+	 * PBF file size)
+	 */
+	private static class DeltaValues {
+		private VgiOperationType operationType = VgiOperationType.OP_UNDEFINED;
+		private int uid = -1;
+		private short version = -1;
+		private long oid = 0l;
+		private int timestamp = 0;
+		private int changeset = 0;
+		private long refId = 0l;
+		private int longitude = 0;
+		private int latitude = 0;
+		
+		public DeltaValues() {
+			
+		}
+		
+		/** Delta values at the beginning of an indexed batch */
+		public DeltaValues(VgiOperationPbfIndex.Entry entry) {
+			operationType = VgiOperationType.getOperationTypeById(entry.getOperationType());
+			uid = entry.getUid();
+			version = entry.getVersion();
+			oid = entry.getOid();
+			timestamp = entry.getTimestamp();
+			changeset = entry.getChangesetId();
+			refId = entry.getRefId();
+			longitude = entry.getLongitude();
+			latitude = entry.getLatitude();
+		}
+	}
+	
+	/**
+	 * Parses and deserializes a single feature batch (used for parallel decoding)
+	 */
+	private class BatchDecoder implements Callable<List<IVgiFeature>> {
+		private final CodedInputStream input;
+		private final DeltaValues deltaValues;
+		private final VgiGeometryType geometryType;
+		
+		public BatchDecoder(CodedInputStream input, DeltaValues deltaValues, VgiGeometryType geometryType) {
+			this.input = input;
+			this.deltaValues = deltaValues;
+			this.geometryType = geometryType;
+		}
+		
+		@Override
+		public List<IVgiFeature> call() throws IOException {
+			return deserializeFeature(PbfVgiFeatureBatch.parseFrom(input), geometryType, deltaValues, false);
+		}
+	}
+	
+	/**
+	 * Input stream view of a (memory-mapped) byte buffer. Bytes are copied in
+	 * bulk into the caller's buffer.
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+		
+		public ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+		
+		@Override
+		public int read() {
+			if (!buffer.hasRemaining()) return -1;
+			return buffer.get() & 0xFF;
+		}
+		
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (!buffer.hasRemaining()) return -1;
+			length = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, length);
+			return length;
+		}
+		
+		@Override
+		public long skip(long n) {
+			int skipped = (int)Math.min(n, buffer.remaining());
+			buffer.position(buffer.position() + skipped);
+			return skipped;
+		}
+		
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
 }
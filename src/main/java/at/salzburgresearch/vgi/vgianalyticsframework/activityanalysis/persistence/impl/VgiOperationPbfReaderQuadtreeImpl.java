@@ -18,19 +18,21 @@ package at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persisten
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.logging.log4j.Logger;
 import org.geotools.geometry.jts.JTSFactoryFinder;
 
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.IntersectionMatrix;
 import com.vividsolutions.jts.geom.Polygon;
 
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiFeature;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiFeatureImpl.LocalizeType;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.impl.VgiQuadrantQueue.Quadrant;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.pbf.QuadtreeIndexProto.PbfQuadtreeIndex;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.pbf.QuadtreeIndexProto.PbfQuadtreeIndex.PbfQuadtree;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.pipeline.IVgiPipelineSettings;
@@ -42,6 +44,11 @@ public class VgiOperationPbfReaderQuadtreeImpl extends VgiOperationPbfReaderImpl
 	private GeometryFactory geometryFactory = JTSFactoryFinder.getGeometryFactory();
 	
 	private int keepInCacheMaxLevel = 8;
+	
+	/** quadrants shared by all quadtree producers; if null, this producer reads all quadrants */
+	private VgiQuadrantQueue quadrantQueue = null;
+	private int producerCount = 1;
+	private int producerNumber = 0;
 
 	public VgiOperationPbfReaderQuadtreeImpl(IVgiPipelineSettings settings) {
 		super(settings);
@@ -49,11 +56,24 @@ public class VgiOperationPbfReaderQuadtreeImpl extends VgiOperationPbfReaderImpl
 	
 	@Override
 	public void run() {
-		settings.setCache(new HashMap<String, List<IVgiFeature>>());
-		
-		checkRuntimeMemory();
+		if (quadrantQueue == null) quadrantQueue = new VgiQuadrantQueue();
 		
-		readPbfFiles();
+		try {
+			/** The first producer checks the memory and enumerates the quadrants */
+			synchronized (quadrantQueue) {
+				if (!quadrantQueue.isInitialized()) {
+					checkRuntimeMemory();
+					
+					/** Larger quadrants first if several producers share the queue */
+					quadrantQueue.initialize(findQuadrants(), producerCount > 1);
+					log.info("[{}] {} quadrants queued", producerNumber, quadrantQueue.size());
+				}
+			}
+			
+			readPbfFiles();
+		} finally {
+			closeQueue();
+		}
 	}
 	
 	public void checkRuntimeMemory() {
@@ -63,8 +83,8 @@ public class VgiOperationPbfReaderQuadtreeImpl extends VgiOperationPbfReaderImpl
 		
 		if (runtime.maxMemory() - runtime.totalMemory() + runtime.freeMemory() < 1024*1024*512) { /** 512m */
 		    
-		    settings.getCache().clear();
-		    settings.setCache(new HashMap<String, List<IVgiFeature>>());
+		    /** Evict the least recently used half of the cache */
+		    settings.getCache().evict(settings.getCache().getWeight() / 2);
 		    settings.setKeepInCacheLevel(2);
 			log.info(" - keepInCacheLevel={}", settings.getKeepInCacheLevel());
 		} else {
@@ -74,40 +94,61 @@ public class VgiOperationPbfReaderQuadtreeImpl extends VgiOperationPbfReaderImpl
 		}
 	}
 	
+	/**
+	 * Reads quadrants from the quadrant queue until it is empty
+	 */
 	protected void readPbfFiles() {
+		Quadrant quadrant = null;
+		while ((quadrant = quadrantQueue.poll()) != null) {
+			super.setPbfDataFolder(new File(settings.getPbfDataFolder() + "/Quadtree/" + quadrant.getPath()));
+			super.setLocalizeType(quadrant.getLocalizeType());
+			
+			readQuadrant(quadrant.getPath(), quadrant.getLevel());
+		}
+	}
+	
+	/**
+	 * Traverses the quadtree index and collects the quadrants which have to be read
+	 * @return quadrants in traversal order
+	 */
+	private List<Quadrant> findQuadrants() {
+		List<Quadrant> quadrants = new ArrayList<Quadrant>();
+		
 		/** Writer headings */
 		try (CSVFileWriter writerQTStructure = new CSVFileWriter("E:/vgi/csv/quadtree_structure.csv")) {
 			writerQTStructure.writeLine("geometry;quadtree_path;level;feature_count;border_intersect;");
 			
+			/** Read the flat quadtree index (if available) */
+			File flatIndexFile = FlatQuadtreeIndex.getIndexFile(new File(settings.getPbfDataFolder() + "/Quadtree/"));
+			if (flatIndexFile.exists()) {
+				FlatQuadtreeIndex flatIndex = FlatQuadtreeIndex.open(flatIndexFile);
+				Envelope filterEnvelope = (settings.getCurrentPolygon() != null) ? settings.getCurrentPolygon().getPolygon().getEnvelopeInternal() : null;
+				findFlatQuadrants(flatIndex, flatIndex.getRoot(), "", filterEnvelope, filterEnvelope == null, quadrants, writerQTStructure);
+				return quadrants;
+			}
+			
 			/** Read the quadtree index */
 			PbfQuadtreeIndex pbfQuadtree = null;
 			
 			if (!new File(settings.getPbfDataFolder() + "/Quadtree/index.pbf").exists()) {
 				log.error("Cannot find file '{}/Quadtree/index.pbf'", settings.getPbfDataFolder());
-				return;
+				return quadrants;
 			}
 			
 			pbfQuadtree = PbfQuadtreeIndex.parseFrom(new FileInputStream(settings.getPbfDataFolder() + "/Quadtree/index.pbf"));
 			
-			readPbfQuadtree(pbfQuadtree.getRoot(), writerQTStructure);
+			findPbfQuadrants(pbfQuadtree.getRoot(), quadrants, writerQTStructure);
 		} catch (IOException e) {
 			log.error("Error while writing CSV file", e);
 		}
+		return quadrants;
 	}
 	
-	private void readPbfQuadtree(PbfQuadtree pbfQuadtree, CSVFileWriter qtWriter) throws IOException {		
+	private void findPbfQuadrants(PbfQuadtree pbfQuadtree, List<Quadrant> quadrants, CSVFileWriter qtWriter) throws IOException {		
 		
 		/** Build geometry of this quadrant */
-		Coordinate[] coordinatesQuadrant = new Coordinate[5];
-		coordinatesQuadrant[0] = new Coordinate(pbfQuadtree.getSplitx()-pbfQuadtree.getDimensionx(),pbfQuadtree.getSplity()-pbfQuadtree.getDimensiony());
-		coordinatesQuadrant[1] = new Coordinate(pbfQuadtree.getSplitx()+pbfQuadtree.getDimensionx(),pbfQuadtree.getSplity()-pbfQuadtree.getDimensiony());
-		coordinatesQuadrant[2] = new Coordinate(pbfQuadtree.getSplitx()+pbfQuadtree.getDimensionx(),pbfQuadtree.getSplity()+pbfQuadtree.getDimensiony());
-		coordinatesQuadrant[3] = new Coordinate(pbfQuadtree.getSplitx()-pbfQuadtree.getDimensionx(),pbfQuadtree.getSplity()+pbfQuadtree.getDimensiony());
-		coordinatesQuadrant[4] = coordinatesQuadrant[0];
-		
-		Polygon quadrant = geometryFactory.createPolygon(geometryFactory.createLinearRing(coordinatesQuadrant), null);
-		quadrant.setSRID(4326);
-//		Polygon quadrant = GeoHelper.createPolygon(coordinatesQuadrant, 4326);
+		Polygon quadrant = createQuadrantPolygon(pbfQuadtree.getSplitx()-pbfQuadtree.getDimensionx(), pbfQuadtree.getSplity()-pbfQuadtree.getDimensiony(), 
+				pbfQuadtree.getSplitx()+pbfQuadtree.getDimensionx(), pbfQuadtree.getSplity()+pbfQuadtree.getDimensiony());
 		
 		/** Read this quadtree if it intersects with test region and if it has >0 features */
 		IntersectionMatrix intersectionMatrix = quadrant.relate(quadrant); /** default */
@@ -115,38 +156,110 @@ public class VgiOperationPbfReaderQuadtreeImpl extends VgiOperationPbfReaderImpl
 			intersectionMatrix = settings.getCurrentPolygon().getPolygon().relate(quadrant); /** quadrant specific */
 		}
 		if (intersectionMatrix.isIntersects() && pbfQuadtree.getFeatureCount() > 0) {
-			super.setPbfDataFolder(new File(settings.getPbfDataFolder() + "/Quadtree/" + pbfQuadtree.getPath()));
-			
-			if (intersectionMatrix.isWithin()) {
-				super.setLocalizeType(LocalizeType.WITHIN);
-			} else if (intersectionMatrix.isOverlaps(2, 2)) {
-				super.setLocalizeType(LocalizeType.OVERLAPS);
-			}
-			
-			/** Read or load features */
-			if (pbfQuadtree.getLevel() <= settings.getKeepInCacheLevel()) {
-				if (settings.getCache().containsKey(pbfQuadtree.getPath())) {
-					/** Load features from cache */
-					for (IVgiFeature feature : settings.getCache().get(pbfQuadtree.getPath())) {
-			    		feature.setLocalizeType(localizeType);
-			    		super.enqueueFeature(feature);
-					}
-				} else {
-					super.cacheIdentifier = pbfQuadtree.getPath();
-					super.readPbfFiles(true);
-				}
-			} else {
-				super.readPbfFiles(false);
-			}
+			/** Features of quadrants which are covered by the test region are located within the test region */
+			LocalizeType quadrantLocalizeType = intersectionMatrix.isCovers() ? LocalizeType.WITHIN : LocalizeType.OVERLAPS;
+			quadrants.add(new Quadrant(pbfQuadtree.getPath(), pbfQuadtree.getLevel(), pbfQuadtree.getFeatureCount(), quadrantLocalizeType));
 			
 			qtWriter.writeLine(quadrant.toText() + ";" + pbfQuadtree.getPath() + ";" + pbfQuadtree.getLevel() + ";" + pbfQuadtree.getFeatureCount() + ";" + intersectionMatrix.isOverlaps(2, 2) + ";");
 		}
 		
 		if (pbfQuadtree.hasNw()) {
-			readPbfQuadtree(pbfQuadtree.getNw(), qtWriter);
-			readPbfQuadtree(pbfQuadtree.getNe(), qtWriter);
-			readPbfQuadtree(pbfQuadtree.getSe(), qtWriter);
-			readPbfQuadtree(pbfQuadtree.getSw(), qtWriter);
+			findPbfQuadrants(pbfQuadtree.getNw(), quadrants, qtWriter);
+			findPbfQuadrants(pbfQuadtree.getNe(), quadrants, qtWriter);
+			findPbfQuadrants(pbfQuadtree.getSe(), quadrants, qtWriter);
+			findPbfQuadrants(pbfQuadtree.getSw(), quadrants, qtWriter);
 		}
     }
+	
+	/**
+	 * Collects the quadrants of the flat index which intersect with the test
+	 * region. Quadrants are tested with their envelopes first; the polygon is
+	 * only related to quadrants which are not within the test region.
+	 * @param filterEnvelope envelope of the test region
+	 * @param within true if the quadrant is within the test region
+	 */
+	private void findFlatQuadrants(FlatQuadtreeIndex index, int node, String path, Envelope filterEnvelope, boolean within, List<Quadrant> quadrants, CSVFileWriter qtWriter) throws IOException {
+		if (!within) {
+			/** Quadrants outside the envelope and their sub-quadrants do not intersect */
+			if (index.getMaxX(node) < filterEnvelope.getMinX() || index.getMinX(node) > filterEnvelope.getMaxX() 
+					|| index.getMaxY(node) < filterEnvelope.getMinY() || index.getMinY(node) > filterEnvelope.getMaxY()) return;
+			
+			Polygon quadrant = createQuadrantPolygon(index.getMinX(node), index.getMinY(node), index.getMaxX(node), index.getMaxY(node));
+			IntersectionMatrix intersectionMatrix = settings.getCurrentPolygon().getPolygon().relate(quadrant);
+			if (!intersectionMatrix.isIntersects()) return;
+			/** Sub-quadrants of covered quadrants are covered as well */
+			within = intersectionMatrix.isCovers();
+		}
+		
+		if (index.getFeatureCount(node) > 0 && containsRequestedTimestamps(index, node)) {
+			quadrants.add(new Quadrant(path, index.getLevel(node), index.getFeatureCount(node), within ? LocalizeType.WITHIN : LocalizeType.OVERLAPS));
+			
+			Polygon quadrant = createQuadrantPolygon(index.getMinX(node), index.getMinY(node), index.getMaxX(node), index.getMaxY(node));
+			qtWriter.writeLine(quadrant.toText() + ";" + path + ";" + index.getLevel(node) + ";" + index.getFeatureCount(node) + ";" + !within + ";");
+		}
+		
+		if (!index.isLeaf(node)) {
+			for (int quarter=0; quarter<4; quarter++) {
+				findFlatQuadrants(index, index.getSubQuadrant(node, quarter), FlatQuadtreeIndex.getSubQuadrantPath(path, quarter), filterEnvelope, within, quadrants, qtWriter);
+			}
+		}
+	}
+	
+	/**
+	 * @return true if the quadrant contains operations before the filter
+	 * timestamp (later operations are dropped while reading)
+	 */
+	private boolean containsRequestedTimestamps(FlatQuadtreeIndex index, int node) {
+		if (settings.getFilterTimestamp() == null) return true;
+		return index.getMinTimestamp(node) < settings.getFilterTimestamp().getTime();
+	}
+	
+	/**
+	 * Reads the features of a quadrant or loads them from the cache
+	 */
+	private void readQuadrant(String path, int level) {
+		String cacheKey = getCacheKey(path);
+		if (level <= settings.getKeepInCacheLevel() && cacheKey != null) {
+			List<IVgiFeature> cachedFeatures = settings.getCache().get(cacheKey);
+			if (cachedFeatures != null) {
+				/** Load features from cache */
+				for (IVgiFeature feature : cachedFeatures) {
+		    		super.enqueueFeature(copyCachedFeature(feature));
+				}
+			} else {
+				super.cacheIdentifier = cacheKey;
+				super.readPbfFiles(true);
+			}
+		} else {
+			super.readPbfFiles(false);
+		}
+	}
+	
+	private Polygon createQuadrantPolygon(double minX, double minY, double maxX, double maxY) {
+		Coordinate[] coordinatesQuadrant = new Coordinate[5];
+		coordinatesQuadrant[0] = new Coordinate(minX, minY);
+		coordinatesQuadrant[1] = new Coordinate(maxX, minY);
+		coordinatesQuadrant[2] = new Coordinate(maxX, maxY);
+		coordinatesQuadrant[3] = new Coordinate(minX, maxY);
+		coordinatesQuadrant[4] = coordinatesQuadrant[0];
+		
+		Polygon quadrant = geometryFactory.createPolygon(geometryFactory.createLinearRing(coordinatesQuadrant), null);
+		quadrant.setSRID(4326);
+		return quadrant;
+	}
+	
+	public void setQuadrantQueue(VgiQuadrantQueue quadrantQueue) {
+		this.quadrantQueue = quadrantQueue;
+	}
+	
+	/** Quadrants are distributed among the producers, so every producer reads all files of a quadrant */
+	@Override
+	public void setProducerCount(int producerCount) {
+		this.producerCount = producerCount;
+	}
+	
+	@Override
+	public void setProducerNumber(int producerNumber) {
+		this.producerNumber = producerNumber;
+	}
 }
@@ -17,12 +17,17 @@ package at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persisten
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.logging.log4j.Logger;
 
@@ -43,7 +48,8 @@ import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistenc
 public class VgiOperationPbfWriterImpl implements IVgiOperationPbfWriter {
 	private static Logger log = org.apache.logging.log4j.LogManager.getLogger(VgiOperationPbfWriterImpl.class);
 	
-	protected FileOutputStream pbfFeatureWriter = null;
+	/** Output of the current operation PBF file (written by the writer thread if enabled) */
+	protected VgiOperationPbfOutput pbfOutput = null;
 	
 	protected PbfOperationFileList.Builder pbfFileListBuilder;
 	protected PbfOperationFile.Builder pbfFileBuilder = null;
@@ -51,6 +57,10 @@ public class VgiOperationPbfWriterImpl implements IVgiOperationPbfWriter {
 	protected File dataFolder = null;
 	protected File pbfFile = null;
 	
+	/** Sidecar index (batch offsets, id/time range and delta values per batch) */
+	private VgiOperationPbfIndex.Entry pbfIndexEntry = new VgiOperationPbfIndex.Entry();
+	private long pbfFileOffset = 0l;
+	
 	private long previousPbfOperationOid = 0l;
 	private int previousPbfOperationTimestamp = 0;
 	private int previousPbfOperationChangesetId = 0;
@@ -63,6 +73,16 @@ public class VgiOperationPbfWriterImpl implements IVgiOperationPbfWriter {
 	private static final int NUM_OPERATIONS_PER_FILE = 500000;
 	public static final int TIMESTAMP_OFFSET = 1104537600; // 1104537600 = 2005-01-01 00:00:00
 	
+	/** Number of queued write tasks (0 = write on the calling thread) */
+	private int writeQueueSize = 0;
+	private WriterThread writerThread = null;
+	
+	/** The file list is written at most once per interval until the writer is terminated */
+	private long pbfFileListWriteInterval = 60000l;
+	private long pbfFileListWriteTime = 0l;
+	/** File list of the last closed file which has not been written yet */
+	private PbfOperationFileList pendingPbfFileList = null;
+	
 	protected WriteMode writeMode = WriteMode.NOT_INITIALIZED;
 	
 	/** Stores previous operation attributes */
@@ -212,8 +232,8 @@ public class VgiOperationPbfWriterImpl implements IVgiOperationPbfWriter {
 					pbfFileBuilder = file.toBuilder();
 					
 					pbfFile = new File(dataFolder + "/operation_" + elementTypePrefix + "_" + String.valueOf(pbfFileBuilder.getOperationFileId()) + ".pbf");
-					pbfFeatureWriter = new FileOutputStream(pbfFile, false);
 					previousPbfOperationOid = pbfFileBuilder.getMaxElementId();
+					openPbfOutput(false);
 					
 					break;
 				}
@@ -229,7 +249,7 @@ public class VgiOperationPbfWriterImpl implements IVgiOperationPbfWriter {
 					previousPbfOperationOid = 0;
 					
 					pbfFile = new File(dataFolder + "/operation_" + elementTypePrefix + "_" + String.valueOf(pbfFileBuilder.getOperationFileId()) + ".pbf");
-					pbfFeatureWriter = new FileOutputStream(pbfFile, false);
+					openPbfOutput(false);
 				}
 			}
 			
@@ -315,15 +335,11 @@ public class VgiOperationPbfWriterImpl implements IVgiOperationPbfWriter {
 			
 			pbfFile = new File(dataFolder + "/operation_" + elementTypePrefix + "_" + String.valueOf(pbfFileBuilder.getOperationFileId()) + ".pbf");
 			
-			/** Prepare output stream */
-			try {
-				pbfFeatureWriter = new FileOutputStream(pbfFile, true);
-			} catch (FileNotFoundException e) {
-				e.printStackTrace();
-			}
-			
 			/** Reset previousOperationAttributes */
 			previousVgiOperationAttributes = new VgiOperationImpl();
+			
+			/** A new file is not in the file list yet, so existing data is discarded */
+			openPbfOutput(!createNewFile);
 		}
 		
 //		/** If last PBF file is large enough, ... */
@@ -343,16 +359,65 @@ public class VgiOperationPbfWriterImpl implements IVgiOperationPbfWriter {
 //		pbfFileBuilder.setOperationFileId(filenameIndex);
 	}
 	
+	/**
+	 * Opens the current operation PBF file and its index file
+	 * @param append if false, existing data is discarded
+	 */
+	protected void openPbfOutput(boolean append) {
+		/** Length and index of an existing file are read from disk; pending writes have to be completed */
+		if (append) finishWriterThread();
+		
+		try {
+			pbfOutput = new VgiOperationPbfOutput(pbfFile, append);
+		} catch (IOException e) {
+			e.printStackTrace();
+			pbfOutput = null;
+		}
+		pbfFileOffset = pbfFile.length();
+		startPbfIndexEntry();
+	}
+	
+	/**
+	 * Starts a new index entry with the current delta values
+	 */
+	private void startPbfIndexEntry() {
+		pbfIndexEntry = new VgiOperationPbfIndex.Entry(previousPbfOperationOid, previousPbfOperationTimestamp, 
+				previousPbfOperationChangesetId, previousPbfOperationRefId, previousPbfOperationLongitude, previousPbfOperationLatitude, 
+				previousVgiOperationAttributes.getVgiOperationType().getId(), previousVgiOperationAttributes.getUid(), previousVgiOperationAttributes.getVersion());
+	}
+	
 	@Override
 	public void terminatePbfWriter() {
 		closePbfDataFile();
+		if (pendingPbfFileList != null) writePbfFileList(pendingPbfFileList);
+		finishWriterThread();
+	}
+	
+	@Override
+	public void flush() {
+		if (pbfOutput != null) {
+			/** Write the buffered batches of the open file */
+			final VgiOperationPbfOutput output = pbfOutput;
+			submit(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						output.flush();
+					} catch (IOException e) {
+						throw new IllegalStateException("Cannot flush operation file", e);
+					}
+				}
+			});
+		}
+		if (pendingPbfFileList != null) writePbfFileList(pendingPbfFileList);
+		finishWriterThread();
 	}
 	
 	/**
 	 * Closes the current operation PBF file
 	 */
 	protected void closePbfDataFile() {
-		if (pbfFeatureWriter == null) return;
+		if (pbfOutput == null) return;
 //		log.info("close pbf file " + pbfFileBuilder.getOperationFileId() + " " + pbfFileBuilder.getNumEntries());
 		pbfFileBuilder.setLastTimestamp(previousPbfOperationTimestamp);
 		pbfFileBuilder.setLastRefId(previousPbfOperationRefId);
@@ -362,10 +427,18 @@ public class VgiOperationPbfWriterImpl implements IVgiOperationPbfWriter {
 		pbfFileOperationCount = 0;
 		
 		/** Close file */
-		try {
-			pbfFeatureWriter.close();
-		} catch (IOException e) {
-			e.printStackTrace();
+		final VgiOperationPbfOutput output = pbfOutput;
+		if (writeMode.equals(WriteMode.APPEND) && pbfFileBuilder.getNumEntries() == 0) {
+			/** The next file may get the same name, so the file is deleted before it is opened */
+			finishWriterThread();
+			output.close(true);
+		} else {
+			submit(new Runnable() {
+				@Override
+				public void run() {
+					output.close(false);
+				}
+			});
 		}
 		
 		/** Add PBF file to file list */
@@ -374,7 +447,7 @@ public class VgiOperationPbfWriterImpl implements IVgiOperationPbfWriter {
 				log.warn("pbfFileBuilder.getNumEntries() == 0 (can this happen?)");
 				pbfFile.delete();
 				pbfFile = null;
-				pbfFeatureWriter = null;
+				pbfOutput = null;
 				
 			} else {
 				if (pbfFileBuilder.getElementType().equals(ElementType.NODE)) {
@@ -432,19 +505,62 @@ public class VgiOperationPbfWriterImpl implements IVgiOperationPbfWriter {
 //	        }
 		}
 		
-		writePbfFileList();
+		writePbfFileList(false);
 		
-		pbfFeatureWriter = null;
+		pbfOutput = null;
 		pbfFile = null;
 	}
 	
 	/**
 	 * Writes the PBF file list
+	 * @param force if false, the file list is only written if the write interval has passed
+	 */
+	protected void writePbfFileList(boolean force) {
+		PbfOperationFileList pbfFileList = pbfFileListBuilder.build();
+		if (!force && System.currentTimeMillis() - pbfFileListWriteTime < pbfFileListWriteInterval) {
+			pendingPbfFileList = pbfFileList;
+			return;
+		}
+		writePbfFileList(pbfFileList);
+	}
+	
+	/**
+	 * Queues the file list for writing
+	 */
+	private void writePbfFileList(final PbfOperationFileList pbfFileList) {
+		pbfFileListWriteTime = System.currentTimeMillis();
+		pendingPbfFileList = null;
+		
+		final File folder = dataFolder;
+		submit(new Runnable() {
+			@Override
+			public void run() {
+				writePbfFileList(folder, pbfFileList);
+			}
+		});
+	}
+	
+	/**
+	 * Writes the file list to a temporary file which replaces the previous file list
 	 */
-	protected void writePbfFileList() {
-		try (FileOutputStream pbfFileListWriter = new FileOutputStream(new File(dataFolder + "/operationFileList.pbf"), false)) {
-			pbfFileListBuilder.build().writeTo(pbfFileListWriter);
+	private static void writePbfFileList(File dataFolder, PbfOperationFileList pbfFileList) {
+		File listFile = new File(dataFolder + "/operationFileList.pbf");
+		File tmpFile = new File(dataFolder + "/operationFileList.pbf.tmp");
+		
+		try (FileOutputStream pbfFileListWriter = new FileOutputStream(tmpFile, false)) {
+			pbfFileList.writeTo(pbfFileListWriter);
 			
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		
+		try {
+			try {
+				Files.move(tmpFile.toPath(), listFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmpFile.toPath(), listFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -482,7 +598,7 @@ public class VgiOperationPbfWriterImpl implements IVgiOperationPbfWriter {
 		}
 		
 		/** Open PBF feature file */
-		if (pbfFeatureWriter == null) {
+		if (pbfOutput == null) {
 			if (featureBatch.get(0).getVgiGeometryType().equals(VgiGeometryType.POINT)) {
 				openPbfDataFile(ElementType.NODE, false);
 			} else if (featureBatch.get(0).getVgiGeometryType().equals(VgiGeometryType.LINE)) {
@@ -499,15 +615,18 @@ public class VgiOperationPbfWriterImpl implements IVgiOperationPbfWriter {
 			
 			if (writeMode.equals(WriteMode.APPEND)) {
 				/** Check if correct element id; if not, close current file and open new one */
-				if (feature.getVgiGeometryType().equals(VgiGeometryType.POINT) 
-						&& !pbfFileBuilder.getElementType().equals(ElementType.NODE)) {
-					openPbfDataFile(ElementType.NODE, false);
-				} else if (feature.getVgiGeometryType().equals(VgiGeometryType.LINE) 
-						&& !pbfFileBuilder.getElementType().equals(ElementType.WAY)) {
-					openPbfDataFile(ElementType.WAY, false);
-				} else if (feature.getVgiGeometryType().equals(VgiGeometryType.RELATION) 
-						&& !pbfFileBuilder.getElementType().equals(ElementType.RELATION)) {
-					openPbfDataFile(ElementType.RELATION, false);
+				ElementType elementType = null;
+				if (feature.getVgiGeometryType().equals(VgiGeometryType.POINT)) {
+					elementType = ElementType.NODE;
+				} else if (feature.getVgiGeometryType().equals(VgiGeometryType.LINE)) {
+					elementType = ElementType.WAY;
+				} else if (feature.getVgiGeometryType().equals(VgiGeometryType.RELATION)) {
+					elementType = ElementType.RELATION;
+				}
+				if (elementType != null && !pbfFileBuilder.getElementType().equals(elementType)) {
+					/** Pending operations belong to the current file */
+					createOperationBatch(pbfOperationList, pbfMemberOperationList);
+					openPbfDataFile(elementType, false);
 				}
 				
 				/** Create new file if current file size exceeds maximum file size */
@@ -568,6 +687,9 @@ public class VgiOperationPbfWriterImpl implements IVgiOperationPbfWriter {
 	 * @param pbfMemberOperationList
 	 */
 	private void createOperationBatch(List<PbfVgiOperation> pbfOperationList, List<PbfVgiOperation> pbfMemberOperationList) {
+		/** Empty containers are not written, otherwise the file would end with a batch which is not indexed */
+		if (pbfOperationList.isEmpty() && pbfMemberOperationList.isEmpty()) return;
+		
 		PbfVgiOperationContainer.Builder pbfFeatureBatches = PbfVgiOperationContainer.newBuilder();
 		
 		PbfVgiFeatureBatch.Builder pbfFeatureBatchBuilder = PbfVgiFeatureBatch.newBuilder();
@@ -576,26 +698,70 @@ public class VgiOperationPbfWriterImpl implements IVgiOperationPbfWriter {
 		pbfOperationList.clear();
 		pbfMemberOperationList.clear();
 		
+		PbfVgiFeatureBatch pbfFeatureBatch = pbfFeatureBatchBuilder.build();
+		int batchSize = pbfFeatureBatch.getSerializedSize();
+		
 		/** build PBF feature wrapper (including number of bytes) */
 		PbfVgiFeatureWrapper.Builder pbfFeatureWrapper = PbfVgiFeatureWrapper.newBuilder()
-				.setBytes(PbfVgiFeatureBytes.newBuilder().setBytes(pbfFeatureBatchBuilder.build().toByteArray().length))
-				.setFeature(pbfFeatureBatchBuilder);
+				.setBytes(PbfVgiFeatureBytes.newBuilder().setBytes(batchSize))
+				.setFeature(pbfFeatureBatch);
 		
 		pbfFeatureBatches.addFeatureWrapper(pbfFeatureWrapper);
-		write(pbfFeatureBatches);
-		pbfFeatureBatches = PbfVgiOperationContainer.newBuilder();
+		PbfVgiOperationContainer pbfContainer = pbfFeatureBatches.build();
+		
+		/** The serialized batch is the last part of the container */
+		pbfFileOffset += pbfContainer.getSerializedSize();
+		VgiOperationPbfIndex.Entry indexEntry = pbfIndexEntry;
+		indexEntry.setOffset(pbfFileOffset - batchSize);
+		indexEntry.setLength(batchSize);
+		write(pbfContainer, indexEntry);
+		startPbfIndexEntry();
 	}
 	
-	private void write(PbfVgiOperationContainer.Builder pbfFeatureBatches) {
-		/** Write the new operation file back to disk.*/
-		try {
-			pbfFeatureBatches.build().writeTo(pbfFeatureWriter);
-			pbfFeatureBatches.clear();
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
+	/**
+	 * Writes the container and its index entry to the current PBF file
+	 * @param pbfContainer container (immutable, can be serialized by the writer thread)
+	 * @param indexEntry index entry (not changed afterwards)
+	 */
+	private void write(final PbfVgiOperationContainer pbfContainer, final VgiOperationPbfIndex.Entry indexEntry) {
+		final VgiOperationPbfOutput output = pbfOutput;
+		if (output == null) return;
+		
+		submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					output.write(pbfContainer, indexEntry);
+				} catch (IOException e) {
+					throw new IllegalStateException("Cannot write operation batch", e);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Runs the task on the writer thread (or immediately if no write queue is used)
+	 */
+	private void submit(Runnable task) {
+		if (writeQueueSize <= 0) {
+			task.run();
+			return;
+		}
+		if (writerThread == null) {
+			writerThread = new WriterThread(writeQueueSize);
+			writerThread.start();
 		}
+		writerThread.put(task);
+	}
+	
+	/**
+	 * Waits until all queued tasks have been completed and stops the writer thread; rethrows the first failed write
+	 */
+	private void finishWriterThread() {
+		if (writerThread == null) return;
+		WriterThread thread = writerThread;
+		writerThread = null;
+		thread.finish();
 	}
 	
 	private PbfVgiOperation.Builder buildPbfOperation(IVgiOperation operation) {
@@ -618,6 +784,7 @@ public class VgiOperationPbfWriterImpl implements IVgiOperationPbfWriter {
 		}
 		/** time stamp */
 		int timestamp = (int)(operation.getTimestamp().getTime() / 1000 - TIMESTAMP_OFFSET);
+		pbfIndexEntry.include(operation.getOid(), timestamp);
 		if (timestamp != previousPbfOperationTimestamp) {
 			pbfOperation.setTimestamp(timestamp - previousPbfOperationTimestamp);
 			previousPbfOperationTimestamp = timestamp;
@@ -666,4 +833,101 @@ public class VgiOperationPbfWriterImpl implements IVgiOperationPbfWriter {
 	public void setMaxFileSize(int maxFileSize) {
 //		this.maxFileSize = maxFileSize;
 	}
+	
+	/**
+	 * @param writeQueueSize number of write tasks (operation batches, file list) which are queued for the writer thread; 0 = no writer thread
+	 */
+	public void setWriteQueueSize(int writeQueueSize) {
+		this.writeQueueSize = writeQueueSize;
+	}
+	
+	/**
+	 * @param pbfFileListWriteInterval minimum time between two file list updates in milliseconds (the list is always written on termination)
+	 */
+	public void setPbfFileListWriteInterval(long pbfFileListWriteInterval) {
+		this.pbfFileListWriteInterval = pbfFileListWriteInterval;
+	}
+	
+	/**
+	 * Thread which writes serialized operation batches in the order in which they have been queued
+	 */
+	private static class WriterThread extends Thread {
+		/** end-of-tasks marker (compared by identity) */
+		private static final Runnable END_OF_TASKS = new Runnable() {
+			@Override
+			public void run() { }
+		};
+		
+		private final BlockingQueue<Runnable> tasks;
+		
+		/** first failed task; later tasks are skipped */
+		private volatile Throwable failure = null;
+		
+		public WriterThread(int queueSize) {
+			super("VgiOperationPbfWriter");
+			/** Does not keep the JVM alive if the writer is not terminated (e.g. after an exception) */
+			setDaemon(true);
+			this.tasks = new ArrayBlockingQueue<Runnable>(queueSize);
+		}
+		
+		/**
+		 * Adds a task; blocks while the queue is full
+		 */
+		public void put(Runnable task) {
+			rethrowFailure();
+			try {
+				/** The queue is not drained anymore if the thread has stopped */
+				while (!tasks.offer(task, 100, TimeUnit.MILLISECONDS)) {
+					if (!isAlive()) break;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while queuing write task", e);
+			}
+		}
+		
+		/**
+		 * Waits until all queued tasks have been completed; rethrows the first failed task
+		 */
+		public void finish() {
+			try {
+				while (!tasks.offer(END_OF_TASKS, 100, TimeUnit.MILLISECONDS)) {
+					if (!isAlive()) break;
+				}
+				join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for writer thread", e);
+			}
+			rethrowFailure();
+		}
+		
+		private void rethrowFailure() {
+			Throwable t = failure;
+			if (t == null) return;
+			if (t instanceof RuntimeException) throw (RuntimeException) t;
+			if (t instanceof Error) throw (Error) t;
+			throw new IllegalStateException("Write task failed", t);
+		}
+		
+		@Override
+		public void run() {
+			try {
+				Runnable task = null;
+				while ((task = tasks.take()) != END_OF_TASKS) {
+					/** After a failure the queue is only drained, so that the file is not continued with missing batches */
+					if (failure != null) continue;
+					try {
+						task.run();
+					} catch (RuntimeException | Error e) {
+						log.error("Write task failed", e);
+						failure = e;
+					}
+				}
+			} catch (InterruptedException e) {
+				log.error("interrupted while waiting for write tasks", e);
+				if (failure == null) failure = e;
+			}
+		}
+	}
 }
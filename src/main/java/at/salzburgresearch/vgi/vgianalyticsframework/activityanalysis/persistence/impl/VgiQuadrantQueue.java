@@ -0,0 +1,102 @@
+/** Copyright 2017, Simon Gröchenig, Salzburg Research Forschungsgesellschaft m.b.H.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiFeatureImpl.LocalizeType;
+
+/**
+ * Quadrants which are shared by all quadtree producers of a pipeline. The
+ * first producer enumerates the quadrants which intersect with the test
+ * region; afterwards each producer takes the next quadrant as soon as it has
+ * finished the previous one.
+ */
+public class VgiQuadrantQueue {
+
+	private Queue<Quadrant> quadrants = null;
+
+	/**
+	 * @return true if the queue has been filled by a producer
+	 */
+	public synchronized boolean isInitialized() {
+		return quadrants != null;
+	}
+
+	/**
+	 * Fills the queue. If weighted, quadrants with more features are queued
+	 * first; otherwise the order of the list is kept.
+	 */
+	public synchronized void initialize(List<Quadrant> quadrantList, boolean weighted) {
+		List<Quadrant> sortedQuadrants = new ArrayList<Quadrant>(quadrantList);
+		if (weighted) Collections.sort(sortedQuadrants, weightComparator);
+		quadrants = new LinkedList<Quadrant>(sortedQuadrants);
+	}
+
+	/**
+	 * @return next quadrant or null if all quadrants have been taken
+	 */
+	public synchronized Quadrant poll() {
+		if (quadrants == null) return null;
+		return quadrants.poll();
+	}
+
+	public synchronized int size() {
+		return (quadrants != null) ? quadrants.size() : 0;
+	}
+
+	private static Comparator<Quadrant> weightComparator = new Comparator<Quadrant>() {
+		@Override
+		public int compare(Quadrant o1, Quadrant o2) {
+			return Integer.compare(o2.getFeatureCount(), o1.getFeatureCount());
+		}
+	};
+
+	/**
+	 * Quadrant which has to be read
+	 */
+	public static class Quadrant {
+		private final String path;
+		private final int level;
+		private final int featureCount;
+		private final LocalizeType localizeType;
+
+		public Quadrant(String path, int level, int featureCount, LocalizeType localizeType) {
+			this.path = path;
+			this.level = level;
+			this.featureCount = featureCount;
+			this.localizeType = localizeType;
+		}
+
+		public String getPath() {
+			return path;
+		}
+		public int getLevel() {
+			return level;
+		}
+		public int getFeatureCount() {
+			return featureCount;
+		}
+		public LocalizeType getLocalizeType() {
+			return localizeType;
+		}
+	}
+}
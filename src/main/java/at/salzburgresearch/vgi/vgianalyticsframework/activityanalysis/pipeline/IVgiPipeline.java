@@ -70,4 +70,21 @@ public interface IVgiPipeline {
 	void setFilterFileId(int filterFileId);
 
 	void setCoordinateOnly(boolean coordinatesOnly);
+	
+	/**
+	 * Producers memory-map the operation files instead of streaming them.
+	 * Mapped files cannot be deleted on every platform until the mapping is
+	 * garbage collected; do not use this for pipelines which delete files
+	 * after reading them (e.g. quadtree builder).
+	 * @param memoryMapped
+	 */
+	void setMemoryMapped(boolean memoryMapped);
+	
+	/**
+	 * Producers decode the batches of indexed operation files in parallel.
+	 * Features are still enqueued in file order. Files without index are
+	 * read sequentially.
+	 * @param parallelDecoding
+	 */
+	void setParallelDecoding(boolean parallelDecoding);
 }
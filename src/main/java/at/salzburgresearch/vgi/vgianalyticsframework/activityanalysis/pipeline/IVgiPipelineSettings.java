@@ -21,13 +21,15 @@ import java.util.List;
 import java.util.Map;
 
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiAction;
-import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiFeature;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiFeatureType;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiGeometryType;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiPolygon;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiTagDictionary;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.IQuadrantCache;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.IVgiAnalysisAction;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.IVgiAnalysisFeature;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.IVgiAnalysisOperation;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.IVgiFeatureTypeClassifier;
 
 public interface IVgiPipelineSettings {
 
@@ -62,6 +64,8 @@ public interface IVgiPipelineSettings {
 	void setFilterPolygonList(List<VgiPolygon> filterPolygonList);
 	VgiPolygon getCurrentPolygon();
 	void setCurrentPolygon(VgiPolygon polygon);
+	boolean isSinglePassPolygonAnalysis();
+	void setSinglePassPolygonAnalysis(boolean singlePassPolygonAnalysis);
 
 	Date getAnalysisStartDate();
 	Date getAnalysisEndDate();
@@ -75,9 +79,14 @@ public interface IVgiPipelineSettings {
 	List<IVgiAnalysisFeature> getFeatureAnalyzerList();
 	
 	Map<String, IVgiFeatureType> getFeatureTypeList();
+	/** @return classifier which is compiled from the feature type list */
+	IVgiFeatureTypeClassifier getFeatureTypeClassifier();
 	
-	Map<String, List<IVgiFeature>> getCache();
-	void setCache(Map<String, List<IVgiFeature>> cache);
+	/** @return tag dictionary which is shared by all pipeline components */
+	VgiTagDictionary getTagDictionary();
+	
+	IQuadrantCache getCache();
+	void setCache(IQuadrantCache cache);
 
 	int getKeepInCacheLevel();
 	void setKeepInCacheLevel(int keepInCacheLevel);
@@ -23,6 +23,9 @@ public interface IVgiPipelineConsumer {
 
 	void doBeforeFirstBatch();
 
+	/**
+	 * @param batch unmodifiable list which is shared by all consumers
+	 */
 	void handleBatch(List<IVgiFeature> batch);
 
 	void doAfterLastBatch();
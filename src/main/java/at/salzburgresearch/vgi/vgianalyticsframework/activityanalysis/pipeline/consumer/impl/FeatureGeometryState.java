@@ -0,0 +1,368 @@
+/** Copyright 2017, Simon Gröchenig, Salzburg Research Forschungsgesellschaft m.b.H.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.pipeline.consumer.impl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.Logger;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Polygon;
+
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiOperation;
+
+/**
+ * Geometry and tags of a feature which are reconstructed incrementally from
+ * its (version sorted) operations. Each operation is applied only once; the
+ * geometry is snapshot when it is requested after new operations have been
+ * applied. Way nodes are stored in primitive arrays with a gap buffer, so
+ * that consecutive node insertions and removals do not shift the node list.
+ */
+public class FeatureGeometryState {
+	private static Logger log = org.apache.logging.log4j.LogManager.getLogger(FeatureGeometryState.class);
+
+	private final GeometryFactory geomFactory;
+
+	private final long oid;
+
+	/** Number of operations which have been applied */
+	private int operationCount = 0;
+
+	private Geometry pointGeometry = null;
+	private Geometry pointGeometryDeleted = null;
+
+	private Map<String, String> attributes = new HashMap<String, String>();
+	private Map<String, String> attributesDeleted = null;
+
+	private final NodeBuffer nodes = new NodeBuffer();
+	private Coordinate[] coordinatesDeleted = null;
+
+	/** Snapshot of the geometry after operationCount operations */
+	private int snapshotCount = -1;
+	private boolean deleted = false;
+	private boolean point = false;
+	private boolean lineString = false;
+	private boolean polygon = false;
+	private Coordinate[] coordinates = null;
+	private LineString lineStringGeometry = null;
+	private Polygon polygonGeometry = null;
+
+	/** Constructor */
+	public FeatureGeometryState(long oid, GeometryFactory geomFactory) {
+		this.oid = oid;
+		this.geomFactory = geomFactory;
+	}
+
+	/**
+	 * Applies the operations which have not been applied yet. The list must
+	 * start with the operations which have already been applied (in the
+	 * same order).
+	 * @param operationList version sorted operations of the feature
+	 */
+	public void advance(List<IVgiOperation> operationList) {
+		for (int i = operationCount; i < operationList.size(); i++) {
+			apply(operationList.get(i));
+			operationCount++;
+		}
+	}
+
+	private void apply(IVgiOperation operation) {
+		switch (operation.getVgiOperationType()) {
+
+		case OP_CREATE_NODE:
+		case OP_RECREATE_NODE:
+			if (operation.getCoordinate() != null) {
+				pointGeometry = geomFactory.createPoint(operation.getCoordinate());
+			}
+			pointGeometryDeleted = null;
+			attributesDeleted = null;
+			break;
+
+		case OP_MODIFY_COORDINATE:
+			if (operation.getCoordinate() != null) {
+				pointGeometry = geomFactory.createPoint(operation.getCoordinate());
+			}
+			break;
+
+		case OP_DELETE_NODE:
+			pointGeometryDeleted = pointGeometry;
+			attributesDeleted = new HashMap<String, String>(attributes);
+			pointGeometry = null;
+			break;
+
+		case OP_CREATE_WAY:
+		case OP_RECREATE_WAY:
+			coordinatesDeleted = null;
+			attributesDeleted = null;
+			break;
+
+		case OP_ADD_NODE:
+			if (nodes.size() < operation.getPosition())
+				log.warn("Index out of bounds... {} {} {}", oid, operation.getRefId(), operation.getTimestamp());
+
+			nodes.insert(operation.getPosition(), operation.getRefId(), operation.getCoordinate());
+			break;
+
+		case OP_REMOVE_NODE:
+			try {
+				nodes.remove(operation.getPosition());
+			} catch (IndexOutOfBoundsException e) {
+				log.error(e);
+			}
+			break;
+
+		case OP_REORDER_NODE:
+			if (nodes.size() < operation.getPosition()) {
+				log.error("Index out of bounds... " + oid + " " + operation.getRefId() + " " + operation.getTimestamp());
+			}
+
+			nodes.move((int)operation.getRefId(), operation.getPosition());
+			break;
+
+		case OP_MODIFY_WAY_COORDINATE:
+			nodes.setCoordinate(operation.getRefId(), operation.getCoordinate());
+			break;
+
+		case OP_DELETE_WAY:
+			coordinatesDeleted = nodes.toCoordinates();
+			attributesDeleted = new HashMap<String, String>(attributes);
+			break;
+
+		case OP_ADD_TAG:
+		case OP_MODIFY_TAG_VALUE:
+			attributes.put(operation.getKey(), operation.getValue());
+			break;
+
+		case OP_REMOVE_TAG:
+			attributes.remove(operation.getKey());
+			break;
+
+		default:
+			/** Relation operations do not change the geometry */
+			break;
+		}
+	}
+
+	/**
+	 * Builds the geometry of the applied operations (if not done yet)
+	 */
+	private void snapshot() {
+		if (snapshotCount == operationCount) return;
+		snapshotCount = operationCount;
+
+		lineStringGeometry = null;
+		polygonGeometry = null;
+		point = false;
+		lineString = false;
+		polygon = false;
+
+		/** Features which have been deleted are built from their last visible version */
+		deleted = (attributesDeleted != null);
+		Geometry currentPoint = deleted ? pointGeometryDeleted : pointGeometry;
+		/** Coordinates which are not available (e.g. due to license change) are skipped */
+		coordinates = deleted ? coordinatesDeleted : nodes.toCoordinates();
+
+		if (currentPoint != null) {
+			point = true;
+		} else if (coordinates != null && coordinates.length >= 2) {
+			boolean ring = coordinates[0].equals(coordinates[coordinates.length-1]);
+			if (ring) {
+				if (coordinates.length >= 4) {
+					lineString = true;
+					polygon = true;
+				}
+			} else {
+				lineString = true;
+			}
+		}
+	}
+
+	public boolean isDeleted() {
+		snapshot();
+		return deleted;
+	}
+
+	public boolean isPoint() {
+		snapshot();
+		return point;
+	}
+
+	public boolean isLineString() {
+		snapshot();
+		return lineString;
+	}
+
+	public boolean isPolygon() {
+		snapshot();
+		return polygon;
+	}
+
+	/** @return tags of the feature (of the last visible version if it has been deleted) */
+	public Map<String, String> getAttributes() {
+		snapshot();
+		return deleted ? attributesDeleted : attributes;
+	}
+
+	public Geometry getPointGeometry() {
+		snapshot();
+		return point ? (deleted ? pointGeometryDeleted : pointGeometry) : null;
+	}
+
+	public LineString getLineStringGeometry() {
+		snapshot();
+		if (lineString && lineStringGeometry == null) {
+			lineStringGeometry = geomFactory.createLineString(coordinates);
+		}
+		return lineStringGeometry;
+	}
+
+	public Polygon getPolygonGeometry() {
+		snapshot();
+		if (polygon && polygonGeometry == null) {
+			polygonGeometry = geomFactory.createPolygon(geomFactory.createLinearRing(coordinates.clone()), null);
+		}
+		return polygonGeometry;
+	}
+
+	/**
+	 * Node list of a way. Elements are stored in primitive arrays which have
+	 * a gap at the last modified index; missing coordinates are NaN.
+	 */
+	static class NodeBuffer {
+		private long[] refs = new long[16];
+		private double[] x = new double[16];
+		private double[] y = new double[16];
+		private int gapStart = 0;
+		private int gapEnd = 16;
+
+		int size() {
+			return refs.length - (gapEnd - gapStart);
+		}
+
+		void insert(int index, long ref, Coordinate coordinate) {
+			if (coordinate != null) {
+				insert(index, ref, coordinate.x, coordinate.y);
+			} else {
+				insert(index, ref, Double.NaN, Double.NaN);
+			}
+		}
+
+		private void insert(int index, long ref, double x, double y) {
+			if (index < 0 || index > size()) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+			if (gapStart == gapEnd) grow();
+			moveGap(index);
+			refs[gapStart] = ref;
+			this.x[gapStart] = x;
+			this.y[gapStart] = y;
+			gapStart++;
+		}
+
+		void remove(int index) {
+			if (index < 0 || index >= size()) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+			moveGap(index);
+			gapEnd++;
+		}
+
+		/** Removes the node at index from and inserts it at index to */
+		void move(int from, int to) {
+			if (from < 0 || from >= size()) throw new IndexOutOfBoundsException("Index: " + from + ", Size: " + size());
+			int i = physicalIndex(from);
+			long ref = refs[i];
+			double nodeX = x[i];
+			double nodeY = y[i];
+			remove(from);
+			insert(to, ref, nodeX, nodeY);
+		}
+
+		/** Sets the coordinate of all nodes with this ref */
+		void setCoordinate(long ref, Coordinate coordinate) {
+			double nodeX = (coordinate != null) ? coordinate.x : Double.NaN;
+			double nodeY = (coordinate != null) ? coordinate.y : Double.NaN;
+			for (int i = 0; i < refs.length; i++) {
+				if (i == gapStart) i = gapEnd;
+				if (i == refs.length) break;
+				if (refs[i] != ref) continue;
+				x[i] = nodeX;
+				y[i] = nodeY;
+			}
+		}
+
+		/** @return coordinates of all nodes which have a coordinate */
+		Coordinate[] toCoordinates() {
+			int count = 0;
+			Coordinate[] coordinates = new Coordinate[size()];
+			for (int i = 0; i < refs.length; i++) {
+				if (i == gapStart) i = gapEnd;
+				if (i == refs.length) break;
+				if (Double.isNaN(x[i])) continue;
+				coordinates[count++] = new Coordinate(x[i], y[i]);
+			}
+			return (count == coordinates.length) ? coordinates : Arrays.copyOf(coordinates, count);
+		}
+
+		private int physicalIndex(int index) {
+			return (index < gapStart) ? index : index + (gapEnd - gapStart);
+		}
+
+		/** Moves the gap, so that it starts at index */
+		private void moveGap(int index) {
+			if (index < gapStart) {
+				int count = gapStart - index;
+				System.arraycopy(refs, index, refs, gapEnd - count, count);
+				System.arraycopy(x, index, x, gapEnd - count, count);
+				System.arraycopy(y, index, y, gapEnd - count, count);
+				gapStart -= count;
+				gapEnd -= count;
+			} else if (index > gapStart) {
+				int count = index - gapStart;
+				System.arraycopy(refs, gapEnd, refs, gapStart, count);
+				System.arraycopy(x, gapEnd, x, gapStart, count);
+				System.arraycopy(y, gapEnd, y, gapStart, count);
+				gapStart += count;
+				gapEnd += count;
+			}
+		}
+
+		private void grow() {
+			int capacity = refs.length * 2;
+			int tail = refs.length - gapEnd;
+			refs = grow(refs, capacity, tail);
+			x = grow(x, capacity, tail);
+			y = grow(y, capacity, tail);
+			gapEnd = capacity - tail;
+		}
+
+		private long[] grow(long[] array, int capacity, int tail) {
+			long[] newArray = new long[capacity];
+			System.arraycopy(array, 0, newArray, 0, gapStart);
+			System.arraycopy(array, array.length - tail, newArray, capacity - tail, tail);
+			return newArray;
+		}
+
+		private double[] grow(double[] array, int capacity, int tail) {
+			double[] newArray = new double[capacity];
+			System.arraycopy(array, 0, newArray, 0, gapStart);
+			System.arraycopy(array, array.length - tail, newArray, capacity - tail, tail);
+			return newArray;
+		}
+	}
+}
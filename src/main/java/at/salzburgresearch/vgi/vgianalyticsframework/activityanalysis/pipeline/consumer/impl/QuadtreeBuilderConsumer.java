@@ -35,9 +35,14 @@ import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.FeatureImportListener;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.IPbfQuadtree;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.IQuadtree;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.IQuadtreeSplitPolicy;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.IVgiOperationPbfWriter;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.impl.FeatureImportEvent;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.impl.FeatureCountSplitPolicy;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.impl.FlatQuadtreeIndex;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.impl.QuadtreeBulkLoader;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.impl.QuadtreeImpl;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.impl.VgiOperationPbfIndex;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.pbf.OperationFileListProto.PbfOperationFileList;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.pbf.OperationFileListProto.PbfOperationFileList.PbfOperationFile;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.pbf.QuadtreeIndexProto.PbfQuadtreeIndex;
@@ -55,12 +60,25 @@ public class QuadtreeBuilderConsumer implements IVgiPipelineConsumer, IPbfQuadtr
 	
 	private IQuadtree quadtree = null;
 	
+	/** if true, features are spilled to temporary files and every quadrant is written once after the last batch */
+	private boolean bulkLoad = false;
+	private QuadtreeBulkLoader bulkLoader = null;
+	
+	/** decides which quadrants are subdivided */
+	private IQuadtreeSplitPolicy splitPolicy = new FeatureCountSplitPolicy();
+	
+	/** false if the statistics of an imported tree are unknown; no flat index is written then */
+	private boolean statisticsComplete = true;
+	
 	/** Memory limit variables */
     private final static long usedMemoryLimit = 1024*1024*512*3; /** 1,5 GB */
     private int minNumFeaturesLimiter = 0;
     private long timeLastMemoryCheck = 0l;
     private int previousLimit = Integer.MAX_VALUE;
 	
+    /** number of features which are handed over to the PBF writer at once (bulk load mode) */
+    private static final int BULK_LOAD_WRITE_BATCH_SIZE = 1000;
+	
     /** statistics */
     private long addedToInsertListCount = 0l;
 	private long writtenToFileCount = 0l;
@@ -76,12 +94,28 @@ public class QuadtreeBuilderConsumer implements IVgiPipelineConsumer, IPbfQuadtr
 	public void doBeforeFirstBatch() {
 		log.info("Import quadtree structure");
 		importQuadtreeStructure();
+		
+		if (bulkLoad) {
+			if (quadtree.getNW() != null || quadtree.getFeatureCount() > 0) {
+				log.warn("Quadtree already exists, bulk load is not possible. Features are inserted into the existing tree.");
+			} else {
+				try {
+					bulkLoader = new QuadtreeBulkLoader(new File(settings.getPbfDataFolder() + "/Quadtree/"), splitPolicy);
+				} catch (IOException e) {
+					log.error("Cannot create temporary file for bulk load", e);
+				}
+			}
+		}
 	}
 	
 	@Override
 	public void handleBatch(List<IVgiFeature> batch) {
 		/** Add features to feature List */
-		insertCollectedFeatures(batch);
+		if (bulkLoader != null) {
+			spillFeatures(batch);
+		} else {
+			insertCollectedFeatures(batch);
+		}
 		
 		addedToInsertListCount += batch.size();
 	}
@@ -89,8 +123,15 @@ public class QuadtreeBuilderConsumer implements IVgiPipelineConsumer, IPbfQuadtr
 	@Override
 	public void doAfterLastBatch() {
 		log.info("Do final tasks");
-		/** Insert remaining features and write tree to files */
-		insertCollectedFeatures(new ArrayList<IVgiFeature>());
+		if (bulkLoader != null) {
+			/** Build tree and write every quadrant once */
+			writeBulkLoadedQuadrants();
+			bulkLoader = null;
+		} else {
+			/** Insert remaining features */
+			insertCollectedFeatures(new ArrayList<IVgiFeature>());
+		}
+		/** Write tree to files */
 		writePbfFile(0);
 	}
 	
@@ -98,7 +139,7 @@ public class QuadtreeBuilderConsumer implements IVgiPipelineConsumer, IPbfQuadtr
 	@Override
 	public void importQuadtreeStructure() {
 		if (quadtree == null) {
-			quadtree = new QuadtreeImpl();
+			quadtree = new QuadtreeImpl(splitPolicy);
 			/** Read the quadtree index */
 			PbfQuadtreeIndex pbfQuadtree = null;
 			try {
@@ -112,6 +153,16 @@ public class QuadtreeBuilderConsumer implements IVgiPipelineConsumer, IPbfQuadtr
 				pbfQuadtree = PbfQuadtreeIndex.parseFrom(new FileInputStream(indexFile));
 				
 				readPbfQuadtree(pbfQuadtree.getRoot(), quadtree);
+				
+				/** Read quadrant statistics */
+				File flatIndexFile = FlatQuadtreeIndex.getIndexFile(new File(settings.getPbfDataFolder() + "/Quadtree/"));
+				if (flatIndexFile.exists()) {
+					FlatQuadtreeIndex flatIndex = FlatQuadtreeIndex.open(flatIndexFile);
+					flatIndex.readStatistics(quadtree, flatIndex.getRoot());
+				} else {
+					log.warn("Cannot find file '{}'! No flat index will be written.", flatIndexFile);
+					statisticsComplete = false;
+				}
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
@@ -129,16 +180,16 @@ public class QuadtreeBuilderConsumer implements IVgiPipelineConsumer, IPbfQuadtr
 		qt.setFeatureCount(pbfQuadtree.getFeatureCount());
 		
 		if (pbfQuadtree.hasNw()) {
-			qt.setNW(new QuadtreeImpl());
+			qt.setNW(new QuadtreeImpl(splitPolicy));
 			readPbfQuadtree(pbfQuadtree.getNw(), qt.getNW());
 			
-			qt.setNE(new QuadtreeImpl());
+			qt.setNE(new QuadtreeImpl(splitPolicy));
 			readPbfQuadtree(pbfQuadtree.getNe(), qt.getNE());
 			
-			qt.setSE(new QuadtreeImpl());
+			qt.setSE(new QuadtreeImpl(splitPolicy));
 			readPbfQuadtree(pbfQuadtree.getSe(), qt.getSE());
 			
-			qt.setSW(new QuadtreeImpl());
+			qt.setSW(new QuadtreeImpl(splitPolicy));
 			readPbfQuadtree(pbfQuadtree.getSw(), qt.getSW());
 		}
     }
@@ -174,10 +225,7 @@ public class QuadtreeBuilderConsumer implements IVgiPipelineConsumer, IPbfQuadtr
 			determineBoundingBox(feature);
 			
 			if (!feature.getBBox().isNull()) {
-				if (settings.getCurrentPolygon() != null) {
-					/** Only add features which intersect filter polygon */
-					if (!feature.getBBox().intersects(settings.getCurrentPolygon().getPolygon().getEnvelopeInternal())) continue;
-				}
+				if (!intersectsFilterPolygon(feature)) continue;
 				/** Correctly processed feature */
 				quadtree.insertFeature(feature);
 				
@@ -194,6 +242,85 @@ public class QuadtreeBuilderConsumer implements IVgiPipelineConsumer, IPbfQuadtr
 	    checkRuntimeMemory();
 	}
 	
+	/** Only features which intersect filter polygon are added */
+	private boolean intersectsFilterPolygon(IVgiFeature feature) {
+		if (settings.getCurrentPolygon() == null) return true;
+		return feature.getBBox().intersects(settings.getCurrentPolygon().getPolygon().getEnvelopeInternal());
+	}
+	
+	/**
+	 * Spills features to the bulk loader (bulk load mode)
+	 */
+	private void spillFeatures(List<IVgiFeature> featureList) {
+		int missing = 0;
+		try {
+			for (IVgiFeature feature : featureList) {
+				determineBoundingBox(feature);
+				
+				if (!feature.getBBox().isNull()) {
+					if (!intersectsFilterPolygon(feature)) continue;
+					bulkLoader.add(feature);
+				} else {
+					missing++;
+				}
+			}
+		} catch (IOException e) {
+			log.error("Error while spilling features", e);
+		}
+	    if (missing > 0) log.warn(" - {} features have no location", missing);
+	}
+	
+	/**
+	 * Builds the tree structure from the spilled features and writes the
+	 * features of every quadrant (bulk load mode)
+	 */
+	private void writeBulkLoadedQuadrants() {
+		log.info("Build quadtree from spilled features");
+		bulkLoader.buildTree(quadtree);
+		
+		try (QuadtreeBulkLoader.SortedFeatureReader reader = bulkLoader.sort()) {
+			IQuadtree currentQuadrant = null;
+			IVgiOperationPbfWriter writer = null;
+			List<IVgiFeature> features = new ArrayList<IVgiFeature>();
+			
+			for (IVgiFeature feature = reader.next(); feature != null; feature = reader.next()) {
+				if (reader.getQuadrant() != currentQuadrant) {
+					/** Terminate writer of previous quadrant */
+					if (writer != null) {
+						if (!features.isEmpty()) writer.writePbfFeatures(features);
+						writer.terminatePbfWriter();
+					}
+					features.clear();
+					
+					currentQuadrant = reader.getQuadrant();
+					File path = new File(settings.getPbfDataFolder() + "/Quadtree/" + currentQuadrant.getPath());
+					if (!path.exists()) path.mkdirs();
+					writer = ctx.getBean("vgiOperationPbfWriter", IVgiOperationPbfWriter.class);
+					writer.initializePbfWriterToAppend(path);
+					writtenQuadrants++;
+				}
+				
+				features.add(feature);
+				currentQuadrant.getStatistics().add(feature);
+				if (features.size() >= BULK_LOAD_WRITE_BATCH_SIZE) {
+					writer.writePbfFeatures(features);
+					features.clear();
+				}
+				writtenToFileCount++;
+			}
+			
+			if (writer != null) {
+				if (!features.isEmpty()) writer.writePbfFeatures(features);
+				writer.terminatePbfWriter();
+			}
+			log.info(" - {} features written to {} quadrants", writtenToFileCount, writtenQuadrants);
+		} catch (IOException e) {
+			log.error("Error while writing bulk loaded quadrants", e);
+		} finally {
+			bulkLoader.close();
+		}
+	}
+	
 //	private void findFeatureLocation(List<IVgiFeature> features, boolean findAllLocations) {
 ////		int failedToLocalize = 0;
 ////		int failedToLocalizePrevious = 0;
@@ -391,6 +518,15 @@ public class QuadtreeBuilderConsumer implements IVgiPipelineConsumer, IPbfQuadtr
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		
+		/** Write flat index file */
+		if (statisticsComplete) {
+			try {
+				FlatQuadtreeIndex.write(quadtree, FlatQuadtreeIndex.getIndexFile(new File(settings.getPbfDataFolder() + "/Quadtree/")));
+			} catch (IOException e) {
+				log.error("Error while writing flat quadtree index", e);
+			}
+		}
 
 		log.info(" - " + addedToInsertListCount + " features added + " + readFromFileCount + " features read = " + writtenToFileCount + " features written (" + writtenQuadrants + " quads affected)");
 	}
@@ -530,6 +666,12 @@ public class QuadtreeBuilderConsumer implements IVgiPipelineConsumer, IPbfQuadtr
 			} else {
 				log.error("File '" + f.getAbsolutePath() + "' does not exist!");
 			}
+
+			/** Delete index file (if it exists) */
+			File indexFile = VgiOperationPbfIndex.getIndexFile(f);
+			if (indexFile.exists() && !indexFile.delete()) {
+				log.warn("Cannot delete file " + indexFile.getAbsolutePath());
+			}
 		}
 	}
 
@@ -541,4 +683,12 @@ public class QuadtreeBuilderConsumer implements IVgiPipelineConsumer, IPbfQuadtr
 	public void setSettings(IVgiPipelineSettings settings) {
 		this.settings = settings;
 	}
+	
+	public void setBulkLoad(boolean bulkLoad) {
+		this.bulkLoad = bulkLoad;
+	}
+	
+	public void setSplitPolicy(IQuadtreeSplitPolicy splitPolicy) {
+		this.splitPolicy = splitPolicy;
+	}
 }
@@ -24,11 +24,16 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import org.apache.logging.log4j.Logger;
 import org.geotools.feature.DefaultFeatureCollection;
@@ -40,22 +45,32 @@ import org.springframework.beans.BeansException;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 
+import com.vividsolutions.jts.algorithm.locate.IndexedPointInAreaLocator;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Location;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.index.strtree.STRtree;
 
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiAction;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiActionGenerator;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiFeature;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiOperation;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiFeatureImpl.LocalizeType;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiGeometryType;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiOperationImpl;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiOperationType;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiPolygon;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.pipeline.IVgiPipeline;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.pipeline.IVgiPipelineSettings;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.pipeline.consumer.IVgiPipelineConsumer;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.IVgiAnalysisAction;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.IVgiAnalysisFeature;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.IVgiAnalysisOperation;
-import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.analysis.impl.VgiAnalysisParent;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.impl.GeomUtils;
 import gnu.trove.list.array.TLongArrayList;
 
@@ -74,16 +89,30 @@ public class VgiAnalysisConsumer implements IVgiPipelineConsumer, ApplicationCon
 	
 	private File resultDir = null;
 	
-	private DecimalFormat df = new DecimalFormat("00");
-    private SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-	private Calendar calA = Calendar.getInstance();
-	
 	private Map<SimpleFeatureType, DefaultFeatureCollection> mapFeatures = null;
 	
+	/** Analyze features in parallel; each thread has its own action generator and partial analyses */
+	private boolean parallelAnalysis = false;
+	/** Minimum number of features per analysis task */
+	private static final int PARALLEL_MIN_FEATURES = 100;
+	/** pool which analyzes features; shared by all analysis consumers */
+	private static ForkJoinPool analysisPool = null;
+	/** action generators of the analysis tasks (prototype beans) */
+	private List<IVgiActionGenerator> taskActionGenerators = new ArrayList<IVgiActionGenerator>();
+	
+	/** Analyzes the features sequentially */
+	private AnalysisWorker sequentialWorker = null;
+	
+	/** Spatial filter of the current polygon */
+	private PolygonFilter polygonFilter = null;
+	
+	/** Analyses of the filter polygons (single pass polygon analysis) */
+	private List<PolygonAnalysis> polygonAnalyses = null;
+	/** STR-tree of the polygon analyses */
+	private STRtree polygonIndex = null;
+	
 	/** Constructor */
 	public VgiAnalysisConsumer() {
-		dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
-		calA.setTimeZone(TimeZone.getTimeZone("UTC"));
 	}
 	
 	@Override
@@ -96,6 +125,9 @@ public class VgiAnalysisConsumer implements IVgiPipelineConsumer, ApplicationCon
 		}
 		resultDir.mkdir();
 		
+		/** Prepare the polygon once per pipeline run */
+		polygonFilter = (settings.getCurrentPolygon() != null && !isSinglePassPolygonAnalysis()) ? new PolygonFilter(settings.getCurrentPolygon()) : null;
+		
 		/** Initialize variables */
 		if (settings.isWriteGeometryFiles()) {
 			mapFeatures = new HashMap<SimpleFeatureType, DefaultFeatureCollection>();
@@ -115,15 +147,60 @@ public class VgiAnalysisConsumer implements IVgiPipelineConsumer, ApplicationCon
 		}
 		
 		featureList = new ArrayList<IVgiFeature>();
+		
+		sequentialWorker = new AnalysisWorker(actionGenerator, settings.getActionAnalyzerList(), settings.getOperationAnalyzerList(), settings.getFeatureAnalyzerList());
+		
+		if (isSinglePassPolygonAnalysis()) {
+			/** Each polygon gets its own partial analyses */
+			polygonAnalyses = new ArrayList<PolygonAnalysis>();
+			polygonIndex = new STRtree();
+			for (VgiPolygon polygon : settings.getFilterPolygonList()) {
+				PolygonAnalysis polygonAnalysis = new PolygonAnalysis(polygon);
+				polygonAnalyses.add(polygonAnalysis);
+				polygonIndex.insert(polygon.getPolygon().getEnvelopeInternal(), polygonAnalysis);
+			}
+			polygonIndex.build();
+			log.info("Analyze {} polygons in a single pass", polygonAnalyses.size());
+		}
+	}
+	
+	/**
+	 * Single pass polygon analysis requires that all analyses can be
+	 * partitioned, since each polygon is analyzed by partial analyses.
+	 * @return true if the filter polygons can be analyzed in a single pass
+	 */
+	public boolean isSinglePassPolygonAnalysisSupported() {
+		for (IVgiAnalysisAction analysis : settings.getActionAnalyzerList()) {
+			if (!analysis.isPartitionable()) return false;
+		}
+		for (IVgiAnalysisOperation analysis : settings.getOperationAnalyzerList()) {
+			if (!analysis.isPartitionable()) return false;
+		}
+		for (IVgiAnalysisFeature analysis : settings.getFeatureAnalyzerList()) {
+			if (!analysis.isPartitionable()) return false;
+		}
+		return true;
+	}
+	
+	private boolean isSinglePassPolygonAnalysis() {
+		return settings.isSinglePassPolygonAnalysis() && settings.getFilterPolygonList() != null;
 	}
 	
 	@Override
 	public void handleBatch(List<IVgiFeature> batch) {
-		prepareOperations(batch);
+		if (polygonAnalyses != null) {
+			preparePolygonOperations(batch);
+		} else {
+			prepareOperations(batch);
+		}
 	}
 	
 	@Override
 	public void doAfterLastBatch() {
+		if (polygonAnalyses != null) {
+			writePolygonAnalyses();
+			return;
+		}
 		
 		/** Write and reset action analysis */
 		for (IVgiAnalysisAction analysis : settings.getActionAnalyzerList()) {
@@ -140,9 +217,6 @@ public class VgiAnalysisConsumer implements IVgiPipelineConsumer, ApplicationCon
 			analysis.write(resultDir);
 			analysis.reset();
 		}
-		
-		/** Reset user analysis */
-		VgiAnalysisParent.resetParent();
 
 		if (settings.isWriteGeometryFiles()) {
 			
@@ -156,6 +230,57 @@ public class VgiAnalysisConsumer implements IVgiPipelineConsumer, ApplicationCon
 		}
 	}
 	
+	/**
+	 * Writes the results of the polygons in the order of the polygon list.
+	 * The partial analyses of each polygon are merged into the configured
+	 * analyses, which write them like in a pipeline run per polygon.
+	 */
+	private void writePolygonAnalyses() {
+		VgiPolygon extent = settings.getCurrentPolygon();
+		
+		for (PolygonAnalysis polygonAnalysis : polygonAnalyses) {
+			settings.setCurrentPolygon(polygonAnalysis.polygon);
+			File polygonResultDir = new File(settings.getResultFolder() + File.separator + polygonAnalysis.polygon.getLabel() + File.separator);
+			polygonResultDir.mkdir();
+			
+			for (int i=0; i<settings.getActionAnalyzerList().size(); i++) {
+				IVgiAnalysisAction analysis = settings.getActionAnalyzerList().get(i);
+				analysis.reset();
+				analysis.merge(polygonAnalysis.worker.actionAnalyzers.get(i));
+				analysis.write(polygonResultDir);
+				analysis.reset();
+			}
+			for (int i=0; i<settings.getOperationAnalyzerList().size(); i++) {
+				IVgiAnalysisOperation analysis = settings.getOperationAnalyzerList().get(i);
+				analysis.reset();
+				analysis.merge(polygonAnalysis.worker.operationAnalyzers.get(i));
+				analysis.write(polygonResultDir);
+				analysis.reset();
+			}
+			for (int i=0; i<settings.getFeatureAnalyzerList().size(); i++) {
+				IVgiAnalysisFeature analysis = settings.getFeatureAnalyzerList().get(i);
+				analysis.reset();
+				analysis.merge(polygonAnalysis.worker.featureAnalyzers.get(i));
+				analysis.write(polygonResultDir);
+				analysis.reset();
+			}
+			
+			if (settings.isWriteGeometryFiles()) {
+				try {
+					for (SimpleFeatureType featureType : polygonAnalysis.mapFeatures.keySet()) {
+						write(polygonAnalysis.mapFeatures.get(featureType), new FileOutputStream(polygonResultDir + "/geom_" + featureType.getTypeName() + ".json", false));
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		
+		settings.setCurrentPolygon(extent);
+		polygonAnalyses = null;
+		polygonIndex = null;
+	}
+	
     protected void write(DefaultFeatureCollection features, OutputStream out) throws IOException {
         final FeatureJSON json = new FeatureJSON(new GeometryJSON(7));
         boolean geometryless = features.getSchema().getGeometryDescriptor() == null;
@@ -173,9 +298,21 @@ public class VgiAnalysisConsumer implements IVgiPipelineConsumer, ApplicationCon
 			/** Filter by tag */
 			if (!feature.filterByTag(settings.getFilterTag())) continue;
 			
-			if (settings.getCurrentPolygon() != null || settings.isWriteGeometryFiles()) {
-				if (settings.getCurrentPolygon() != null) {
-					if (!settings.getCurrentPolygon().getPolygon().getEnvelopeInternal().intersects(feature.getBBox())) continue;
+			if (polygonFilter != null || settings.isWriteGeometryFiles()) {
+				boolean inside = false;
+				if (polygonFilter != null) {
+					if (!polygonFilter.envelope.intersects(feature.getBBox())) continue;
+					/** Features of quadrants within the polygon and features whose bounding box is covered by the polygon are inside */
+					inside = (feature.getLocalizeType().equals(LocalizeType.WITHIN) && !feature.getBBox().isNull()) || polygonFilter.covers(feature.getBBox());
+					
+					if (inside && !settings.isWriteGeometryFiles()) {
+						/** No geometry required; operations are sorted like by the feature builder */
+						Collections.sort(feature.getOperationList(), VgiOperationImpl.getVersionComparator());
+						/** Features without valid geometry are skipped, like features which cannot be assembled */
+						if (!geometryAssemblerConsumer.hasGeometry(feature)) continue;
+						featureList.add(feature);
+						continue;
+					}
 				}
 				
 				SimpleFeature f = geometryAssemblerConsumer.assembleGeometry(feature, null);
@@ -186,9 +323,9 @@ public class VgiAnalysisConsumer implements IVgiPipelineConsumer, ApplicationCon
 					f.setAttribute("length", length);
 				}
 				
-				if (settings.getCurrentPolygon() != null) {
+				if (polygonFilter != null && !inside) {
 					Geometry geometry = (Geometry)f.getDefaultGeometry();
-					if (geometry == null || geometry.disjoint(settings.getCurrentPolygon().getPolygon())) continue;					
+					if (geometry == null || !polygonFilter.intersects(geometry)) continue;
 				}
 				
 				if (settings.isWriteGeometryFiles()) {
@@ -205,6 +342,146 @@ public class VgiAnalysisConsumer implements IVgiPipelineConsumer, ApplicationCon
 		analyzeFeatures();
 	}
 	
+	/**
+	 * Assigns the features to all polygons which intersect with them and
+	 * triggers the analysis
+	 */
+	private void preparePolygonOperations(List<IVgiFeature> batch) {
+		for (IVgiFeature feature : batch) {
+			
+			/** Filter by tag */
+			if (!feature.filterByTag(settings.getFilterTag())) continue;
+			
+			@SuppressWarnings("unchecked")
+			List<PolygonAnalysis> candidates = polygonIndex.query(feature.getBBox());
+			if (candidates.isEmpty()) continue;
+			
+			/** Polygons which cover the bounding box of the feature do not require its geometry */
+			boolean assemble = settings.isWriteGeometryFiles();
+			for (PolygonAnalysis polygonAnalysis : candidates) {
+				if (!polygonAnalysis.filter.covers(feature.getBBox())) assemble = true;
+			}
+			
+			SimpleFeature f = null;
+			Geometry geometry = null;
+			if (assemble) {
+				f = geometryAssemblerConsumer.assembleGeometry(feature, null);
+				if (f != null) geometry = (Geometry)f.getDefaultGeometry();
+				/** Features without geometry are not analyzed in any polygon (like in separate polygon runs) */
+				if (geometry == null) continue;
+				
+				if (geometry != null && geometry.getGeometryType().equals("LineString")) {
+					double length = GeomUtils.calculateLengthMeterFromWGS84LineStringAndoyer((LineString)geometry);
+					f.setAttribute("length", length);
+				}
+			} else {
+				/** Operations are sorted like by the feature builder */
+				Collections.sort(feature.getOperationList(), VgiOperationImpl.getVersionComparator());
+				if (!geometryAssemblerConsumer.hasGeometry(feature)) continue;
+			}
+			
+			boolean assigned = false;
+			for (PolygonAnalysis polygonAnalysis : candidates) {
+				if (!polygonAnalysis.filter.covers(feature.getBBox())) {
+					if (geometry == null || !polygonAnalysis.filter.intersects(geometry)) continue;
+				}
+				
+				if (settings.isWriteGeometryFiles()) {
+					if (!polygonAnalysis.mapFeatures.containsKey(f.getFeatureType())) polygonAnalysis.mapFeatures.put(f.getFeatureType(), new DefaultFeatureCollection(f.getFeatureType().getTypeName(), f.getFeatureType()));
+					if (!(boolean)f.getAttribute("deleted")) {
+						polygonAnalysis.mapFeatures.get(f.getFeatureType()).add(f);
+					}
+				}
+				polygonAnalysis.features.add(feature);
+				assigned = true;
+			}
+			
+			if (assigned) featureList.add(feature);
+		}
+		
+		analyzePolygonFeatures();
+	}
+	
+	/**
+	 * Analyzes the features of each polygon. Actions are generated once per
+	 * feature, even if the feature is located in several polygons.
+	 */
+	private void analyzePolygonFeatures() {
+		
+		if (settings.isFindRelatedOperations()) {
+			log.info("Find related operations for {} Features", featureList.size());
+			findRelatedOperations();
+		}
+		
+		if (featureList.size() > 0) log.info("Analyze {} Features", featureList.size());
+		boolean parallel = parallelAnalysis && ctx != null && featureList.size() >= 2 * PARALLEL_MIN_FEATURES;
+		
+		if (settings.getActionAnalyzerList().size() > 0) {
+			if (parallel) {
+				/** Workers without analyses only generate actions */
+				ForkJoinPool pool = getAnalysisPool();
+				int taskCount = Math.min(pool.getParallelism(), featureList.size() / PARALLEL_MIN_FEATURES);
+				int taskSize = (featureList.size() + taskCount - 1) / taskCount;
+				
+				List<AnalysisWorker> workers = new ArrayList<AnalysisWorker>(taskCount);
+				for (int i=0; i<taskCount; i++) {
+					if (taskActionGenerators.size() <= i) {
+						taskActionGenerators.add(ctx.getBean("vgiActionGenerator", IVgiActionGenerator.class));
+					}
+					AnalysisWorker worker = new AnalysisWorker(taskActionGenerators.get(i), new ArrayList<IVgiAnalysisAction>(), new ArrayList<IVgiAnalysisOperation>(), new ArrayList<IVgiAnalysisFeature>());
+					worker.setFeatures(featureList.subList(i * taskSize, Math.min((i + 1) * taskSize, featureList.size())));
+					workers.add(worker);
+				}
+				if (!invokeWorkers(workers)) return;
+			} else {
+				for (IVgiFeature feature : featureList) {
+					if (feature.getActionList() == null) actionGenerator.generateActions(feature);
+				}
+			}
+		}
+		
+		/** Analyze the features of each polygon */
+		List<AnalysisWorker> workers = new ArrayList<AnalysisWorker>();
+		for (PolygonAnalysis polygonAnalysis : polygonAnalyses) {
+			if (polygonAnalysis.features.isEmpty()) continue;
+			polygonAnalysis.worker.setFeatures(polygonAnalysis.features);
+			workers.add(polygonAnalysis.worker);
+		}
+		if (parallel) {
+			if (!invokeWorkers(workers)) return;
+		} else {
+			for (AnalysisWorker worker : workers) {
+				worker.call();
+			}
+		}
+		
+		/** Clear feature lists */
+		for (AnalysisWorker worker : workers) {
+			worker.features.clear();
+		}
+		featureList.clear();
+	}
+	
+	/**
+	 * Executes the workers in the analysis pool
+	 * @return false if the thread has been interrupted
+	 */
+	private boolean invokeWorkers(List<AnalysisWorker> workers) {
+		try {
+			for (Future<AnalysisWorker> result : getAnalysisPool().invokeAll(workers)) {
+				result.get();
+			}
+		} catch (InterruptedException e) {
+			log.error("interrupted while analyzing features", e);
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+		return true;
+	}
+	
 	private void analyzeFeatures() {
 		
 		if (settings.isFindRelatedOperations()) {
@@ -213,14 +490,104 @@ public class VgiAnalysisConsumer implements IVgiPipelineConsumer, ApplicationCon
 		}
 
 		if (featureList.size() > 0) log.info("Analyze {} Features", featureList.size());
-		for (IVgiFeature feature : this.featureList) {
-			analyzeFeature(feature);
+		if (parallelAnalysis && ctx != null && featureList.size() >= 2 * PARALLEL_MIN_FEATURES) {
+			analyzeFeaturesParallel();
+		} else {
+			for (IVgiFeature feature : this.featureList) {
+				sequentialWorker.analyzeFeature(feature);
+			}
 		}
 		
 		/** Clear feature list */
 		featureList.clear();
 	}
 	
+	/**
+	 * Splits the feature list into consecutive parts which are analyzed by
+	 * partial analyses in parallel. The partial analyses are merged in feature
+	 * order. Analyses which cannot be partitioned are executed afterwards.
+	 */
+	private void analyzeFeaturesParallel() {
+		ForkJoinPool pool = getAnalysisPool();
+		int taskCount = Math.min(pool.getParallelism(), featureList.size() / PARALLEL_MIN_FEATURES);
+		int taskSize = (featureList.size() + taskCount - 1) / taskCount;
+		
+		List<AnalysisWorker> workers = new ArrayList<AnalysisWorker>(taskCount);
+		for (int i=0; i<taskCount; i++) {
+			if (taskActionGenerators.size() <= i) {
+				taskActionGenerators.add(ctx.getBean("vgiActionGenerator", IVgiActionGenerator.class));
+			}
+			
+			/** Partial analyses (null if an analysis cannot be partitioned) */
+			List<IVgiAnalysisAction> actionAnalyzers = new ArrayList<IVgiAnalysisAction>();
+			for (IVgiAnalysisAction analysis : settings.getActionAnalyzerList()) {
+				actionAnalyzers.add(analysis.isPartitionable() ? analysis.createPartial() : null);
+			}
+			List<IVgiAnalysisOperation> operationAnalyzers = new ArrayList<IVgiAnalysisOperation>();
+			for (IVgiAnalysisOperation analysis : settings.getOperationAnalyzerList()) {
+				operationAnalyzers.add(analysis.isPartitionable() ? analysis.createPartial() : null);
+			}
+			List<IVgiAnalysisFeature> featureAnalyzers = new ArrayList<IVgiAnalysisFeature>();
+			for (IVgiAnalysisFeature analysis : settings.getFeatureAnalyzerList()) {
+				featureAnalyzers.add(analysis.isPartitionable() ? analysis.createPartial() : null);
+			}
+			
+			AnalysisWorker worker = new AnalysisWorker(taskActionGenerators.get(i), actionAnalyzers, operationAnalyzers, featureAnalyzers);
+			worker.setFeatures(featureList.subList(i * taskSize, Math.min((i + 1) * taskSize, featureList.size())));
+			workers.add(worker);
+		}
+		
+		if (!invokeWorkers(workers)) return;
+		
+		/** Merge partial analyses in feature order; remaining analyses are executed sequentially */
+		List<IVgiAnalysisAction> actionAnalyzers = new ArrayList<IVgiAnalysisAction>();
+		for (int j=0; j<settings.getActionAnalyzerList().size(); j++) {
+			IVgiAnalysisAction analysis = settings.getActionAnalyzerList().get(j);
+			if (workers.get(0).actionAnalyzers.get(j) == null) {
+				actionAnalyzers.add(analysis);
+				continue;
+			}
+			for (AnalysisWorker worker : workers) {
+				analysis.merge(worker.actionAnalyzers.get(j));
+			}
+		}
+		List<IVgiAnalysisOperation> operationAnalyzers = new ArrayList<IVgiAnalysisOperation>();
+		for (int j=0; j<settings.getOperationAnalyzerList().size(); j++) {
+			IVgiAnalysisOperation analysis = settings.getOperationAnalyzerList().get(j);
+			if (workers.get(0).operationAnalyzers.get(j) == null) {
+				operationAnalyzers.add(analysis);
+				continue;
+			}
+			for (AnalysisWorker worker : workers) {
+				analysis.merge(worker.operationAnalyzers.get(j));
+			}
+		}
+		List<IVgiAnalysisFeature> featureAnalyzers = new ArrayList<IVgiAnalysisFeature>();
+		for (int j=0; j<settings.getFeatureAnalyzerList().size(); j++) {
+			IVgiAnalysisFeature analysis = settings.getFeatureAnalyzerList().get(j);
+			if (workers.get(0).featureAnalyzers.get(j) == null) {
+				featureAnalyzers.add(analysis);
+				continue;
+			}
+			for (AnalysisWorker worker : workers) {
+				analysis.merge(worker.featureAnalyzers.get(j));
+			}
+		}
+		
+		if (actionAnalyzers.size() + operationAnalyzers.size() + featureAnalyzers.size() == 0) return;
+		
+		/** Actions have already been generated by the analysis tasks */
+		AnalysisWorker worker = new AnalysisWorker(actionGenerator, actionAnalyzers, operationAnalyzers, featureAnalyzers);
+		for (IVgiFeature feature : this.featureList) {
+			worker.analyzeFeature(feature);
+		}
+	}
+	
+	private static synchronized ForkJoinPool getAnalysisPool() {
+		if (analysisPool == null) analysisPool = new ForkJoinPool();
+		return analysisPool;
+	}
+	
 	private void findRelatedOperations() {
 		
 		/** Create relatedFeatureList which includes nodes which have been added to ways */
@@ -254,114 +621,223 @@ public class VgiAnalysisConsumer implements IVgiPipelineConsumer, ApplicationCon
 	}
 	
 	/**
-	 * Sends feature to operation/action/feature analyzer
-	 * @param feature
+	 * Spatial filter of a polygon. The polygon is prepared once, so that
+	 * repeated tests against complex boundaries use its indexes.
 	 */
-	private void analyzeFeature(IVgiFeature feature) {
-		/** Analyze operations */
-		if (settings.getOperationAnalyzerList().size() > 0) {
-			for (IVgiOperation operation : feature.getOperationList()) {
-				for (IVgiAnalysisOperation analysis : settings.getOperationAnalyzerList()) {
-					long startTime = System.currentTimeMillis();
-					analysis.analyze(operation, deriveTimePeriod(operation)[0]);
-					analysis.addToProcessingTime(System.currentTimeMillis() - startTime);
-				}
+	private static class PolygonFilter {
+		private final Envelope envelope;
+		private final PreparedGeometry preparedPolygon;
+		private final IndexedPointInAreaLocator pointLocator;
+		
+		private PolygonFilter(VgiPolygon polygon) {
+			envelope = polygon.getPolygon().getEnvelopeInternal();
+			preparedPolygon = PreparedGeometryFactory.prepare(polygon.getPolygon());
+			pointLocator = new IndexedPointInAreaLocator(polygon.getPolygon());
+		}
+		
+		/**
+		 * @return true if the bounding box is covered by the polygon (the
+		 * feature is inside regardless of its geometry)
+		 */
+		private boolean covers(Envelope bbox) {
+			if (bbox == null || bbox.isNull() || !envelope.covers(bbox)) return false;
+			/** Nodes which have never been moved */
+			if (bbox.getWidth() == 0 && bbox.getHeight() == 0) return pointLocator.locate(new Coordinate(bbox.getMinX(), bbox.getMinY())) != Location.EXTERIOR;
+			return preparedPolygon.covers(preparedPolygon.getGeometry().getFactory().toGeometry(bbox));
+		}
+		
+		/**
+		 * @return true if the geometry is not disjoint from the polygon
+		 */
+		private boolean intersects(Geometry geometry) {
+			if (geometry instanceof Point) return pointLocator.locate(geometry.getCoordinate()) != Location.EXTERIOR;
+			return preparedPolygon.intersects(geometry);
+		}
+	}
+	
+	/**
+	 * Features and partial analyses of a filter polygon
+	 */
+	private class PolygonAnalysis {
+		private final VgiPolygon polygon;
+		private final PolygonFilter filter;
+		private final AnalysisWorker worker;
+		private final List<IVgiFeature> features = new ArrayList<IVgiFeature>();
+		private final Map<SimpleFeatureType, DefaultFeatureCollection> mapFeatures = new HashMap<SimpleFeatureType, DefaultFeatureCollection>();
+		
+		private PolygonAnalysis(VgiPolygon polygon) {
+			this.polygon = polygon;
+			this.filter = new PolygonFilter(polygon);
+			
+			List<IVgiAnalysisAction> actionAnalyzers = new ArrayList<IVgiAnalysisAction>();
+			for (IVgiAnalysisAction analysis : settings.getActionAnalyzerList()) {
+				actionAnalyzers.add(analysis.isPartitionable() ? analysis.createPartial() : null);
+			}
+			List<IVgiAnalysisOperation> operationAnalyzers = new ArrayList<IVgiAnalysisOperation>();
+			for (IVgiAnalysisOperation analysis : settings.getOperationAnalyzerList()) {
+				operationAnalyzers.add(analysis.isPartitionable() ? analysis.createPartial() : null);
 			}
+			List<IVgiAnalysisFeature> featureAnalyzers = new ArrayList<IVgiAnalysisFeature>();
+			for (IVgiAnalysisFeature analysis : settings.getFeatureAnalyzerList()) {
+				featureAnalyzers.add(analysis.isPartitionable() ? analysis.createPartial() : null);
+			}
+			/** Actions have already been generated when the polygon is analyzed */
+			worker = new AnalysisWorker(actionGenerator, actionAnalyzers, operationAnalyzers, featureAnalyzers);
 		}
+	}
+	
+	/**
+	 * Sends features to the operation/action/feature analyzers. Each analysis
+	 * task uses its own worker because action generator and date formats are
+	 * not thread-safe.
+	 */
+	private class AnalysisWorker implements Callable<AnalysisWorker> {
+		private final IVgiActionGenerator actionGenerator;
+		/** analyzers; null entries are skipped */
+		private final List<IVgiAnalysisAction> actionAnalyzers;
+		private final List<IVgiAnalysisOperation> operationAnalyzers;
+		private final List<IVgiAnalysisFeature> featureAnalyzers;
 		
-		/** Analyze actions */
-		if (settings.getActionAnalyzerList().size() > 0) {
-			if (feature.getActionList() == null) {
-				actionGenerator.generateActions(feature);
+		private List<IVgiFeature> features = null;
+		
+		private DecimalFormat df = new DecimalFormat("00");
+		private SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+		private Calendar calA = Calendar.getInstance();
+		
+		public AnalysisWorker(IVgiActionGenerator actionGenerator, List<IVgiAnalysisAction> actionAnalyzers, List<IVgiAnalysisOperation> operationAnalyzers, List<IVgiAnalysisFeature> featureAnalyzers) {
+			this.actionGenerator = actionGenerator;
+			this.actionAnalyzers = actionAnalyzers;
+			this.operationAnalyzers = operationAnalyzers;
+			this.featureAnalyzers = featureAnalyzers;
+			dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+			calA.setTimeZone(TimeZone.getTimeZone("UTC"));
+		}
+		
+		public void setFeatures(List<IVgiFeature> features) {
+			this.features = features;
+		}
+		
+		@Override
+		public AnalysisWorker call() {
+			for (IVgiFeature feature : features) {
+				analyzeFeature(feature);
 			}
-			if (feature.getActionList().size() == 0) return;
+			return this;
+		}
+		
+		/**
+		 * Sends feature to operation/action/feature analyzer
+		 * @param feature
+		 */
+		private void analyzeFeature(IVgiFeature feature) {
+			/** Analyze operations */
+			if (operationAnalyzers.size() > 0) {
+				for (IVgiOperation operation : feature.getOperationList()) {
+					for (IVgiAnalysisOperation analysis : operationAnalyzers) {
+						if (analysis == null) continue;
+						long startTime = System.currentTimeMillis();
+						analysis.analyze(operation, deriveTimePeriod(operation)[0]);
+						analysis.addToProcessingTime(System.currentTimeMillis() - startTime);
+					}
+				}
+			}
+		
+			/** Analyze actions */
+			if (settings.getActionAnalyzerList().size() > 0) {
+				if (feature.getActionList() == null) {
+					actionGenerator.generateActions(feature);
+				}
+				if (feature.getActionList().size() == 0) return;
 			
-			for (IVgiAction action : feature.getActionList()) {
+				for (IVgiAction action : feature.getActionList()) {
 				
-				if (action.getOperations().size() == 0) continue;
+					if (action.getOperations().size() == 0) continue;
 				
-				IVgiOperation firstOperation = action.getOperations().get(0);
+					IVgiOperation firstOperation = action.getOperations().get(0);
 				
-				/** Determine/derive time period */
-				if (firstOperation.getTimestamp().before(settings.getAnalysisStartDate())) continue;
-				if (firstOperation.getTimestamp().after(settings.getAnalysisEndDate())) continue;
+					/** Determine/derive time period */
+					if (firstOperation.getTimestamp().before(settings.getAnalysisStartDate())) continue;
+					if (firstOperation.getTimestamp().after(settings.getAnalysisEndDate())) continue;
 				
-				/** Analyze action */
-				for (IVgiAnalysisAction analysis : settings.getActionAnalyzerList()) {
-					long startTime = System.currentTimeMillis();
-					analysis.analyze(action, deriveTimePeriod(firstOperation)[0]);
-					analysis.addToProcessingTime(System.currentTimeMillis() - startTime);
+					/** Analyze action */
+					for (IVgiAnalysisAction analysis : actionAnalyzers) {
+						if (analysis == null) continue;
+						long startTime = System.currentTimeMillis();
+						analysis.analyze(action, deriveTimePeriod(firstOperation)[0]);
+						analysis.addToProcessingTime(System.currentTimeMillis() - startTime);
+					}
 				}
 			}
-		}
 		
-		/** Analyze feature */
-		if (settings.getFeatureAnalyzerList().size() > 0) {
-			IVgiOperation firstOperation = feature.getActionList().get(0).getOperations().get(0);
+			/** Analyze feature */
+			if (featureAnalyzers.size() > 0) {
+				IVgiOperation firstOperation = feature.getActionList().get(0).getOperations().get(0);
 			
-			if (firstOperation.getTimestamp().before(settings.getAnalysisStartDate())) return;
-			if (firstOperation.getTimestamp().after(settings.getAnalysisEndDate())) return;
+				if (firstOperation.getTimestamp().before(settings.getAnalysisStartDate())) return;
+				if (firstOperation.getTimestamp().after(settings.getAnalysisEndDate())) return;
 			
-			for (IVgiAnalysisFeature analysis : settings.getFeatureAnalyzerList()) {
-				long startTime = System.currentTimeMillis();
-				analysis.analyze(feature, null);
-				analysis.addToProcessingTime(System.currentTimeMillis() - startTime);
+				for (IVgiAnalysisFeature analysis : featureAnalyzers) {
+					if (analysis == null) continue;
+					long startTime = System.currentTimeMillis();
+					analysis.analyze(feature, null);
+					analysis.addToProcessingTime(System.currentTimeMillis() - startTime);
+				}
 			}
-		}
 		
-		/** Release feature */
-		feature  = null;
-	}
+			/** Release feature */
+			feature  = null;
+		}
 	
-	/**
-	 * Derives the time period from the operation timestamp
-	 * @param operation operation with a timestamp
-	 * @return time period
-	 */
-	private Date[] deriveTimePeriod(IVgiOperation operation) {
-		Date[] timePeriod = new Date[2];
+		/**
+		 * Derives the time period from the operation timestamp
+		 * @param operation operation with a timestamp
+		 * @return time period
+		 */
+		private Date[] deriveTimePeriod(IVgiOperation operation) {
+			Date[] timePeriod = new Date[2];
 		
-		/** Create new time period (year, month, day); no timestamp filter */
-		calA.setTime(operation.getTimestamp());
+			/** Create new time period (year, month, day); no timestamp filter */
+			calA.setTime(operation.getTimestamp());
 	    
-		try {
-			if (settings.getTemporalResolution().equals("day")) {
-				/** DAY */
-				timePeriod[0] = dateFormat.parse(""+calA.get(Calendar.YEAR)+"-"+df.format(calA.get(Calendar.MONTH)+1)+"-"+calA.get(Calendar.DAY_OF_MONTH)+"");
-//				calA.add(Calendar.DAY_OF_MONTH, 1);
-//				timePeriod[1] = dateFormat.parse(""+calA.get(Calendar.YEAR)+"-"+df.format(calA.get(Calendar.MONTH)+1)+"-"+calA.get(Calendar.DAY_OF_MONTH)+"");
+			try {
+				if (settings.getTemporalResolution().equals("day")) {
+					/** DAY */
+					timePeriod[0] = dateFormat.parse(""+calA.get(Calendar.YEAR)+"-"+df.format(calA.get(Calendar.MONTH)+1)+"-"+calA.get(Calendar.DAY_OF_MONTH)+"");
+//					calA.add(Calendar.DAY_OF_MONTH, 1);
+//					timePeriod[1] = dateFormat.parse(""+calA.get(Calendar.YEAR)+"-"+df.format(calA.get(Calendar.MONTH)+1)+"-"+calA.get(Calendar.DAY_OF_MONTH)+"");
 				
-			} else if (settings.getTemporalResolution().equals("month")) {
-				/** MONTH */
-				timePeriod[0] = dateFormat.parse(""+calA.get(Calendar.YEAR)+"-"+df.format(calA.get(Calendar.MONTH)+1)+"-01");
-//				calA.add(Calendar.MONTH, 1);
-//				timePeriod[1] = dateFormat.parse(""+calA.get(Calendar.YEAR)+"-"+df.format(calA.get(Calendar.MONTH)+1)+"-01");
+				} else if (settings.getTemporalResolution().equals("month")) {
+					/** MONTH */
+					timePeriod[0] = dateFormat.parse(""+calA.get(Calendar.YEAR)+"-"+df.format(calA.get(Calendar.MONTH)+1)+"-01");
+//					calA.add(Calendar.MONTH, 1);
+//					timePeriod[1] = dateFormat.parse(""+calA.get(Calendar.YEAR)+"-"+df.format(calA.get(Calendar.MONTH)+1)+"-01");
 
-			} else if (settings.getTemporalResolution().equals("year")) {
-				/** YEAR */
-				timePeriod[0] = dateFormat.parse(""+calA.get(Calendar.YEAR)+"-01-01");
-//				calA.add(Calendar.YEAR, 1);
-//				timePeriod[1] = dateFormat.parse(""+calA.get(Calendar.YEAR)+"-01-01");
+				} else if (settings.getTemporalResolution().equals("year")) {
+					/** YEAR */
+					timePeriod[0] = dateFormat.parse(""+calA.get(Calendar.YEAR)+"-01-01");
+//					calA.add(Calendar.YEAR, 1);
+//					timePeriod[1] = dateFormat.parse(""+calA.get(Calendar.YEAR)+"-01-01");
 				
-			} else if (settings.getTemporalResolution().equals("decade")) {
-				/** DECATE */
-				timePeriod[0] = dateFormat.parse(""+((int)((double)calA.get(Calendar.YEAR)/10))*10+"-01-01");
+				} else if (settings.getTemporalResolution().equals("decade")) {
+					/** DECATE */
+					timePeriod[0] = dateFormat.parse(""+((int)((double)calA.get(Calendar.YEAR)/10))*10+"-01-01");
 				
-			} else if (settings.getTemporalResolution().equals("century")) {
-				/** CENTURY */
-				timePeriod[0] = dateFormat.parse(""+((int)((double)calA.get(Calendar.YEAR)/100))*100+"-01-01");
+				} else if (settings.getTemporalResolution().equals("century")) {
+					/** CENTURY */
+					timePeriod[0] = dateFormat.parse(""+((int)((double)calA.get(Calendar.YEAR)/100))*100+"-01-01");
 				
-			} else {
-				/** DEFAULT */
-				timePeriod[0] = settings.getAnalysisStartDate();
+				} else {
+					/** DEFAULT */
+					timePeriod[0] = settings.getAnalysisStartDate();
+				}
+			} catch (ParseException e) {
+				log.error("Cannot parse date");
 			}
-		} catch (ParseException e) {
-			log.error("Cannot parse date");
-		}
 		
-		return timePeriod;
+			return timePeriod;
+		}
 	}
-
+	
 	@Override
 	public void setApplicationContext(ApplicationContext ctx) throws BeansException {
 		this.ctx = ctx;
@@ -378,4 +854,8 @@ public class VgiAnalysisConsumer implements IVgiPipelineConsumer, ApplicationCon
 	public void setGeometryAssemblerConsumer(FeatureBuilderConsumer geometryAssemblerConsumer) {
 		this.geometryAssemblerConsumer = geometryAssemblerConsumer;
 	}
+	
+	public void setParallelAnalysis(boolean parallelAnalysis) {
+		this.parallelAnalysis = parallelAnalysis;
+	}
 }
@@ -19,11 +19,11 @@ import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.TimeUnit;
 
 import org.apache.logging.log4j.Logger;
 
@@ -31,12 +31,15 @@ import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiFeature;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiActionDefinitionRule;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiGeometryType;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.impl.VgiOperationPbfFileQueue;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.impl.VgiOperationPbfReaderImpl;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.impl.VgiOperationPbfReaderQuadtreeImpl;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.impl.VgiQuadrantQueue;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.pipeline.IVgiPipeline;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.pipeline.IVgiPipelineSettings;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.pipeline.consumer.IVgiPipelineConsumer;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.pipeline.producer.IVgiAnalysisPipelineProducer;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.pipeline.producer.VgiFeatureBatchQueue;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.IVgiAnalysisAction;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.IVgiAnalysisFeature;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.IVgiAnalysisOperation;
@@ -58,6 +61,16 @@ public class VgiPipelineImpl implements IVgiPipeline {
 
 	private int queueSize = 10000;
 	private int batchSize = 10000;
+	/** number of features which are handed over from a producer at once */
+	private int transferSize = 1000;
+	
+	/** if true, each consumer handles the batches in its own thread */
+	private boolean parallelConsumers = false;
+	/** number of batches which may wait for a (parallel) consumer */
+	private int consumerQueueSize = 2;
+	private List<ConsumerThread> consumerThreads = null;
+	/** end-of-stream marker for consumer threads (compared by identity) */
+	private static final List<IVgiFeature> END_OF_BATCHES = new ArrayList<IVgiFeature>(0);
 	
 	private IVgiAnalysisPipelineProducer producer = null;
 	private IVgiAnalysisPipelineProducer producerQuadtree = null;
@@ -71,6 +84,8 @@ public class VgiPipelineImpl implements IVgiPipeline {
 	private boolean constrainedFilter = false;
 	private int filterFileId = -1;
 	private boolean coordinateOnly = false;
+	private boolean memoryMapped = false;
+	private boolean parallelDecoding = false;
 
 	private Date timerStart = null;
 	private SimpleDateFormat dateTimeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
@@ -87,10 +102,13 @@ public class VgiPipelineImpl implements IVgiPipeline {
 	public void start() {
 		timerStart = new Date();
 		
-		BlockingQueue<IVgiFeature> queue = new ArrayBlockingQueue<IVgiFeature>(queueSize);
+		VgiFeatureBatchQueue queue = new VgiFeatureBatchQueue(queueSize, transferSize, numThreads);
 		
 		/** Create thread(s) which will read the PBF files */
 		Thread[] producerThread = new Thread[numThreads];
+		/** Producers take operation files (or quadrants) from a shared queue */
+		VgiOperationPbfFileQueue fileQueue = new VgiOperationPbfFileQueue();
+		VgiQuadrantQueue quadrantQueue = new VgiQuadrantQueue();
 		
 		for (int i=0; i<numThreads; i++) {
 			producer = (settings.isReadQuadtree() && producerQuadtree != null) ? new VgiOperationPbfReaderQuadtreeImpl(settings) : new VgiOperationPbfReaderImpl(settings);
@@ -99,6 +117,11 @@ public class VgiPipelineImpl implements IVgiPipeline {
 			
 			producer.setProducerCount(numThreads);
 			producer.setProducerNumber(i);
+			if (producer instanceof VgiOperationPbfReaderQuadtreeImpl) {
+				((VgiOperationPbfReaderQuadtreeImpl)producer).setQuadrantQueue(quadrantQueue);
+			} else {
+				producer.setFileQueue(fileQueue);
+			}
 			producer.setPbfDataFolder((pbfDataFolder != null) ? pbfDataFolder : settings.getPbfDataFolder());
 			
 			producer.setFilterNodeId(filterNodeId);
@@ -107,6 +130,8 @@ public class VgiPipelineImpl implements IVgiPipeline {
 			producer.setFilterGeometryType(filterGeometryType);
 			producer.setConstrainedFilter(constrainedFilter);
 			producer.setCoordinateOnly(coordinateOnly);
+			producer.setMemoryMapped(memoryMapped);
+			producer.setParallelDecoding(parallelDecoding);
 			
 			producer.setFilterFileId(filterFileId);
 			
@@ -117,34 +142,33 @@ public class VgiPipelineImpl implements IVgiPipeline {
 		
 		try {
 			doBeforeFirstBatch();
+			if (parallelConsumers) startConsumerThreads();
 			
-			/** Read queue as long as it is not empty */
-			boolean resumePipeline = true;
-			while (resumePipeline) {
-				resumePipeline = false;
-				for (int i=0; i<numThreads; i++) {
-					if (producerThread[i].isAlive()) resumePipeline = true;
-				}
-				if (!queue.isEmpty()) resumePipeline = true;
-				if (!resumePipeline) break;
-				
-				IVgiFeature currentFeature = queue.poll(60, TimeUnit.MILLISECONDS);
-				
-				if (currentFeature == null) continue;
-				
-				/** Detach batch if minimum batch size is reached */
-				if (currentBatch.size() >= batchSize) {
-					detachBatch(currentBatch);
-					currentBatch.clear();
-				}
+			/** Read queue until all producers have finished */
+			List<IVgiFeature> transferBatch = null;
+			while ((transferBatch = queue.take()) != null) {
+				for (IVgiFeature currentFeature : transferBatch) {
+					/** Detach batch if minimum batch size is reached */
+					if (currentBatch.size() >= batchSize) {
+						detachBatch(currentBatch);
+						currentBatch = new ArrayList<IVgiFeature>();
+					}
 
-				currentBatch.add(currentFeature);
+					currentBatch.add(currentFeature);
+				}
 			}
 			
 			if (currentBatch.size() > 0) {
 				detachBatch(currentBatch);
 			}
 
+			for (int i=0; i<numThreads; i++) {
+				producerThread[i].join();
+			}
+			
+			/** Wait until all consumers have handled all batches */
+			if (parallelConsumers) stopConsumerThreads();
+
 			doAfterLastBatch();
 
 		} catch (InterruptedException e) {
@@ -170,17 +194,57 @@ public class VgiPipelineImpl implements IVgiPipeline {
 	}
 	
 	/**
-	 * Detach batches to consumers
+	 * Detach batches to consumers (all consumers receive the same unmodifiable batch)
 	 * @param batch
 	 */
-	private void detachBatch(List<IVgiFeature> batch) {
+	private void detachBatch(List<IVgiFeature> batch) throws InterruptedException {
 		if (consumers != null) {
-			for (IVgiPipelineConsumer consumer : consumers) {
-				consumer.handleBatch(new ArrayList<IVgiFeature>(batch));
+			List<IVgiFeature> sharedBatch = Collections.unmodifiableList(batch);
+			if (consumerThreads != null) {
+				/** Blocks if a consumer is too slow */
+				for (ConsumerThread consumerThread : consumerThreads) {
+					consumerThread.inbox.put(sharedBatch);
+				}
+			} else {
+				for (IVgiPipelineConsumer consumer : consumers) {
+					consumer.handleBatch(sharedBatch);
+				}
 			}
 		}
 	}
 	
+	/**
+	 * Starts one thread per consumer
+	 */
+	private void startConsumerThreads() {
+		if (consumers == null) return;
+		consumerThreads = new ArrayList<ConsumerThread>();
+		for (IVgiPipelineConsumer consumer : consumers) {
+			ConsumerThread consumerThread = new ConsumerThread(consumer, consumerQueueSize);
+			consumerThreads.add(consumerThread);
+			consumerThread.start();
+		}
+	}
+	
+	/**
+	 * Signals the end of the stream to all consumer threads and waits until they have finished.
+	 * The first error of a consumer is rethrown (like in the sequential mode, the run is aborted).
+	 */
+	private void stopConsumerThreads() throws InterruptedException {
+		if (consumerThreads == null) return;
+		for (ConsumerThread consumerThread : consumerThreads) {
+			consumerThread.inbox.put(END_OF_BATCHES);
+		}
+		for (ConsumerThread consumerThread : consumerThreads) {
+			consumerThread.join();
+		}
+		List<ConsumerThread> finishedThreads = consumerThreads;
+		consumerThreads = null;
+		for (ConsumerThread consumerThread : finishedThreads) {
+			consumerThread.rethrowFailure();
+		}
+	}
+	
 	/**
 	 * Will be done after last batch has been handled
 	 */
@@ -264,6 +328,30 @@ public class VgiPipelineImpl implements IVgiPipeline {
 		this.batchSize = batchSize;
 	}
 
+	public boolean isParallelConsumers() {
+		return parallelConsumers;
+	}
+	public void setParallelConsumers(boolean parallelConsumers) {
+		this.parallelConsumers = parallelConsumers;
+	}
+
+	public int getConsumerQueueSize() {
+		return consumerQueueSize;
+	}
+	public void setConsumerQueueSize(int consumerQueueSize) {
+		if (consumerQueueSize < 1) {
+			throw new IllegalArgumentException("consumerQueueSize less than 1");
+		}
+		this.consumerQueueSize = consumerQueueSize;
+	}
+
+	public int getTransferSize() {
+		return transferSize;
+	}
+	public void setTransferSize(int transferSize) {
+		this.transferSize = transferSize;
+	}
+
 	@Override
 	public List<IVgiPipelineConsumer> getConsumers() {
 		return consumers;
@@ -330,4 +418,59 @@ public class VgiPipelineImpl implements IVgiPipeline {
 	public void setCoordinateOnly(boolean coordinatesOnly) {
 		this.coordinateOnly = coordinatesOnly;
 	}
+
+	@Override
+	public void setMemoryMapped(boolean memoryMapped) {
+		this.memoryMapped = memoryMapped;
+	}
+
+	@Override
+	public void setParallelDecoding(boolean parallelDecoding) {
+		this.parallelDecoding = parallelDecoding;
+	}
+
+	/**
+	 * Thread which passes the batches of its inbox to a single consumer
+	 */
+	private static class ConsumerThread extends Thread {
+		private final IVgiPipelineConsumer consumer;
+		private final BlockingQueue<List<IVgiFeature>> inbox;
+		/** first error of the consumer */
+		private volatile Throwable failure = null;
+		
+		public ConsumerThread(IVgiPipelineConsumer consumer, int inboxSize) {
+			super(consumer.getClass().getSimpleName());
+			this.consumer = consumer;
+			this.inbox = new ArrayBlockingQueue<List<IVgiFeature>>(inboxSize);
+		}
+		
+		@Override
+		public void run() {
+			try {
+				List<IVgiFeature> batch = null;
+				while ((batch = inbox.take()) != END_OF_BATCHES) {
+					/** Keep draining the inbox after an error, otherwise the pipeline blocks */
+					if (failure != null) continue;
+					try {
+						consumer.handleBatch(batch);
+					} catch (RuntimeException | Error e) {
+						log.error("Consumer " + consumer.getClass().getSimpleName() + " failed", e);
+						failure = e;
+					}
+				}
+			} catch (InterruptedException e) {
+				log.error("interrupted while waiting for batches", e);
+				failure = e;
+			}
+		}
+		
+		/**
+		 * Rethrows the first error of the consumer (must be called after the thread has finished)
+		 */
+		private void rethrowFailure() {
+			if (failure instanceof RuntimeException) throw (RuntimeException)failure;
+			if (failure instanceof Error) throw (Error)failure;
+			if (failure != null) throw new IllegalStateException("Consumer " + consumer.getClass().getSimpleName() + " failed", failure);
+		}
+	}
 }
@@ -47,7 +47,6 @@ import com.vividsolutions.jts.geom.Polygon;
 import com.vividsolutions.jts.io.WKTReader;
 
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiAction;
-import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiFeature;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiFeatureType;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiActionDefinitionRule;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiActionImpl;
@@ -55,10 +54,14 @@ import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiGeometryType;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiOperationType;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiPolygon;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiTagDictionary;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.IQuadrantCache;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.impl.QuadrantCacheImpl;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.pipeline.IVgiPipelineSettings;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.IVgiAnalysisAction;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.IVgiAnalysisFeature;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.IVgiAnalysisOperation;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.IVgiFeatureTypeClassifier;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.analysis.impl.VgiAnalysisActionDetails;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.analysis.impl.VgiAnalysisActionPerFeatureType;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.analysis.impl.VgiAnalysisActionPerType;
@@ -77,6 +80,7 @@ import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.an
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.analysis.impl.VgiAnalysisUserPerAction;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.analysis.impl.VgiAnalysisUserPerOperation;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.analysis.impl.VgiAnalysisUserPerTags;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.impl.VgiFeatureTypeClassifierImpl;
 
 /**
  * Class which loads from a XML file and manages VGI settings.
@@ -101,6 +105,8 @@ public class VgiPipelineSettings implements IVgiPipelineSettings {
 	private Map<String, List<String>> filterTag = null;
 	private List<VgiPolygon> filterPolygonList = null;
 	private VgiPolygon currentPolygon = null;
+	/** if true, all filter polygons are analyzed in a single pipeline run */
+	private boolean singlePassPolygonAnalysis = false;
 	
 	/** Action generator */
 	private long actionTimeBuffer = 43200000l;
@@ -109,6 +115,8 @@ public class VgiPipelineSettings implements IVgiPipelineSettings {
 	public static final String invalidFeatureTypePoint = "[invalidPoint]";
 	public static final String invalidFeatureTypeLine = "[invalidLine]";
 	public static final String invalidFeatureTypePolygon = "[invalidPolygon]";
+	/** compiled when it is requested the first time (after the settings have been loaded) */
+	private volatile IVgiFeatureTypeClassifier featureTypeClassifier = null;
 	
 	/** Analysis */
 	private File resultFolder = null;
@@ -124,9 +132,13 @@ public class VgiPipelineSettings implements IVgiPipelineSettings {
 	private List<IVgiAnalysisOperation> operationAnalyzerList = null;
 	private List<IVgiAnalysisFeature> featureAnalyzerList = null;
 
-	private Map<String, List<IVgiFeature>> cache = null;
+	/** quadrant cache; shared by all pipeline runs (e.g. of several filter polygons) */
+	private IQuadrantCache cache = new QuadrantCacheImpl();
 	private int keepInCacheLevel = 2;
 	
+	/** tag keys and values of the settings are interned, so that they are identical to the tags of the operations */
+	private VgiTagDictionary tagDictionary = new VgiTagDictionary();
+	
 	
 	public VgiPipelineSettings() {
 		dateFormatOSM.setTimeZone(TimeZone.getTimeZone("UTC"));
@@ -262,12 +274,12 @@ public class VgiPipelineSettings implements IVgiPipelineSettings {
 						Node node1 = nodeList1.item(t);
 		                if (node1.getNodeType() != Node.ELEMENT_NODE) continue;
 						Element firstElement1 = (Element) node1;
-						String key = firstElement1.getAttribute("key");
+						String key = tagDictionary.intern(firstElement1.getAttribute("key"));
 						if (!filterTag.containsKey(key)) {
 							filterTag.put(key, new ArrayList<String>());
 						}
 						if (!firstElement1.getAttribute("value").equals("")) {
-							filterTag.get(key).add(firstElement1.getAttribute("value"));
+							filterTag.get(key).add(tagDictionary.intern(firstElement1.getAttribute("value")));
 						}
 	    			} catch (Exception ex) {
 	    				log.warn("Cannot parse setting 'filterTag'");
@@ -397,12 +409,12 @@ public class VgiPipelineSettings implements IVgiPipelineSettings {
     	                Node node2 = nodeListIncludeTags.item(v);
     	                if (node2.getNodeType() != Node.ELEMENT_NODE) continue;
 						Element firstElement2 = (Element) node2;
-						String key = firstElement2.getAttribute("key");
+						String key = tagDictionary.intern(firstElement2.getAttribute("key"));
 						if (!vgiFeatureType.getFeatureTypeTagsInclude().containsKey(key)) {
 							vgiFeatureType.getFeatureTypeTagsInclude().put(key, new ArrayList<String>());
 						}
 						if (!firstElement2.getAttribute("value").equals("")) {
-							vgiFeatureType.getFeatureTypeTagsInclude().get(key).add(firstElement2.getAttribute("value"));
+							vgiFeatureType.getFeatureTypeTagsInclude().get(key).add(tagDictionary.intern(firstElement2.getAttribute("value")));
 						}
     				}
     				NodeList nodeListExcludeTags = featureTypeElement.getElementsByTagName("excludeTag"); //TODO
@@ -410,12 +422,12 @@ public class VgiPipelineSettings implements IVgiPipelineSettings {
     	                Node node2 = nodeListExcludeTags.item(v);
     	                if (node2.getNodeType() != Node.ELEMENT_NODE) continue;
 						Element firstElement2 = (Element) node2;
-						String key = firstElement2.getAttribute("key");
+						String key = tagDictionary.intern(firstElement2.getAttribute("key"));
 						if (!vgiFeatureType.getFeatureTypeTagsExclude().containsKey(key)) {
 							vgiFeatureType.getFeatureTypeTagsExclude().put(key, new ArrayList<String>());
 						}
 						if (!firstElement2.getAttribute("value").equals("")) {
-							vgiFeatureType.getFeatureTypeTagsExclude().get(key).add(firstElement2.getAttribute("value"));
+							vgiFeatureType.getFeatureTypeTagsExclude().get(key).add(tagDictionary.intern(firstElement2.getAttribute("value")));
 						}
     				}
     				
@@ -501,7 +513,7 @@ public class VgiPipelineSettings implements IVgiPipelineSettings {
 						
 	    				NodeList nodeList2 = firstElement1.getElementsByTagName("analysisSetting");
 	    				if ((nodeList2.getLength() > 0) && (nodeList2.item(0).getNodeType() == Node.ELEMENT_NODE)) {
-	    					a.setTagKey(((Element) nodeList2.item(0)).getAttribute("value"));
+	    					a.setTagKey(tagDictionary.intern(((Element) nodeList2.item(0)).getAttribute("value")));
 	    				}
 
 	    				operationAnalyzerList.add(a);
@@ -511,7 +523,7 @@ public class VgiPipelineSettings implements IVgiPipelineSettings {
 						
 	    				NodeList nodeList2 = firstElement1.getElementsByTagName("analysisSetting");
 	    				if ((nodeList2.getLength() > 0) && (nodeList2.item(0).getNodeType() == Node.ELEMENT_NODE)) {
-	    					a.setTagKey(((Element) nodeList2.item(0)).getAttribute("value"));
+	    					a.setTagKey(tagDictionary.intern(((Element) nodeList2.item(0)).getAttribute("value")));
 	    				}
 
 	    				operationAnalyzerList.add(a);
@@ -630,6 +642,7 @@ public class VgiPipelineSettings implements IVgiPipelineSettings {
 				}
             }
             settingsLoaded = true;
+            featureTypeClassifier = null;
 	    } catch (ParserConfigurationException e) {
 			log.error("Cannot parse settings file!");
 			return false;
@@ -764,6 +777,14 @@ public class VgiPipelineSettings implements IVgiPipelineSettings {
 	public void setCurrentPolygon(VgiPolygon polygon) {
 		this.currentPolygon = polygon;
 	}
+	@Override
+	public boolean isSinglePassPolygonAnalysis() {
+		return singlePassPolygonAnalysis;
+	}
+	@Override
+	public void setSinglePassPolygonAnalysis(boolean singlePassPolygonAnalysis) {
+		this.singlePassPolygonAnalysis = singlePassPolygonAnalysis;
+	}
 	
 	@Override
 	public long getActionTimeBuffer() {
@@ -796,11 +817,26 @@ public class VgiPipelineSettings implements IVgiPipelineSettings {
 	}
 
 	@Override
-	public Map<String, List<IVgiFeature>> getCache() {
+	public IVgiFeatureTypeClassifier getFeatureTypeClassifier() {
+		if (featureTypeClassifier == null) {
+			synchronized (this) {
+				if (featureTypeClassifier == null) featureTypeClassifier = new VgiFeatureTypeClassifierImpl(featureTypeList);
+			}
+		}
+		return featureTypeClassifier;
+	}
+
+	@Override
+	public VgiTagDictionary getTagDictionary() {
+		return tagDictionary;
+	}
+
+	@Override
+	public IQuadrantCache getCache() {
 		return cache;
 	}
 	@Override
-	public void setCache(Map<String, List<IVgiFeature>> cache) {
+	public void setCache(IQuadrantCache cache) {
 		this.cache = cache;
 	}
 
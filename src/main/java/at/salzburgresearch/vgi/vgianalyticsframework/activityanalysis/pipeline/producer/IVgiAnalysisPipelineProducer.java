@@ -16,20 +16,21 @@ limitations under the License.
 package at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.pipeline.producer;
 
 import java.io.File;
-import java.util.concurrent.BlockingQueue;
 
-import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiFeature;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiGeometryType;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.impl.VgiOperationPbfFileQueue;
 import gnu.trove.list.array.TLongArrayList;
 
 public interface IVgiAnalysisPipelineProducer extends Runnable {
 
-	void setQueue(BlockingQueue<IVgiFeature> queue);
+	void setQueue(VgiFeatureBatchQueue queue);
 
 	void setPbfDataFolder(File pbfDataFolder);
 
 	void setProducerCount(int producerCount);
 	void setProducerNumber(int producerNumber);
+	/** Producers which share a file queue take files from it instead of reading a fixed range of file IDs */
+	void setFileQueue(VgiOperationPbfFileQueue fileQueue);
 
 	void setStartFileId(int startFileId);
 
@@ -43,5 +44,8 @@ public interface IVgiAnalysisPipelineProducer extends Runnable {
 
 	void setCoordinateOnly(boolean coordinatesOnly);
 
+	void setMemoryMapped(boolean memoryMapped);
+
+	void setParallelDecoding(boolean parallelDecoding);
 
 }
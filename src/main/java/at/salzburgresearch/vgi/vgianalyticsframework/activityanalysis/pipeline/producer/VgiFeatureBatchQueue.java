@@ -0,0 +1,88 @@
+/** Copyright 2017, Simon Gröchenig, Salzburg Research Forschungsgesellschaft m.b.H.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.pipeline.producer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiFeature;
+
+/**
+ * Hands over features from the producers to the pipeline in batches. The last
+ * producer which finishes adds an end-of-stream marker, so the pipeline does
+ * not have to poll the producer threads.
+ */
+public class VgiFeatureBatchQueue {
+
+	/** end-of-stream marker (compared by identity) */
+	private static final List<IVgiFeature> END_OF_STREAM = new ArrayList<IVgiFeature>(0);
+
+	private final BlockingQueue<List<IVgiFeature>> batches;
+	private final int transferSize;
+	private final AtomicInteger activeProducers;
+
+	private volatile boolean finished = false;
+
+	/**
+	 * @param queueSize maximum number of queued features
+	 * @param transferSize number of features which are handed over at once
+	 * @param producerCount number of producers which add features
+	 */
+	public VgiFeatureBatchQueue(int queueSize, int transferSize, int producerCount) {
+		this.transferSize = Math.max(1, transferSize);
+		this.batches = new ArrayBlockingQueue<List<IVgiFeature>>(Math.max(1, queueSize / this.transferSize));
+		this.activeProducers = new AtomicInteger(producerCount);
+	}
+
+	/**
+	 * Adds a batch of features; blocks while the queue is full
+	 * @param batch batch which must not be changed by the producer afterwards
+	 */
+	public void put(List<IVgiFeature> batch) throws InterruptedException {
+		if (batch.isEmpty()) return;
+		batches.put(batch);
+	}
+
+	/**
+	 * Called once by each producer after it has added its last batch
+	 */
+	public void close() throws InterruptedException {
+		if (activeProducers.decrementAndGet() == 0) {
+			batches.put(END_OF_STREAM);
+		}
+	}
+
+	/**
+	 * Takes the next batch; blocks until a batch is available
+	 * @return next batch or null if all producers have finished
+	 */
+	public List<IVgiFeature> take() throws InterruptedException {
+		if (finished) return null;
+		List<IVgiFeature> batch = batches.take();
+		if (batch == END_OF_STREAM) {
+			finished = true;
+			return null;
+		}
+		return batch;
+	}
+
+	public int getTransferSize() {
+		return transferSize;
+	}
+}
@@ -31,4 +31,26 @@ public interface IVgiAnalysisAction {
 	void addToProcessingTime(long l);
 
 	long getProcessingTime();
+
+	/**
+	 * Analyses which depend on the order of all actions cannot be split into
+	 * partial analyses; they are not analyzed in parallel or in a single pass
+	 * over several polygons.
+	 * @return true if createPartial and merge can be used
+	 */
+	boolean isPartitionable();
+
+	/**
+	 * Creates an empty analysis with the same configuration. It collects the
+	 * partial results of a single analysis thread and is merged afterwards.
+	 * Only called if the analysis is partitionable.
+	 * @return partial analysis
+	 */
+	IVgiAnalysisAction createPartial();
+
+	/**
+	 * Adds the results of a partial analysis (see createPartial) to this analysis
+	 * @param partial partial analysis which has been created by this analysis
+	 */
+	void merge(IVgiAnalysisAction partial);
 }
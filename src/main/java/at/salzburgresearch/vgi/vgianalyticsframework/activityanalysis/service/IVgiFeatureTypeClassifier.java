@@ -0,0 +1,45 @@
+/** Copyright 2017, Simon Gröchenig, Salzburg Research Forschungsgesellschaft m.b.H.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service;
+
+import java.util.List;
+import java.util.Map;
+
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiFeatureType;
+
+/**
+ * Assigns feature types (see settings_feature_type.xml) to the tags of features
+ */
+public interface IVgiFeatureTypeClassifier {
+
+	/**
+	 * Finds the feature type of an assembled feature
+	 * @param tags current tags of the feature
+	 * @param point
+	 * @param lineString
+	 * @param polygon
+	 * @return first feature type whose tags and geometry type match, the
+	 * invalid feature type of the geometry otherwise
+	 */
+	IVgiFeatureType classify(Map<String, String> tags, boolean point, boolean lineString, boolean polygon);
+
+	/**
+	 * Finds all feature types whose tags match (regardless of the geometry)
+	 * @param tags current tags of the feature
+	 * @return feature types in the order of the tags
+	 */
+	List<IVgiFeatureType> findFeatureTypes(Map<String, String> tags);
+}
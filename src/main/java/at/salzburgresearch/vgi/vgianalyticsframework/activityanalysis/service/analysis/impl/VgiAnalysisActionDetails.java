@@ -77,7 +77,26 @@ public class VgiAnalysisActionDetails extends VgiAnalysisParent implements IVgiA
 		actionListWriter.clear();
 		actionListWriterCount = 0l;
 	}
-	
+
+	@Override
+	public IVgiAnalysisAction createPartial() {
+		VgiAnalysisActionDetails partial = new VgiAnalysisActionDetails(settings);
+		partial.setIncludeOperationDetails(includeOperationDetails);
+		return partial;
+	}
+
+	/** Partial results have to be merged in feature order; action IDs are renumbered */
+	@Override
+	public void merge(IVgiAnalysisAction partial) {
+		VgiAnalysisActionDetails p = (VgiAnalysisActionDetails)partial;
+		for (String action : p.actionListWriter) {
+			int separator = action.indexOf(';');
+			actionListWriter.add((actionListWriterCount + Long.parseLong(action.substring(0, separator))) + action.substring(separator));
+		}
+		actionListWriterCount += p.actionListWriterCount;
+		addToProcessingTime(partial.getProcessingTime());
+	}
+
 	@Override
 	public String toString() {
 		return "VgiAnalysisActionDetails (includeOperationDetails=" + includeOperationDetails + ")";
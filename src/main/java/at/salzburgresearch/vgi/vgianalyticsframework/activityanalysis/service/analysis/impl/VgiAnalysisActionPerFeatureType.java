@@ -17,12 +17,9 @@ package at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.a
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.TreeMap;
 
 import org.opengis.feature.simple.SimpleFeatureType;
 
@@ -37,7 +34,11 @@ import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.im
  */
 public class VgiAnalysisActionPerFeatureType extends VgiAnalysisParent implements IVgiAnalysisAction {
 	
-	private List<SimpleFeatureType> featureTypes = new ArrayList<SimpleFeatureType>();
+	private VgiContributorStore contributors = new VgiContributorStore();
+	private VgiKeyDictionary<SimpleFeatureType> featureTypes = new VgiKeyDictionary<SimpleFeatureType>();
+	private VgiKeyDictionary<Date> timePeriods = new VgiKeyDictionary<Date>();
+	/** major: feature type, minor: time period */
+	private VgiContributorCounter actionPerFeatureType = new VgiContributorCounter();
 	
 	/** Constructor */
 	public VgiAnalysisActionPerFeatureType(IVgiPipelineSettings settings) {
@@ -46,22 +47,9 @@ public class VgiAnalysisActionPerFeatureType extends VgiAnalysisParent implement
 	
 	@Override
 	public void analyze(IVgiAction action, Date timePeriod) {
-		VgiAnalysisUser user = findUser(action.getOperations().get(0).getUid(), action.getOperations().get(0).getUser());
+		int contributor = contributors.getIndex(action.getOperations().get(0).getUid(), action.getOperations().get(0).getUser());
 		
-		if (!user.actionPerFeatureType.containsKey(timePeriod)) {
-			user.actionPerFeatureType.put(timePeriod, new ConcurrentHashMap<SimpleFeatureType, Integer>());
-		}
-		Map<SimpleFeatureType, Integer> actionsPerFeatureType = user.actionPerFeatureType.get(timePeriod);
-		
-		if (!featureTypes.contains(action.getFeatureType())) featureTypes.add(action.getFeatureType());
-		
-		Integer value = actionsPerFeatureType.get(action.getFeatureType());
-		if (value != null) {
-			value = value + 1;
-		} else {
-			value = new Integer(1);
-		}
-		actionsPerFeatureType.put(action.getFeatureType(), value);
+		actionPerFeatureType.add(contributor, featureTypes.getIndex(action.getFeatureType()), timePeriods.getIndex(timePeriod), 1);
 	}
 	
 	@Override
@@ -69,22 +57,34 @@ public class VgiAnalysisActionPerFeatureType extends VgiAnalysisParent implement
 		try (CSVFileWriter writer = new CSVFileWriter(path + "/action_per_featuretype.csv")) {
 			/** write header */
 			String line = "";
-			for (SimpleFeatureType featureType : featureTypes) {
+			for (SimpleFeatureType featureType : featureTypes.getKeys()) {
 				line += featureType.getName().getLocalPart() + ";";
 			}
 			writer.writeLine("uid;time_period;"+line);
 			/** iterate through rows*/
-			for (Map.Entry<Integer, VgiAnalysisUser> user : userAnalysis.entrySet()) {
-				for (Entry<Date, Map<SimpleFeatureType, Integer>> featureType : user.getValue().actionPerFeatureType.entrySet()) {
-	
-					Map<SimpleFeatureType, Integer> m = featureType.getValue();
-					
+			long[] entries = actionPerFeatureType.getEntries();
+			for (int start=0, end=0; start<entries.length; start=end) {
+				end = VgiContributorCounter.getContributorEnd(entries, start);
+				
+				/** action count per time period and feature type */
+				Map<Integer, long[]> countPerPeriod = new TreeMap<Integer, long[]>();
+				for (int i=start; i<end; i++) {
+					long[] counts = countPerPeriod.get(VgiContributorCounter.getMinor(entries[i]));
+					if (counts == null) {
+						counts = new long[featureTypes.size()];
+						countPerPeriod.put(VgiContributorCounter.getMinor(entries[i]), counts);
+					}
+					counts[VgiContributorCounter.getMajor(entries[i])] += actionPerFeatureType.get(entries[i]);
+				}
+				
+				int uid = contributors.getUid(VgiContributorCounter.getContributor(entries[start]));
+				for (Map.Entry<Integer, long[]> period : countPerPeriod.entrySet()) {
 					line = "";
-					for (SimpleFeatureType tag : featureTypes) {
-						line += (m.containsKey(tag)) ? m.get(tag) : "";
+					for (long count : period.getValue()) {
+						line += (count > 0) ? count : "";
 						line += ";";
 					}
-					writer.writeLine(user.getValue().getUid() + ";" + dateFormat.format(featureType.getKey()) + ";" + line);
+					writer.writeLine(uid + ";" + dateFormat.format(timePeriods.get(period.getKey())) + ";" + line);
 				}
 			}
 		} catch (IOException e) {
@@ -94,7 +94,22 @@ public class VgiAnalysisActionPerFeatureType extends VgiAnalysisParent implement
 
 	@Override
 	public void reset() {
+		contributors.clear();
 		featureTypes.clear();
+		timePeriods.clear();
+		actionPerFeatureType.clear();
+	}
+	
+	@Override
+	public IVgiAnalysisAction createPartial() {
+		return new VgiAnalysisActionPerFeatureType(settings);
+	}
+
+	@Override
+	public void merge(IVgiAnalysisAction partial) {
+		VgiAnalysisActionPerFeatureType p = (VgiAnalysisActionPerFeatureType)partial;
+		actionPerFeatureType.merge(p.actionPerFeatureType, contributors.merge(p.contributors), featureTypes.merge(p.featureTypes), timePeriods.merge(p.timePeriods));
+		addToProcessingTime(partial.getProcessingTime());
 	}
 	
 	@Override
@@ -71,7 +71,30 @@ public class VgiAnalysisActionPerType extends VgiAnalysisParent implements IVgiA
 			actionsPerType.put(type.getActionName(), new ConcurrentHashMap<Date, Long>());
 		}
 	}
-	
+
+	@Override
+	public IVgiAnalysisAction createPartial() {
+		VgiAnalysisActionPerType partial = new VgiAnalysisActionPerType(settings);
+		partial.reset();
+		return partial;
+	}
+
+	@Override
+	public void merge(IVgiAnalysisAction partial) {
+		for (Map.Entry<String, Map<Date, Long>> type : ((VgiAnalysisActionPerType)partial).actionsPerType.entrySet()) {
+			Map<Date, Long> m = actionsPerType.get(type.getKey());
+			if (m == null) {
+				m = new ConcurrentHashMap<Date, Long>();
+				actionsPerType.put(type.getKey(), m);
+			}
+			for (Map.Entry<Date, Long> period : type.getValue().entrySet()) {
+				Long value = m.get(period.getKey());
+				m.put(period.getKey(), (value != null) ? value + period.getValue() : period.getValue());
+			}
+		}
+		addToProcessingTime(partial.getProcessingTime());
+	}
+
 	@Override
 	public String toString() {
 		return "VgiAnalysisActionPerType";
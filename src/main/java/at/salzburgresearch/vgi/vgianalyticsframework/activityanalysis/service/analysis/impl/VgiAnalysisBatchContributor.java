@@ -21,8 +21,6 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiAction;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.pipeline.IVgiPipelineSettings;
@@ -43,6 +41,10 @@ public class VgiAnalysisBatchContributor extends VgiAnalysisParent implements IV
 	private List<String> featureTypes = new ArrayList<String>();
     
     private AnalysisEntry currentEntry = null;;
+    
+	private VgiContributorStore contributors = new VgiContributorStore();
+	/** major: -, minor: - */
+	private VgiContributorCounter actionsPerContributor = new VgiContributorCounter();
 
 	/** Constructor */
 	public VgiAnalysisBatchContributor(IVgiPipelineSettings settings) {
@@ -50,7 +52,10 @@ public class VgiAnalysisBatchContributor extends VgiAnalysisParent implements IV
 	}
 	
 	@Override
-	public void analyze(IVgiAction action, Date timePeriod) { }
+	public void analyze(IVgiAction action, Date timePeriod) {
+		int contributor = contributors.getIndex(action.getOperations().get(0).getUid(), action.getOperations().get(0).getUser());
+		actionsPerContributor.add(contributor, 0, 0, 1);
+	}
 
 	@Override
 	public void write(File path) {
@@ -58,17 +63,12 @@ public class VgiAnalysisBatchContributor extends VgiAnalysisParent implements IV
 			currentEntry.name = settings.getCurrentPolygon().getLabel();
 		}
 		
-		currentEntry.numUser = VgiAnalysisParent.userAnalysis.size();
+		currentEntry.numUser = contributors.size();
 		long actionCount = 0;
 		
-		for (Entry<Integer, VgiAnalysisUser> user : VgiAnalysisParent.userAnalysis.entrySet()) {
+		for (int contributor=0; contributor<contributors.size(); contributor++) {
 			/** count actions */
-			long userActionCount = 0;
-			for (Entry<String, Map<Date, Integer>> action : user.getValue().actionCount.entrySet()) {
-				for (Entry<Date, Integer> date : action.getValue().entrySet()) {
-					userActionCount += date.getValue();
-				}
-			}
+			long userActionCount = actionsPerContributor.get(contributor, 0, 0);
 			
 			/** Add user action count to overall action count */
 			actionCount += userActionCount;
@@ -76,7 +76,7 @@ public class VgiAnalysisBatchContributor extends VgiAnalysisParent implements IV
 			/** Is this user the top user? */
 			if (userActionCount > currentEntry.topUserActionCount) {
 				currentEntry.topUserActionCount = userActionCount;
-				currentEntry.topUserId = user.getKey();
+				currentEntry.topUserId = contributors.getUid(contributor);
 			}
 		}
 		currentEntry.numActions = actionCount;
@@ -125,6 +125,21 @@ public class VgiAnalysisBatchContributor extends VgiAnalysisParent implements IV
 		for (IVgiAction actionType : settings.getActionDefinitionList()) {
 			actionTypes.add(actionType.getActionName());
 		}
+		
+		contributors.clear();
+		actionsPerContributor.clear();
+	}
+	
+	@Override
+	public IVgiAnalysisAction createPartial() {
+		return new VgiAnalysisBatchContributor(settings);
+	}
+
+	@Override
+	public void merge(IVgiAnalysisAction partial) {
+		VgiAnalysisBatchContributor p = (VgiAnalysisBatchContributor)partial;
+		actionsPerContributor.merge(p.actionsPerContributor, contributors.merge(p.contributors), null, null);
+		addToProcessingTime(partial.getProcessingTime());
 	}
 	
 	@Override
@@ -51,7 +51,13 @@ public class VgiAnalysisBatchGeneral extends VgiAnalysisParent implements IVgiAn
     
 	/** Constructor */
 	public VgiAnalysisBatchGeneral(IVgiPipelineSettings settings) {
+		this(settings, true);
+	}
+	
+	private VgiAnalysisBatchGeneral(IVgiPipelineSettings settings, boolean writeHeader) {
 		this.settings = settings;
+		
+		if (!writeHeader) return;
 
 		/** write header */
 		try (CSVFileWriter writer = new CSVFileWriter(settings.getResultFolder() + "/analysis_batch_feature_type.csv", true)) {
@@ -99,6 +105,7 @@ public class VgiAnalysisBatchGeneral extends VgiAnalysisParent implements IVgiAn
 		if (!entryTimeActionType.featureId_last_affected.equals(action.getOperations().get(0).getOid())) {
 			entryTimeActionType.feature_count_affected++;
 			entryTimeActionType.featureId_last_affected = action.getOperations().get(0).getOid();
+			if (entryTimeActionType.featureId_first_affected == -1l) entryTimeActionType.featureId_first_affected = entryTimeActionType.featureId_last_affected;
 		}
 	}
 	
@@ -156,6 +163,63 @@ public class VgiAnalysisBatchGeneral extends VgiAnalysisParent implements IVgiAn
 		}
 	}
 	
+	@Override
+	public IVgiAnalysisAction createPartial() {
+		/** partial analysis does not write a header */
+		VgiAnalysisBatchGeneral partial = new VgiAnalysisBatchGeneral(settings, false);
+		partial.reset();
+		return partial;
+	}
+
+	/** Partial results have to be merged in feature order */
+	@Override
+	public void merge(IVgiAnalysisAction partial) {
+		VgiAnalysisBatchGeneral p = (VgiAnalysisBatchGeneral)partial;
+		for (Date timePeriod : p.timePeriods) {
+			if (!timePeriods.contains(timePeriod)) timePeriods.add(timePeriod);
+		}
+		for (SimpleFeatureType featureType : p.featureTypes) {
+			if (!featureTypes.contains(featureType)) featureTypes.add(featureType);
+		}
+		
+		for (Map.Entry<Date, Map<SimpleFeatureType, Map<String, AnalysisEntryUser>>> timePeriod : p.currentEntry.actionCount.entrySet()) {
+			if (!currentEntry.actionCount.containsKey(timePeriod.getKey())) {
+				currentEntry.actionCount.put(timePeriod.getKey(), new HashMap<SimpleFeatureType, Map<String, AnalysisEntryUser>>());
+			}
+			Map<SimpleFeatureType, Map<String, AnalysisEntryUser>> entryTime = currentEntry.actionCount.get(timePeriod.getKey());
+			
+			for (Map.Entry<SimpleFeatureType, Map<String, AnalysisEntryUser>> featureType : timePeriod.getValue().entrySet()) {
+				if (!entryTime.containsKey(featureType.getKey())) {
+					entryTime.put(featureType.getKey(), new HashMap<String, AnalysisEntryUser>());
+				}
+				Map<String, AnalysisEntryUser> entryTimeFeatureType = entryTime.get(featureType.getKey());
+				
+				for (Map.Entry<String, AnalysisEntryUser> actionType : featureType.getValue().entrySet()) {
+					if (!entryTimeFeatureType.containsKey(actionType.getKey())) {
+						entryTimeFeatureType.put(actionType.getKey(), new AnalysisEntryUser());
+					}
+					AnalysisEntryUser e = entryTimeFeatureType.get(actionType.getKey());
+					AnalysisEntryUser pe = actionType.getValue();
+					
+					e.value += pe.value;
+					e.feature_count_cum += pe.feature_count_cum;
+					e.feature_count_affected += pe.feature_count_affected;
+					/** Feature has been counted by both analyses */
+					if (pe.featureId_first_affected != -1l && pe.featureId_first_affected == e.featureId_last_affected.longValue()) {
+						e.feature_count_affected--;
+					}
+					if (pe.featureId_last_affected != -1l) e.featureId_last_affected = pe.featureId_last_affected;
+					if (e.featureId_first_affected == -1l) e.featureId_first_affected = pe.featureId_first_affected;
+					
+					for (int i=0; i<pe.userList.size(); i++) {
+						if (!e.userList.contains(pe.userList.get(i))) e.userList.add(pe.userList.get(i));
+					}
+				}
+			}
+		}
+		addToProcessingTime(partial.getProcessingTime());
+	}
+	
 	@Override
 	public String toString() {
 		return "VgiAnalysisBatchFeatureType";
@@ -171,6 +235,7 @@ public class VgiAnalysisBatchGeneral extends VgiAnalysisParent implements IVgiAn
 		private Long feature_count_cum = 0l;
 		private Long feature_count_affected = 0l;
 		private Long featureId_last_affected = -1l;
+		private long featureId_first_affected = -1l;
 		private TIntArrayList userList = new TIntArrayList();
 	}
 }
@@ -110,6 +110,17 @@ public class VgiAnalysisBatchUserActionType extends VgiAnalysisParent implements
 		}
 	}
 	
+	/** Actions are not analyzed, the summary is derived from the user statistics in write() */
+	@Override
+	public IVgiAnalysisAction createPartial() {
+		return new VgiAnalysisBatchUserActionType(settings);
+	}
+
+	@Override
+	public void merge(IVgiAnalysisAction partial) {
+		addToProcessingTime(partial.getProcessingTime());
+	}
+	
 	@Override
 	public String toString() {
 		return "VgiAnalysisSummary";
@@ -90,6 +90,11 @@ public class VgiAnalysisChangeDetection extends VgiAnalysisParent implements IVg
 		}
 	}
 	
+	/** Constructor for partial analyses */
+	private VgiAnalysisChangeDetection(MathTransform transform) {
+		this.transform = transform;
+	}
+	
 	@Override
 	public void analyze(IVgiAction action, Date timePeriod) {
 		if (!editingActionList.containsKey(action.getFeatureType())) {
@@ -344,6 +349,23 @@ public class VgiAnalysisChangeDetection extends VgiAnalysisParent implements IVg
 	public void reset() {
 		editingActionList.clear();
 	}
+
+	@Override
+	public IVgiAnalysisAction createPartial() {
+		return new VgiAnalysisChangeDetection(transform);
+	}
+
+	/** Partial results have to be merged in feature order */
+	@Override
+	public void merge(IVgiAnalysisAction partial) {
+		for (Map.Entry<SimpleFeatureType, List<EditingAction>> featureType : ((VgiAnalysisChangeDetection)partial).editingActionList.entrySet()) {
+			if (!editingActionList.containsKey(featureType.getKey())) {
+				editingActionList.put(featureType.getKey(), new ArrayList<EditingAction>());
+			}
+			editingActionList.get(featureType.getKey()).addAll(featureType.getValue());
+		}
+		addToProcessingTime(partial.getProcessingTime());
+	}
 	
 	@Override
 	public String toString() {
@@ -68,7 +68,21 @@ public class VgiAnalysisFeatureStability extends VgiAnalysisParent implements IV
 	public void reset() {
 		featureStability.clear();
 	}
-	
+
+	@Override
+	public IVgiAnalysisFeature createPartial() {
+		return new VgiAnalysisFeatureStability(settings);
+	}
+
+	@Override
+	public void merge(IVgiAnalysisFeature partial) {
+		for (Map.Entry<Long, Integer> entry : ((VgiAnalysisFeatureStability)partial).featureStability.entrySet()) {
+			Integer value = featureStability.get(entry.getKey());
+			featureStability.put(entry.getKey(), (value != null) ? value + entry.getValue() : entry.getValue());
+		}
+		addToProcessingTime(partial.getProcessingTime());
+	}
+
 	@Override
 	public String toString() {
 		return this.getClass().getSimpleName();
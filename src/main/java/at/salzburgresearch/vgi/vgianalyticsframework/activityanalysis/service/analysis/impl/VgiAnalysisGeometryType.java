@@ -95,7 +95,32 @@ public class VgiAnalysisGeometryType extends VgiAnalysisParent implements IVgiAn
 		featureByGeometryType.clear();
 		featureTypes.clear();
 	}
-	
+
+	@Override
+	public IVgiAnalysisAction createPartial() {
+		return new VgiAnalysisGeometryType();
+	}
+
+	@Override
+	public void merge(IVgiAnalysisAction partial) {
+		VgiAnalysisGeometryType p = (VgiAnalysisGeometryType)partial;
+		for (SimpleFeatureType featureType : p.featureTypes) {
+			if (!featureTypes.contains(featureType)) featureTypes.add(featureType);
+		}
+		for (Map.Entry<VgiGeometryType, Map<SimpleFeatureType, Double>> geometryType : p.featureByGeometryType.entrySet()) {
+			Map<SimpleFeatureType, Double> actionsPerGeometryType = featureByGeometryType.get(geometryType.getKey());
+			if (actionsPerGeometryType == null) {
+				actionsPerGeometryType = new ConcurrentHashMap<SimpleFeatureType, Double>();
+				featureByGeometryType.put(geometryType.getKey(), actionsPerGeometryType);
+			}
+			for (Map.Entry<SimpleFeatureType, Double> featureType : geometryType.getValue().entrySet()) {
+				Double value = actionsPerGeometryType.get(featureType.getKey());
+				actionsPerGeometryType.put(featureType.getKey(), (value != null) ? value + featureType.getValue() : featureType.getValue());
+			}
+		}
+		addToProcessingTime(partial.getProcessingTime());
+	}
+
 	@Override
 	public String toString() {
 		return "VgiAnalysisGeometryType";
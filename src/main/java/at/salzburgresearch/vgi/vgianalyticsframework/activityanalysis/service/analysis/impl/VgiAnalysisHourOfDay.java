@@ -19,7 +19,6 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.Map;
 import java.util.TimeZone;
 
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiAction;
@@ -32,14 +31,23 @@ import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.im
  *
  */
 public class VgiAnalysisHourOfDay extends VgiAnalysisParent implements IVgiAnalysisAction {
+	
+	private VgiContributorStore contributors = new VgiContributorStore();
+	/** major: -, minor: hour (0, 6, 12, 18) */
+	private VgiContributorCounter actionTimestampPerHour = new VgiContributorCounter();
+	
+	private Calendar calA = Calendar.getInstance();
+	
+	/** Constructor */
+	public VgiAnalysisHourOfDay() {
+		calA.setTimeZone(TimeZone.getTimeZone("UTC"));
+	}
 
 	@Override
 	public void analyze(IVgiAction action, Date timePeriod) {
-		VgiAnalysisUser user = findUser(action.getOperations().get(0).getUid(), action.getOperations().get(0).getUser());
+		int contributor = contributors.getIndex(action.getOperations().get(0).getUid(), action.getOperations().get(0).getUser());
 		IVgiOperation operation = action.getOperations().get(0);
 		
-		Calendar calA = Calendar.getInstance();
-		calA.setTimeZone(TimeZone.getTimeZone("UTC"));
 		calA.setTime(operation.getTimestamp());
 		int hour = calA.get(Calendar.HOUR_OF_DAY);
 		if (hour < 6) {
@@ -51,13 +59,7 @@ public class VgiAnalysisHourOfDay extends VgiAnalysisParent implements IVgiAnaly
 		} else {
 			hour = 18;
 		}
-		Long l = user.actionTimestampPerHour.get(hour);
-		if (l != null) {
-			l = l + 1;
-		} else {
-			l = new Long(1l);
-		}
-		user.actionTimestampPerHour.put(hour, l);
+		actionTimestampPerHour.add(contributor, 0, hour, 1);
 	}
 
 	@Override
@@ -66,15 +68,13 @@ public class VgiAnalysisHourOfDay extends VgiAnalysisParent implements IVgiAnaly
 			/** write header */
 			writer.writeLine("uid;00_06;06_12;12_18;18_00;");
 			/** iterate through rows*/
-			for (Map.Entry<Integer, VgiAnalysisUser> user : userAnalysis.entrySet()) {
+			for (int contributor=0; contributor<contributors.size(); contributor++) {
 				/** write row values */
-				VgiAnalysisUser u = user.getValue();
-				
-				String line = u.getUid() + ";";
-				line += ((u.actionTimestampPerHour.containsKey(0)) ? u.actionTimestampPerHour.get(0) : "") + ";";
-				line += ((u.actionTimestampPerHour.containsKey(6)) ? u.actionTimestampPerHour.get(6) : "") + ";";
-				line += ((u.actionTimestampPerHour.containsKey(12)) ? u.actionTimestampPerHour.get(12) : "") + ";";
-				line += ((u.actionTimestampPerHour.containsKey(18)) ? u.actionTimestampPerHour.get(18) : "") + ";";
+				String line = contributors.getUid(contributor) + ";";
+				for (int hour=0; hour<24; hour+=6) {
+					long count = actionTimestampPerHour.get(contributor, 0, hour);
+					line += ((count > 0) ? count : "") + ";";
+				}
 				writer.writeLine(line);
 			}
 		} catch (IOException e) {
@@ -83,7 +83,22 @@ public class VgiAnalysisHourOfDay extends VgiAnalysisParent implements IVgiAnaly
 	}
 
 	@Override
-	public void reset() { }
+	public void reset() {
+		contributors.clear();
+		actionTimestampPerHour.clear();
+	}
+	
+	@Override
+	public IVgiAnalysisAction createPartial() {
+		return new VgiAnalysisHourOfDay();
+	}
+
+	@Override
+	public void merge(IVgiAnalysisAction partial) {
+		VgiAnalysisHourOfDay p = (VgiAnalysisHourOfDay)partial;
+		actionTimestampPerHour.merge(p.actionTimestampPerHour, contributors.merge(p.contributors), null, null);
+		addToProcessingTime(partial.getProcessingTime());
+	}
 	
 	@Override
 	public String toString() {
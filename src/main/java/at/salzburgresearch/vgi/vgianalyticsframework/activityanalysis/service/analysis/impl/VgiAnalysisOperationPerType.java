@@ -70,7 +70,30 @@ public class VgiAnalysisOperationPerType extends VgiAnalysisParent implements IV
 			operationsPerType.put(type, new ConcurrentHashMap<Date, Long>());
 		}
 	}
-	
+
+	@Override
+	public IVgiAnalysisOperation createPartial() {
+		VgiAnalysisOperationPerType partial = new VgiAnalysisOperationPerType();
+		partial.reset();
+		return partial;
+	}
+
+	@Override
+	public void merge(IVgiAnalysisOperation partial) {
+		for (Map.Entry<VgiOperationType, Map<Date, Long>> type : ((VgiAnalysisOperationPerType)partial).operationsPerType.entrySet()) {
+			Map<Date, Long> m = operationsPerType.get(type.getKey());
+			if (m == null) {
+				m = new ConcurrentHashMap<Date, Long>();
+				operationsPerType.put(type.getKey(), m);
+			}
+			for (Map.Entry<Date, Long> period : type.getValue().entrySet()) {
+				Long value = m.get(period.getKey());
+				m.put(period.getKey(), (value != null) ? value + period.getValue() : period.getValue());
+			}
+		}
+		addToProcessingTime(partial.getProcessingTime());
+	}
+
 	@Override
 	public String toString() {
 		return "VgiAnalysisOperationPerType";
@@ -17,9 +17,7 @@ package at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.a
 
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
-import java.util.Map;
 import java.util.TimeZone;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.logging.log4j.Logger;
 
@@ -40,9 +38,6 @@ public abstract class VgiAnalysisParent {
 	protected final SimpleDateFormat dateTimeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
 	protected final DecimalFormat decimalFormat = new DecimalFormat("0.0#####");
 
-	protected static Map<Integer, VgiAnalysisUser> userAnalysis = new ConcurrentHashMap<Integer, VgiAnalysisUser>();
-	private static VgiAnalysisUser previousUser = null;
-	
 	protected long processingTime = 0;
 
 	public VgiAnalysisParent() {
@@ -51,28 +46,6 @@ public abstract class VgiAnalysisParent {
 		dateTimeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
 	}
 	
-	public static VgiAnalysisUser findUser(int uid, String username) {
-		/** Return previous user if uid is equal */
-		if (previousUser != null && previousUser.getUid() == uid) return previousUser;
-		
-		VgiAnalysisUser user = userAnalysis.get(uid);
-		if (user == null) {
-			/** create new user */
-			user = new VgiAnalysisUser(uid, username);
-			userAnalysis.put(uid, user);
-		}
-		
-		previousUser = user;
-		
-		return user;
-	}
-	
-	public static void resetParent() {
-		VgiAnalysisParent.userAnalysis.clear();
-		VgiAnalysisParent.previousUser = null;
-//		durationMs = 0;
-	}
-	
 	public void addToProcessingTime(long time) {
 		processingTime += time;
 	}
@@ -80,4 +53,9 @@ public abstract class VgiAnalysisParent {
 	public long getProcessingTime() {
 		return processingTime;
 	}
+	
+	/** Analyses can be partitioned unless they override this method */
+	public boolean isPartitionable() {
+		return true;
+	}
 }
@@ -99,7 +99,33 @@ public class VgiAnalysisTags extends VgiAnalysisParent implements IVgiAnalysisOp
 	public void reset() {
 		data = new HashMap<Date, Map<String, Map<VgiOperationType, Long>>>();
 	}
-	
+
+	@Override
+	public IVgiAnalysisOperation createPartial() {
+		VgiAnalysisTags partial = new VgiAnalysisTags(settings);
+		partial.setTagKey(tagKey);
+		return partial;
+	}
+
+	@Override
+	public void merge(IVgiAnalysisOperation partial) {
+		for (Entry<Date, Map<String, Map<VgiOperationType, Long>>> entryTimePeriod : ((VgiAnalysisTags)partial).data.entrySet()) {
+			if (!data.containsKey(entryTimePeriod.getKey())) data.put(entryTimePeriod.getKey(), new HashMap<String, Map<VgiOperationType, Long>>());
+			Map<String, Map<VgiOperationType, Long>> dataTimePeriod = data.get(entryTimePeriod.getKey());
+
+			for (Entry<String, Map<VgiOperationType, Long>> entryTag : entryTimePeriod.getValue().entrySet()) {
+				if (!dataTimePeriod.containsKey(entryTag.getKey())) dataTimePeriod.put(entryTag.getKey(), new HashMap<VgiOperationType, Long>());
+				Map<VgiOperationType, Long> dataTag = dataTimePeriod.get(entryTag.getKey());
+
+				for (Entry<VgiOperationType, Long> entryType : entryTag.getValue().entrySet()) {
+					Long value = dataTag.get(entryType.getKey());
+					dataTag.put(entryType.getKey(), (value != null) ? value + entryType.getValue() : entryType.getValue());
+				}
+			}
+		}
+		addToProcessingTime(partial.getProcessingTime());
+	}
+
 	@Override
 	public String toString() {
 		return this.getClass().getSimpleName() + " (tagKey=" + tagKey + ")";
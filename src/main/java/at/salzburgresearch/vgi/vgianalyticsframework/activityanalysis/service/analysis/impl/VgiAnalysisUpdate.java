@@ -59,6 +59,7 @@ public class VgiAnalysisUpdate extends VgiAnalysisParent implements IVgiAnalysis
 			if (!data.get(timePeriod).featureId_last_affected.equals(action.getOperations().get(0).getOid())) {
 				data.get(timePeriod).feature_count_affected++;
 				data.get(timePeriod).featureId_last_affected = action.getOperations().get(0).getOid();
+				if (data.get(timePeriod).featureId_first_affected == -1l) data.get(timePeriod).featureId_first_affected = data.get(timePeriod).featureId_last_affected;
 			}
 		}
 	}
@@ -91,6 +92,40 @@ public class VgiAnalysisUpdate extends VgiAnalysisParent implements IVgiAnalysis
 	public void reset() { 
 		data = new HashMap<Date, UpdateEntry>();
 	}
+
+	@Override
+	public IVgiAnalysisAction createPartial() {
+		VgiAnalysisUpdate partial = new VgiAnalysisUpdate(settings);
+		partial.setTagKey(tagKey);
+		return partial;
+	}
+
+	/** Partial results have to be merged in feature order */
+	@Override
+	public void merge(IVgiAnalysisAction partial) {
+		for (Entry<Date, UpdateEntry> dataEntry : ((VgiAnalysisUpdate)partial).data.entrySet()) {
+			UpdateEntry p = dataEntry.getValue();
+			if (!data.containsKey(dataEntry.getKey())) {
+				data.put(dataEntry.getKey(), new UpdateEntry());
+			}
+			UpdateEntry e = data.get(dataEntry.getKey());
+			
+			e.feature_count += p.feature_count;
+			e.feature_count_affected += p.feature_count_affected;
+			/** Feature has been counted by both analyses */
+			if (p.featureId_first_affected != -1l && p.featureId_first_affected == e.featureId_last_affected.longValue()) {
+				e.feature_count_affected--;
+			}
+			if (p.featureId_last_affected != -1l) e.featureId_last_affected = p.featureId_last_affected;
+			if (e.featureId_first_affected == -1l) e.featureId_first_affected = p.featureId_first_affected;
+			
+			for (Entry<String, Integer> count : p.action_count_updated.entrySet()) {
+				Integer value = e.action_count_updated.get(count.getKey());
+				e.action_count_updated.put(count.getKey(), (value != null) ? value + count.getValue() : count.getValue());
+			}
+		}
+		addToProcessingTime(partial.getProcessingTime());
+	}
 	
 	@Override
 	public String toString() {
@@ -108,6 +143,7 @@ public class VgiAnalysisUpdate extends VgiAnalysisParent implements IVgiAnalysis
 	private class UpdateEntry {
 		int feature_count = 0;
 		Long featureId_last_affected = -1l;
+		long featureId_first_affected = -1l;
 		int feature_count_affected = 0;
 		Map<String, Integer> action_count_updated = new HashMap<String, Integer>(); //VgiActionType, count
 		
@@ -69,6 +69,11 @@ public class VgiAnalysisUpdateGeometry extends VgiAnalysisParent implements IVgi
 		}
 	}
 	
+	/** Constructor of partial analyses (shares the transformation) */
+	private VgiAnalysisUpdateGeometry(MathTransform transform) {
+		this.transform = transform;
+	}
+	
 	@Override
 	public void analyze(IVgiOperation operation, Date timePeriod) {
 
@@ -127,6 +132,38 @@ public class VgiAnalysisUpdateGeometry extends VgiAnalysisParent implements IVgi
 		data = new HashMap<Short, GeometryUpdates>();
 	}
 	
+	/** Not partitioned: coordinates of nodes are compared across features in operation order */
+	@Override
+	public boolean isPartitionable() {
+		return false;
+	}
+	
+	@Override
+	public IVgiAnalysisOperation createPartial() {
+		VgiAnalysisUpdateGeometry partial = new VgiAnalysisUpdateGeometry(transform);
+		partial.settings = settings;
+		return partial;
+	}
+
+	/**
+	 * Adds the updates of another analysis. Updates of nodes which occur in
+	 * both analyses are not detected, therefore the analysis is not partitionable.
+	 */
+	@Override
+	public void merge(IVgiAnalysisOperation partial) {
+		VgiAnalysisUpdateGeometry p = (VgiAnalysisUpdateGeometry)partial;
+		for (Map.Entry<Short, GeometryUpdates> entry : p.data.entrySet()) {
+			GeometryUpdates geomUpdates = data.get(entry.getKey());
+			if (geomUpdates == null) {
+				geomUpdates = new GeometryUpdates();
+				data.put(entry.getKey(), geomUpdates);
+			}
+			geomUpdates.updatesCount += entry.getValue().updatesCount;
+			geomUpdates.sumCoordinateDelta += entry.getValue().sumCoordinateDelta;
+			geomUpdates.coordinates.putAll(entry.getValue().coordinates);
+		}
+	}
+	
 	@Override
 	public String toString() {
 		return "VgiAnalysisUserPerOperation";
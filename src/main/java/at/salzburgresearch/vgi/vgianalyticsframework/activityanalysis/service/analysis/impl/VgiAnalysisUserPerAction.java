@@ -22,7 +22,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.TreeMap;
 
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiAction;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.pipeline.IVgiPipelineSettings;
@@ -39,6 +39,12 @@ public class VgiAnalysisUserPerAction extends VgiAnalysisParent implements IVgiA
 	
 	private List<String> actionTypes = new ArrayList<String>();
 	
+	private VgiContributorStore contributors = new VgiContributorStore();
+	private VgiKeyDictionary<String> actionTypeKeys = new VgiKeyDictionary<String>();
+	private VgiKeyDictionary<Date> timePeriods = new VgiKeyDictionary<Date>();
+	/** major: action type, minor: time period */
+	private VgiContributorCounter actionCount = new VgiContributorCounter();
+	
 	/** Constructor */
 	public VgiAnalysisUserPerAction(IVgiPipelineSettings settings) {
 		this.settings = settings;
@@ -46,21 +52,11 @@ public class VgiAnalysisUserPerAction extends VgiAnalysisParent implements IVgiA
 	
 	@Override
 	public void analyze(IVgiAction action, Date timePeriod) {
-		VgiAnalysisUser user = findUser(action.getOperations().get(0).getUid(), action.getOperations().get(0).getUser());
+		int contributor = contributors.getIndex(action.getOperations().get(0).getUid(), action.getOperations().get(0).getUser());
 		
 		String actionType = (mergeActionTypes) ? "AC_UNDEFINED" : action.getActionName();
 		
-		Map<Date, Integer> m = user.actionCount.get(actionType);
-		if (m == null) {
-			user.actionCount.put(actionType, new ConcurrentHashMap<Date, Integer>());
-			m = user.actionCount.get(actionType);
-		}
-		Integer n = m.get(timePeriod);
-		if (n == null) {
-			m.put(timePeriod, 0);
-			n = m.get(timePeriod);
-		}
-		m.put(timePeriod, n + 1);
+		actionCount.add(contributor, actionTypeKeys.getIndex(actionType), timePeriods.getIndex(timePeriod), 1);
 	}
 	
 	@Override
@@ -76,38 +72,38 @@ public class VgiAnalysisUserPerAction extends VgiAnalysisParent implements IVgiA
 			}
 			writer.writeLine(actionHeader);
 			
+			/** column of each action type (-1 if not written) */
+			int[] columns = new int[actionTypeKeys.size()];
+			for (int i=0; i<columns.length; i++) {
+				columns[i] = actionTypes.indexOf(actionTypeKeys.get(i));
+			}
+			
 			/** iterate through users*/
-			for (int user : userAnalysis.keySet()) {
-				List<Date> writtenDates = new ArrayList<Date>();
+			long[] entries = actionCount.getEntries();
+			for (int start=0, end=0; start<entries.length; start=end) {
+				end = VgiContributorCounter.getContributorEnd(entries, start);
+				
+				/** action count per time period and action type */
+				Map<Integer, long[]> countPerPeriod = new TreeMap<Integer, long[]>();
+				for (int i=start; i<end; i++) {
+					int column = columns[VgiContributorCounter.getMajor(entries[i])];
+					if (column < 0) continue;
+					
+					long[] counts = countPerPeriod.get(VgiContributorCounter.getMinor(entries[i]));
+					if (counts == null) {
+						counts = new long[actionTypes.size()];
+						countPerPeriod.put(VgiContributorCounter.getMinor(entries[i]), counts);
+					}
+					counts[column] += actionCount.get(entries[i]);
+				}
 				
-				VgiAnalysisUser u = userAnalysis.get(user);
-				for (String type : u.actionCount.keySet()) {
-					for (Date period : u.actionCount.get(type).keySet()) {
-						if (writtenDates.contains(period)) continue;
-						
-						if (u.actionCount.get(type).get(period) > 0) {
-							String line = u.getUid() + ";" + dateFormat.format(period);
-							long count = 0;
-							for (String a : actionTypes) {
-								Map<Date, Integer> actionCountInAllPeriods = u.actionCount.get(a);
-								
-								if (actionCountInAllPeriods != null) {
-									Integer actionCountInPeriod = actionCountInAllPeriods.get(period);
-									if (actionCountInPeriod != null) {
-										line += ";"+decimalFormat.format(actionCountInPeriod);
-										count += actionCountInPeriod;
-									} else {
-										line += ";";
-									}
-								} else {
-									line += ";";
-								}
-								writtenDates.add(period);
-							}
-							line += "";
-							if (count>0) writer.writeLine(line);
-						}
+				int uid = contributors.getUid(VgiContributorCounter.getContributor(entries[start]));
+				for (Map.Entry<Integer, long[]> period : countPerPeriod.entrySet()) {
+					String line = uid + ";" + dateFormat.format(timePeriods.get(period.getKey()));
+					for (long count : period.getValue()) {
+						line += ";" + ((count > 0) ? decimalFormat.format(count) : "");
 					}
+					writer.writeLine(line);
 				}
 			}
 		} catch (IOException e) {
@@ -126,6 +122,25 @@ public class VgiAnalysisUserPerAction extends VgiAnalysisParent implements IVgiA
 				actionTypes.add(actionType.getActionName());
 			}
 		}
+		
+		contributors.clear();
+		actionTypeKeys.clear();
+		timePeriods.clear();
+		actionCount.clear();
+	}
+	
+	@Override
+	public IVgiAnalysisAction createPartial() {
+		VgiAnalysisUserPerAction partial = new VgiAnalysisUserPerAction(settings);
+		partial.setMergeActionTypes(mergeActionTypes);
+		return partial;
+	}
+
+	@Override
+	public void merge(IVgiAnalysisAction partial) {
+		VgiAnalysisUserPerAction p = (VgiAnalysisUserPerAction)partial;
+		actionCount.merge(p.actionCount, contributors.merge(p.contributors), actionTypeKeys.merge(p.actionTypeKeys), timePeriods.merge(p.timePeriods));
+		addToProcessingTime(partial.getProcessingTime());
 	}
 	
 	@Override
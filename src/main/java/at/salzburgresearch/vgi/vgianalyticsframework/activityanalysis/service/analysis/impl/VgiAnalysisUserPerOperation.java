@@ -18,8 +18,6 @@ package at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.a
 import java.io.File;
 import java.io.IOException;
 import java.util.Date;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiOperation;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiOperationType;
@@ -34,6 +32,11 @@ import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.im
 public class VgiAnalysisUserPerOperation extends VgiAnalysisParent implements IVgiAnalysisOperation {
 	
 	private boolean mergeOperationTypes = false;
+	
+	private VgiContributorStore contributors = new VgiContributorStore();
+	private VgiKeyDictionary<Date> timePeriods = new VgiKeyDictionary<Date>();
+	/** major: operation type (ordinal), minor: time period */
+	private VgiContributorCounter operationCount = new VgiContributorCounter();
 
 	/** Constructor */
 	public VgiAnalysisUserPerOperation(IVgiPipelineSettings settings) {
@@ -43,23 +46,13 @@ public class VgiAnalysisUserPerOperation extends VgiAnalysisParent implements IV
 	@Override
 	public void analyze(IVgiOperation operation, Date timePeriod) {
 		
-		VgiAnalysisUser user = findUser(operation.getUid(), operation.getUser());
+		int contributor = contributors.getIndex(operation.getUid(), operation.getUser());
 		
 		VgiOperationType operationType = operation.getVgiOperationType();
 		
 		if (mergeOperationTypes) operationType = VgiOperationType.OP_UNDEFINED;
 
-		Map<Date, Long> m = user.operationCount.get(operationType);
-		if (m == null) {
-			user.operationCount.put(operationType, new ConcurrentHashMap<Date, Long>());
-			m = user.operationCount.get(operationType);
-		}
-		Long n = m.get(timePeriod);
-		if (n == null) {
-			m.put(timePeriod, 0l);
-			n = m.get(timePeriod);
-		}
-		m.put(timePeriod, ++n);
+		operationCount.add(contributor, operationType.ordinal(), timePeriods.getIndex(timePeriod), 1);
 	}
 	
 	@Override
@@ -70,14 +63,10 @@ public class VgiAnalysisUserPerOperation extends VgiAnalysisParent implements IV
 			String operationHeader = "uid;operation_type;time_period;count;";
 			writer.writeLine(operationHeader);
 			
-			for (int user : userAnalysis.keySet()) {
-				VgiAnalysisUser u1 = userAnalysis.get(user);
-				for (VgiOperationType type : u1.operationCount.keySet()) {
-					for (Date period : u1.operationCount.get(type).keySet()) {
-						if (u1.operationCount.get(type).get(period) > 0) {
-							writer.writeLine(u1.getUid() + ";" + type + ";" + dateFormat.format(period) + ";" + u1.operationCount.get(type).get(period) + ";");
-						}
-					}
+			for (long entry : operationCount.getEntries()) {
+				long count = operationCount.get(entry);
+				if (count > 0) {
+					writer.writeLine(contributors.getUid(VgiContributorCounter.getContributor(entry)) + ";" + VgiOperationType.values()[VgiContributorCounter.getMajor(entry)] + ";" + dateFormat.format(timePeriods.get(VgiContributorCounter.getMinor(entry))) + ";" + count + ";");
 				}
 			}
 		} catch (IOException e) {
@@ -86,7 +75,25 @@ public class VgiAnalysisUserPerOperation extends VgiAnalysisParent implements IV
 	}
 
 	@Override
-	public void reset() { }
+	public void reset() {
+		contributors.clear();
+		timePeriods.clear();
+		operationCount.clear();
+	}
+	
+	@Override
+	public IVgiAnalysisOperation createPartial() {
+		VgiAnalysisUserPerOperation partial = new VgiAnalysisUserPerOperation(settings);
+		partial.setMergeOperationTypes(mergeOperationTypes);
+		return partial;
+	}
+
+	@Override
+	public void merge(IVgiAnalysisOperation partial) {
+		VgiAnalysisUserPerOperation p = (VgiAnalysisUserPerOperation)partial;
+		operationCount.merge(p.operationCount, contributors.merge(p.contributors), null, timePeriods.merge(p.timePeriods));
+		addToProcessingTime(partial.getProcessingTime());
+	}
 	
 	@Override
 	public String toString() {
@@ -19,6 +19,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Date;
 import java.util.Map;
+import java.util.TreeMap;
 
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiOperation;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiGeometryType;
@@ -34,6 +35,13 @@ import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.im
 public class VgiAnalysisUserPerTags extends VgiAnalysisParent implements IVgiAnalysisOperation {
 	
 	private String tagKey = "";
+	
+	private VgiContributorStore contributors = new VgiContributorStore();
+	private VgiKeyDictionary<String> tags = new VgiKeyDictionary<String>();
+	/** major: geometry type (node, way, relation), minor: tag key (or value) */
+	private VgiContributorCounter addedTagPerKey = new VgiContributorCounter();
+	private VgiContributorCounter modifiedTagPerKey = new VgiContributorCounter();
+	private VgiContributorCounter removedTagPerKey = new VgiContributorCounter();
 
 	/** Constructor */
 	public VgiAnalysisUserPerTags(IVgiPipelineSettings settings) {
@@ -42,17 +50,15 @@ public class VgiAnalysisUserPerTags extends VgiAnalysisParent implements IVgiAna
 
 	@Override
 	public void analyze(IVgiOperation operation, Date timePeriod) {
-
-		VgiAnalysisUser user = findUser(operation.getUid(), operation.getUser());
 		
 		/** Add, Updated OR removed tag */
-		Map<String, long[]> tagByKey = null;
+		VgiContributorCounter tagByKey = null;
 		if (operation.getVgiOperationType().equals(VgiOperationType.OP_ADD_TAG)) {
-			tagByKey = user.addedTagPerKey;
+			tagByKey = addedTagPerKey;
 		} else if (operation.getVgiOperationType().equals(VgiOperationType.OP_MODIFY_TAG_VALUE)) {
-			tagByKey = user.modifiedTagPerKey;
+			tagByKey = modifiedTagPerKey;
 		} else if (operation.getVgiOperationType().equals(VgiOperationType.OP_REMOVE_TAG)) {
-			tagByKey = user.removedTagPerKey;
+			tagByKey = removedTagPerKey;
 		} else {
 			return;
 		}
@@ -71,11 +77,8 @@ public class VgiAnalysisUserPerTags extends VgiAnalysisParent implements IVgiAna
 			geomType = 2;
 		}
 		
-		if (!tagByKey.containsKey(tag)) {
-			long[] d = {0,0,0};
-			tagByKey.put(tag, d);
-		}
-		tagByKey.get(tag)[geomType]++;
+		int contributor = contributors.getIndex(operation.getUid(), operation.getUser());
+		tagByKey.add(contributor, geomType, tags.getIndex(tag), 1);
 	}
 	
 	@Override
@@ -94,39 +97,69 @@ public class VgiAnalysisUserPerTags extends VgiAnalysisParent implements IVgiAna
 				writerUpdate.writeLine("uid;tag_value ("+tagKey+");count(n);count(w);count(r)");
 				writerRemove.writeLine("uid;tag_value ("+tagKey+");count(n);count(w);count(r)");
 			}
-			/** iterate through rows*/
-			for (int user : userAnalysis.keySet()) {
-				VgiAnalysisUser u = userAnalysis.get(user);
-				
-				/** write row values */
-				for (String type : u.addedTagPerKey.keySet()) {
-					if (u.addedTagPerKey.get(type)[0] + u.addedTagPerKey.get(type)[1] + u.addedTagPerKey.get(type)[2] > 0) {
-						/** remove line breaks because of node 456999774 (amenity &#13;) */
-						writerAdd.writeLine(u.getUid() + ";" + type.replace(";", ",").replace("\n", " ").replace("\r", " ") + ";" + ((u.addedTagPerKey.get(type)[0] != 0) ? u.addedTagPerKey.get(type)[0] : "") + ";" + ((u.addedTagPerKey.get(type)[1] != 0) ? u.addedTagPerKey.get(type)[1] : "") + ";" + ((u.addedTagPerKey.get(type)[2] != 0) ? u.addedTagPerKey.get(type)[2] : ""));
-					}
-				}
-				
-				/** write row values */
-				for (String type : u.modifiedTagPerKey.keySet()) {
-					if (u.modifiedTagPerKey.get(type)[0] + u.modifiedTagPerKey.get(type)[1] + u.modifiedTagPerKey.get(type)[2] > 0) {
-						writerUpdate.writeLine(u.getUid() + ";" + type.replace(";", ",").replace("\n", " ").replace("\r", " ") + ";" + ((u.modifiedTagPerKey.get(type)[0] != 0) ? u.modifiedTagPerKey.get(type)[0] : "") + ";" + ((u.modifiedTagPerKey.get(type)[1] != 0) ? u.modifiedTagPerKey.get(type)[1] : "") + ";" + ((u.modifiedTagPerKey.get(type)[2] != 0) ? u.modifiedTagPerKey.get(type)[2] : ""));
-					}
+			/** write row values */
+			write(writerAdd, addedTagPerKey);
+			write(writerUpdate, modifiedTagPerKey);
+			write(writerRemove, removedTagPerKey);
+		} catch (IOException e) {
+			log.error("Error while writing CSV file", e);
+		}
+	}
+	
+	private void write(CSVFileWriter writer, VgiContributorCounter tagByKey) throws IOException {
+		/** iterate through rows*/
+		long[] entries = tagByKey.getEntries();
+		for (int start=0, end=0; start<entries.length; start=end) {
+			end = VgiContributorCounter.getContributorEnd(entries, start);
+			
+			/** count per tag and geometry type */
+			Map<Integer, long[]> countPerTag = new TreeMap<Integer, long[]>();
+			for (int i=start; i<end; i++) {
+				long[] counts = countPerTag.get(VgiContributorCounter.getMinor(entries[i]));
+				if (counts == null) {
+					counts = new long[3];
+					countPerTag.put(VgiContributorCounter.getMinor(entries[i]), counts);
 				}
-				
-				/** write row values */
-				for (String type : u.removedTagPerKey.keySet()) {
-					if (u.removedTagPerKey.get(type)[0] + u.removedTagPerKey.get(type)[1] + u.removedTagPerKey.get(type)[2] > 0) {
-						writerRemove.writeLine(u.getUid() + ";" + type.replace(";", ",").replace("\n", " ").replace("\r", " ") + ";" + ((u.removedTagPerKey.get(type)[0] != 0) ? u.removedTagPerKey.get(type)[0] : "") + ";" + ((u.removedTagPerKey.get(type)[1] != 0) ? u.removedTagPerKey.get(type)[1] : "") + ";" + ((u.removedTagPerKey.get(type)[2] != 0) ? u.removedTagPerKey.get(type)[2] : ""));
-					}
+				counts[VgiContributorCounter.getMajor(entries[i])] += tagByKey.get(entries[i]);
+			}
+			
+			int uid = contributors.getUid(VgiContributorCounter.getContributor(entries[start]));
+			for (Map.Entry<Integer, long[]> tag : countPerTag.entrySet()) {
+				long[] c = tag.getValue();
+				if (c[0] + c[1] + c[2] > 0) {
+					/** remove line breaks because of node 456999774 (amenity &#13;) */
+					writer.writeLine(uid + ";" + tags.get(tag.getKey()).replace(";", ",").replace("\n", " ").replace("\r", " ") + ";" + ((c[0] != 0) ? c[0] : "") + ";" + ((c[1] != 0) ? c[1] : "") + ";" + ((c[2] != 0) ? c[2] : ""));
 				}
 			}
-		} catch (IOException e) {
-			log.error("Error while writing CSV file", e);
 		}
 	}
 
 	@Override
-	public void reset() { }
+	public void reset() {
+		contributors.clear();
+		tags.clear();
+		addedTagPerKey.clear();
+		modifiedTagPerKey.clear();
+		removedTagPerKey.clear();
+	}
+	
+	@Override
+	public IVgiAnalysisOperation createPartial() {
+		VgiAnalysisUserPerTags partial = new VgiAnalysisUserPerTags(settings);
+		partial.setTagKey(tagKey);
+		return partial;
+	}
+
+	@Override
+	public void merge(IVgiAnalysisOperation partial) {
+		VgiAnalysisUserPerTags p = (VgiAnalysisUserPerTags)partial;
+		int[] contributorMapping = contributors.merge(p.contributors);
+		int[] tagMapping = tags.merge(p.tags);
+		addedTagPerKey.merge(p.addedTagPerKey, contributorMapping, null, tagMapping);
+		modifiedTagPerKey.merge(p.modifiedTagPerKey, contributorMapping, null, tagMapping);
+		removedTagPerKey.merge(p.removedTagPerKey, contributorMapping, null, tagMapping);
+		addToProcessingTime(partial.getProcessingTime());
+	}
 	
 	@Override
 	public String toString() {
@@ -0,0 +1,106 @@
+/** Copyright 2017, Simon Gröchenig, Salzburg Research Forschungsgesellschaft m.b.H.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.analysis.impl;
+
+import java.util.Arrays;
+
+import gnu.trove.map.hash.TLongLongHashMap;
+
+/**
+ * Counters per contributor (index in VgiContributorStore) and key. A key
+ * consists of a major part (e.g. operation type) and a minor part (e.g. index
+ * of a time period). Counters are stored in a primitive map, so counting does
+ * not create objects.
+ */
+public class VgiContributorCounter {
+	
+	private static final int MINOR_BITS = 28;
+	private static final int MAJOR_BITS = 12;
+	private static final int CONTRIBUTOR_BITS = 64 - MAJOR_BITS - MINOR_BITS;
+	
+	private TLongLongHashMap counts = new TLongLongHashMap(1024, 0.5f, -1l, 0l);
+	
+	public void add(int contributor, int major, int minor, long value) {
+		long entry = entry(contributor, major, minor);
+		counts.adjustOrPutValue(entry, value, value);
+	}
+	
+	public long get(int contributor, int major, int minor) {
+		return counts.get(entry(contributor, major, minor));
+	}
+	
+	/**
+	 * @return all entries sorted by contributor, major and minor key
+	 */
+	public long[] getEntries() {
+		long[] entries = counts.keys();
+		Arrays.sort(entries);
+		return entries;
+	}
+	
+	public long get(long entry) {
+		return counts.get(entry);
+	}
+	
+	/**
+	 * @param entries sorted entries (see getEntries)
+	 * @return index of the first entry which belongs to another contributor than entry 'start'
+	 */
+	public static int getContributorEnd(long[] entries, int start) {
+		int contributor = getContributor(entries[start]);
+		int end = start + 1;
+		while (end < entries.length && getContributor(entries[end]) == contributor) end++;
+		return end;
+	}
+
+	public static int getContributor(long entry) {
+		return (int)(entry >>> (MAJOR_BITS + MINOR_BITS));
+	}
+	
+	public static int getMajor(long entry) {
+		return (int)(entry >>> MINOR_BITS) & ((1 << MAJOR_BITS) - 1);
+	}
+	
+	public static int getMinor(long entry) {
+		return (int)entry & ((1 << MINOR_BITS) - 1);
+	}
+	
+	/**
+	 * Adds the counters of another counter
+	 * @param contributorMapping contributor index mapping (see VgiContributorStore.merge)
+	 * @param majorMapping mapping of the major key; null if keys are equal
+	 * @param minorMapping mapping of the minor key; null if keys are equal
+	 */
+	public void merge(VgiContributorCounter other, int[] contributorMapping, int[] majorMapping, int[] minorMapping) {
+		for (long entry : other.counts.keys()) {
+			int major = (majorMapping != null) ? majorMapping[getMajor(entry)] : getMajor(entry);
+			int minor = (minorMapping != null) ? minorMapping[getMinor(entry)] : getMinor(entry);
+			add(contributorMapping[getContributor(entry)], major, minor, other.counts.get(entry));
+		}
+	}
+	
+	public void clear() {
+		counts.clear();
+	}
+	
+	private static long entry(int contributor, int major, int minor) {
+		if (contributor < 0 || contributor >= (1 << CONTRIBUTOR_BITS) || major < 0 || major >= (1 << MAJOR_BITS) || minor < 0 || minor >= (1 << MINOR_BITS)) {
+			throw new IllegalArgumentException("Counter entry (" + contributor + ", " + major + ", " + minor + ") is out of range");
+		}
+		return ((long)contributor << (MAJOR_BITS + MINOR_BITS)) | ((long)major << MINOR_BITS) | minor;
+	}
+}
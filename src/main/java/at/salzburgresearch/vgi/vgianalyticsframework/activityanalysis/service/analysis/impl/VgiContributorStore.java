@@ -0,0 +1,90 @@
+/** Copyright 2017, Simon Gröchenig, Salzburg Research Forschungsgesellschaft m.b.H.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.analysis.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntIntHashMap;
+
+/**
+ * Contributors of a single analysis run. Each contributor gets a dense index
+ * (in order of appearance) which is used by the contributor counters. Every
+ * analysis (and every partial analysis) has its own store.
+ */
+public class VgiContributorStore {
+	
+	private TIntIntHashMap indexByUid = new TIntIntHashMap(1024, 0.5f, Integer.MIN_VALUE, -1);
+	private TIntArrayList uids = new TIntArrayList();
+	private List<String> usernames = new ArrayList<String>();
+	
+	/** consecutive operations are often made by the same contributor */
+	private int previousUid = Integer.MIN_VALUE;
+	private int previousIndex = -1;
+	
+	/**
+	 * @return index of the contributor; contributor is added if not found
+	 */
+	public int getIndex(int uid, String username) {
+		if (uid == previousUid) return previousIndex;
+		
+		int index = indexByUid.get(uid);
+		if (index == -1) {
+			index = uids.size();
+			indexByUid.put(uid, index);
+			uids.add(uid);
+			usernames.add(username);
+		}
+		
+		previousUid = uid;
+		previousIndex = index;
+		return index;
+	}
+	
+	public int size() {
+		return uids.size();
+	}
+	
+	public int getUid(int index) {
+		return uids.get(index);
+	}
+	
+	public String getUsername(int index) {
+		return usernames.get(index);
+	}
+	
+	/**
+	 * Adds the contributors of another store
+	 * @return index in this store for each index of the other store
+	 */
+	public int[] merge(VgiContributorStore other) {
+		int[] mapping = new int[other.size()];
+		for (int i=0; i<other.size(); i++) {
+			mapping[i] = getIndex(other.getUid(i), other.getUsername(i));
+		}
+		return mapping;
+	}
+	
+	public void clear() {
+		indexByUid.clear();
+		uids.resetQuick();
+		usernames.clear();
+		previousUid = Integer.MIN_VALUE;
+		previousIndex = -1;
+	}
+}
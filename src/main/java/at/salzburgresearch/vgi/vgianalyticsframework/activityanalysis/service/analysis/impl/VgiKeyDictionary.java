@@ -0,0 +1,84 @@
+/** Copyright 2017, Simon Gröchenig, Salzburg Research Forschungsgesellschaft m.b.H.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.analysis.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * Assigns dense indices (in order of appearance) to analysis keys, e.g. action
+ * types, tag keys or time periods.
+ */
+public class VgiKeyDictionary<K> {
+	
+	private TObjectIntHashMap<K> indexByKey = new TObjectIntHashMap<K>(64, 0.5f, -1);
+	private List<K> keys = new ArrayList<K>();
+	
+	/**
+	 * @return index of the key; key is added if not found
+	 */
+	public int getIndex(K key) {
+		int index = indexByKey.get(key);
+		if (index == -1) {
+			index = keys.size();
+			indexByKey.put(key, index);
+			keys.add(key);
+		}
+		return index;
+	}
+	
+	/**
+	 * @return index of the key or -1 if not found
+	 */
+	public int findIndex(K key) {
+		return indexByKey.get(key);
+	}
+	
+	public K get(int index) {
+		return keys.get(index);
+	}
+	
+	public int size() {
+		return keys.size();
+	}
+	
+	/**
+	 * @return keys in order of appearance
+	 */
+	public List<K> getKeys() {
+		return keys;
+	}
+	
+	/**
+	 * Adds the keys of another dictionary
+	 * @return index in this dictionary for each index of the other dictionary
+	 */
+	public int[] merge(VgiKeyDictionary<K> other) {
+		int[] mapping = new int[other.size()];
+		for (int i=0; i<other.size(); i++) {
+			mapping[i] = getIndex(other.get(i));
+		}
+		return mapping;
+	}
+	
+	public void clear() {
+		indexByKey.clear();
+		keys.clear();
+	}
+}
@@ -0,0 +1,230 @@
+/** Copyright 2017, Simon Gröchenig, Salzburg Research Forschungsgesellschaft m.b.H.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.opengis.feature.type.GeometryDescriptor;
+
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiFeatureType;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.pipeline.impl.VgiPipelineSettings;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.service.IVgiFeatureTypeClassifier;
+
+/**
+ * Feature type classifier which compiles the feature type definitions once
+ * into hash indexes (tag key > tag value > candidate feature types). The
+ * candidates are sorted by the order of the feature type list, so that the
+ * first match equals the result of iterating the feature type list.
+ */
+public class VgiFeatureTypeClassifierImpl implements IVgiFeatureTypeClassifier {
+	
+	private static final int POINT = 0;
+	private static final int LINE = 1;
+	private static final int POLYGON = 2;
+	private static final int NO_GEOMETRY = 3;
+	
+	/** Indexes of the method classify (one per geometry kind) */
+	private final List<Map<String, KeyRules>> geometryIndexes = new ArrayList<Map<String, KeyRules>>();
+	private final IVgiFeatureType[] invalidFeatureTypes = new IVgiFeatureType[4];
+	
+	/** Index of the method findFeatureTypes */
+	private final Map<String, KeyRules> tagIndex = new HashMap<String, KeyRules>();
+	
+	/** Constructor */
+	public VgiFeatureTypeClassifierImpl(Map<String, IVgiFeatureType> featureTypeList) {
+		for (int kind = POINT; kind <= NO_GEOMETRY; kind++) {
+			geometryIndexes.add(new HashMap<String, KeyRules>());
+		}
+		invalidFeatureTypes[POINT] = featureTypeList.get(VgiPipelineSettings.invalidFeatureTypePoint);
+		invalidFeatureTypes[LINE] = featureTypeList.get(VgiPipelineSettings.invalidFeatureTypeLine);
+		invalidFeatureTypes[POLYGON] = featureTypeList.get(VgiPipelineSettings.invalidFeatureTypePolygon);
+		
+		int rank = 0;
+		for (String featureTypeName : featureTypeList.keySet()) {
+			IVgiFeatureType featureType = featureTypeList.get(featureTypeName);
+			boolean invalid = featureTypeName.equals(VgiPipelineSettings.invalidFeatureTypePoint)
+					|| featureTypeName.equals(VgiPipelineSettings.invalidFeatureTypeLine)
+					|| featureTypeName.equals(VgiPipelineSettings.invalidFeatureTypePolygon);
+			
+			/** Geometry kinds whose features may get this feature type */
+			Class<?> binding = null;
+			GeometryDescriptor geometryDescriptor = featureType.getFeatureType().getGeometryDescriptor();
+			if (geometryDescriptor != null) binding = geometryDescriptor.getType().getBinding();
+			boolean[] kinds = new boolean[4];
+			kinds[POINT] = !LineString.class.equals(binding) && !Polygon.class.equals(binding);
+			kinds[LINE] = !Point.class.equals(binding) && !Polygon.class.equals(binding);
+			kinds[POLYGON] = !Point.class.equals(binding);
+			kinds[NO_GEOMETRY] = !Point.class.equals(binding) && !LineString.class.equals(binding) && !Polygon.class.equals(binding);
+			
+			for (String tagKey : featureType.getFeatureTypeTagsInclude().keySet()) {
+				List<String> includedValues = featureType.getFeatureTypeTagsInclude().get(tagKey);
+				Set<String> excludedValues = null;
+				if (featureType.getFeatureTypeTagsExclude().containsKey(tagKey)) {
+					excludedValues = new HashSet<String>(featureType.getFeatureTypeTagsExclude().get(tagKey));
+				}
+				
+				/** Invalid feature types are only assigned if no other feature type matches */
+				if (!invalid) {
+					for (int kind = POINT; kind <= NO_GEOMETRY; kind++) {
+						if (!kinds[kind]) continue;
+						getKeyRules(geometryIndexes.get(kind), tagKey).add(new TagRule(rank, featureType, excludedValues), includedValues);
+					}
+				}
+				
+				/** Tag key only (with excluded values) or all tag values */
+				if (includedValues.isEmpty()) {
+					getKeyRules(tagIndex, tagKey).add(new TagRule(rank, featureType, excludedValues), includedValues);
+				} else if (includedValues.size() == 1 && includedValues.get(0).equals("_value")) {
+					getKeyRules(tagIndex, tagKey).add(new TagRule(rank, featureType, null), new ArrayList<String>());
+				} else {
+					getKeyRules(tagIndex, tagKey).add(new TagRule(rank, featureType, null), includedValues);
+				}
+			}
+			rank++;
+		}
+	}
+	
+	private static KeyRules getKeyRules(Map<String, KeyRules> index, String tagKey) {
+		KeyRules keyRules = index.get(tagKey);
+		if (keyRules == null) {
+			keyRules = new KeyRules();
+			index.put(tagKey, keyRules);
+		}
+		return keyRules;
+	}
+	
+	@Override
+	public IVgiFeatureType classify(Map<String, String> tags, boolean point, boolean lineString, boolean polygon) {
+		int kind = NO_GEOMETRY;
+		if (point) {
+			kind = POINT;
+		} else if (polygon) {
+			kind = POLYGON;
+		} else if (lineString) {
+			kind = LINE;
+		}
+		
+		Map<String, KeyRules> index = geometryIndexes.get(kind);
+		TagRule best = null;
+		for (Map.Entry<String, String> tag : tags.entrySet()) {
+			KeyRules keyRules = index.get(tag.getKey());
+			if (keyRules == null) continue;
+			best = keyRules.findFirst(tag.getValue(), best);
+		}
+		
+		if (best != null) return best.featureType;
+		return invalidFeatureTypes[kind];
+	}
+	
+	@Override
+	public List<IVgiFeatureType> findFeatureTypes(Map<String, String> tags) {
+		List<IVgiFeatureType> featureTypes = new ArrayList<IVgiFeatureType>();
+		for (Map.Entry<String, String> tag : tags.entrySet()) {
+			KeyRules keyRules = tagIndex.get(tag.getKey());
+			if (keyRules == null) continue;
+			keyRules.findAll(tag.getValue(), featureTypes);
+		}
+		return featureTypes;
+	}
+	
+	/**
+	 * Feature type which matches a tag key
+	 */
+	private static class TagRule {
+		private final int rank;
+		private final IVgiFeatureType featureType;
+		/** values of the tag key which are excluded (or null) */
+		private final Set<String> excludedValues;
+		
+		private TagRule(int rank, IVgiFeatureType featureType, Set<String> excludedValues) {
+			this.rank = rank;
+			this.featureType = featureType;
+			this.excludedValues = excludedValues;
+		}
+		
+		private boolean matches(String value) {
+			return excludedValues == null || !excludedValues.contains(value);
+		}
+	}
+	
+	/**
+	 * Feature types of a tag key. Both lists are sorted by rank (rules are
+	 * added in the order of the feature type list).
+	 */
+	private static class KeyRules {
+		/** Feature types which match all values */
+		private final List<TagRule> anyValue = new ArrayList<TagRule>();
+		/** Feature types which match selected values */
+		private final Map<String, List<TagRule>> byValue = new HashMap<String, List<TagRule>>();
+		
+		private void add(TagRule rule, List<String> includedValues) {
+			if (includedValues.isEmpty()) {
+				anyValue.add(rule);
+				return;
+			}
+			for (String value : new HashSet<String>(includedValues)) {
+				List<TagRule> rules = byValue.get(value);
+				if (rules == null) {
+					rules = new ArrayList<TagRule>(1);
+					byValue.put(value, rules);
+				}
+				rules.add(rule);
+			}
+		}
+		
+		/** @return first matching rule with a lower rank than best (or best) */
+		private TagRule findFirst(String value, TagRule best) {
+			best = findFirst(anyValue, value, best);
+			List<TagRule> rules = byValue.get(value);
+			if (rules != null) best = findFirst(rules, value, best);
+			return best;
+		}
+		
+		private static TagRule findFirst(List<TagRule> rules, String value, TagRule best) {
+			for (TagRule rule : rules) {
+				if (best != null && rule.rank >= best.rank) break;
+				if (rule.matches(value)) return rule;
+			}
+			return best;
+		}
+		
+		/** Adds the feature types of all matching rules (by rank) */
+		private void findAll(String value, List<IVgiFeatureType> featureTypes) {
+			List<TagRule> rules = byValue.get(value);
+			int i = 0;
+			int j = 0;
+			while (i < anyValue.size() || (rules != null && j < rules.size())) {
+				TagRule rule;
+				if (rules == null || j == rules.size() || (i < anyValue.size() && anyValue.get(i).rank < rules.get(j).rank)) {
+					rule = anyValue.get(i++);
+				} else {
+					rule = rules.get(j++);
+				}
+				if (!rule.matches(value)) continue;
+				if (!featureTypes.contains(rule.featureType)) featureTypes.add(rule.featureType);
+			}
+		}
+	}
+}
@@ -0,0 +1,174 @@
+/** Copyright 2017, Simon Gröchenig, Salzburg Research Forschungsgesellschaft m.b.H.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package at.salzburgresearch.vgi.vgianalyticsframework.osm.importer.impl;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.openstreetmap.osmosis.osmbinary.Osmformat;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.osm.impl.Node;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.osm.impl.OsmElementType;
+
+/**
+ * Dense nodes of a PBF block. The delta coded attributes are decoded into
+ * primitive arrays; nodes are accessed through light-weight views which
+ * materialize tags, user names, timestamps and coordinates only on demand.
+ */
+public class DenseNodeBlock {
+	
+	/** Node without tags */
+	private static final int NO_TAGS = -1;
+	
+	/** string table of the block (strings are decoded on demand; views may outlive the parser's current block) */
+	private final Osmformat.StringTable stringTable;
+	/** key/value ids of the block (see DenseNodes) */
+	private final Osmformat.DenseNodes pbfNodes;
+	
+	private final long[] id;
+	private final double[] latitude;
+	private final double[] longitude;
+	private final long[] timestamp;
+	private final int[] uid;
+	private final int[] userSid;
+	private final int[] changesetId;
+	private final short[] version;
+	private final boolean[] visible;
+	private final int[] keysValsIndex;
+	
+	/** Constructor */
+	public DenseNodeBlock(Osmformat.DenseNodes pbfNodes, Osmformat.StringTable stringTable) {
+		this.pbfNodes = pbfNodes;
+		this.stringTable = stringTable;
+		int size = pbfNodes.getIdCount();
+		id = new long[size];
+		latitude = new double[size];
+		longitude = new double[size];
+		timestamp = new long[size];
+		uid = new int[size];
+		userSid = new int[size];
+		changesetId = new int[size];
+		version = new short[size];
+		visible = new boolean[size];
+		keysValsIndex = new int[size];
+	}
+	
+	/**
+	 * Sets the decoded attributes of a node
+	 * @param keysValsIndex index of the first key in the key/value list (or -1 if the node has no tags)
+	 */
+	void set(int i, long id, double latitude, double longitude, long timestamp, int uid, int userSid, int changesetId, short version, boolean visible, int keysValsIndex) {
+		this.id[i] = id;
+		this.latitude[i] = latitude;
+		this.longitude[i] = longitude;
+		this.timestamp[i] = timestamp;
+		this.uid[i] = uid;
+		this.userSid[i] = userSid;
+		this.changesetId[i] = changesetId;
+		this.version[i] = version;
+		this.visible[i] = visible;
+		this.keysValsIndex[i] = (keysValsIndex >= 0 && pbfNodes.getKeysVals(keysValsIndex) != 0) ? keysValsIndex : NO_TAGS;
+	}
+	
+	public int size() {
+		return id.length;
+	}
+	
+	private String getString(int id) {
+		return stringTable.getS(id).toStringUtf8();
+	}
+	
+	/** @return view of the i-th node */
+	public Node getNode(int i) {
+		return new DenseNode(this, i);
+	}
+	
+	/**
+	 * View of a node in a dense node block. Materialized attributes are
+	 * cached, so that repeated calls return the same instances.
+	 */
+	private static class DenseNode extends Node {
+		private final DenseNodeBlock block;
+		private final int i;
+		
+		private Coordinate coordinate = null;
+		
+		private DenseNode(DenseNodeBlock block, int i) {
+			/** tags and timestamp are materialized on demand */
+			super(OsmElementType.NODE, block.id[i], 0, null, null, 0, (short)0, false, null, null);
+			this.block = block;
+			this.i = i;
+		}
+		
+		@Override
+		public int getUid() {
+			return block.uid[i];
+		}
+		
+		@Override
+		public String getUsername() {
+			if (username == null) username = block.getString(block.userSid[i]);
+			return username;
+		}
+		
+		@Override
+		public Date getTimestamp() {
+			if (timestamp == null) timestamp = new Date(block.timestamp[i]);
+			return timestamp;
+		}
+		
+		@Override
+		public int getChangesetId() {
+			return block.changesetId[i];
+		}
+		
+		@Override
+		public short getVersion() {
+			return block.version[i];
+		}
+		
+		@Override
+		public boolean isVisible() {
+			return block.visible[i];
+		}
+		
+		@Override
+		public Map<String, String> getTags() {
+			if (tags == null) {
+				/** Mutable like the tags of other nodes */
+				tags = new HashMap<String, String>();
+				int j = block.keysValsIndex[i];
+				if (j != NO_TAGS) {
+					while (block.pbfNodes.getKeysVals(j) != 0) {
+						int keyId = block.pbfNodes.getKeysVals(j++);
+						int valueId = block.pbfNodes.getKeysVals(j++);
+						tags.put(block.getString(keyId), block.getString(valueId));
+					}
+				}
+			}
+			return tags;
+		}
+		
+		@Override
+		public Coordinate getCoordinate() {
+			if (coordinate == null && block.visible[i]) coordinate = new Coordinate(block.longitude[i], block.latitude[i]);
+			return coordinate;
+		}
+	}
+}
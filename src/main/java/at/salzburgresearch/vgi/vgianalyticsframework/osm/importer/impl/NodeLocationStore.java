@@ -0,0 +1,374 @@
+/** Copyright 2017, Simon Gröchenig, Salzburg Research Forschungsgesellschaft m.b.H.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package at.salzburgresearch.vgi.vgianalyticsframework.osm.importer.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.logging.log4j.Logger;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiFeature;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiOperation;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiFeatureImpl;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiGeometryType;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiOperationBatch;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiOperationType;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.persistence.impl.VgiOperationPbfWriterImpl;
+
+/**
+ * Coordinate history of the nodes in a PBF data folder. The data file
+ * (nodeLocations.dat) stores a run of fixed-size records per node (timestamp,
+ * coordinate, user, changeset, version and type of all operations which have
+ * a coordinate). Each import writes an index file (nodeLocations_N.idx) with
+ * the ID and run position of its nodes. Since nodes are imported in ID order,
+ * the index entries are sorted and the memory-mapped index can be searched
+ * without loading it.
+ */
+public class NodeLocationStore {
+	private static Logger log = org.apache.logging.log4j.LogManager.getLogger(NodeLocationStore.class);
+	
+	public static final String DATA_FILE_NAME = "nodeLocations.dat";
+	public static final String INDEX_FILE_PREFIX = "nodeLocations_";
+	public static final String INDEX_FILE_SUFFIX = ".idx";
+	
+	/** "VNLS" */
+	private static final int MAGIC = 0x564E4C53;
+	public static final int VERSION = 1;
+	
+	private static final int HEADER_SIZE = 8;
+	/** number of records, padding */
+	private static final int RUN_HEADER_SIZE = 8;
+	/** timestamp, longitude, latitude, uid, changeset, version, operation type, padding */
+	private static final int RECORD_SIZE = 24;
+	/** node id, position of the run */
+	private static final int INDEX_ENTRY_SIZE = 16;
+	
+	/** Files are mapped in segments of 1 GB */
+	private static final int SEGMENT_SHIFT = 30;
+	private static final long SEGMENT_SIZE = 1l << SEGMENT_SHIFT;
+	
+	private static final VgiOperationType[] OPERATION_TYPES = VgiOperationType.values();
+	
+	private final MappedFile data;
+	/** index files of all imports; the last one is written by this import */
+	private final List<MappedFile> indexes = new ArrayList<MappedFile>();
+	private final File indexFile;
+	
+	private long lastOid = Long.MIN_VALUE;
+	
+	private NodeLocationStore(File folder) throws IOException {
+		data = new MappedFile(new File(folder, DATA_FILE_NAME));
+		
+		File[] indexFiles = getIndexFiles(folder);
+		for (File file : indexFiles) {
+			indexes.add(new MappedFile(file));
+		}
+		indexFile = new File(folder, INDEX_FILE_PREFIX + (indexFiles.length + 1) + INDEX_FILE_SUFFIX);
+		indexes.add(new MappedFile(indexFile));
+	}
+	
+	/**
+	 * Opens the store of a data folder. An invalid store is replaced by an empty store.
+	 * @param folder PBF data folder
+	 */
+	public static NodeLocationStore open(File folder) throws IOException {
+		if (exists(folder) && !isValid(folder)) {
+			log.warn("Node location store is invalid and will be rebuilt ({})", folder.getAbsolutePath());
+			delete(folder);
+		}
+		return new NodeLocationStore(folder);
+	}
+	
+	/**
+	 * @param folder PBF data folder
+	 * @return true if a data or index file of the store exists
+	 */
+	public static boolean exists(File folder) {
+		return new File(folder, DATA_FILE_NAME).exists() || getIndexFiles(folder).length > 0;
+	}
+	
+	/**
+	 * Checks headers and sizes of the data and index files
+	 * @param folder PBF data folder
+	 */
+	public static boolean isValid(File folder) {
+		File dataFile = new File(folder, DATA_FILE_NAME);
+		if (!isValid(dataFile, 8)) return false;
+		
+		File[] indexFiles = getIndexFiles(folder);
+		for (int i = 0; i < indexFiles.length; i++) {
+			/** index files are numbered consecutively */
+			if (!indexFiles[i].getName().equals(INDEX_FILE_PREFIX + (i + 1) + INDEX_FILE_SUFFIX)) return false;
+			if (!isValid(indexFiles[i], INDEX_ENTRY_SIZE)) return false;
+		}
+		return true;
+	}
+	
+	private static boolean isValid(File file, int alignment) {
+		if (!file.exists()) return false;
+		
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_SIZE || (channel.size() - HEADER_SIZE) % alignment != 0) return false;
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			while (header.hasRemaining() && channel.read(header) >= 0) { }
+			return header.getInt(0) == MAGIC && header.getInt(4) == VERSION;
+			
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	/**
+	 * Deletes the store of a data folder
+	 * @param folder PBF data folder
+	 */
+	public static void delete(File folder) {
+		List<File> files = new ArrayList<File>(Arrays.asList(getIndexFiles(folder)));
+		files.add(new File(folder, DATA_FILE_NAME));
+		for (File file : files) {
+			if (file.exists() && !file.delete()) {
+				log.warn("Cannot delete file " + file.getAbsolutePath());
+			}
+		}
+	}
+	
+	/**
+	 * @return index files sorted by import
+	 */
+	private static File[] getIndexFiles(File folder) {
+		File[] files = folder.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(INDEX_FILE_PREFIX) && name.endsWith(INDEX_FILE_SUFFIX)
+						&& name.substring(INDEX_FILE_PREFIX.length(), name.length() - INDEX_FILE_SUFFIX.length()).matches("[0-9]+");
+			}
+		});
+		if (files == null) return new File[0];
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				return Long.compare(getIndexFileNumber(f1), getIndexFileNumber(f2));
+			}
+		});
+		return files;
+	}
+	
+	private static long getIndexFileNumber(File file) {
+		String name = file.getName();
+		return Long.parseLong(name.substring(INDEX_FILE_PREFIX.length(), name.length() - INDEX_FILE_SUFFIX.length()));
+	}
+	
+	/**
+	 * Appends the operations of a node which have a coordinate
+	 * @param feature node feature (nodes have to be added in ID order)
+	 * @throws IOException if the file cannot be written or the node is not in ID order
+	 */
+	public void add(IVgiFeature feature) throws IOException {
+		if (feature.getOid() <= lastOid) {
+			throw new IOException("Nodes are not sorted by ID (" + lastOid + ", " + feature.getOid() + ")");
+		}
+		lastOid = feature.getOid();
+		
+		int count = 0;
+		for (IVgiOperation operation : feature.getOperationList()) {
+			if (operation.getCoordinate() != null) count++;
+		}
+		if (count == 0) return;
+		
+		MappedFile index = indexes.get(indexes.size() - 1);
+		index.writer.writeLong(feature.getOid());
+		index.writer.writeLong(data.length);
+		index.written(INDEX_ENTRY_SIZE);
+		
+		data.writer.writeInt(count);
+		data.writer.writeInt(0);
+		for (IVgiOperation operation : feature.getOperationList()) {
+			if (operation.getCoordinate() == null) continue;
+			int[] coordinate = operation.getCoordinateAsInteger();
+			data.writer.writeInt((int)(operation.getTimestamp().getTime() / 1000 - VgiOperationPbfWriterImpl.TIMESTAMP_OFFSET));
+			data.writer.writeInt(coordinate[0]);
+			data.writer.writeInt(coordinate[1]);
+			data.writer.writeInt(operation.getUid());
+			data.writer.writeInt(operation.getChangesetid());
+			data.writer.writeShort(operation.getVersion());
+			data.writer.writeByte(operation.getVgiOperationType().ordinal());
+			data.writer.writeByte(0);
+		}
+		data.written(RUN_HEADER_SIZE + (long)count * RECORD_SIZE);
+	}
+	
+	/**
+	 * Reads the coordinate history of a node (operations of all imports, in import order)
+	 * @param oid node ID
+	 * @param batch batch to which the operations are added
+	 * @param filterTimestamp operations at or after this timestamp (ms) are skipped
+	 * @return node feature or null if no operation is found
+	 */
+	public IVgiFeature getNode(long oid, VgiOperationBatch batch, long filterTimestamp) throws IOException {
+		IVgiFeature feature = null;
+		
+		for (MappedFile index : indexes) {
+			long run = findRun(index, oid);
+			if (run < 0) continue;
+			
+			if (feature == null) {
+				feature = new VgiFeatureImpl();
+				feature.setOid(oid);
+				feature.setVgiGeometryType(VgiGeometryType.POINT);
+				feature.setBBox(new Envelope());
+			}
+			
+			int count = data.getInt(run);
+			long position = run + RUN_HEADER_SIZE;
+			for (int i = 0; i < count; i++, position += RECORD_SIZE) {
+				long timestamp = (long)data.getInt(position) + VgiOperationPbfWriterImpl.TIMESTAMP_OFFSET;
+				if (timestamp * 1000 >= filterTimestamp) continue;
+				
+				int longitude = data.getInt(position + 4);
+				int latitude = data.getInt(position + 8);
+				IVgiOperation operation = batch.add(oid, VgiGeometryType.POINT, OPERATION_TYPES[data.getByte(position + 22)],
+						data.getInt(position + 12), timestamp, data.getInt(position + 16), data.getShort(position + 20));
+				operation.setCoordinateFromInteger(longitude, latitude);
+				feature.addOperation(operation);
+				feature.getBBox().expandToInclude(VgiOperationBatch.toDegrees(longitude), VgiOperationBatch.toDegrees(latitude));
+			}
+		}
+		
+		return (feature != null && feature.getOperationList().size() > 0) ? feature : null;
+	}
+	
+	/**
+	 * Binary search in the index of an import
+	 * @return position of the run in the data file or -1 if the index does not contain the node
+	 */
+	private long findRun(MappedFile index, long oid) throws IOException {
+		long low = 0;
+		long high = (index.length - HEADER_SIZE) / INDEX_ENTRY_SIZE - 1;
+		while (low <= high) {
+			long mid = (low + high) >>> 1;
+			long midOid = index.getLong(HEADER_SIZE + mid * INDEX_ENTRY_SIZE);
+			if (midOid < oid) {
+				low = mid + 1;
+			} else if (midOid > oid) {
+				high = mid - 1;
+			} else {
+				return index.getLong(HEADER_SIZE + mid * INDEX_ENTRY_SIZE + 8);
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Writes buffered data and closes the files. The index file of this import is removed if it is empty.
+	 */
+	public void close() throws IOException {
+		data.close();
+		MappedFile index = indexes.get(indexes.size() - 1);
+		index.close();
+		if (index.length == HEADER_SIZE && !indexFile.delete()) {
+			log.warn("Cannot delete file " + indexFile.getAbsolutePath());
+		}
+		for (int i = 0; i < indexes.size() - 1; i++) {
+			indexes.get(i).close();
+		}
+	}
+	
+	/**
+	 * File which is appended by a buffered writer and read via memory-mapped segments
+	 */
+	private static class MappedFile {
+		private final FileChannel channel;
+		private final DataOutputStream writer;
+		private long length = 0l;
+		private boolean flushed = true;
+		private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+		
+		private MappedFile(File file) throws IOException {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			length = channel.size();
+			channel.position(length);
+			writer = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1024*64));
+			
+			if (length == 0) {
+				writer.writeInt(MAGIC);
+				writer.writeInt(VERSION);
+				written(HEADER_SIZE);
+			}
+		}
+		
+		private void written(long size) {
+			length += size;
+			flushed = false;
+		}
+		
+		private int getInt(long position) throws IOException {
+			return getSegment(position).getInt(offset(position));
+		}
+		
+		private long getLong(long position) throws IOException {
+			return getSegment(position).getLong(offset(position));
+		}
+		
+		private short getShort(long position) throws IOException {
+			return getSegment(position).getShort(offset(position));
+		}
+		
+		private byte getByte(long position) throws IOException {
+			return getSegment(position).get(offset(position));
+		}
+		
+		/**
+		 * @return segment which contains the position (the segment is remapped if the file has grown)
+		 */
+		private MappedByteBuffer getSegment(long position) throws IOException {
+			if (!flushed) {
+				writer.flush();
+				flushed = true;
+			}
+			int i = (int)(position >>> SEGMENT_SHIFT);
+			if (i >= segments.length) segments = Arrays.copyOf(segments, i + 1);
+			if (segments[i] == null || segments[i].capacity() <= offset(position)) {
+				long start = (long)i * SEGMENT_SIZE;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, length - start));
+			}
+			return segments[i];
+		}
+		
+		private void close() throws IOException {
+			writer.close();
+		}
+	}
+	
+	private static int offset(long position) {
+		return (int)(position & (SEGMENT_SIZE - 1));
+	}
+}
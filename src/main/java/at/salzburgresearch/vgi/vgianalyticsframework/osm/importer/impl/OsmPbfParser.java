@@ -16,7 +16,6 @@ limitations under the License.
 package at.salzburgresearch.vgi.vgianalyticsframework.osm.importer.impl;
 
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -44,6 +43,9 @@ public class OsmPbfParser extends BinaryParser {
 	private static Logger log = org.apache.logging.log4j.LogManager.getLogger(VgiOperationImpl.class);
 
     private OsmDataConsumer osmDataConsumer = null;
+    
+    /** String table of the current block */
+    private Osmformat.StringTable stringTable = null;
 
     @Override
     public void complete() {
@@ -74,57 +76,67 @@ public class OsmPbfParser extends BinaryParser {
 		}
 	}
     
+	@Override
+	public void parse(Osmformat.PrimitiveBlock block) {
+		stringTable = block.getStringtable();
+		super.parse(block);
+	}
+    
+	/**
+	 * Decodes dense nodes into a primitive block; the nodes are passed to the
+	 * consumer as views, so that tags, user names and coordinates are only
+	 * allocated if they are requested.
+	 */
 	@Override
 	protected void parseDense(Osmformat.DenseNodes pbfNodes) {
+		if (!pbfNodes.hasDenseinfo()) {
+			/** Nodes without info are not processed */
+			for (int i = 0; i < pbfNodes.getIdCount(); i++) {
+				osmDataConsumer.process(null);
+			}
+			return;
+		}
+		DenseInfo di = pbfNodes.getDenseinfo();
+		
+		DenseNodeBlock block = new DenseNodeBlock(pbfNodes, stringTable);
+		
 		long lastId = 0, lastLat = 0, lastLon = 0;
 
 		int j = 0; // Index into the keysvals array.
-
-		// Stuff for dense info
+		
 		long lasttimestamp = 0;
 		int lastusernameId = 0, lastuid = 0, lastchangeset = 0;
-		DenseInfo di = null;
-		if (pbfNodes.hasDenseinfo()) {
-			di = pbfNodes.getDenseinfo();
-		}
-		for (int i = 0; i < pbfNodes.getIdCount(); i++) {
-			Node osmNode = null;
+		
+		for (int i = 0; i < block.size(); i++) {
 			long lat = pbfNodes.getLat(i) + lastLat;
 			lastLat = lat;
 			long lon = pbfNodes.getLon(i) + lastLon;
 			lastLon = lon;
 			long id = pbfNodes.getId(i) + lastId;
 			lastId = id;
-			double latf = parseLat(lat), lonf = parseLon(lon);
-			Map<String, String> tags = new HashMap<String, String>();
+			
 			// If empty, assume that nothing here has keys or vals.
+			int keysValsIndex = -1;
 			if (pbfNodes.getKeysValsCount() > 0) {
+				keysValsIndex = j;
 				while (pbfNodes.getKeysVals(j) != 0) {
-					int keyid = pbfNodes.getKeysVals(j++);
-					int valid = pbfNodes.getKeysVals(j++);
-					tags.put(getStringById(keyid), getStringById(valid));
+					j += 2;
 				}
 				j++; // Skip over the '0' delimiter.
 			}
-			// Handle dense info.
-			if (di != null) {
-				int uid = di.getUid(i) + lastuid;
-				lastuid = uid;
-				int usernameId = di.getUserSid(i) + lastusernameId;
-				lastusernameId = usernameId;
-				long timestamp = di.getTimestamp(i) + lasttimestamp;
-				lasttimestamp = timestamp;
-				short version = (short) di.getVersion(i);
-				int changeset = (int) di.getChangeset(i) + lastchangeset;
-				lastchangeset = changeset;
-				boolean visible = di.getVisible(i);
-
-				Date date = new Date(date_granularity * timestamp);
-
-				osmNode = new Node(OsmElementType.NODE, id, uid, getStringById(usernameId), date, changeset, version,
-						visible, tags, (visible ? new Coordinate(lonf, latf) : null));
-			}
-			osmDataConsumer.process(osmNode);
+			
+			int uid = di.getUid(i) + lastuid;
+			lastuid = uid;
+			int usernameId = di.getUserSid(i) + lastusernameId;
+			lastusernameId = usernameId;
+			long timestamp = di.getTimestamp(i) + lasttimestamp;
+			lasttimestamp = timestamp;
+			int changeset = (int) di.getChangeset(i) + lastchangeset;
+			lastchangeset = changeset;
+			
+			block.set(i, id, parseLat(lat), parseLon(lon), date_granularity * timestamp, uid, usernameId, changeset,
+					(short) di.getVersion(i), di.getVisible(i), keysValsIndex);
+			osmDataConsumer.process(block.getNode(i));
 		}
 	}
     
@@ -0,0 +1,198 @@
+/** Copyright 2017, Simon Gröchenig, Salzburg Research Forschungsgesellschaft m.b.H.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package at.salzburgresearch.vgi.vgianalyticsframework.osm.importer.impl;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.logging.log4j.Logger;
+import org.openstreetmap.osmosis.osmbinary.Fileformat;
+import org.openstreetmap.osmosis.osmbinary.Osmformat;
+import org.openstreetmap.osmosis.osmbinary.file.FileFormatException;
+
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.osm.IOsmElement;
+import at.salzburgresearch.vgi.vgianalyticsframework.osm.importer.OsmDataConsumer;
+
+/**
+ * Reads OSM PBF files like BlockInputStream by Osmosis, but decompresses
+ * and parses the blobs on a thread pool. Blobs are read sequentially; the
+ * parsed elements are passed to the OSM data consumer in file order (the
+ * consumer is called by the reading thread only).
+ */
+public class ParallelBlockInputStream {
+	private static Logger log = org.apache.logging.log4j.LogManager.getLogger(ParallelBlockInputStream.class);
+	
+	/** Limits of the PBF format (see FileBlockBase) */
+	private static final int MAX_HEADER_SIZE = 64 * 1024;
+	private static final int MAX_BODY_SIZE = 32 * 1024 * 1024;
+	
+	private final InputStream input;
+	private final OsmDataConsumer osmDataConsumer;
+	private final int numThreads;
+	/** Maximum number of blobs which are read but not yet consumed */
+	private final int maxPendingBlobs;
+	
+	/** Constructor */
+	public ParallelBlockInputStream(InputStream input, OsmDataConsumer osmDataConsumer, int numThreads) {
+		this.input = input;
+		this.osmDataConsumer = osmDataConsumer;
+		this.numThreads = numThreads;
+		this.maxPendingBlobs = numThreads * 4;
+	}
+	
+	public void process() throws IOException {
+		DataInputStream dataInput = new DataInputStream(input);
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		ArrayDeque<Future<List<IOsmElement>>> pendingBlobs = new ArrayDeque<Future<List<IOsmElement>>>();
+		long numBlobs = 0;
+		
+		try {
+			while (true) {
+				/** Read header size; end of file is only valid before a header */
+				int headerSize;
+				try {
+					headerSize = dataInput.readInt();
+				} catch (EOFException e) {
+					break;
+				}
+				if (headerSize > MAX_HEADER_SIZE) throw new FileFormatException("Unexpectedly long header " + headerSize + " bytes");
+				
+				byte[] header = new byte[headerSize];
+				dataInput.readFully(header);
+				Fileformat.BlobHeader blobHeader = Fileformat.BlobHeader.parseFrom(header);
+				if (blobHeader.getDatasize() > MAX_BODY_SIZE) throw new FileFormatException("Unexpectedly long body " + blobHeader.getDatasize() + " bytes");
+				
+				byte[] blob = new byte[blobHeader.getDatasize()];
+				dataInput.readFully(blob);
+				
+				pendingBlobs.add(executor.submit(new BlobParser(blobHeader.getType(), blob)));
+				numBlobs++;
+				
+				/** Consume the oldest blob if enough blobs are in progress */
+				if (pendingBlobs.size() >= maxPendingBlobs) consume(pendingBlobs.poll());
+			}
+			
+			while (!pendingBlobs.isEmpty()) {
+				consume(pendingBlobs.poll());
+			}
+			log.info("{} blobs parsed ({} threads)", numBlobs, numThreads);
+			
+		} finally {
+			for (Future<List<IOsmElement>> future : pendingBlobs) {
+				future.cancel(true);
+			}
+			executor.shutdownNow();
+		}
+		
+		osmDataConsumer.afterProcessing();
+	}
+	
+	/**
+	 * Passes the elements of a blob to the consumer (waits until the blob has been parsed)
+	 */
+	private void consume(Future<List<IOsmElement>> future) throws IOException {
+		List<IOsmElement> elements = null;
+		try {
+			elements = future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while parsing blobs", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Cannot parse blob", e.getCause());
+		}
+		for (IOsmElement element : elements) {
+			osmDataConsumer.process(element);
+		}
+	}
+	
+	/**
+	 * Decompresses and parses a blob. Each blob gets its own parser, because
+	 * the parser keeps the string table and granularity of the current block.
+	 */
+	private static class BlobParser implements Callable<List<IOsmElement>> {
+		private final String type;
+		private final byte[] blob;
+		
+		private BlobParser(String type, byte[] blob) {
+			this.type = type;
+			this.blob = blob;
+		}
+		
+		@Override
+		public List<IOsmElement> call() throws Exception {
+			ElementBuffer buffer = new ElementBuffer();
+			OsmPbfParser parser = new OsmPbfParser();
+			parser.setSink(buffer);
+			
+			if (type.equals("OSMHeader")) {
+				parser.parse(Osmformat.HeaderBlock.parseFrom(getData()));
+			} else if (type.equals("OSMData")) {
+				parser.parse(Osmformat.PrimitiveBlock.parseFrom(getData()));
+			}
+			return buffer.elements;
+		}
+		
+		/** @return decompressed data of the blob */
+		private byte[] getData() throws IOException {
+			Fileformat.Blob parsedBlob = Fileformat.Blob.parseFrom(blob);
+			if (parsedBlob.hasRaw()) return parsedBlob.getRaw().toByteArray();
+			if (!parsedBlob.hasZlibData()) throw new FileFormatException("Unsupported blob compression");
+			
+			byte[] data = new byte[parsedBlob.getRawSize()];
+			Inflater inflater = new Inflater();
+			try {
+				inflater.setInput(parsedBlob.getZlibData().toByteArray());
+				inflater.inflate(data);
+				if (!inflater.finished()) throw new FileFormatException("Blob is larger than its raw size");
+			} catch (DataFormatException e) {
+				throw new FileFormatException("Cannot decompress blob: " + e.getMessage());
+			} finally {
+				inflater.end();
+			}
+			return data;
+		}
+	}
+	
+	/**
+	 * Collects the elements of a blob
+	 */
+	private static class ElementBuffer implements OsmDataConsumer {
+		private final List<IOsmElement> elements = new ArrayList<IOsmElement>();
+		
+		@Override
+		public void beforeProcessing() { }
+		
+		@Override
+		public void process(IOsmElement osmElement) {
+			elements.add(osmElement);
+		}
+		
+		@Override
+		public void afterProcessing() { }
+	}
+}
@@ -15,6 +15,8 @@ limitations under the License.
 
 package at.salzburgresearch.vgi.vgianalyticsframework.osm.importer.impl;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -34,6 +36,7 @@ import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiOperation;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiFeatureImpl;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiGeometryType;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiOperationBatch;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiOperationImpl;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiOperationType;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiPolygon;
@@ -56,6 +59,10 @@ public class VgiOperationGeneratorDataHandlerImpl implements OsmDataConsumer, Ap
 	private IOsmVgiOperationGenerator vgiOperationGenerator = null;
 	private IVgiOperationPbfWriter vgiOperationPbfWriter = null;
 	
+	/** Coordinates of way nodes are read from the node location store instead of the node operation files */
+	private boolean useNodeLocationStore = true;
+	private NodeLocationStore nodeLocationStore = null;
+	
 	private IVgiFeature currentFeature = null;
 	private List<IVgiFeature> featureList = new ArrayList<IVgiFeature>();
 	private TLongArrayList childNodeList = new TLongArrayList();
@@ -96,6 +103,7 @@ public class VgiOperationGeneratorDataHandlerImpl implements OsmDataConsumer, Ap
 			if (!currentPhase.equals(Phases.NODES)) {
 				vgiOperationPbfWriter.initializePbfWriterToAppend(settings.getPbfDataFolder());
 				log.info("Output path: {}", settings.getPbfDataFolder());
+				openNodeLocationStore();
 				log.info("Start node phase");
 				currentPhase = Phases.NODES;
 			}
@@ -135,9 +143,10 @@ public class VgiOperationGeneratorDataHandlerImpl implements OsmDataConsumer, Ap
 
 	@Override
 	public void afterProcessing() {
-		currentPhase = Phases.AFTER;
 		/** Flush queue */
 		flushQueue();
+		currentPhase = Phases.AFTER;
+		closeNodeLocationStore();
 		/** Terminate PBF writer */
 		this.vgiOperationPbfWriter.terminatePbfWriter();
 	}
@@ -230,15 +239,23 @@ public class VgiOperationGeneratorDataHandlerImpl implements OsmDataConsumer, Ap
 		log.info("Flush {} features",  featureList.size());
 		
 		if (childNodeList.size() > 0 || childWayList.size() > 0 || childRelationList.size() > 0) {
-			/** Find coordinates using a VGI pipeline */
+			List<IVgiFeature> refElementList = null;
 			log.info("Find reference elements - Start");
-			IVgiPipeline pipeline = ctx.getBean("getFeaturesPipeline", IVgiPipeline.class);
-			pipeline.setPbfDataFolder(settings.getPbfDataFolder());
-			pipeline.setFilterNodeId(childNodeList);
-			pipeline.setFilterWayId(childWayList);
-			pipeline.setFilterRelationId(childRelationList);
-			pipeline.start();
-			
+			if (nodeLocationStore != null && currentPhase.equals(Phases.WAYS)) {
+				/** Ways only reference nodes */
+				refElementList = findNodesInLocationStore(childNodeList);
+			}
+			if (refElementList == null) {
+				/** Find coordinates using a VGI pipeline; the pipeline reads the features which have been written so far */
+				vgiOperationPbfWriter.flush();
+				IVgiPipeline pipeline = ctx.getBean("getFeaturesPipeline", IVgiPipeline.class);
+				pipeline.setPbfDataFolder(settings.getPbfDataFolder());
+				pipeline.setFilterNodeId(childNodeList);
+				pipeline.setFilterWayId(childWayList);
+				pipeline.setFilterRelationId(childRelationList);
+				pipeline.start();
+				refElementList = ((ReadAllFeaturesConsumer)pipeline.getConsumers().get(0)).getFeatureList();
+			}
 			log.debug("Find reference elements - End");
 			childNodeList.clear();
 			childNodeList.trimToSize();
@@ -247,7 +264,6 @@ public class VgiOperationGeneratorDataHandlerImpl implements OsmDataConsumer, Ap
 			childRelationList.clear();
 			childRelationList.trimToSize();
 			
-			List<IVgiFeature> refElementList = ((ReadAllFeaturesConsumer)pipeline.getConsumers().get(0)).getFeatureList();
 			log.info("{} ref elements found!", refElementList.size());
 			refElementList.sort(VgiFeatureImpl.getFeatureComparator());
 			
@@ -282,6 +298,10 @@ public class VgiOperationGeneratorDataHandlerImpl implements OsmDataConsumer, Ap
 			featureList = filteredFeatureList;
 		}
 		
+		if (nodeLocationStore != null && currentPhase.equals(Phases.NODES)) {
+			addNodesToLocationStore();
+		}
+		
 		if (featureList.size() > 0) {
 			log.info("Write {} features to PBF files - Start", featureList.size());
 			vgiOperationPbfWriter.writePbfFeatures(featureList);
@@ -292,6 +312,83 @@ public class VgiOperationGeneratorDataHandlerImpl implements OsmDataConsumer, Ap
 		currentFeature = null;
 	}
 	
+	/**
+	 * Opens the node location store of the data folder. The store is only used
+	 * if it covers all nodes in the folder; otherwise an existing store is
+	 * deleted, since it would not contain the nodes of this import.
+	 */
+	private void openNodeLocationStore() {
+		File dataFolder = settings.getPbfDataFolder();
+		if (!useNodeLocationStore) {
+			NodeLocationStore.delete(dataFolder);
+			return;
+		}
+		if (!NodeLocationStore.exists(dataFolder) && new File(dataFolder, "operationFileList.pbf").exists()) {
+			log.warn("Data folder has been imported without node location store; coordinates are read from the node files");
+			return;
+		}
+		try {
+			nodeLocationStore = NodeLocationStore.open(dataFolder);
+		} catch (IOException e) {
+			log.error("Cannot open node location store");
+			e.printStackTrace();
+			NodeLocationStore.delete(dataFolder);
+		}
+	}
+	
+	private void closeNodeLocationStore() {
+		if (nodeLocationStore == null) return;
+		try {
+			nodeLocationStore.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		nodeLocationStore = null;
+	}
+	
+	/**
+	 * Adds the node features of the queue to the node location store
+	 */
+	private void addNodesToLocationStore() {
+		try {
+			for (IVgiFeature feature : featureList) {
+				if (!feature.getVgiGeometryType().equals(VgiGeometryType.POINT)) continue;
+				nodeLocationStore.add(feature);
+			}
+		} catch (IOException e) {
+			log.error("Cannot write node location store");
+			e.printStackTrace();
+			closeNodeLocationStore();
+			NodeLocationStore.delete(settings.getPbfDataFolder());
+		}
+	}
+	
+	/**
+	 * Reads the coordinate history of nodes from the node location store
+	 * @param nodeIds node IDs (are sorted)
+	 * @return list of node features (sorted by ID) or null if the store cannot be read
+	 */
+	private List<IVgiFeature> findNodesInLocationStore(TLongArrayList nodeIds) {
+		nodeIds.sort();
+		List<IVgiFeature> refElementList = new ArrayList<IVgiFeature>();
+		VgiOperationBatch batch = new VgiOperationBatch(nodeIds.size() * 2, settings.getTagDictionary());
+		long filterTimestamp = (settings.getFilterTimestamp() != null) ? settings.getFilterTimestamp().getTime() : Long.MAX_VALUE;
+		try {
+			for (int i = 0; i < nodeIds.size(); i++) {
+				if (i > 0 && nodeIds.get(i) == nodeIds.get(i-1)) continue;
+				IVgiFeature node = nodeLocationStore.getNode(nodeIds.get(i), batch, filterTimestamp);
+				if (node != null) refElementList.add(node);
+			}
+		} catch (IOException e) {
+			log.error("Cannot read node location store");
+			e.printStackTrace();
+			closeNodeLocationStore();
+			NodeLocationStore.delete(settings.getPbfDataFolder());
+			return null;
+		}
+		return refElementList;
+	}
+	
 	/**
 	 * Adds coordinates to operations (OpAddNode, OpModifyWayCoordinate)
 	 * @param refElements list of child elements (way nodes and relation members)
@@ -477,6 +574,10 @@ public class VgiOperationGeneratorDataHandlerImpl implements OsmDataConsumer, Ap
 	public void setVgiOperationPbfWriter(IVgiOperationPbfWriter vgiOperationPbfWriter) {
 		this.vgiOperationPbfWriter = vgiOperationPbfWriter;
 	}
+	
+	public void setUseNodeLocationStore(boolean useNodeLocationStore) {
+		this.useNodeLocationStore = useNodeLocationStore;
+	}
 
 	@Override
 	public void setApplicationContext(ApplicationContext ctx) throws BeansException {
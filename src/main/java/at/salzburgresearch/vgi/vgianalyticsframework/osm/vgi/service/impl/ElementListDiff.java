@@ -0,0 +1,204 @@
+/** Copyright 2017, Simon Gröchenig, Salzburg Research Forschungsgesellschaft m.b.H.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package at.salzburgresearch.vgi.vgianalyticsframework.osm.vgi.service.impl;
+
+import java.util.Arrays;
+
+/**
+ * Diff of the element lists (way nodes, relation members) of two versions.
+ * Elements are given as symbols (equal elements have equal symbols, symbols
+ * are in the range 0..symbolCount-1). The diff consists of the same remove,
+ * add and reorder steps which are applied to the element list of the old
+ * version in the three phases of the operation generators:
+ * <ul>
+ * <li>Remove: old elements which exceed the count in the new list are
+ * removed (the last occurrences are retained)</li>
+ * <li>Add: new elements which exceed the retained count are inserted at
+ * their position in the new list</li>
+ * <li>Reorder: for each position which does not match the new list, the
+ * next matching element is moved to this position</li>
+ * </ul>
+ * Element counts are kept in arrays indexed by symbol and the reorder
+ * positions are computed with a Fenwick tree, so that the diff takes
+ * O(n log n) instead of O(n²) time.
+ */
+public class ElementListDiff {
+	
+	/** old indices of removed elements (descending) */
+	private final int[] removed;
+	private int removedCount = 0;
+	
+	/** new indices of added elements (ascending) */
+	private final int[] added;
+	private int addedCount = 0;
+	
+	/** current index of the moved element and its new position */
+	private final int[] reorderFrom;
+	private final int[] reorderTo;
+	private int reorderCount = 0;
+	
+	/** old index of the element at each position which has not been moved or added (or -1) */
+	private final int[] retainedOldIndex;
+	
+	/**
+	 * Constructor
+	 * @param oldSymbols element list of the old version
+	 * @param newSymbols element list of the new version
+	 * @param symbolCount number of distinct symbols
+	 * @param addLastOccurrences if true, the last occurrences of an element in the new list are added (otherwise the first occurrences)
+	 */
+	public ElementListDiff(int[] oldSymbols, int[] newSymbols, int symbolCount, boolean addLastOccurrences) {
+		int[] count = new int[symbolCount];
+		for (int symbol : newSymbols) {
+			count[symbol]++;
+		}
+		
+		/** Remove */
+		removed = new int[oldSymbols.length];
+		boolean[] retained = new boolean[oldSymbols.length];
+		int[] retainedCount = new int[symbolCount];
+		for (int i = oldSymbols.length - 1; i >= 0; i--) {
+			int symbol = oldSymbols[i];
+			if (retainedCount[symbol] < count[symbol]) {
+				retainedCount[symbol]++;
+				retained[i] = true;
+			} else {
+				removed[removedCount++] = i;
+			}
+		}
+		
+		/** Add */
+		added = new int[newSymbols.length];
+		boolean[] isAdded = new boolean[newSymbols.length];
+		int[] occurrences = new int[symbolCount];
+		for (int i = 0; i < newSymbols.length; i++) {
+			int symbol = newSymbols[i];
+			int occurrence = occurrences[symbol]++;
+			boolean add = (addLastOccurrences) ? occurrence >= retainedCount[symbol] : occurrence < count[symbol] - retainedCount[symbol];
+			if (add) {
+				isAdded[i] = true;
+				added[addedCount++] = i;
+			}
+		}
+		
+		/** Element list after remove and add: added elements are at their new index, retained elements fill the gaps */
+		int n = newSymbols.length;
+		int[] currentSymbols = new int[n];
+		int[] currentOldIndex = new int[n];
+		int oldIndex = 0;
+		for (int i = 0; i < n; i++) {
+			if (isAdded[i]) {
+				currentSymbols[i] = newSymbols[i];
+				currentOldIndex[i] = -1;
+			} else {
+				while (!retained[oldIndex]) oldIndex++;
+				currentSymbols[i] = oldSymbols[oldIndex];
+				currentOldIndex[i] = oldIndex++;
+			}
+		}
+		
+		/** Reorder */
+		reorderFrom = new int[n];
+		reorderTo = new int[n];
+		retainedOldIndex = new int[n];
+		
+		/** first remaining occurrence of each symbol and the next occurrence of each element */
+		int[] first = new int[symbolCount];
+		int[] next = new int[n];
+		Arrays.fill(first, -1);
+		for (int i = n - 1; i >= 0; i--) {
+			next[i] = first[currentSymbols[i]];
+			first[currentSymbols[i]] = i;
+		}
+		
+		/** remaining elements (not placed yet) */
+		boolean[] placed = new boolean[n];
+		int[] tree = new int[n + 1];
+		for (int i = 1; i <= n; i++) {
+			tree[i]++;
+			int parent = i + (i & -i);
+			if (parent <= n) tree[parent] += tree[i];
+		}
+		int head = 0;
+		
+		for (int position = 0; position < n; position++) {
+			while (placed[head]) head++;
+			int i = first[newSymbols[position]];
+			if (i == head) {
+				retainedOldIndex[position] = currentOldIndex[i];
+			} else {
+				/** index in the current list: placed positions plus remaining elements before i */
+				reorderFrom[reorderCount] = position + prefixSum(tree, i);
+				reorderTo[reorderCount++] = position;
+				retainedOldIndex[position] = -1;
+			}
+			placed[i] = true;
+			first[newSymbols[position]] = next[i];
+			for (int j = i + 1; j <= n; j += j & -j) {
+				tree[j]--;
+			}
+		}
+	}
+	
+	/** @return number of remaining elements with index lower than i */
+	private static int prefixSum(int[] tree, int i) {
+		int sum = 0;
+		for (int j = i; j > 0; j -= j & -j) {
+			sum += tree[j];
+		}
+		return sum;
+	}
+	
+	public int getRemovedCount() {
+		return removedCount;
+	}
+	
+	/** @return old index of the k-th removed element (descending) */
+	public int getRemoved(int k) {
+		return removed[k];
+	}
+	
+	public int getAddedCount() {
+		return addedCount;
+	}
+	
+	/** @return new index of the k-th added element (ascending) */
+	public int getAdded(int k) {
+		return added[k];
+	}
+	
+	public int getReorderCount() {
+		return reorderCount;
+	}
+	
+	/** @return index of the k-th moved element (in the list before it is moved) */
+	public int getReorderFrom(int k) {
+		return reorderFrom[k];
+	}
+	
+	/** @return position of the k-th moved element */
+	public int getReorderTo(int k) {
+		return reorderTo[k];
+	}
+	
+	/**
+	 * @return old index of the element at the position if the element has been retained and not moved (otherwise -1)
+	 */
+	public int getRetainedOldIndex(int position) {
+		return retainedOldIndex[position];
+	}
+}
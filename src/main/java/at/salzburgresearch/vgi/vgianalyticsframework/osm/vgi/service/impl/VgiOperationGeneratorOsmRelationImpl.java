@@ -16,7 +16,6 @@ limitations under the License.
 package at.salzburgresearch.vgi.vgianalyticsframework.osm.vgi.service.impl;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 
@@ -30,6 +29,7 @@ import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiGeometryType;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiOperationType;
 import at.salzburgresearch.vgi.vgianalyticsframework.osm.vgi.service.IOsmVgiRelationOperationGenerator;
+import gnu.trove.map.hash.TLongIntHashMap;
 
 public class VgiOperationGeneratorOsmRelationImpl extends AbstractVgiOperationOsmGenerator implements IOsmVgiRelationOperationGenerator {
 	private static Logger log = org.apache.logging.log4j.LogManager.getLogger(VgiOperationGeneratorOsmRelationImpl.class);
@@ -60,12 +60,16 @@ public class VgiOperationGeneratorOsmRelationImpl extends AbstractVgiOperationOs
 		List<RelationMember> valueMembers = (value != null) ? value.getMembers() : new ArrayList<RelationMember>();
 		List<RelationMember> oldValueMembers = (oldValue != null) ? oldValue.getMembers() : new ArrayList<RelationMember>();
 
-		List<RelationMember> currentMembers = new ArrayList<RelationMember>(oldValueMembers);
+		/** Members are converted to symbols (members with equal type and id have equal symbols) */
+		MemberSymbols symbols = new MemberSymbols(valueMembers.size() + oldValueMembers.size());
+		int[] oldSymbols = symbols.toSymbols(oldValueMembers);
+		int[] valueSymbols = symbols.toSymbols(valueMembers);
+		ElementListDiff diff = new ElementListDiff(oldSymbols, valueSymbols, symbols.size(), true);
 		
-		operationList.addAll(generateOpRemoveMember(value, valueMembers, oldValueMembers, currentMembers));
-		operationList.addAll(generateOpAppMember(value, valueMembers, oldValueMembers, currentMembers));
-		operationList.addAll(generateOpReorderMember(value, valueMembers, currentMembers));
-		operationList.addAll(generateOpModifyRole(value, valueMembers, currentMembers));
+		operationList.addAll(generateOpRemoveMember(value, diff));
+		operationList.addAll(generateOpAppMember(value, valueMembers, diff));
+		operationList.addAll(generateOpReorderMember(value, diff));
+		operationList.addAll(generateOpModifyRole(value, valueMembers, oldValueMembers, diff));
 		
 		return operationList;
 	}
@@ -73,30 +77,16 @@ public class VgiOperationGeneratorOsmRelationImpl extends AbstractVgiOperationOs
 	/**
 	 * PHASE A: Find OpRemoveMember operations
 	 * @param value
-	 * @param valueMembers
-	 * @param oldValueMembers
-	 * @param currentMembers
+	 * @param diff
 	 * @return
 	 */
-	private List<IVgiOperation> generateOpRemoveMember(Relation value, List<RelationMember> valueMembers, List<RelationMember> oldValueMembers, List<RelationMember> currentMembers) {
+	private List<IVgiOperation> generateOpRemoveMember(Relation value, ElementListDiff diff) {
 		List<IVgiOperation> operationList = new ArrayList<IVgiOperation>();
 		
-		List<RelationMember> availableMembers = new ArrayList<RelationMember>(valueMembers);
-		availableMembers.sort(getRelationMemberComparator());
-		
-		for (int i=oldValueMembers.size()-1; i>=0; i--) {
-			int iMember = Collections.binarySearch(availableMembers, oldValueMembers.get(i), getRelationMemberComparator());
-			if (iMember < 0) {
-				operationList.add(operationFactory.newOperation(value.getId(), VgiGeometryType.RELATION,
-						VgiOperationType.OP_REMOVE_MEMBER, value.getUid(), value.getUsername(), value.getTimestamp(),
-						(short) value.getVersion(), (int) value.getChangesetId(), null, "", "", 0, i));
-				
-				/** Remove node from current node list */
-				currentMembers.remove(i);
-			} else {
-				/** Remove node from available node list */
-				availableMembers.remove(iMember);
-			}
+		for (int k=0; k<diff.getRemovedCount(); k++) {
+			operationList.add(operationFactory.newOperation(value.getId(), VgiGeometryType.RELATION,
+					VgiOperationType.OP_REMOVE_MEMBER, value.getUid(), value.getUsername(), value.getTimestamp(),
+					(short) value.getVersion(), (int) value.getChangesetId(), null, "", "", 0, diff.getRemoved(k)));
 		}
 		
 		return operationList;
@@ -106,56 +96,26 @@ public class VgiOperationGeneratorOsmRelationImpl extends AbstractVgiOperationOs
 	 * PHASE B: Find OpAddMember operations
 	 * @param value
 	 * @param valueMembers
-	 * @param oldValueMembers
-	 * @param currentMembers
+	 * @param diff
 	 * @return
 	 */
-	private List<IVgiOperation> generateOpAppMember(Relation value, List<RelationMember> valueMembers, List<RelationMember> oldValueMembers, List<RelationMember> currentMembers) {
+	private List<IVgiOperation> generateOpAppMember(Relation value, List<RelationMember> valueMembers, ElementListDiff diff) {
 		List<IVgiOperation> operationList = new ArrayList<IVgiOperation>();
 		
-		List<RelationMember> availableMembers = new ArrayList<RelationMember>(oldValueMembers);
-		availableMembers.sort(getRelationMemberComparator());
-		
-		for (int i=0; i<valueMembers.size(); i++) {
-			int iMember = Collections.binarySearch(availableMembers, valueMembers.get(i), getRelationMemberComparator());
-			if (iMember < 0) {
-				String memberType = "";
-				if (valueMembers.get(i).getElementType().equals(OsmElementType.NODE)) {
-					memberType = "n";
-				} else if (valueMembers.get(i).getElementType().equals(OsmElementType.WAY)) {
-					memberType = "w";
-				} else if (valueMembers.get(i).getElementType().equals(OsmElementType.RELATION)) {
-					memberType = "r";
-				}
-				operationList.add(operationFactory.newOperation(value.getId(), VgiGeometryType.RELATION,
-						VgiOperationType.OP_ADD_MEMBER, value.getUid(), value.getUsername(), value.getTimestamp(),
-						(short) value.getVersion(), (int) value.getChangesetId(), null, memberType,
-						valueMembers.get(i).getRole(), valueMembers.get(i).getId(), i));
-				
-				/** Adds node to current node list */
-//				if (i > currentMembers.size()) {
-//					currentMembers.size(); //Nothing happens here...
-//				}
-				currentMembers.add(i, valueMembers.get(i));
-			} else {
-				/** Remove node from available node list */
-				availableMembers.remove(iMember);
-			}
-		}
-		
-		if (currentMembers.size() != valueMembers.size()) {
-			log.error("Current member list has {} items, while value member list has {} items (relation/{}/v{})",
-					currentMembers.size(), valueMembers.size(), value.getId(), value.getVersion());
-			String listString = "";
-			for (RelationMember s : currentMembers) {
-			    listString += s.getId() + "  ";
-			}
-			log.info(" - {}", listString);
-			listString = "";
-			for (RelationMember s : valueMembers) {
-			    listString += s.getId() + "  ";
+		for (int k=0; k<diff.getAddedCount(); k++) {
+			int i = diff.getAdded(k);
+			String memberType = "";
+			if (valueMembers.get(i).getElementType().equals(OsmElementType.NODE)) {
+				memberType = "n";
+			} else if (valueMembers.get(i).getElementType().equals(OsmElementType.WAY)) {
+				memberType = "w";
+			} else if (valueMembers.get(i).getElementType().equals(OsmElementType.RELATION)) {
+				memberType = "r";
 			}
-			log.info(" - {}", listString);
+			operationList.add(operationFactory.newOperation(value.getId(), VgiGeometryType.RELATION,
+					VgiOperationType.OP_ADD_MEMBER, value.getUid(), value.getUsername(), value.getTimestamp(),
+					(short) value.getVersion(), (int) value.getChangesetId(), null, memberType,
+					valueMembers.get(i).getRole(), valueMembers.get(i).getId(), i));
 		}
 		
 		return operationList;
@@ -164,46 +124,39 @@ public class VgiOperationGeneratorOsmRelationImpl extends AbstractVgiOperationOs
 	/**
 	 * PHASE C: Find OpReorderNode operations
 	 * @param value
-	 * @param valueMembers
-	 * @param currentMembers
+	 * @param diff
 	 * @return
 	 */
-	private List<IVgiOperation> generateOpReorderMember(Relation value, List<RelationMember> valueMembers, List<RelationMember> currentMembers) {
+	private List<IVgiOperation> generateOpReorderMember(Relation value, ElementListDiff diff) {
 		List<IVgiOperation> operationList = new ArrayList<IVgiOperation>();
 		
-		for (int position = 0; position < currentMembers.size(); position++) {
-			if (getRelationMemberComparator().compare(currentMembers.get(position), valueMembers.get(position)) != 0) {
-				/** Find next valueNodeRef in remaining currentNodeRefs */
-				for (int i=position+1; i<currentMembers.size(); i++) {
-					if (getRelationMemberComparator().compare(currentMembers.get(i), valueMembers.get(position)) == 0) {
-						operationList.add(operationFactory.newOperation(value.getId(), VgiGeometryType.RELATION,
-								VgiOperationType.OP_REORDER_MEMBER, value.getUid(), value.getUsername(),
-								value.getTimestamp(), (short) value.getVersion(), (int) value.getChangesetId(), null,
-								"", "", i, position));
-						/** Reorder node within node list */
-						currentMembers.remove(i);
-						currentMembers.add(position, valueMembers.get(position));
-						break;
-					}
-				}
-			}
+		for (int k=0; k<diff.getReorderCount(); k++) {
+			operationList.add(operationFactory.newOperation(value.getId(), VgiGeometryType.RELATION,
+					VgiOperationType.OP_REORDER_MEMBER, value.getUid(), value.getUsername(),
+					value.getTimestamp(), (short) value.getVersion(), (int) value.getChangesetId(), null,
+					"", "", diff.getReorderFrom(k), diff.getReorderTo(k)));
 		}
 		
 		return operationList;
 	}
 	
 	/**
-	 * PHASE D: Find OpModifyRole operations
+	 * PHASE D: Find OpModifyRole operations. Only members which have been
+	 * retained at their position can have a different role (added and
+	 * reordered members are taken from the new version).
 	 * @param value
 	 * @param valueMembers
-	 * @param currentMembers
+	 * @param oldValueMembers
+	 * @param diff
 	 * @return
 	 */
-	private List<IVgiOperation> generateOpModifyRole(Relation value, List<RelationMember> valueMembers, List<RelationMember> currentMembers) {
+	private List<IVgiOperation> generateOpModifyRole(Relation value, List<RelationMember> valueMembers, List<RelationMember> oldValueMembers, ElementListDiff diff) {
 		List<IVgiOperation> operationList = new ArrayList<IVgiOperation>();
 		
-		for (int i=0; i<currentMembers.size(); i++) {
-			if (!currentMembers.get(i).getRole().equals(valueMembers.get(i).getRole())) {
+		for (int i=0; i<valueMembers.size(); i++) {
+			int oldIndex = diff.getRetainedOldIndex(i);
+			if (oldIndex < 0) continue;
+			if (!oldValueMembers.get(oldIndex).getRole().equals(valueMembers.get(i).getRole())) {
 				operationList.add(operationFactory.newOperation(value.getId(), VgiGeometryType.RELATION,
 						VgiOperationType.OP_MODIFY_ROLE, value.getUid(), value.getUsername(), value.getTimestamp(),
 						(short) value.getVersion(), (int) value.getChangesetId(), null, "",
@@ -214,6 +167,45 @@ public class VgiOperationGeneratorOsmRelationImpl extends AbstractVgiOperationOs
 		return operationList;
 	}
 	
+	/**
+	 * Symbols of relation members (by member type and id, see getRelationMemberComparator)
+	 */
+	private static class MemberSymbols {
+		private final TLongIntHashMap[] symbols = new TLongIntHashMap[3];
+		private int size = 0;
+		
+		private MemberSymbols(int capacity) {
+			for (int i = 0; i < symbols.length; i++) {
+				symbols[i] = new TLongIntHashMap(capacity, 0.5f, Long.MIN_VALUE, -1);
+			}
+		}
+		
+		private int[] toSymbols(List<RelationMember> members) {
+			int[] memberSymbols = new int[members.size()];
+			for (int i = 0; i < members.size(); i++) {
+				memberSymbols[i] = getSymbol(members.get(i));
+			}
+			return memberSymbols;
+		}
+		
+		private int getSymbol(RelationMember member) {
+			int type = member.getElementType().ordinal();
+			/** Members of unknown type are not equal to any other member */
+			if (type >= symbols.length) return size++;
+			
+			int symbol = symbols[type].get(member.getId());
+			if (symbol == -1) {
+				symbol = size++;
+				symbols[type].put(member.getId(), symbol);
+			}
+			return symbol;
+		}
+		
+		private int size() {
+			return size;
+		}
+	}
+	
     public static Comparator<RelationMember> getRelationMemberComparator() {
         return new Comparator<RelationMember>() {
         	/**
@@ -26,6 +26,7 @@ import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiGeometryType;
 import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiOperationType;
 import at.salzburgresearch.vgi.vgianalyticsframework.osm.vgi.service.IOsmVgiWayOperationGenerator;
+import gnu.trove.map.hash.TLongIntHashMap;
 
 public class VgiOperationGeneratorOsmWayImpl extends AbstractVgiOperationOsmGenerator implements IOsmVgiWayOperationGenerator {
 	private static Logger log = org.apache.logging.log4j.LogManager.getLogger(VgiOperationGeneratorOsmWayImpl.class);
@@ -53,53 +54,49 @@ public class VgiOperationGeneratorOsmWayImpl extends AbstractVgiOperationOsmGene
 		
 		List<Long> valueNodeRefs = (value != null) ? value.getWayNodes() : new ArrayList<Long>();
 		List<Long> oldValueNodeRefs = (oldValue != null) ? oldValue.getWayNodes() : new ArrayList<Long>();
-
-		List<Long> currentNodeRefs = new ArrayList<Long>(oldValueNodeRefs);
+		
+		/** Node refs are converted to symbols (equal refs have equal symbols) */
+		TLongIntHashMap symbols = new TLongIntHashMap(valueNodeRefs.size() + oldValueNodeRefs.size(), 0.5f, Long.MIN_VALUE, -1);
+		int[] oldSymbols = toSymbols(oldValueNodeRefs, symbols);
+		int[] valueSymbols = toSymbols(valueNodeRefs, symbols);
+		ElementListDiff diff = new ElementListDiff(oldSymbols, valueSymbols, symbols.size(), false);
 		
 		/** PHASE A: Find OpRemoveNode operations */
-		List<Long> availableNodeRefs = new ArrayList<Long>(valueNodeRefs);
-		for (int i=oldValueNodeRefs.size()-1; i>=0; i--) {
-			if (!availableNodeRefs.contains(oldValueNodeRefs.get(i))) {
-				operationList.add(operationFactory.newOperation(value.getId(), VgiGeometryType.LINE, VgiOperationType.OP_REMOVE_NODE, value.getUid(), value.getUsername(), value.getTimestamp(), (short)value.getVersion(), (int)value.getChangesetId(), null, "", "", oldValueNodeRefs.get(i), i));
-				/** Remove node from current node list */
-				currentNodeRefs.remove(i);
-			} else {
-				/** Remove node from available node list */
-				availableNodeRefs.remove(oldValueNodeRefs.get(i));
-			}
+		for (int k=0; k<diff.getRemovedCount(); k++) {
+			int i = diff.getRemoved(k);
+			operationList.add(operationFactory.newOperation(value.getId(), VgiGeometryType.LINE, VgiOperationType.OP_REMOVE_NODE, value.getUid(), value.getUsername(), value.getTimestamp(), (short)value.getVersion(), (int)value.getChangesetId(), null, "", "", oldValueNodeRefs.get(i), i));
 		}
 		
 		/** PHASE B: Find OpAddNode operations */
-		for (int i=0; i<valueNodeRefs.size(); i++) {
-			if (availableNodeRefs.contains(valueNodeRefs.get(i))) {
-				operationList.add(operationFactory.newOperation(value.getId(), VgiGeometryType.LINE, VgiOperationType.OP_ADD_NODE, value.getUid(), value.getUsername(), value.getTimestamp(), (short)value.getVersion(), (int)value.getChangesetId(), null, "", "", valueNodeRefs.get(i), i));
-				/** Adds node to current node list */
-				currentNodeRefs.add(i, valueNodeRefs.get(i));
-				availableNodeRefs.remove(valueNodeRefs.get(i));
-			}
-		}
-		
-		if (currentNodeRefs.size() != valueNodeRefs.size()) {
-			log.error("Current Node Ref List has {} items, while Value Node Ref List has {} items (way/{}/v{})",
-					currentNodeRefs.size(), valueNodeRefs.size(), value.getId(), value.getVersion());
+		for (int k=0; k<diff.getAddedCount(); k++) {
+			int i = diff.getAdded(k);
+			operationList.add(operationFactory.newOperation(value.getId(), VgiGeometryType.LINE, VgiOperationType.OP_ADD_NODE, value.getUid(), value.getUsername(), value.getTimestamp(), (short)value.getVersion(), (int)value.getChangesetId(), null, "", "", valueNodeRefs.get(i), i));
 		}
 		
 		/** PHASE C: Find OpReorderNode operations */
-		for (int position = 0; position < currentNodeRefs.size(); position++) {
-			if (!currentNodeRefs.get(position).equals(valueNodeRefs.get(position))) {
-				/** Find next valueNodeRef in remaining currentNodeRefs */
-				for (int i=position+1; i<currentNodeRefs.size(); i++) {
-					if (currentNodeRefs.get(i).equals(valueNodeRefs.get(position))) {
-						operationList.add(operationFactory.newOperation(value.getId(), VgiGeometryType.LINE, VgiOperationType.OP_REORDER_NODE, value.getUid(), value.getUsername(), value.getTimestamp(), (short)value.getVersion(), (int)value.getChangesetId(), null, "", "", i, position));
-						/** Reorder node within node list */
-						currentNodeRefs.remove(i);
-						currentNodeRefs.add(position, valueNodeRefs.get(position));
-						break;
-					}
-				}
-			}
+		for (int k=0; k<diff.getReorderCount(); k++) {
+			operationList.add(operationFactory.newOperation(value.getId(), VgiGeometryType.LINE, VgiOperationType.OP_REORDER_NODE, value.getUid(), value.getUsername(), value.getTimestamp(), (short)value.getVersion(), (int)value.getChangesetId(), null, "", "", diff.getReorderFrom(k), diff.getReorderTo(k)));
 		}
 		
 		return operationList;
 	}
+	
+	/**
+	 * @param nodeRefs node refs
+	 * @param symbols symbols of the node refs; new refs are added
+	 * @return symbol of each node ref
+	 */
+	private static int[] toSymbols(List<Long> nodeRefs, TLongIntHashMap symbols) {
+		int[] nodeSymbols = new int[nodeRefs.size()];
+		int i = 0;
+		for (long nodeRef : nodeRefs) {
+			int symbol = symbols.get(nodeRef);
+			if (symbol == symbols.getNoEntryValue()) {
+				symbol = symbols.size();
+				symbols.put(nodeRef, symbol);
+			}
+			nodeSymbols[i++] = symbol;
+		}
+		return nodeSymbols;
+	}
 }
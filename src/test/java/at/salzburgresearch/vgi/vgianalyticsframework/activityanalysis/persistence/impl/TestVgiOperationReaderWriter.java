@@ -105,4 +105,47 @@ public class TestVgiOperationReaderWriter {
 		Assert.assertEquals(11, operationRead.getRefId());
 		Assert.assertEquals(12, operationRead.getPosition());
 	}
+	
+	@Test
+	public void testIndexOfFullOperationBatch() {
+		/** Feature with exactly one batch of operations (100) */
+		List<IVgiOperation> operations = new ArrayList<IVgiOperation>();
+		for (int i=0; i<100; i++) {
+			operations.add(operationFactory.newOperation(9, VgiGeometryType.POINT,
+					(i == 0) ? VgiOperationType.OP_CREATE_NODE : VgiOperationType.OP_MODIFY_COORDINATE, 123, "USER",
+					new Date(1000000l + i * 1000l), (short) (i + 1), 345, new Coordinate(13.4 + i * 0.001, 46.7), null, null, -1, -1));
+		}
+		IVgiFeature feature = new VgiFeatureImpl(operations);
+		feature.setOid(9l);
+		feature.setVgiGeometryType(VgiGeometryType.POINT);
+		File directory = null;
+		try {
+			directory = folder.newFolder();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		
+		vgiOperationPbfWriter.initializePbfWriterToAppend(directory);
+		vgiOperationPbfWriter.writePbfFeature(feature);
+		vgiOperationPbfWriter.terminatePbfWriter();
+		
+		/** No empty (unindexed) container is written after the full batch */
+		List<VgiOperationPbfIndex.Entry> index = VgiOperationPbfIndex.read(new File(directory, "operation_n_1.pbf"));
+		Assert.assertNotNull(index);
+		Assert.assertEquals(1, index.size());
+		Assert.assertEquals(9, index.get(0).getMinOid());
+		Assert.assertEquals(9, index.get(0).getMaxOid());
+		
+		/** Read operations */
+		pipeline.setPbfDataFolder(directory);
+		pipeline.setFilterNodeId(null);
+		pipeline.setFilterWayId(null);
+		pipeline.setFilterRelationId(null);
+		pipeline.start();
+		
+		List<IVgiFeature> featureList = ((ReadAllFeaturesConsumer)pipeline.getConsumers().get(0)).getFeatureList();
+		
+		Assert.assertEquals(1, featureList.size());
+		Assert.assertEquals(100, featureList.get(0).getOperationList().size());
+	}
 }
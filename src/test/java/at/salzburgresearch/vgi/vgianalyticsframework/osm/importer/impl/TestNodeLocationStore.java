@@ -0,0 +1,262 @@
+/** Copyright 2017, Simon Gröchenig, Salzburg Research Forschungsgesellschaft m.b.H.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package at.salzburgresearch.vgi.vgianalyticsframework.osm.importer.impl;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.ApplicationContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.osm.impl.Node;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.osm.impl.OsmElementType;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.osm.impl.Way;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiFeature;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiModelFactory;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiOperation;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiFeatureImpl;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiGeometryType;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiOperationBatch;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiOperationType;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.pipeline.IVgiPipeline;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.pipeline.IVgiPipelineSettings;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.pipeline.consumer.impl.ReadAllFeaturesConsumer;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:/application-context-osm-op-generator.xml"})
+public class TestNodeLocationStore {
+	
+	@Autowired
+	private ApplicationContext ctx;
+	
+	@Autowired
+	@Qualifier("vgiModelFactory")
+	private IVgiModelFactory operationFactory;
+	
+	@Rule
+	public TemporaryFolder folder= new TemporaryFolder();
+	
+	@Test
+	public void testAddAndGetNode() throws IOException {
+		File directory = folder.newFolder();
+		
+		NodeLocationStore store = NodeLocationStore.open(directory);
+		store.add(newNode(5, 1200000000000l, 1300000000000l));
+		/** Node without coordinate */
+		store.add(newFeature(6, operationFactory.newOperation(6, VgiGeometryType.POINT, VgiOperationType.OP_ADD_TAG,
+				13, "USER", new Date(1200000000000l), (short) 1, 23, null, "k", "v", -1, -1)));
+		store.add(newNode(8, 1250000000000l));
+		
+		/** Read before the store is closed */
+		assertNode(store.getNode(5, new VgiOperationBatch(16), Long.MAX_VALUE), 5, 1200000000000l, 1300000000000l);
+		store.close();
+		
+		/** Read after the store has been reopened */
+		store = NodeLocationStore.open(directory);
+		VgiOperationBatch batch = new VgiOperationBatch(16);
+		
+		IVgiFeature node = store.getNode(5, batch, Long.MAX_VALUE);
+		assertNode(node, 5, 1200000000000l, 1300000000000l);
+		
+		IVgiOperation operation = node.getOperationList().get(1);
+		Assert.assertEquals(VgiOperationType.OP_MODIFY_COORDINATE, operation.getVgiOperationType());
+		Assert.assertEquals(12, operation.getUid());
+		Assert.assertEquals(22, operation.getChangesetid());
+		Assert.assertEquals(2, operation.getVersion());
+		Assert.assertEquals(13.2, operation.getCoordinate().x, 1e-7);
+		Assert.assertEquals(47.2, operation.getCoordinate().y, 1e-7);
+		
+		assertNode(store.getNode(8, batch, Long.MAX_VALUE), 8, 1250000000000l);
+		Assert.assertNull(store.getNode(6, batch, Long.MAX_VALUE));
+		Assert.assertNull(store.getNode(7, batch, Long.MAX_VALUE));
+		store.close();
+	}
+	
+	@Test
+	public void testFilterTimestamp() throws IOException {
+		File directory = folder.newFolder();
+		
+		NodeLocationStore store = NodeLocationStore.open(directory);
+		store.add(newNode(5, 1200000000000l, 1300000000000l));
+		
+		/** Operations at or after the filter timestamp are skipped */
+		assertNode(store.getNode(5, new VgiOperationBatch(16), 1300000000001l), 5, 1200000000000l, 1300000000000l);
+		assertNode(store.getNode(5, new VgiOperationBatch(16), 1300000000000l), 5, 1200000000000l);
+		Assert.assertNull(store.getNode(5, new VgiOperationBatch(16), 1200000000000l));
+		store.close();
+	}
+	
+	@Test
+	public void testMultipleImports() throws IOException {
+		File directory = folder.newFolder();
+		
+		NodeLocationStore store = NodeLocationStore.open(directory);
+		store.add(newNode(5, 1200000000000l));
+		store.add(newNode(9, 1200000000000l));
+		store.close();
+		
+		/** The second import starts with lower IDs again */
+		store = NodeLocationStore.open(directory);
+		store.add(newNode(5, 1300000000000l));
+		store.add(newNode(7, 1300000000000l));
+		store.close();
+		
+		/** An import without nodes does not leave an index file */
+		store = NodeLocationStore.open(directory);
+		store.close();
+		
+		Assert.assertTrue(new File(directory, "nodeLocations_1.idx").exists());
+		Assert.assertTrue(new File(directory, "nodeLocations_2.idx").exists());
+		Assert.assertFalse(new File(directory, "nodeLocations_3.idx").exists());
+		Assert.assertTrue(NodeLocationStore.isValid(directory));
+		
+		/** Operations of all imports are returned in import order */
+		store = NodeLocationStore.open(directory);
+		VgiOperationBatch batch = new VgiOperationBatch(16);
+		assertNode(store.getNode(5, batch, Long.MAX_VALUE), 5, 1200000000000l, 1300000000000l);
+		assertNode(store.getNode(7, batch, Long.MAX_VALUE), 7, 1300000000000l);
+		assertNode(store.getNode(9, batch, Long.MAX_VALUE), 9, 1200000000000l);
+		store.close();
+	}
+	
+	@Test
+	public void testUnsortedNodes() throws IOException {
+		File directory = folder.newFolder();
+		
+		NodeLocationStore store = NodeLocationStore.open(directory);
+		store.add(newNode(5, 1200000000000l));
+		try {
+			store.add(newNode(3, 1200000000000l));
+			Assert.fail("Unsorted node has been added");
+		} catch (IOException e) {
+			/** expected */
+		}
+		store.close();
+	}
+	
+	/**
+	 * If nodes are not sorted, the data handler deletes the node location
+	 * store and reads the way node coordinates using a VGI pipeline
+	 */
+	@Test
+	public void testUnsortedNodesFallBackToPipeline() throws IOException {
+		File directory = folder.newFolder();
+		File settingsFile = folder.newFile("settings.xml");
+		Writer writer = new FileWriter(settingsFile);
+		writer.write("<settings><general settingName=\"Test\" pbfDataFolder=\"" + directory.getAbsolutePath() + "\""
+				+ " filterTimestamp=\"2020-01-01T00:00:00Z\" /><filterTags /></settings>");
+		writer.close();
+		
+		IVgiPipelineSettings settings = ctx.getBean("vgiPipelineSettings", IVgiPipelineSettings.class);
+		Assert.assertTrue(settings.loadSettings(settingsFile));
+		
+		VgiOperationGeneratorDataHandlerImpl dataHandler = ctx.getBean("vgiOperationGeneratorDataHandler", VgiOperationGeneratorDataHandlerImpl.class);
+		dataHandler.beforeProcessing();
+		/** Node 2 is out of order */
+		dataHandler.process(new Node(OsmElementType.NODE, 1, 11, "USER", new Date(1200000000000l), 21, (short) 1, true,
+				new HashMap<String, String>(), new Coordinate(13.1, 47.1)));
+		dataHandler.process(new Node(OsmElementType.NODE, 3, 11, "USER", new Date(1200000000000l), 21, (short) 1, true,
+				new HashMap<String, String>(), new Coordinate(13.3, 47.3)));
+		dataHandler.process(new Node(OsmElementType.NODE, 2, 11, "USER", new Date(1200000000000l), 21, (short) 1, true,
+				new HashMap<String, String>(), new Coordinate(13.2, 47.2)));
+		Assert.assertTrue(NodeLocationStore.exists(directory));
+		
+		dataHandler.process(new Way(OsmElementType.WAY, 1, 11, "USER", new Date(1300000000000l), 22, (short) 1, true,
+				new HashMap<String, String>(), new ArrayList<Long>(Arrays.asList(1l, 3l))));
+		dataHandler.afterProcessing();
+		Assert.assertFalse(NodeLocationStore.exists(directory));
+		
+		/** Read way */
+		IVgiPipeline pipeline = ctx.getBean("getFeaturesPipeline", IVgiPipeline.class);
+		pipeline.setPbfDataFolder(directory);
+		pipeline.setFilterNodeId(null);
+		pipeline.setFilterWayId(null);
+		pipeline.setFilterRelationId(null);
+		pipeline.start();
+		
+		IVgiFeature way = null;
+		for (IVgiFeature feature : ((ReadAllFeaturesConsumer)pipeline.getConsumers().get(0)).getFeatureList()) {
+			if (feature.getVgiGeometryType().equals(VgiGeometryType.LINE)) way = feature;
+		}
+		Assert.assertNotNull(way);
+		
+		List<IVgiOperation> addNodeOperations = new ArrayList<IVgiOperation>();
+		for (IVgiOperation operation : way.getOperationList()) {
+			if (operation.getVgiOperationType().equals(VgiOperationType.OP_ADD_NODE)) addNodeOperations.add(operation);
+		}
+		Assert.assertEquals(2, addNodeOperations.size());
+		Assert.assertEquals(1, addNodeOperations.get(0).getRefId());
+		Assert.assertEquals(13.1, addNodeOperations.get(0).getCoordinate().x, 1e-7);
+		Assert.assertEquals(47.1, addNodeOperations.get(0).getCoordinate().y, 1e-7);
+		Assert.assertEquals(3, addNodeOperations.get(1).getRefId());
+		Assert.assertEquals(13.3, addNodeOperations.get(1).getCoordinate().x, 1e-7);
+		Assert.assertEquals(47.3, addNodeOperations.get(1).getCoordinate().y, 1e-7);
+	}
+	
+	/**
+	 * @return node with a coordinate operation (version 1, 2, ...) at each timestamp
+	 */
+	private IVgiFeature newNode(long oid, long... timestamps) {
+		List<IVgiOperation> operations = new ArrayList<IVgiOperation>();
+		for (int i = 0; i < timestamps.length; i++) {
+			VgiOperationType type = (i == 0) ? VgiOperationType.OP_CREATE_NODE : VgiOperationType.OP_MODIFY_COORDINATE;
+			operations.add(operationFactory.newOperation(oid, VgiGeometryType.POINT, type, 11 + i, "USER",
+					new Date(timestamps[i]), (short) (i + 1), 21 + i, new Coordinate(13.1 + i * 0.1, 47.1 + i * 0.1),
+					null, null, -1, -1));
+			/** Operations without coordinate are not stored */
+			operations.add(operationFactory.newOperation(oid, VgiGeometryType.POINT, VgiOperationType.OP_ADD_TAG,
+					11 + i, "USER", new Date(timestamps[i]), (short) (i + 1), 21 + i, null, "k", "v" + i, -1, -1));
+		}
+		return newFeature(oid, operations.toArray(new IVgiOperation[operations.size()]));
+	}
+	
+	private static IVgiFeature newFeature(long oid, IVgiOperation... operations) {
+		IVgiFeature feature = new VgiFeatureImpl(new ArrayList<IVgiOperation>(Arrays.asList(operations)));
+		feature.setOid(oid);
+		feature.setVgiGeometryType(VgiGeometryType.POINT);
+		return feature;
+	}
+	
+	private static void assertNode(IVgiFeature node, long oid, long... timestamps) {
+		Assert.assertNotNull(node);
+		Assert.assertEquals(oid, node.getOid());
+		Assert.assertEquals(timestamps.length, node.getOperationList().size());
+		for (int i = 0; i < timestamps.length; i++) {
+			IVgiOperation operation = node.getOperationList().get(i);
+			Assert.assertEquals(oid, operation.getOid());
+			Assert.assertEquals(timestamps[i], operation.getTimestamp().getTime());
+			Assert.assertNotNull(operation.getCoordinate());
+		}
+	}
+}
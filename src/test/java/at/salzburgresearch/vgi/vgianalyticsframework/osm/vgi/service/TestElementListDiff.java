@@ -0,0 +1,274 @@
+/** Copyright 2017, Simon Gröchenig, Salzburg Research Forschungsgesellschaft m.b.H.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package at.salzburgresearch.vgi.vgianalyticsframework.osm.vgi.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.osm.impl.OsmElementType;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.osm.impl.Relation;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.osm.impl.RelationMember;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.osm.impl.Way;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.IVgiOperation;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiModelFactoryImpl;
+import at.salzburgresearch.vgi.vgianalyticsframework.activityanalysis.model.vgi.impl.VgiOperationType;
+import at.salzburgresearch.vgi.vgianalyticsframework.osm.vgi.service.impl.ElementListDiff;
+import at.salzburgresearch.vgi.vgianalyticsframework.osm.vgi.service.impl.VgiOperationGeneratorOsmRelationImpl;
+import at.salzburgresearch.vgi.vgianalyticsframework.osm.vgi.service.impl.VgiOperationGeneratorOsmWayImpl;
+
+/**
+ * Tests the remove, add and reorder steps of the element list diff and the
+ * operations of the way and relation generators against hand-computed cases
+ */
+public class TestElementListDiff {
+	
+	@Test
+	public void testFullReversal() {
+		ElementListDiff diff = new ElementListDiff(new int[] {0, 1, 2, 3}, new int[] {3, 2, 1, 0}, 4, false);
+		
+		Assert.assertEquals(0, diff.getRemovedCount());
+		Assert.assertEquals(0, diff.getAddedCount());
+		
+		/** [0,1,2,3] -> [3,0,1,2] -> [3,2,0,1] -> [3,2,1,0] */
+		assertReorders(diff, new int[] {3, 3, 3}, new int[] {0, 1, 2});
+		assertRetained(diff, new int[] {-1, -1, -1, 0});
+	}
+	
+	@Test
+	public void testEmptyToN() {
+		ElementListDiff diff = new ElementListDiff(new int[0], new int[] {0, 1, 0}, 2, false);
+		
+		Assert.assertEquals(0, diff.getRemovedCount());
+		assertAdded(diff, new int[] {0, 1, 2});
+		Assert.assertEquals(0, diff.getReorderCount());
+		assertRetained(diff, new int[] {-1, -1, -1});
+	}
+	
+	@Test
+	public void testNToEmpty() {
+		ElementListDiff diff = new ElementListDiff(new int[] {0, 1, 0}, new int[0], 2, false);
+		
+		assertRemoved(diff, new int[] {2, 1, 0});
+		Assert.assertEquals(0, diff.getAddedCount());
+		Assert.assertEquals(0, diff.getReorderCount());
+	}
+	
+	@Test
+	public void testDuplicates() {
+		/** the last occurrences of 0 are retained: [0,1,0,2] -> [0,0,2] -> [0,2,0] */
+		ElementListDiff diff = new ElementListDiff(new int[] {0, 1, 0, 2}, new int[] {0, 2, 0}, 3, false);
+		
+		assertRemoved(diff, new int[] {1});
+		Assert.assertEquals(0, diff.getAddedCount());
+		assertReorders(diff, new int[] {2}, new int[] {1});
+		assertRetained(diff, new int[] {0, -1, 2});
+	}
+	
+	@Test
+	public void testAddFirstOccurrences() {
+		/** [0] -> [0,1,0] (the old element is the last 0) */
+		ElementListDiff diff = new ElementListDiff(new int[] {0}, new int[] {0, 1, 0}, 2, false);
+		
+		Assert.assertEquals(0, diff.getRemovedCount());
+		assertAdded(diff, new int[] {0, 1});
+		Assert.assertEquals(0, diff.getReorderCount());
+		assertRetained(diff, new int[] {-1, -1, 0});
+	}
+	
+	@Test
+	public void testAddLastOccurrences() {
+		/** [0] -> [0,1,0] (the old element is the first 0) */
+		ElementListDiff diff = new ElementListDiff(new int[] {0}, new int[] {0, 1, 0}, 2, true);
+		
+		Assert.assertEquals(0, diff.getRemovedCount());
+		assertAdded(diff, new int[] {1, 2});
+		Assert.assertEquals(0, diff.getReorderCount());
+		assertRetained(diff, new int[] {0, -1, -1});
+	}
+	
+	@Test
+	public void testWayFullReversal() {
+		List<IVgiOperation> operations = generateWayOperations(Arrays.asList(1l, 2l, 3l, 4l), Arrays.asList(4l, 3l, 2l, 1l));
+		
+		Assert.assertEquals(3, operations.size());
+		for (int i = 0; i < 3; i++) {
+			assertOperation(operations.get(i), VgiOperationType.OP_REORDER_NODE, 3, i);
+		}
+	}
+	
+	@Test
+	public void testWayDuplicates() {
+		List<IVgiOperation> operations = generateWayOperations(Arrays.asList(1l, 2l, 1l, 3l), Arrays.asList(1l, 3l, 1l));
+		
+		Assert.assertEquals(2, operations.size());
+		assertOperation(operations.get(0), VgiOperationType.OP_REMOVE_NODE, 2, 1);
+		assertOperation(operations.get(1), VgiOperationType.OP_REORDER_NODE, 2, 1);
+	}
+	
+	@Test
+	public void testWayEmptyToN() {
+		List<IVgiOperation> operations = generateWayOperations(new ArrayList<Long>(), Arrays.asList(1l, 2l, 1l));
+		
+		Assert.assertEquals(3, operations.size());
+		assertOperation(operations.get(0), VgiOperationType.OP_ADD_NODE, 1, 0);
+		assertOperation(operations.get(1), VgiOperationType.OP_ADD_NODE, 2, 1);
+		assertOperation(operations.get(2), VgiOperationType.OP_ADD_NODE, 1, 2);
+	}
+	
+	@Test
+	public void testWayNToEmpty() {
+		List<IVgiOperation> operations = generateWayOperations(Arrays.asList(1l, 2l, 1l), new ArrayList<Long>());
+		
+		Assert.assertEquals(3, operations.size());
+		assertOperation(operations.get(0), VgiOperationType.OP_REMOVE_NODE, 1, 2);
+		assertOperation(operations.get(1), VgiOperationType.OP_REMOVE_NODE, 2, 1);
+		assertOperation(operations.get(2), VgiOperationType.OP_REMOVE_NODE, 1, 0);
+	}
+	
+	@Test
+	public void testRelationAddLastOccurrences() {
+		List<RelationMember> members1 = new ArrayList<RelationMember>();
+		members1.add(new RelationMember(1, OsmElementType.NODE, "a"));
+		
+		List<RelationMember> members2 = new ArrayList<RelationMember>();
+		members2.add(new RelationMember(1, OsmElementType.NODE, "b"));
+		members2.add(new RelationMember(2, OsmElementType.NODE, ""));
+		members2.add(new RelationMember(1, OsmElementType.NODE, "c"));
+		
+		List<IVgiOperation> operations = generateRelationOperations(members1, members2);
+		
+		/** the old member stays at position 0, so its role is modified there */
+		Assert.assertEquals(3, operations.size());
+		assertOperation(operations.get(0), VgiOperationType.OP_ADD_MEMBER, 2, 1);
+		assertOperation(operations.get(1), VgiOperationType.OP_ADD_MEMBER, 1, 2);
+		Assert.assertEquals("c", operations.get(1).getValue());
+		assertOperation(operations.get(2), VgiOperationType.OP_MODIFY_ROLE, -1, 0);
+		Assert.assertEquals("b", operations.get(2).getValue());
+	}
+	
+	@Test
+	public void testRelationFullReversal() {
+		/** node 1 and way 1 are different members */
+		List<RelationMember> members1 = new ArrayList<RelationMember>();
+		members1.add(new RelationMember(1, OsmElementType.NODE, "outer"));
+		members1.add(new RelationMember(1, OsmElementType.WAY, ""));
+		members1.add(new RelationMember(2, OsmElementType.NODE, ""));
+		
+		List<RelationMember> members2 = new ArrayList<RelationMember>();
+		members2.add(new RelationMember(2, OsmElementType.NODE, ""));
+		members2.add(new RelationMember(1, OsmElementType.WAY, ""));
+		members2.add(new RelationMember(1, OsmElementType.NODE, "inner"));
+		
+		List<IVgiOperation> operations = generateRelationOperations(members1, members2);
+		
+		Assert.assertEquals(3, operations.size());
+		assertOperation(operations.get(0), VgiOperationType.OP_REORDER_MEMBER, 2, 0);
+		assertOperation(operations.get(1), VgiOperationType.OP_REORDER_MEMBER, 2, 1);
+		assertOperation(operations.get(2), VgiOperationType.OP_MODIFY_ROLE, -1, 2);
+		Assert.assertEquals("inner", operations.get(2).getValue());
+	}
+	
+	@Test
+	public void testRelationEmptyToN() {
+		List<RelationMember> members2 = new ArrayList<RelationMember>();
+		members2.add(new RelationMember(1, OsmElementType.NODE, ""));
+		members2.add(new RelationMember(1, OsmElementType.WAY, ""));
+		members2.add(new RelationMember(1, OsmElementType.NODE, ""));
+		
+		List<IVgiOperation> operations = generateRelationOperations(new ArrayList<RelationMember>(), members2);
+		
+		Assert.assertEquals(3, operations.size());
+		assertOperation(operations.get(0), VgiOperationType.OP_ADD_MEMBER, 1, 0);
+		Assert.assertEquals("n", operations.get(0).getKey());
+		assertOperation(operations.get(1), VgiOperationType.OP_ADD_MEMBER, 1, 1);
+		Assert.assertEquals("w", operations.get(1).getKey());
+		assertOperation(operations.get(2), VgiOperationType.OP_ADD_MEMBER, 1, 2);
+	}
+	
+	@Test
+	public void testRelationNToEmpty() {
+		List<RelationMember> members1 = new ArrayList<RelationMember>();
+		members1.add(new RelationMember(1, OsmElementType.NODE, ""));
+		members1.add(new RelationMember(2, OsmElementType.NODE, ""));
+		members1.add(new RelationMember(1, OsmElementType.NODE, ""));
+		
+		List<IVgiOperation> operations = generateRelationOperations(members1, new ArrayList<RelationMember>());
+		
+		Assert.assertEquals(3, operations.size());
+		assertOperation(operations.get(0), VgiOperationType.OP_REMOVE_MEMBER, 0, 2);
+		assertOperation(operations.get(1), VgiOperationType.OP_REMOVE_MEMBER, 0, 1);
+		assertOperation(operations.get(2), VgiOperationType.OP_REMOVE_MEMBER, 0, 0);
+	}
+	
+	private static List<IVgiOperation> generateWayOperations(List<Long> nodeList1, List<Long> nodeList2) {
+		Way w1 = new Way(1);
+		w1.setWayNodes(new ArrayList<Long>(nodeList1));
+		Way w2 = new Way(1);
+		w2.setWayNodes(new ArrayList<Long>(nodeList2));
+		
+		VgiOperationGeneratorOsmWayImpl opGenerator = new VgiOperationGeneratorOsmWayImpl(new VgiModelFactoryImpl());
+		return opGenerator.generateWayOperations(w2, w1);
+	}
+	
+	private static List<IVgiOperation> generateRelationOperations(List<RelationMember> memberList1, List<RelationMember> memberList2) {
+		Relation r1 = new Relation(1);
+		r1.setMembers(memberList1);
+		Relation r2 = new Relation(1);
+		r2.setMembers(memberList2);
+		
+		VgiOperationGeneratorOsmRelationImpl opGenerator = new VgiOperationGeneratorOsmRelationImpl(new VgiModelFactoryImpl());
+		return opGenerator.generateRelationOperations(r2, r1);
+	}
+	
+	private static void assertOperation(IVgiOperation operation, VgiOperationType type, long refId, int position) {
+		Assert.assertEquals(type, operation.getVgiOperationType());
+		Assert.assertEquals(refId, operation.getRefId());
+		Assert.assertEquals(position, operation.getPosition());
+	}
+	
+	private static void assertRemoved(ElementListDiff diff, int[] removed) {
+		Assert.assertEquals(removed.length, diff.getRemovedCount());
+		for (int k = 0; k < removed.length; k++) {
+			Assert.assertEquals(removed[k], diff.getRemoved(k));
+		}
+	}
+	
+	private static void assertAdded(ElementListDiff diff, int[] added) {
+		Assert.assertEquals(added.length, diff.getAddedCount());
+		for (int k = 0; k < added.length; k++) {
+			Assert.assertEquals(added[k], diff.getAdded(k));
+		}
+	}
+	
+	private static void assertReorders(ElementListDiff diff, int[] from, int[] to) {
+		Assert.assertEquals(from.length, diff.getReorderCount());
+		for (int k = 0; k < from.length; k++) {
+			Assert.assertEquals(from[k], diff.getReorderFrom(k));
+			Assert.assertEquals(to[k], diff.getReorderTo(k));
+		}
+	}
+	
+	private static void assertRetained(ElementListDiff diff, int[] retainedOldIndex) {
+		for (int position = 0; position < retainedOldIndex.length; position++) {
+			Assert.assertEquals(retainedOldIndex[position], diff.getRetainedOldIndex(position));
+		}
+	}
+}